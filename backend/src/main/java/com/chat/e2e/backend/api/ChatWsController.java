@@ -2,16 +2,20 @@ package com.chat.e2e.backend.api;
 
 import com.chat.e2e.backend.api.dto.DTOs;
 import com.chat.e2e.backend.chat.MessageService;
+import com.chat.e2e.backend.realtime.DeviceSessionRegistry;
+import com.chat.e2e.backend.realtime.InboxStreamService;
+import com.chat.e2e.backend.realtime.OutboundQueues;
 import com.chat.e2e.backend.realtime.UserDevicePrincipal;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import lombok.RequiredArgsConstructor;
+import org.springframework.messaging.handler.annotation.Header;
 import org.springframework.messaging.handler.annotation.MessageMapping;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.stereotype.Controller;
 
 import java.security.Principal;
-import java.time.Instant;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 @Controller
@@ -20,6 +24,7 @@ public class ChatWsController {
 
     private final MessageService messageService;
     private final SimpMessagingTemplate broker;
+    private final InboxStreamService inboxStreams;
 
     @MessageMapping("/messages.send") // Client -> /app/messages.send
     public void send(DTOs.SendWsMessage msg, Principal principal) throws JsonProcessingException {
@@ -27,31 +32,47 @@ public class ChatWsController {
 
         // reuse deiner HTTP-Logik:
         DTOs.SendMessageRequest req = new DTOs.SendMessageRequest(
-                msg.contentType(), msg.epoch(), msg.counter(), msg.ciphertextB64()
+                msg.contentType(), msg.epoch(), msg.counter(), msg.ciphertextB64(), msg.clientMessageId()
         );
         DTOs.SendMessageResponse resp = messageService.send(msg.conversationId(), p.userId(), p.deviceId(), req);
 
-        // Ack nur an Sender (per-User Queue)
-        broker.convertAndSendToUser(
-                p.userId().toString(),
-                "/queue/device",
+        // Ack nur an das sendende Gerät (Client abonniert /user/queue/device)
+        broker.convertAndSend(
+                DeviceSessionRegistry.destination(p.deviceId(), "/queue/device"),
                 new DTOs.SendAckEvent(resp.messageId(), msg.conversationId(), resp.createdAt(), resp.deliveries())
         );
 
-        // Deliveries an Empfänger (falls du userId pro Device brauchst, gib sie aus Service zurück)
-        // Beispiel: MessageService könnte dir Liste (deviceId -> userId) liefern:
-        // List<Recipient> recipients = resp.recipients();
-        // Fürs Beispiel verschicken wir generisch an /topic/device.{id}
-        // (Besser: convertAndSendToUser(userId, "/queue/device", ...))
+        // Deliveries an die Empfänger pusht DeliveryPushService nach dem Commit (/user/queue/deliveries.{deviceId})
     }
 
     @MessageMapping("/messages.read")
     public void read(DTOs.ReadWsMessage msg, Principal principal) {
         var p = (UserDevicePrincipal) principal;
-        messageService.markRead(p.deviceId(), msg.messageId());
+        // Broadcast READ an andere Participant-Devices (hier exemplarisch Topic), nur wenn der Lesestand vorrückt;
+        // bei langsamen Lesern ersetzt der neuere Lesestand eines Geräts den noch wartenden (OutboundQueues)
+        messageService.markRead(p.deviceId(), msg.messageId())
+                .ifPresent(ev -> broker.convertAndSend("/topic/conversation." + ev.conversationId(), ev,
+                        Map.of(OutboundQueues.COALESCE_HEADER, "read." + ev.byDeviceId())));
+    }
+
+    // Reconnect-Catch-up: Client abonniert /user/queue/inbox.{deviceId} und öffnet dann den Stream
+    @MessageMapping("/inbox.open")
+    public void openInbox(DTOs.InboxOpenWsMessage msg, Principal principal,
+                          @Header("simpSessionId") String sessionId) {
+        var p = (UserDevicePrincipal) principal;
+        inboxStreams.open(sessionId, p.userId(), p.deviceId(), msg.sinceCursor(), msg.credits());
+    }
+
+    // kumulatives Ack bis zum Cursor des zuletzt verarbeiteten Frames
+    @MessageMapping("/inbox.ack")
+    public void ackInbox(DTOs.InboxAckWsMessage msg, Principal principal) {
+        var p = (UserDevicePrincipal) principal;
+        messageService.ackUpTo(p.deviceId(), msg.cursor());
+    }
 
-        // Broadcast READ an andere Participant-Devices (hier exemplarisch Topic):
-        broker.convertAndSend("/topic/conversation." + msg.conversationId(),
-                new DTOs.ReadEvent(msg.conversationId(), msg.messageId(), p.deviceId(), Instant.now()));
+    // weitere Credits, sobald der Client Frames verarbeitet hat
+    @MessageMapping("/inbox.credit")
+    public void grantInboxCredits(DTOs.InboxCreditWsMessage msg, @Header("simpSessionId") String sessionId) {
+        inboxStreams.grant(sessionId, msg.credits());
     }
 }
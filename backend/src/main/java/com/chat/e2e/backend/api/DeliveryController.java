@@ -18,7 +18,15 @@ public class DeliveryController {
     @PostMapping("/ack")
     public ResponseEntity<Void> ack(@RequestBody DTOs.AckRequest req, Principal principal){
         // authz.checkDeviceOwnedByPrincipal(req.deviceId(), principal)
-        messageService.ack(req.deviceId(), req.deliveryIds());
+        messageService.ack(req.deviceId(), req.deliveryIds(), req.messageIds());
+        return ResponseEntity.noContent().build();
+    }
+
+    // Kumulativ statt Liste von IDs; wird gepuffert und gebündelt geschrieben
+    @PostMapping("/ack-upto")
+    public ResponseEntity<Void> ackUpTo(@RequestBody DTOs.AckUpToRequest req, Principal principal){
+        // authz.checkDeviceOwnedByPrincipal(req.deviceId(), principal)
+        messageService.ackUpTo(req.deviceId(), req.cursor());
         return ResponseEntity.noContent().build();
     }
 
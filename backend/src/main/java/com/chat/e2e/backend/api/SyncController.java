@@ -20,4 +20,11 @@ public class SyncController {
         // principal.getName() → userHandle oder userId (je nach Security-Setup)
         return ResponseEntity.ok(conversationService.bootstrap(principal));
     }
+
+    // Delta zum Token aus bootstrap bzw. der letzten changes-Antwort
+    @GetMapping("/changes")
+    public ResponseEntity<DTOs.SyncChangesResponse> changes(@RequestParam(required = false) String since,
+                                                            Principal principal) {
+        return ResponseEntity.ok(conversationService.changes(principal, since));
+    }
 }
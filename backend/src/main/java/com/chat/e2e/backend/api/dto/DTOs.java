@@ -36,15 +36,25 @@ public class DTOs {
             String contentType,    // z.B. "text/plain"
             int epoch,
             long counter,
-            String ciphertextB64   // AEAD-Ciphertext (gleich für alle Zielgeräte)
+            String ciphertextB64,  // AEAD-Ciphertext (gleich für alle Zielgeräte)
+            UUID clientMessageId   // optional: Retries mit derselben ID liefern die ursprüngliche Antwort
     ) {}
 
-    public record SendMessageResponse(UUID messageId, Instant createdAt, int deliveries) {}
+    public record SendMessageResponse(UUID messageId, Instant createdAt, int deliveries) {} // bei chat.fanout.async: erwartete Zielgeräte
 
     public record BootstrapResponse(
             UUID userId,
             String handle,
             List<ConversationBrief> conversations,
+            List<UserDeviceBrief> devices,
+            List<UnreadResponse> unread, // pro aktivem Gerät
+            String syncToken             // Startpunkt für /v1/sync/changes
+    ) {}
+
+    // Delta-Sync: nur seit dem Token geänderte Konversationen (mit allen Mitgliedern) und eigene Geräte
+    public record SyncChangesResponse(
+            String syncToken,
+            List<ConversationBrief> conversations,
             List<UserDeviceBrief> devices
     ) {}
 
@@ -53,21 +63,34 @@ public class DTOs {
     public record MemberBrief(UUID userId, String handle) {}
     public record UserDeviceBrief(UUID deviceId, String platform, Instant revokedAt, Instant lastSeenAt) {}
 
+    // Badges: eine Zeile pro Konversation des Geräts
+    public record UnreadResponse(UUID deviceId, List<ConversationUnread> conversations) {}
+    public record ConversationUnread(UUID conversationId, long unread) {}
+
     // --- neu: Inbox Pull ---
     public record InboxResponse(List<DeliveryDTO> items, String nextCursor) {}
 
     public record DeliveryDTO(
-            UUID deliveryId,
+            UUID deliveryId,        // null bei Log-Einträgen (Fan-out-on-read) → Ack per messageId
             UUID messageId,
             UUID conversationId,
             String contentType,
-            String msgHeaderJson,   // z.B. {"epoch":7,"counter":1001}
+            String msgHeaderJson,   // z.B. {"type":"text","epoch":7,"counter":1001,"content_type":"text/plain"}
             String ciphertextB64,   // base64(bytea)
-            Instant createdAt
-    ) {}
+            Instant createdAt,
+            Long seq,               // Inbox-Sequenz des Geräts; null bei Log-Einträgen
+            Long logSeq             // Log-Sequenz der Konversation, nur bei Log-Einträgen
+    ) {
+        public DeliveryDTO(UUID deliveryId, UUID messageId, UUID conversationId, String contentType,
+                           String msgHeaderJson, String ciphertextB64, Instant createdAt, Long seq) {
+            this(deliveryId, messageId, conversationId, contentType, msgHeaderJson, ciphertextB64, createdAt, seq, null);
+        }
+    }
 
     // --- neu: Acks ---
-    public record AckRequest(UUID deviceId, List<UUID> deliveryIds) {}
+    public record AckRequest(UUID deviceId, List<UUID> deliveryIds, List<UUID> messageIds) {} // messageIds: Log-Einträge
+    public record AckUpToRequest(UUID deviceId, String cursor) {} // kumulativ: alles bis cursor (nextCursor)
+    public record InboxAckWsMessage(String cursor) {}              // STOMP /app/inbox.ack
 
     // --- neu: Read Receipts ---
     public record ReadRequest(UUID deviceId, UUID messageId) {}
@@ -83,7 +106,8 @@ public class DTOs {
             String contentType,
             int epoch,
             long counter,
-            String ciphertextB64
+            String ciphertextB64,
+            UUID clientMessageId    // optional, siehe SendMessageRequest
     ) {}
 
     // Server -> Client (nur an Sender als Bestätigung)
@@ -94,6 +118,19 @@ public class DTOs {
             int deliveries
     ) {}
     // Read-Event (Server -> andere)
-    public record ReadEvent(UUID conversationId, UUID messageId, UUID byDeviceId, Instant at) {}
+    // gelesen bis einschließlich (upToCreatedAt, upToMessageId)
+    public record ReadEvent(UUID conversationId, UUID upToMessageId, Instant upToCreatedAt, UUID byDeviceId, Instant at) {}
+
+    // --- neu: Streaming-Inbox (STOMP, Credit-basiert) ---
+    // Client -> Server: /app/inbox.open bzw. /app/inbox.credit
+    public record InboxOpenWsMessage(String sinceCursor, int credits) {}
+    public record InboxCreditWsMessage(int credits) {}
+
+    // Server -> Client: /user/queue/inbox.{deviceId}
+    public record InboxStreamFrame(
+            DeliveryDTO delivery,   // null im caughtUp-Frame
+            boolean caughtUp,       // Backlog abgearbeitet, ab jetzt nur Live-Deliveries
+            String cursor           // Position für einen späteren Reconnect
+    ) {}
 
 }
@@ -0,0 +1,132 @@
+package com.chat.e2e.backend.chat;
+
+import com.chat.e2e.backend.api.dto.DTOs;
+import com.chat.e2e.backend.cluster.ClusterBus;
+import com.chat.e2e.backend.device.DeviceRevokedEvent;
+import com.chat.e2e.backend.device.UserDevicesChangedEvent;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.*;
+
+/**
+ * Bootstrap-Stand pro User: eigene Konversationen mit Mitgliedern und eigene Geräte, samt Sync-Token.
+ * Geladen als voller Änderungsstand (SyncChangeFeed ohne Token, Mitgliedschaften über idx_conv_member_user);
+ * Ungelesen-Zähler gehören nicht dazu, die ändern sich mit jeder Nachricht.
+ * Ein veralteter Eintrag ist unkritisch: sein Token liegt vor der Änderung, /v1/sync/changes liefert sie nach.
+ * Invalidiert nach dem Commit von Mitgliedschafts- bzw. Geräteänderungen, lokal und über den ClusterBus auf allen
+ * anderen Instanzen; nach einer Bus-Unterbrechung wird alles verworfen.
+ * Hit/Miss/Eviction-Metriken unter cache.* mit Tag cache=bootstrap.
+ */
+@Component
+public class BootstrapCache {
+
+    static final String CHANNEL = "chat_bootstrap";
+    private static final String USERS = "users:";
+
+    /** Gecachter Teil der BootstrapResponse. */
+    public record Snapshot(List<DTOs.ConversationBrief> conversations,
+                           List<DTOs.UserDeviceBrief> devices,
+                           List<UUID> activeDeviceIds,
+                           String syncToken) {
+
+        boolean hasDevice(UUID deviceId) {
+            return devices.stream().anyMatch(d -> d.deviceId().equals(deviceId));
+        }
+    }
+
+    private final ConversationMemberRepository memberRepo;
+    private final SyncChangeFeed feed;
+    private final ClusterBus bus;
+    private final Cache<UUID, Snapshot> snapshots;
+
+    public BootstrapCache(ConversationMemberRepository memberRepo,
+                          SyncChangeFeed feed,
+                          BootstrapProperties props,
+                          ClusterBus bus,
+                          MeterRegistry meters) {
+        this.memberRepo = memberRepo;
+        this.feed = feed;
+        this.bus = bus;
+        this.snapshots = Caffeine.newBuilder()
+                .maximumSize(props.maxSize())
+                .expireAfterWrite(props.ttl())
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meters, snapshots, "bootstrap");
+        bus.subscribe(CHANNEL, this::apply);
+        bus.onGap(snapshots::invalidateAll);
+    }
+
+    public Snapshot get(UUID userId) {
+        return snapshots.get(userId, this::load);
+    }
+
+    public void invalidate(UUID userId) {
+        snapshots.invalidate(userId);
+    }
+
+    // neue/geänderte Mitgliedschaften: alle (auch neuen) Mitglieder der Konversation; andere Instanzen bekommen
+    // die User-Ids, statt im Empfangs-Thread des Busses selbst abzufragen
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onRoutingChanged(ConversationRoutingChangedEvent event) {
+        var members = memberRepo.findUserIdsByConversationId(event.conversationId());
+        snapshots.invalidateAll(members);
+        publishUsers(members);
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onDevicesChanged(UserDevicesChangedEvent event) {
+        invalidate(event.userId());
+        publishUsers(List.of(event.userId()));
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onDeviceRevoked(DeviceRevokedEvent event) {
+        var message = "device:" + event.deviceId();
+        apply(message);
+        bus.publish(CHANNEL, message);
+    }
+
+    // "users:<id>,<id>,…" in Stücken unter maxPayloadBytes (große Gruppen)
+    private void publishUsers(Collection<UUID> userIds) {
+        int max = bus.maxPayloadBytes();
+        var message = new StringBuilder(USERS);
+        for (UUID id : userIds) {
+            boolean first = message.length() == USERS.length();
+            if (!first && message.length() + 37 > max) {
+                bus.publish(CHANNEL, message.toString());
+                message.setLength(USERS.length());
+                first = true;
+            }
+            message.append(first ? "" : ",").append(id);
+        }
+        if (message.length() > USERS.length()) bus.publish(CHANNEL, message.toString());
+    }
+
+    // "users:<id>,<id>,…" | "device:<id>"
+    private void apply(String message) {
+        String[] parts = message.split(":", 2);
+        switch (parts[0]) {
+            case "users" -> {
+                for (var id : parts[1].split(",")) invalidate(UUID.fromString(id));
+            }
+            case "device" -> {
+                UUID deviceId = UUID.fromString(parts[1]);
+                snapshots.asMap().values().removeIf(s -> s.hasDevice(deviceId));
+            }
+            default -> throw new IllegalArgumentException("unknown bootstrap invalidation: " + message);
+        }
+    }
+
+    private Snapshot load(UUID userId) {
+        var full = feed.changes(userId, null);
+        List<UUID> active = full.devices().stream().filter(d -> d.revokedAt() == null)
+                .map(DTOs.UserDeviceBrief::deviceId).toList();
+        return new Snapshot(full.conversations(), full.devices(), active, full.syncToken());
+    }
+}
@@ -0,0 +1,18 @@
+package com.chat.e2e.backend.chat;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+
+/**
+ * chat.bootstrap.* – gecachter Bootstrap-Stand pro User (Konversationen, Mitglieder, Geräte).
+ *
+ * @param maxSize maximale Zahl gecachter User
+ * @param ttl     Sicherheitsnetz: Einträge verfallen spätestens nach dieser Zeit, auch ohne Invalidierung
+ */
+@ConfigurationProperties(prefix = "chat.bootstrap")
+public record BootstrapProperties(
+        @DefaultValue("10000") long maxSize,
+        @DefaultValue("PT10M") Duration ttl
+) {}
@@ -19,4 +19,12 @@ public class Conversation {
 
     @Column(name = "created_at", nullable = false)
     private Instant createdAt;
+
+    // Große Konversationen: Log + Cursor statt Per-Device-Deliveries
+    @Column(name = "fanout_on_read", nullable = false)
+    private boolean fanoutOnRead;
+
+    // wird nur per SQL hochgezählt (DeliveryFanout.nextLogSeq), nie aus der Entity geschrieben
+    @Column(name = "log_seq", insertable = false, updatable = false)
+    private long logSeq;
 }
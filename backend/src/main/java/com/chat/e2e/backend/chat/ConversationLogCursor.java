@@ -0,0 +1,32 @@
+package com.chat.e2e.backend.chat;
+
+import jakarta.persistence.*;
+import lombok.*;
+import java.io.Serializable;
+import java.util.UUID;
+
+/** Lese-Cursor eines Geräts im Log einer Fan-out-on-read-Konversation. */
+@Entity
+@Table(name = "conversation_log_cursor")
+@Getter @Setter
+@NoArgsConstructor @AllArgsConstructor @Builder
+@IdClass(ConversationLogCursor.ConversationLogCursorId.class)
+public class ConversationLogCursor {
+
+    @Id
+    @Column(name = "device_id", nullable = false)
+    private UUID deviceId;
+
+    @Id
+    @Column(name = "conversation_id", nullable = false)
+    private UUID conversationId;
+
+    @Column(name = "acked_seq", nullable = false)
+    private long ackedSeq;
+
+    @Data @NoArgsConstructor @AllArgsConstructor
+    public static class ConversationLogCursorId implements Serializable {
+        private UUID deviceId;
+        private UUID conversationId;
+    }
+}
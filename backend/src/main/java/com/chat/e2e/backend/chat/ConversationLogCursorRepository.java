@@ -0,0 +1,28 @@
+package com.chat.e2e.backend.chat;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.util.List;
+import java.util.UUID;
+
+public interface ConversationLogCursorRepository
+        extends JpaRepository<ConversationLogCursor, ConversationLogCursor.ConversationLogCursorId> {
+
+    // Kumulativ: bestätigte Nachricht mit Sequenz n ⇒ Cursor auf n (nur vorwärts)
+    @Modifying
+    @Query(value = """
+  update conversation_log_cursor c
+     set acked_seq = x.seq, acked_created_at = x.created_at
+    from (select distinct on (conversation_id) conversation_id, log_seq as seq, created_at
+            from message_core
+           where id in (:messageIds) and log_seq is not null
+           order by conversation_id, log_seq desc) x
+   where c.device_id = :deviceId
+     and c.conversation_id = x.conversation_id
+     and c.acked_seq < x.seq
+  """, nativeQuery = true)
+    int advance(@Param("deviceId") UUID deviceId, @Param("messageIds") List<UUID> messageIds);
+}
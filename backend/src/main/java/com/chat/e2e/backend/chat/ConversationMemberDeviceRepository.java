@@ -3,6 +3,7 @@ package com.chat.e2e.backend.chat;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
 
+import java.util.List;
 import java.util.Set;
 import java.util.UUID;
 
@@ -11,4 +12,15 @@ public interface ConversationMemberDeviceRepository extends JpaRepository<Conver
     Set<UUID> findAllDeviceIdsByConversationId(UUID conversationId);
 
     boolean existsByConversationIdAndDeviceId(UUID conversationId, UUID deviceId);
+
+    long countByConversationId(UUID conversationId);
+
+    // deviceId, userId der nicht widerrufenen Member-Devices
+    @Query("""
+      select cmd.deviceId, cmd.userId from ConversationMemberDevice cmd
+        join UserDevice d on d.id = cmd.deviceId
+      where cmd.conversationId = :conversationId
+        and d.revokedAt is null
+    """)
+    List<Object[]> findActiveDevicesByConversationId(UUID conversationId);
 }
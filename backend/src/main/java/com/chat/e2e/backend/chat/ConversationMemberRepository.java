@@ -1,9 +1,15 @@
 package com.chat.e2e.backend.chat;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
 
+import java.util.List;
 import java.util.UUID;
 
 public interface ConversationMemberRepository extends JpaRepository<ConversationMember, UUID> {
     boolean existsByConversationIdAndUserId(UUID conversationId, UUID userId);
+
+    @Query("select m.userId from ConversationMember m where m.conversationId = :conversationId")
+    List<UUID> findUserIdsByConversationId(UUID conversationId);
+
 }
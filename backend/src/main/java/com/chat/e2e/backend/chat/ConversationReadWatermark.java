@@ -0,0 +1,40 @@
+package com.chat.e2e.backend.chat;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.io.Serializable;
+import java.time.Instant;
+import java.util.UUID;
+
+/** Lesestand eines Geräts in einer Konversation: alles bis (readCreatedAt, readMessageId) gelesen. */
+@Entity
+@Table(name = "conversation_read_watermark")
+@Getter @Setter
+@NoArgsConstructor @AllArgsConstructor @Builder
+@IdClass(ConversationReadWatermark.ConversationReadWatermarkId.class)
+public class ConversationReadWatermark {
+
+    @Id
+    @Column(name = "device_id", nullable = false)
+    private UUID deviceId;
+
+    @Id
+    @Column(name = "conversation_id", nullable = false)
+    private UUID conversationId;
+
+    @Column(name = "read_created_at", nullable = false)
+    private Instant readCreatedAt;
+
+    @Column(name = "read_message_id", nullable = false)
+    private UUID readMessageId;
+
+    @Column(name = "updated_at", nullable = false)
+    private Instant updatedAt;
+
+    @Data @NoArgsConstructor @AllArgsConstructor
+    public static class ConversationReadWatermarkId implements Serializable {
+        private UUID deviceId;
+        private UUID conversationId;
+    }
+}
@@ -0,0 +1,29 @@
+package com.chat.e2e.backend.chat;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.util.UUID;
+
+public interface ConversationReadWatermarkRepository
+        extends JpaRepository<ConversationReadWatermark, ConversationReadWatermark.ConversationReadWatermarkId> {
+
+    // Ein Upsert pro Read, nur vorwärts; nur für Member-Devices der Konversation der Nachricht.
+    // 0 = Wasserstand stand schon gleich oder weiter (kein Read-Event nötig)
+    @Modifying
+    @Query(value = """
+  insert into conversation_read_watermark as w (device_id, conversation_id, read_created_at, read_message_id, updated_at)
+  select :deviceId, m.conversation_id, m.created_at, m.id, now()
+    from message_core m
+    join conversation_member_device cmd on cmd.conversation_id = m.conversation_id and cmd.device_id = :deviceId
+   where m.id = :messageId
+  on conflict (device_id, conversation_id) do update
+     set read_created_at = excluded.read_created_at,
+         read_message_id = excluded.read_message_id,
+         updated_at      = excluded.updated_at
+   where (w.read_created_at, w.read_message_id) < (excluded.read_created_at, excluded.read_message_id)
+  """, nativeQuery = true)
+    int advance(@Param("deviceId") UUID deviceId, @Param("messageId") UUID messageId);
+}
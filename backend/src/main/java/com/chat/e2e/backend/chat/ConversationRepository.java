@@ -1,7 +1,14 @@
 package com.chat.e2e.backend.chat;
 
 import org.springframework.data.jpa.repository.*;
+import org.springframework.data.repository.query.Param;
+
 import java.util.*;
 
-public interface ConversationRepository extends JpaRepository<Conversation, UUID> {}
+public interface ConversationRepository extends JpaRepository<Conversation, UUID> {
 
+    // Einweg-Schalter; bestehende Deliveries bleiben, neue Nachrichten gehen ins Log
+    @Modifying
+    @Query("update Conversation c set c.fanoutOnRead = true where c.id = :id and c.fanoutOnRead = false")
+    int enableFanoutOnRead(@Param("id") UUID id);
+}
@@ -0,0 +1,24 @@
+package com.chat.e2e.backend.chat;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Routing-Snapshot einer Konversation: Mitglieder und aktive (nicht revoked) Member-Devices.
+ *
+ * @param activeDevices deviceId → userId
+ */
+public record ConversationRoute(UUID conversationId,
+                                boolean fanoutOnRead,
+                                Set<UUID> memberUserIds,
+                                Map<UUID, UUID> activeDevices) {
+
+    public boolean isMember(UUID userId) {
+        return memberUserIds.contains(userId);
+    }
+
+    public boolean hasActiveDevice(UUID deviceId) {
+        return activeDevices.containsKey(deviceId);
+    }
+}
@@ -0,0 +1,100 @@
+package com.chat.e2e.backend.chat;
+
+import com.chat.e2e.backend.cluster.ClusterBus;
+import com.chat.e2e.backend.device.DeviceRevokedEvent;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.*;
+
+/**
+ * Begrenzter Cache der Routing-Daten pro Konversation (Mitglieder, aktive Geräte, Fan-out-Modus).
+ * Warm braucht der Send-Pfad keine lesenden Queries mehr.
+ * Invalidiert wird erst nach dem Commit der Änderung – sonst könnte ein paralleles Laden
+ * den alten Stand wieder in den Cache schreiben –, lokal und über den ClusterBus auf allen anderen Instanzen;
+ * nach einer Bus-Unterbrechung wird alles verworfen.
+ * Hit/Miss/Eviction-Metriken unter cache.* mit Tag cache=conversation.routing.
+ */
+@Component
+public class ConversationRoutingCache {
+
+    static final String CHANNEL = "chat_routing";
+
+    private final ConversationRepository conversationRepo;
+    private final ConversationMemberRepository memberRepo;
+    private final ConversationMemberDeviceRepository memberDeviceRepo;
+    private final ClusterBus bus;
+    private final Cache<UUID, ConversationRoute> routes;
+
+    public ConversationRoutingCache(ConversationRepository conversationRepo,
+                                    ConversationMemberRepository memberRepo,
+                                    ConversationMemberDeviceRepository memberDeviceRepo,
+                                    RoutingProperties props,
+                                    ClusterBus bus,
+                                    MeterRegistry meters) {
+        this.conversationRepo = conversationRepo;
+        this.memberRepo = memberRepo;
+        this.memberDeviceRepo = memberDeviceRepo;
+        this.bus = bus;
+        this.routes = Caffeine.newBuilder()
+                .maximumSize(props.maxSize())
+                .expireAfterWrite(props.ttl())
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meters, routes, "conversation.routing");
+        bus.subscribe(CHANNEL, this::apply);
+        bus.onGap(routes::invalidateAll);
+    }
+
+    /** Routing der Konversation; leer, wenn sie nicht existiert (wird nicht gecacht). */
+    public Optional<ConversationRoute> get(UUID conversationId) {
+        return Optional.ofNullable(routes.get(conversationId, this::load));
+    }
+
+    public void invalidate(UUID conversationId) {
+        routes.invalidate(conversationId);
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onRoutingChanged(ConversationRoutingChangedEvent event) {
+        invalidateAndPublish("conversation:" + event.conversationId());
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onDeviceRevoked(DeviceRevokedEvent event) {
+        invalidateAndPublish("device:" + event.deviceId());
+    }
+
+    private void invalidateAndPublish(String message) {
+        apply(message);
+        bus.publish(CHANNEL, message);
+    }
+
+    // "conversation:<id>" | "device:<id>"
+    private void apply(String message) {
+        String[] parts = message.split(":", 2);
+        UUID id = UUID.fromString(parts[1]);
+        switch (parts[0]) {
+            case "conversation" -> invalidate(id);
+            // selten: alle Konversationen verwerfen, in denen das Gerät aktiv war
+            case "device" -> routes.asMap().values().removeIf(r -> r.hasActiveDevice(id));
+            default -> throw new IllegalArgumentException("unknown routing invalidation: " + message);
+        }
+    }
+
+    private ConversationRoute load(UUID conversationId) {
+        var conv = conversationRepo.findById(conversationId).orElse(null);
+        if (conv == null) return null;
+
+        Set<UUID> members = Set.copyOf(memberRepo.findUserIdsByConversationId(conversationId));
+        Map<UUID, UUID> devices = new HashMap<>();
+        for (Object[] r : memberDeviceRepo.findActiveDevicesByConversationId(conversationId)) {
+            devices.put((UUID) r[0], (UUID) r[1]); // deviceId, userId
+        }
+        return new ConversationRoute(conversationId, conv.isFanoutOnRead(), members, Map.copyOf(devices));
+    }
+}
@@ -0,0 +1,6 @@
+package com.chat.e2e.backend.chat;
+
+import java.util.UUID;
+
+/** Mitglieder oder Member-Devices einer Konversation haben sich geändert. */
+public record ConversationRoutingChangedEvent(UUID conversationId) {}
@@ -1,11 +1,9 @@
 package com.chat.e2e.backend.chat;
 
 import com.chat.e2e.backend.api.dto.DTOs;
-import com.chat.e2e.backend.user.AppUser;
-import com.chat.e2e.backend.user.AppUserRepository;
-import com.chat.e2e.backend.device.UserDevice;
-import com.chat.e2e.backend.device.UserDeviceRepository;
+import com.chat.e2e.backend.user.IdentityDirectory;
 import lombok.RequiredArgsConstructor;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -20,8 +18,12 @@ public class ConversationService {
     private final ConversationRepository conversationRepo;
     private final ConversationMemberRepository memberRepo;
     private final ConversationMemberDeviceRepository memberDeviceRepo;
-    private final AppUserRepository userRepo;
-    private final UserDeviceRepository deviceRepo;
+    private final IdentityDirectory identities;
+    private final UnreadCounters unread;
+    private final BootstrapCache bootstrapCache;
+    private final SyncChangeFeed syncFeed;
+    private final FanoutProperties fanoutProps;
+    private final ApplicationEventPublisher events;
 
     @Transactional
     public DTOs.CreateConversationResponse createConversation(DTOs.CreateConversationRequest req) {
@@ -34,65 +36,75 @@ public class ConversationService {
         // Mitglieder anlegen
         if (req.memberHandles() != null) {
             for (var handle : req.memberHandles()) {
-                AppUser u = userRepo.findByHandle(handle)
+                var u = identities.userByHandle(handle)
                         .orElseThrow(() -> new IllegalArgumentException("user not found: " + handle));
                 var m = ConversationMember.builder()
                         .conversationId(conv.getId())
-                        .userId(u.getId())
+                        .userId(u.id())
                         .role("member")
                         .build();
                 memberRepo.save(m);
             }
         }
+        events.publishEvent(new ConversationRoutingChangedEvent(conv.getId()));
         return new DTOs.CreateConversationResponse(conv.getId(), conv.getCreatedAt());
     }
 
     @Transactional
     public void addMemberDevices(UUID conversationId, DTOs.AddMemberDevicesRequest req) {
         // Check, dass User Mitglied der Konversation ist
-        var user = userRepo.findByHandle(req.handle())
+        var user = identities.userByHandle(req.handle())
                 .orElseThrow(() -> new IllegalArgumentException("user not found"));
-        boolean isMember = memberRepo.existsByConversationIdAndUserId(conversationId, user.getId());
+        boolean isMember = memberRepo.existsByConversationIdAndUserId(conversationId, user.id());
         if (!isMember) throw new IllegalArgumentException("user not member");
 
         // Jedes Gerät muss dem User gehören
         for (UUID devId : req.deviceIds()) {
-            UserDevice d = deviceRepo.findById(devId)
+            var d = identities.device(devId)
                     .orElseThrow(() -> new IllegalArgumentException("device not found: " + devId));
-            if (!d.getUser().getId().equals(user.getId()))
+            if (!d.userId().equals(user.id()))
                 throw new IllegalArgumentException("device does not belong to user: " + devId);
 
             // Eintrag in member_device
             var cmd = ConversationMemberDevice.builder()
                     .conversationId(conversationId)
-                    .userId(user.getId())
+                    .userId(user.id())
                     .deviceId(devId)
                     .build();
             memberDeviceRepo.save(cmd);
         }
+        // Log-Cursor legt die Datenbank beim Beitritt an (V15), auch ohne Fan-out-on-read: ein späterer Wechsel
+        // muss nichts nachziehen
+        memberDeviceRepo.flush();
+
+        // Ab readThreshold Member-Devices: ein Log-Eintrag pro Nachricht statt einer Zeile pro Gerät
+        int threshold = fanoutProps.readThreshold();
+        if (threshold > 0 && memberDeviceRepo.countByConversationId(conversationId) >= threshold) {
+            conversationRepo.enableFanoutOnRead(conversationId);
+        }
+        events.publishEvent(new ConversationRoutingChangedEvent(conversationId));
     }
+
+    /**
+     * Konversationen, Mitglieder und Geräte aus dem Bootstrap-Cache (pro User, invalidiert bei Änderungen),
+     * Ungelesen-Zähler immer frisch.
+     */
     public DTOs.BootstrapResponse bootstrap(Principal principal) {
-        // Beispiel: principal.name = handle (ansonsten userId ermitteln)
-        String handle = principal.getName();
-        AppUser me = userRepo.findByHandle(handle).orElseThrow(() -> new IllegalArgumentException("user not found"));
+        // principal.name = handle
+        var me = identities.userByHandle(principal.getName()).orElseThrow(() -> new IllegalArgumentException("user not found"));
+        var snapshot = bootstrapCache.get(me.id());
 
-        // Conversations + Members
-        List<Conversation> convs = conversationRepo.findAll(); // in echt: nur die, in denen "me" Mitglied ist
-        List<DTOs.ConversationBrief> convBriefs = new ArrayList<>();
-        for (Conversation c : convs) {
-            var members = memberRepo.findAll().stream() // in echt: findByConversationId(c.getId())
-                    .filter(m -> m.getConversationId().equals(c.getId()))
-                    .map(m -> new DTOs.MemberBrief(m.getUserId(), userRepo.findById(m.getUserId()).map(AppUser::getHandle).orElse("?")))
-                    .toList();
-            convBriefs.add(new DTOs.ConversationBrief(c.getId(), c.isGroup(), c.getCreatedAt(), members));
-        }
+        // Badges aller aktiven Geräte in einer Abfrage
+        var unreadByDevice = unread.forDevices(snapshot.activeDeviceIds());
 
-        // Meine Geräte
-        List<UserDevice> devices = deviceRepo.findByUser_Id(me.getId());
-        List<DTOs.UserDeviceBrief> devBriefs = devices.stream()
-                .map(d -> new DTOs.UserDeviceBrief(d.getId(), d.getPlatform(), d.getRevokedAt(), d.getLastSeenAt()))
-                .toList();
+        return new DTOs.BootstrapResponse(me.id(), me.handle(), snapshot.conversations(), snapshot.devices(),
+                unreadByDevice, snapshot.syncToken());
+    }
 
-        return new DTOs.BootstrapResponse(me.getId(), me.getHandle(), convBriefs, devBriefs);
+    /** Seit since geänderte Konversationen/Geräte; ohne since der volle Stand. */
+    @Transactional(readOnly = true)
+    public DTOs.SyncChangesResponse changes(Principal principal, String since) {
+        var me = identities.userByHandle(principal.getName()).orElseThrow(() -> new IllegalArgumentException("user not found"));
+        return syncFeed.changes(me.id(), since);
     }
 }
@@ -0,0 +1,29 @@
+package com.chat.e2e.backend.chat;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Deliveries einer Nachricht wurden geschrieben; wird in der Transaktion publiziert
+ * und nach dem Commit an die Empfängergeräte gepusht.
+ *
+ * @param sharedCiphertextB64 Ciphertext aller Empfänger (message_payload); null bei sealed Deliveries
+ * @param sealedCiphertextB64 deviceId → eigener Ciphertext (z. B. CK-Verteilung), sonst leer
+ * @param recipients          Zielgeräte; deliveryId null bei Log-Einträgen (Fan-out-on-read)
+ */
+public record DeliveriesCommittedEvent(UUID messageId,
+                                       UUID conversationId,
+                                       String contentType,
+                                       String msgHeaderJson,
+                                       String sharedCiphertextB64,
+                                       Map<UUID, String> sealedCiphertextB64,
+                                       Instant createdAt,
+                                       List<DeliveryFanout.Recipient> recipients) {
+
+    public String ciphertextFor(UUID deviceId) {
+        String sealed = sealedCiphertextB64.get(deviceId);
+        return sealed != null ? sealed : sharedCiphertextB64;
+    }
+}
@@ -0,0 +1,304 @@
+package com.chat.e2e.backend.chat;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Component;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+
+/**
+ * Set-basierter Fan-out in message_delivery.
+ * Pro Nachricht ein INSERT … SELECT (bzw. ein JDBC-Batch bei sealed CKs) –
+ * die Anzahl der Round-Trips hängt nicht mehr von der Gruppengröße ab.
+ */
+@Component
+@RequiredArgsConstructor
+public class DeliveryFanout {
+
+    // Zielgeräte = Member-Devices der Konversation, nicht revoked, ohne Sendergerät.
+    // Der Ciphertext liegt einmalig in message_payload.
+    // Pro Zielgerät die nächste Inbox-Sequenz; die Zeilensperre in device_inbox_seq hält bis zum Commit,
+    // Sperren in device_id-Reihenfolge (kein Deadlock zwischen parallelen Fan-outs).
+    // created_at der Delivery (Partitionsschlüssel) = clock_timestamp() nach dieser Sperre ⇒ pro Gerät monoton zur seq.
+    // Ungelesen-Zähler +1, außer der Lesestand des Geräts liegt schon dahinter (verspäteter asynchroner Fan-out).
+    // RETURNING liefert die Empfänger für den Push nach dem Commit.
+    private static final String INSERT_SHARED = """
+            with targets as (
+                select cmd.device_id, cmd.user_id
+                  from conversation_member_device cmd
+                  join user_device d on d.id = cmd.device_id
+                 where cmd.conversation_id = ?
+                   and d.revoked_at is null
+                   and cmd.device_id is distinct from cast(? as uuid)
+            ), seqs as (
+                insert into device_inbox_seq as s (device_id, last_seq)
+                select device_id, 1 from targets order by device_id
+                on conflict (device_id) do update set last_seq = s.last_seq + 1
+                returning device_id, last_seq
+            ), ins as (
+                insert into message_delivery (message_id, message_created_at, recipient_device_id, seq)
+                select ?, ?, device_id, last_seq from seqs
+                returning id, recipient_device_id, seq
+            ), unread as (
+                insert into conversation_unread as u (device_id, conversation_id, unread)
+                select s.device_id, ?, 1
+                  from seqs s
+                 where not exists (select 1 from conversation_read_watermark w
+                                    where w.device_id = s.device_id and w.conversation_id = ?
+                                      and (w.read_created_at, w.read_message_id) >= (cast(? as timestamptz), cast(? as uuid)))
+                 order by s.device_id
+                on conflict (device_id, conversation_id) do update set unread = u.unread + 1
+            )
+            select ins.id, ins.recipient_device_id, t.user_id, ins.seq
+              from ins
+              join targets t on t.device_id = ins.recipient_device_id
+            """;
+
+    // Eine Zeile pro sealed CK; Gerät muss aktives Member-Device der Konversation sein
+    private static final String INSERT_SEALED = """
+            with seq as (
+                insert into device_inbox_seq as s (device_id, last_seq)
+                select cmd.device_id, 1
+                  from conversation_member_device cmd
+                  join user_device d on d.id = cmd.device_id
+                 where cmd.conversation_id = ?
+                   and cmd.device_id = ?
+                   and d.revoked_at is null
+                on conflict (device_id) do update set last_seq = s.last_seq + 1
+                returning device_id, last_seq
+            )
+            insert into message_delivery (message_id, message_created_at, recipient_device_id, ciphertext, seq)
+            select ?, ?, device_id, ?, last_seq from seq
+            """;
+
+    private static final String SELECT_SEALED_RECIPIENTS = """
+            select md.id, md.recipient_device_id, d.user_id, md.seq
+              from message_delivery md
+              join user_device d on d.id = md.recipient_device_id
+             where md.message_id = ?
+               and md.created_at >= ? -- Deliveries entstehen nach der Nachricht ⇒ nur die jüngsten Partitionen
+            """;
+
+    private static final String INSERT_TASK = """
+            insert into fanout_task (message_id, message_created_at, conversation_id, exclude_device_id)
+            values (?, ?, ?, ?)
+            """;
+
+    // Claim + Löschen in derselben Transaktion wie der Fan-out; skip locked → kein Doppel-Fan-out
+    private static final String CLAIM_TASK = """
+            delete from fanout_task
+             where message_id = (select message_id from fanout_task
+                                  where message_id = ? and parked_at is null
+                                  for update skip locked)
+            returning conversation_id, exclude_device_id, message_created_at
+            """;
+
+    // Zeilensperre auf conversation bis zum Commit ⇒ Log-Sequenzen werden in Commit-Reihenfolge sichtbar
+    private static final String NEXT_LOG_SEQ = """
+            update conversation set log_seq = log_seq + 1 where id = ? returning log_seq
+            """;
+
+    // Log-Einträge nach der Position je Konversation: Cursor des Clients (unnest), sonst acked_seq.
+    // Pro Konversation nach log_seq (Commit-Reihenfolge), created_at ab dem bestätigten Eintrag begrenzt die
+    // Partitionen von message_core. sort_at = laufendes Maximum von created_at je Konversation: verzahnt nach Zeit,
+    // ohne die log_seq-Reihenfolge einer Konversation zu verletzen (Uhren mehrerer Instanzen) – jede Seite ist
+    // pro Konversation ein lückenloses Präfix. Payloads erst nach dem Limit.
+    private static final String LOG_ENTRIES = """
+            select m.id, m.conversation_id, m.content_type, m.header::text, p.ciphertext, m.created_at,
+                   m.msg_type, m.epoch, m.counter, m.log_seq
+              from (select l.*, max(l.created_at) over (partition by l.conversation_id order by l.log_seq) as sort_at
+                      from conversation_log_cursor c
+                      left join unnest(?::uuid[], ?::bigint[]) as pos(conversation_id, log_seq)
+                             on pos.conversation_id = c.conversation_id
+                      cross join lateral (
+                            select m.id, m.conversation_id, m.content_type, m.header, m.created_at,
+                                   m.msg_type, m.epoch, m.counter, m.log_seq
+                              from message_core m
+                             where m.conversation_id = c.conversation_id
+                               and m.log_seq > greatest(c.acked_seq, pos.log_seq)
+                               and m.created_at >= coalesce(c.acked_created_at - interval '1 minute', '-infinity')
+                               and m.sender_device_id is distinct from c.device_id
+                             order by m.log_seq
+                             limit ?) l
+                     where c.device_id = ?
+                     order by sort_at, l.conversation_id, l.log_seq
+                     limit ?) m
+              join message_payload p on p.message_id = m.id and p.created_at = m.created_at
+             order by m.sort_at, m.conversation_id, m.log_seq
+            """;
+
+    private final JdbcTemplate jdbc;
+
+    /** Identischer Ciphertext (message_payload) für alle aktiven Zielgeräte – ein Statement. */
+    public List<Recipient> fanOutShared(UUID messageId, Instant messageCreatedAt, UUID conversationId, UUID excludeDeviceId) {
+        var createdAt = Timestamp.from(messageCreatedAt);
+        return jdbc.query(INSERT_SHARED, RECIPIENT, conversationId, excludeDeviceId,
+                messageId, createdAt, conversationId, conversationId, createdAt, messageId);
+    }
+
+    /** Ein Ciphertext pro Gerät (z. B. CK-Verteilung) – ein JDBC-Batch plus ein Select der Empfänger. */
+    public List<Recipient> fanOutSealed(UUID messageId, Instant messageCreatedAt, UUID conversationId,
+                                        Map<UUID, byte[]> sealedForDevice) {
+        if (sealedForDevice == null || sealedForDevice.isEmpty()) return List.of();
+
+        // nach device_id sortiert: gleiche Sperrreihenfolge wie INSERT_SHARED
+        var createdAt = Timestamp.from(messageCreatedAt);
+        List<Object[]> args = new ArrayList<>(sealedForDevice.size());
+        for (var e : new TreeMap<>(sealedForDevice).entrySet()) {
+            args.add(new Object[]{conversationId, e.getKey(), messageId, createdAt, e.getValue()});
+        }
+        int deliveries = 0;
+        for (int n : jdbc.batchUpdate(INSERT_SEALED, args)) {
+            if (n > 0) deliveries += n;
+        }
+        return deliveries == 0 ? List.of() : jdbc.query(SELECT_SEALED_RECIPIENTS, RECIPIENT, messageId, createdAt);
+    }
+
+    /** Fan-out-on-read: nächste Log-Sequenz der Konversation statt Per-Device-Zeilen. */
+    public long nextLogSeq(UUID conversationId) {
+        return jdbc.queryForObject(NEXT_LOG_SEQ, Long.class, conversationId);
+    }
+
+    /**
+     * Inbox-Einträge der Fan-out-on-read-Konversationen des Geräts (ohne eigene Nachrichten).
+     *
+     * @param after Log-Sequenz je Konversation aus dem Cursor; fehlende Konversationen ab acked_seq
+     */
+    public List<InboxEntry> logEntries(UUID deviceId, Map<UUID, Long> after, int limit) {
+        UUID[] conversations = new UUID[after.size()];
+        Long[] logSeqs = new Long[after.size()];
+        int i = 0;
+        for (var e : after.entrySet()) {
+            conversations[i] = e.getKey();
+            logSeqs[i++] = e.getValue();
+        }
+        return jdbc.query(con -> {
+            var ps = con.prepareStatement(LOG_ENTRIES);
+            ps.setArray(1, con.createArrayOf("uuid", conversations));
+            ps.setArray(2, con.createArrayOf("bigint", logSeqs));
+            ps.setInt(3, limit);
+            ps.setObject(4, deviceId);
+            ps.setInt(5, limit);
+            return ps;
+        }, (rs, n) -> {
+            String contentType = rs.getString(3);
+            String header = rs.getString(4);
+            if (header == null) {
+                header = MessageHeaderCodec.encode(rs.getString(7), rs.getObject(8, Integer.class),
+                        rs.getObject(9, Long.class), contentType);
+            }
+            return new InboxEntry(null, rs.getObject(1, UUID.class), rs.getObject(2, UUID.class), contentType,
+                    header, rs.getBytes(5), rs.getTimestamp(6).toInstant(), null, rs.getLong(10));
+        });
+    }
+
+    /* ===== asynchroner Fan-out (fanout_task) ===== */
+
+    /** Fan-out für später vormerken; Teil der Send-Transaktion. */
+    public void enqueueShared(UUID messageId, Instant messageCreatedAt, UUID conversationId, UUID excludeDeviceId) {
+        jdbc.update(INSERT_TASK, messageId, Timestamp.from(messageCreatedAt), conversationId, excludeDeviceId);
+    }
+
+    /**
+     * Offenen Task übernehmen und expandieren. Muss in einer Transaktion laufen:
+     * Task-Löschung und Deliveries werden gemeinsam committed.
+     *
+     * @return erzeugte Deliveries, 0 wenn der Task bereits erledigt oder von einem anderen Worker gesperrt ist
+     */
+    public List<Recipient> expandPending(UUID messageId) {
+        List<Object[]> claimed = jdbc.query(CLAIM_TASK, (rs, i) -> new Object[]{
+                rs.getObject(1, UUID.class), rs.getObject(2, UUID.class), rs.getTimestamp(3).toInstant()
+        }, messageId);
+        if (claimed.isEmpty()) return List.of();
+        Object[] t = claimed.get(0);
+        return fanOutShared(messageId, (Instant) t[2], (UUID) t[0], (UUID) t[1]);
+    }
+
+    /** Push-Event für eine Nachricht mit gemeinsamem Ciphertext (asynchroner Fan-out). */
+    public DeliveriesCommittedEvent sharedDeliveriesEvent(UUID messageId, List<Recipient> recipients) {
+        return jdbc.queryForObject("""
+                select m.conversation_id, m.content_type, m.header::text, m.msg_type, m.epoch, m.counter,
+                       p.ciphertext, m.created_at
+                  from message_core m
+                  join message_payload p on p.message_id = m.id and p.created_at = m.created_at
+                 where m.id = ?
+                """, (rs, i) -> {
+            String contentType = rs.getString(2);
+            String header = rs.getString(3);
+            if (header == null) {
+                header = MessageHeaderCodec.encode(rs.getString(4), rs.getObject(5, Integer.class),
+                        rs.getObject(6, Long.class), contentType);
+            }
+            return new DeliveriesCommittedEvent(messageId, rs.getObject(1, UUID.class), contentType, header,
+                    Base64.getEncoder().encodeToString(rs.getBytes(7)), Map.of(), rs.getTimestamp(8).toInstant(),
+                    recipients);
+        }, messageId);
+    }
+
+    /** Nicht geparkte Tasks, die länger als minAge warten (Crash, Pool-Überlauf, Fehler), älteste zuerst. */
+    public List<UUID> findStalledTasks(Duration minAge, int limit) {
+        return jdbc.queryForList("""
+                select message_id from fanout_task
+                 where parked_at is null
+                   and enqueued_at <= clock_timestamp() - make_interval(secs => ?)
+                 order by enqueued_at
+                 limit ?
+                """, UUID.class, (double) minAge.toMillis() / 1000, limit);
+    }
+
+    /**
+     * Fehlversuch zählen; ab maxAttempts wird der Task geparkt und nicht mehr eingeplant.
+     *
+     * @return true, wenn der Task damit geparkt ist
+     */
+    public boolean markFailed(UUID messageId, String error, int maxAttempts) {
+        List<Boolean> parked = jdbc.queryForList("""
+                update fanout_task
+                   set attempts = attempts + 1,
+                       last_error = ?,
+                       parked_at = case when attempts + 1 >= ? then clock_timestamp() end
+                 where message_id = ?
+                returning parked_at is not null
+                """, Boolean.class, error, maxAttempts, messageId);
+        return !parked.isEmpty() && parked.get(0);
+    }
+
+    public Backlog backlog() {
+        return jdbc.queryForObject("""
+                select count(*) filter (where parked_at is null),
+                       min(enqueued_at) filter (where parked_at is null),
+                       count(*) filter (where parked_at is not null)
+                  from fanout_task
+                """, (rs, i) -> {
+            Timestamp oldest = rs.getTimestamp(2);
+            return new Backlog(rs.getLong(1), oldest == null ? null : oldest.toInstant(), rs.getLong(3));
+        });
+    }
+
+    /** Offene (nicht geparkte) Tasks samt Alter des ältesten, daneben die geparkten. */
+    public record Backlog(long pending, Instant oldestEnqueuedAt, long parked) {}
+
+    /**
+     * Erzeugte Delivery mit Zielgerät, dessen User (für convertAndSendToUser) und Inbox-Sequenz;
+     * bei Log-Einträgen (Fan-out-on-read) statt seq die Log-Sequenz der Konversation.
+     */
+    public record Recipient(UUID deliveryId, UUID deviceId, UUID userId, Long seq, Long logSeq) {
+
+        public Recipient(UUID deliveryId, UUID deviceId, UUID userId, Long seq) {
+            this(deliveryId, deviceId, userId, seq, null);
+        }
+    }
+
+    private static final RowMapper<Recipient> RECIPIENT = (rs, i) -> new Recipient(
+            rs.getObject(1, UUID.class), rs.getObject(2, UUID.class), rs.getObject(3, UUID.class),
+            rs.getObject(4, Long.class));
+}
@@ -1,12 +1,16 @@
 package com.chat.e2e.backend.chat;
 
 import com.chat.e2e.backend.api.dto.DTOs;
+import jakarta.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
 
+import java.io.IOException;
 import java.security.Principal;
-import java.util.List;
+import java.time.Duration;
 import java.util.UUID;
 
 @RestController
@@ -14,16 +18,53 @@ import java.util.UUID;
 @RequiredArgsConstructor
 public class DeviceInboxController {
 
+    // Obergrenze der Binärseite (siehe inboxBinary); weiter geht es mit nextCursor
+    static final int MAX_BINARY_LIMIT = 200;
+
     private final MessageService messageService;
+    private final InboxLongPoll longPoll;
 
-    @GetMapping("/{deviceId}/inbox")
+    @GetMapping(value = "/{deviceId}/inbox", produces = MediaType.APPLICATION_JSON_VALUE)
     public ResponseEntity<DTOs.InboxResponse> inbox(@PathVariable UUID deviceId,
                                                     @RequestParam(required = false) String since,
                                                     @RequestParam(defaultValue = "50") int limit,
                                                     Principal principal) {
         // authz.checkDeviceOwnedByPrincipal(deviceId, principal) → TODO in Security-Filter/Service
-        List<DTOs.DeliveryDTO> items = messageService.fetchInbox(deviceId, since, limit);
-        String next = messageService.computeNextCursor(items, since);
-        return ResponseEntity.ok(new DTOs.InboxResponse(items, next));
+        return ResponseEntity.ok(messageService.fetchInboxPage(deviceId, since, limit));
+    }
+
+    // Long-Poll: ohne neue Deliveries antwortet der Server erst nach dem nächsten Commit für das Gerät oder nach wait Sekunden
+    @GetMapping(value = "/{deviceId}/inbox", params = "wait", produces = MediaType.APPLICATION_JSON_VALUE)
+    public DeferredResult<DTOs.InboxResponse> inboxLongPoll(@PathVariable UUID deviceId,
+                                                           @RequestParam(required = false) String since,
+                                                           @RequestParam(defaultValue = "50") int limit,
+                                                           @RequestParam("wait") long waitSeconds,
+                                                           Principal principal) {
+        return longPoll.await(deviceId, since, limit, Duration.ofSeconds(waitSeconds));
+    }
+
+    /**
+     * Gleiche Seite im Binärformat: Ciphertext ohne Base64/JSON direkt in den Response-Stream.
+     * Die Seite wird vor dem Schreiben materialisiert, nicht Zeile für Zeile aus dem ResultSet gestreamt:
+     * sie verzahnt direkte Deliveries und Fan-out-on-read-Logs (zwei Abfragen) nach createdAt, der Kopf braucht
+     * count und nextCursor, und beim Streamen hielte ein langsamer Client die DB-Verbindung bis zum letzten Byte.
+     * Speicher pro Request: höchstens MAX_BINARY_LIMIT Ciphertexte, je einmal (die byte[] der Abfrage,
+     * InboxBinaryCodec kopiert nicht); der Response-Puffer des Containers wird fortlaufend geleert.
+     */
+    @GetMapping(value = "/{deviceId}/inbox", produces = InboxBinaryCodec.MEDIA_TYPE)
+    public void inboxBinary(@PathVariable UUID deviceId,
+                            @RequestParam(required = false) String since,
+                            @RequestParam(defaultValue = "50") int limit,
+                            Principal principal,
+                            HttpServletResponse response) throws IOException {
+        var page = messageService.fetchInboxEntryPage(deviceId, since, Math.min(limit, MAX_BINARY_LIMIT));
+        response.setContentType(InboxBinaryCodec.MEDIA_TYPE);
+        InboxBinaryCodec.write(page, response.getOutputStream());
+    }
+
+    // Badges: Ungelesen pro Konversation, aus Zählern statt über die Deliveries
+    @GetMapping(value = "/{deviceId}/unread", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<DTOs.UnreadResponse> unread(@PathVariable UUID deviceId, Principal principal) {
+        return ResponseEntity.ok(messageService.unread(deviceId));
     }
 }
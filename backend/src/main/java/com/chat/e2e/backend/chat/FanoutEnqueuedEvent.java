@@ -0,0 +1,6 @@
+package com.chat.e2e.backend.chat;
+
+import java.util.UUID;
+
+/** Nachricht liegt in fanout_task; wird nach dem Commit an den FanoutWorker übergeben. */
+public record FanoutEnqueuedEvent(UUID messageId) {}
@@ -0,0 +1,26 @@
+package com.chat.e2e.backend.chat;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+
+/**
+ * chat.fanout.* – Steuerung des Delivery-Fan-outs.
+ *
+ * @param async         Per-Device-Zeilen asynchron nach dem Commit erzeugen (Sender-Ack wartet nicht)
+ * @param workers       Threads des Fan-out-Worker-Pools
+ * @param queueCapacity begrenzte Warteschlange des Pools; Überlauf holt der Poller aus fanout_task nach
+ * @param pollInterval  Intervall, in dem liegengebliebene Tasks (Crash, Überlauf) neu eingeplant werden
+ * @param readThreshold ab dieser Zahl Member-Devices wechselt eine Konversation auf Fan-out-on-read (0 = nie)
+ * @param maxAttempts   nach so vielen Fehlversuchen wird ein Task geparkt (fanout_task.parked_at) statt erneut eingeplant
+ */
+@ConfigurationProperties(prefix = "chat.fanout")
+public record FanoutProperties(
+        @DefaultValue("false") boolean async,
+        @DefaultValue("4") int workers,
+        @DefaultValue("1000") int queueCapacity,
+        @DefaultValue("PT5S") Duration pollInterval,
+        @DefaultValue("500") int readThreshold,
+        @DefaultValue("5") int maxAttempts
+) {}
@@ -0,0 +1,137 @@
+package com.chat.e2e.backend.chat;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Expandiert fanout_task-Einträge in message_delivery-Zeilen.
+ * Begrenzter Pool: nach dem Commit eines Sends wird der Task direkt eingeplant;
+ * was dabei verloren geht (Überlauf, Crash, Fehler), plant der Poller aus der Tabelle neu ein.
+ * Nach maxAttempts Fehlversuchen wird ein Task geparkt (Gauge chat.fanout.parked) statt endlos wiederholt.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "chat.fanout.async", havingValue = "true")
+public class FanoutWorker {
+
+    private final DeliveryFanout fanout;
+    private final ApplicationEventPublisher events;
+    private final TransactionTemplate tx;
+    private final FanoutProperties props;
+    private final ThreadPoolExecutor executor;
+    private final Set<UUID> inFlight = ConcurrentHashMap.newKeySet();
+    private final Timer expandTimer;
+
+    // vom Poller aktualisiert, als Gauges exportiert
+    private final AtomicLong backlog = new AtomicLong();
+    private final AtomicLong lagMillis = new AtomicLong();
+    private final AtomicLong parked = new AtomicLong();
+
+    public FanoutWorker(DeliveryFanout fanout, ApplicationEventPublisher events, PlatformTransactionManager txManager,
+                        FanoutProperties props, MeterRegistry meters) {
+        this.fanout = fanout;
+        this.events = events;
+        this.tx = new TransactionTemplate(txManager);
+        this.props = props;
+
+        var threadNo = new AtomicLong();
+        this.executor = new ThreadPoolExecutor(props.workers(), props.workers(), 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(props.queueCapacity()),
+                r -> {
+                    var t = new Thread(r, "fanout-" + threadNo.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+
+        Gauge.builder("chat.fanout.queue.depth", executor, e -> e.getQueue().size())
+                .description("Fan-out-Tasks in der Worker-Warteschlange").register(meters);
+        Gauge.builder("chat.fanout.active", executor, ThreadPoolExecutor::getActiveCount)
+                .description("Gerade expandierende Fan-out-Tasks").register(meters);
+        Gauge.builder("chat.fanout.backlog", backlog, AtomicLong::get)
+                .description("Offene Einträge in fanout_task").register(meters);
+        Gauge.builder("chat.fanout.lag", lagMillis, v -> v.get() / 1000.0)
+                .baseUnit("seconds")
+                .description("Alter des ältesten offenen Fan-out-Tasks").register(meters);
+        Gauge.builder("chat.fanout.parked", parked, AtomicLong::get)
+                .description("Nach wiederholten Fehlern geparkte Fan-out-Tasks").register(meters);
+        this.expandTimer = Timer.builder("chat.fanout.expand")
+                .description("Dauer einer Task-Expansion").register(meters);
+    }
+
+    @TransactionalEventListener
+    public void onEnqueued(FanoutEnqueuedEvent event) {
+        submit(event.messageId());
+    }
+
+    /** Liegengebliebene Tasks neu einplanen und Backlog-Gauges aktualisieren. */
+    @Scheduled(fixedDelayString = "${chat.fanout.poll-interval:PT5S}")
+    public void recover() {
+        var b = fanout.backlog();
+        backlog.set(b.pending());
+        parked.set(b.parked());
+        lagMillis.set(b.oldestEnqueuedAt() == null ? 0 : Duration.between(b.oldestEnqueuedAt(), Instant.now()).toMillis());
+
+        int free = executor.getQueue().remainingCapacity();
+        if (b.pending() == 0 || free == 0) return;
+        for (UUID id : fanout.findStalledTasks(props.pollInterval(), free)) {
+            submit(id);
+        }
+    }
+
+    void submit(UUID messageId) {
+        if (!inFlight.add(messageId)) return;
+        try {
+            executor.execute(() -> expand(messageId));
+        } catch (RejectedExecutionException e) {
+            inFlight.remove(messageId); // Warteschlange voll → Poller holt nach
+        }
+    }
+
+    private void expand(UUID messageId) {
+        try {
+            expandTimer.record(() -> tx.executeWithoutResult(s -> {
+                var recipients = fanout.expandPending(messageId);
+                // Push nach dem Commit dieser Transaktion
+                if (!recipients.isEmpty()) events.publishEvent(fanout.sharedDeliveriesEvent(messageId, recipients));
+            }));
+        } catch (RuntimeException e) {
+            onFailure(messageId, e);
+        } finally {
+            inFlight.remove(messageId);
+        }
+    }
+
+    private void onFailure(UUID messageId, RuntimeException cause) {
+        try {
+            if (fanout.markFailed(messageId, cause.toString(), props.maxAttempts())) {
+                log.error("fan-out for message {} failed {} times, parked", messageId, props.maxAttempts(), cause);
+                return;
+            }
+        } catch (RuntimeException e) {
+            cause.addSuppressed(e); // Fehlversuch nicht gezählt, der Poller versucht es trotzdem erneut
+        }
+        log.warn("fan-out for message {} failed, will retry", messageId, cause);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        executor.shutdown(); // offene Tasks bleiben in fanout_task
+    }
+}
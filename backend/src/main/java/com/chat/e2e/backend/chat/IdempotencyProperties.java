@@ -0,0 +1,18 @@
+package com.chat.e2e.backend.chat;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+
+/**
+ * chat.idempotency.* – Dedupe von Client-Retries beim Senden.
+ *
+ * @param window    so lange wird eine clientMessageId wiedererkannt (DB und Cache)
+ * @param cacheSize maximale Zahl zuletzt gesehener IDs im Speicher
+ */
+@ConfigurationProperties(prefix = "chat.idempotency")
+public record IdempotencyProperties(
+        @DefaultValue("PT24H") Duration window,
+        @DefaultValue("100000") long cacheSize
+) {}
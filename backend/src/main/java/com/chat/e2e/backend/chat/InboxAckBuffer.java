@@ -0,0 +1,137 @@
+package com.chat.e2e.backend.chat;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Kumulative Acks ("bis Cursor X bestätigt") pro Gerät.
+ * Acks sammeln sich im Speicher (nur die weiteste Position pro Gerät) und werden im Intervall gebündelt
+ * geschrieben: ein Upsert pro Gerät in device_inbox_ack statt eines delivered_at-Updates pro Delivery.
+ * Geht ein Flush durch einen Crash verloren, liefert die Inbox die betroffenen Nachrichten erneut (at-least-once).
+ */
+@Slf4j
+@Component
+public class InboxAckBuffer {
+
+    // acked_delivery_at: created_at der bestätigten Delivery – Zeit-Untergrenze aller späteren (deliveryFloor)
+    private static final String UPSERT_ACK = """
+            insert into device_inbox_ack (device_id, acked_seq, acked_delivery_at, acked_at)
+            values (?, ?, (select created_at from message_delivery where recipient_device_id = ? and seq = ?), now())
+            on conflict (device_id) do update
+               set acked_seq = excluded.acked_seq,
+                   acked_delivery_at = coalesce(excluded.acked_delivery_at, device_inbox_ack.acked_delivery_at),
+                   acked_at = excluded.acked_at
+             where device_inbox_ack.acked_seq < excluded.acked_seq
+            """;
+
+    // Log-Einträge je Konversation bis zur Log-Sequenz des Cursors (nur vorwärts); acked_created_at wird
+    // Zeit-Untergrenze der folgenden Einträge (DeliveryFanout.LOG_ENTRIES)
+    private static final String ADVANCE_LOG = """
+            update conversation_log_cursor c
+               set acked_seq = ?,
+                   acked_created_at = coalesce((select m.created_at from message_core m
+                                                 where m.conversation_id = c.conversation_id and m.log_seq = ?
+                                                   and m.created_at >= coalesce(c.acked_created_at - interval '1 minute',
+                                                                                '-infinity')),
+                                               c.acked_created_at)
+             where c.device_id = ?
+               and c.conversation_id = ?
+               and c.acked_seq < ?
+            """;
+
+    // Reserve gegen Rücksprünge der DB-Uhr; kostet bei Partitionen von Tagen nichts
+    private static final Duration CLOCK_SLACK = Duration.ofMinutes(1);
+
+    private final JdbcTemplate jdbc;
+    private final TransactionTemplate tx;
+    private final Map<UUID, InboxCursor> pending = new ConcurrentHashMap<>();
+    private final Counter flushed;
+
+    public InboxAckBuffer(JdbcTemplate jdbc, PlatformTransactionManager txManager, MeterRegistry meters) {
+        this.jdbc = jdbc;
+        this.tx = new TransactionTemplate(txManager);
+        Gauge.builder("chat.ack.pending", pending, Map::size)
+                .description("Geräte mit noch nicht geschriebenem Ack").register(meters);
+        this.flushed = Counter.builder("chat.ack.flushed")
+                .description("Geschriebene Ack-Wasserstände").register(meters);
+    }
+
+    public void ackUpTo(UUID deviceId, InboxCursor cursor) {
+        pending.merge(deviceId, cursor, InboxCursor::max);
+    }
+
+    /** Bestätigte Gerätesequenz inklusive noch nicht geschriebener Acks. */
+    public long ackedSeq(UUID deviceId) {
+        var buffered = pending.get(deviceId);
+        List<Long> stored = jdbc.queryForList("select acked_seq from device_inbox_ack where device_id = ?",
+                Long.class, deviceId);
+        long seq = stored.isEmpty() ? 0 : stored.get(0);
+        return buffered == null ? seq : Math.max(seq, buffered.seq());
+    }
+
+    /**
+     * Untergrenze für created_at aller Deliveries mit seq > afterSeq. Delivery-Zeitpunkte sind pro Gerät monoton
+     * zur seq, liegt der Cursor nicht vor dem geschriebenen Wasserstand, reicht also dessen Zeitpunkt –
+     * die Inbox liest dann nur die jüngsten Partitionen von message_delivery.
+     */
+    public Instant deliveryFloor(UUID deviceId, long afterSeq) {
+        List<Timestamp> stored = jdbc.queryForList(
+                "select acked_delivery_at from device_inbox_ack where device_id = ? and acked_seq <= ?",
+                Timestamp.class, deviceId, afterSeq);
+        if (stored.isEmpty() || stored.get(0) == null) return Instant.EPOCH;
+        return stored.get(0).toInstant().minus(CLOCK_SLACK);
+    }
+
+    @Scheduled(fixedDelayString = "${chat.ack.flush-interval:PT1S}")
+    public void flush() {
+        if (pending.isEmpty()) return;
+        Map<UUID, InboxCursor> batch = new java.util.HashMap<>();
+        for (UUID deviceId : pending.keySet()) {
+            var c = pending.remove(deviceId);
+            if (c != null) batch.put(deviceId, c);
+        }
+
+        List<Object[]> acks = new ArrayList<>(batch.size());
+        List<Object[]> logAcks = new ArrayList<>();
+        // sortiert: gleiche Sperrreihenfolge über parallele Flushes (mehrere Instanzen)
+        batch.entrySet().stream().sorted(Map.Entry.comparingByKey()).forEach(e -> {
+            var c = e.getValue();
+            if (c.seq() > 0) acks.add(new Object[]{e.getKey(), c.seq(), e.getKey(), c.seq()});
+            new java.util.TreeMap<>(c.logSeqs()).forEach((conversationId, logSeq) ->
+                    logAcks.add(new Object[]{logSeq, logSeq, e.getKey(), conversationId, logSeq}));
+        });
+
+        try {
+            tx.executeWithoutResult(s -> {
+                if (!acks.isEmpty()) jdbc.batchUpdate(UPSERT_ACK, acks);
+                if (!logAcks.isEmpty()) jdbc.batchUpdate(ADVANCE_LOG, logAcks);
+            });
+            flushed.increment(batch.size());
+        } catch (RuntimeException e) {
+            log.warn("flushing {} inbox acks failed, will retry", batch.size(), e);
+            batch.forEach(this::ackUpTo); // zurück in den Puffer, neuere Acks bleiben erhalten
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        flush();
+    }
+}
@@ -0,0 +1,98 @@
+package com.chat.e2e.backend.chat;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Binäres Inbox-Format (Accept: application/vnd.chat.inbox.v1) – Ciphertext als rohe Bytes statt Base64 in JSON.
+ * Alle Zahlen big-endian, Strings UTF-8 mit Längenpräfix i32 – auch nextCursor (wächst mit jeder
+ * Fan-out-on-read-Konversation) und contentType (vom Sender, nicht begrenzt) haben so keine praktische Obergrenze.
+ *
+ * <pre>
+ * Seite:   magic "CIB1" | i32 len, nextCursor | i32 count | count × Eintrag
+ * Eintrag: u8 flags (0x01 deliveryId vorhanden, 0x02 seq vorhanden)
+ *          [deliveryId 16] messageId 16 | conversationId 16 | [seq i64] | createdAt i64 (Epoch-Mikrosekunden)
+ *          i32 len, contentType | i32 len, msgHeaderJson | i32 len, ciphertext
+ * </pre>
+ * Log-Sequenzen stehen nur im Cursor, nicht in den Einträgen.
+ */
+public final class InboxBinaryCodec {
+
+    public static final String MEDIA_TYPE = "application/vnd.chat.inbox.v1";
+
+    private static final byte[] MAGIC = {'C', 'I', 'B', '1'};
+    private static final int HAS_DELIVERY_ID = 0x01;
+    private static final int HAS_SEQ = 0x02;
+
+    private InboxBinaryCodec() {}
+
+    public static void write(InboxEntry.Page page, OutputStream os) throws IOException {
+        var out = new DataOutputStream(os);
+        out.write(MAGIC);
+        writeString(out, page.nextCursor());
+        out.writeInt(page.entries().size());
+        for (var e : page.entries()) {
+            int flags = (e.deliveryId() != null ? HAS_DELIVERY_ID : 0) | (e.seq() != null ? HAS_SEQ : 0);
+            out.writeByte(flags);
+            if (e.deliveryId() != null) writeUuid(out, e.deliveryId());
+            writeUuid(out, e.messageId());
+            writeUuid(out, e.conversationId());
+            if (e.seq() != null) out.writeLong(e.seq());
+            out.writeLong(ChronoUnit.MICROS.between(Instant.EPOCH, e.createdAt()));
+            writeString(out, e.contentType());
+            writeString(out, e.msgHeaderJson());
+            out.writeInt(e.ciphertext().length);
+            out.write(e.ciphertext()); // direkt aus der Abfrage, keine Kopie
+        }
+        out.flush();
+    }
+
+    /** Gegenstück für Clients und Tests. */
+    public static InboxEntry.Page read(InputStream is) throws IOException {
+        var in = new DataInputStream(is);
+        byte[] magic = in.readNBytes(MAGIC.length);
+        if (!java.util.Arrays.equals(magic, MAGIC)) throw new IllegalArgumentException("not an inbox page");
+        String cursor = readString(in);
+        int count = in.readInt();
+        List<InboxEntry> entries = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int flags = in.readUnsignedByte();
+            UUID deliveryId = (flags & HAS_DELIVERY_ID) != 0 ? readUuid(in) : null;
+            UUID messageId = readUuid(in);
+            UUID conversationId = readUuid(in);
+            Long seq = (flags & HAS_SEQ) != 0 ? in.readLong() : null;
+            Instant createdAt = Instant.EPOCH.plus(in.readLong(), ChronoUnit.MICROS);
+            String contentType = readString(in);
+            String header = readString(in);
+            byte[] ciphertext = in.readNBytes(in.readInt());
+            entries.add(new InboxEntry(deliveryId, messageId, conversationId, contentType,
+                    header.isEmpty() ? null : header, ciphertext, createdAt, seq, null));
+        }
+        return new InboxEntry.Page(entries, cursor);
+    }
+
+    private static void writeUuid(DataOutputStream out, UUID id) throws IOException {
+        out.writeLong(id.getMostSignificantBits());
+        out.writeLong(id.getLeastSignificantBits());
+    }
+
+    private static UUID readUuid(DataInputStream in) throws IOException {
+        return new UUID(in.readLong(), in.readLong());
+    }
+
+    // null wie leer
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] b = s == null ? new byte[0] : s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return new String(in.readNBytes(in.readInt()), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,102 @@
+package com.chat.e2e.backend.chat;
+
+import com.chat.e2e.backend.api.dto.DTOs;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+/**
+ * Position in der Inbox eines Geräts.
+ * Direkte Deliveries: Sequenz pro Gerät (message_delivery.seq).
+ * Fan-out-on-read-Logs haben keine Gerätesequenz; dort zählt die Log-Sequenz pro Konversation
+ * (message_core.log_seq, in Commit-Reihenfolge vergeben). Konversationen ohne Eintrag beginnen hinter
+ * conversation_log_cursor.acked_seq. Der Cursor wächst damit höchstens um die Fan-out-on-read-Konversationen
+ * des Geräts.
+ *
+ * Format: "{seq}" bzw. "{seq}.{conversationId}~{logSeq}.…" (nur URL-sichere Zeichen).
+ */
+public record InboxCursor(long seq, Map<UUID, Long> logSeqs) {
+
+    public static final InboxCursor START = new InboxCursor(0, Map.of());
+
+    public InboxCursor {
+        logSeqs = Map.copyOf(logSeqs);
+    }
+
+    /** Ungültige oder leere Cursor beginnen am Anfang. */
+    public static InboxCursor decode(String s) {
+        if (s == null || s.isBlank()) return START;
+        try {
+            String[] p = s.split("\\.");
+            // "{seq}:{logEpochMicros}:{logMessageId}" (globales Log-Keyset): Log-Teil verfällt, Logs ab acked_seq
+            String[] head = p[0].split(":");
+            if (head.length != 1 && head.length != 3) return START;
+            Map<UUID, Long> logSeqs = new HashMap<>();
+            for (int i = 1; i < p.length; i++) {
+                int sep = p[i].indexOf('~');
+                logSeqs.merge(UUID.fromString(p[i].substring(0, sep)), Long.parseLong(p[i].substring(sep + 1)), Math::max);
+            }
+            return new InboxCursor(Long.parseLong(head[0]), logSeqs);
+        } catch (RuntimeException ignored) {
+            // wie ein leerer Cursor
+        }
+        return START;
+    }
+
+    /** Bisheriges Format "{epochSecond}:{messageId}" (vor der Gerätesequenz). */
+    static boolean isLegacy(String s) {
+        return s != null && s.split(":").length == 2;
+    }
+
+    public String encode() {
+        if (logSeqs.isEmpty()) return Long.toString(seq);
+        // sortiert, damit gleiche Positionen gleiche Cursor ergeben
+        return seq + logSeqs.entrySet().stream()
+                .sorted(Map.Entry.comparingByKey())
+                .map(e -> "." + e.getKey() + "~" + e.getValue())
+                .collect(Collectors.joining());
+    }
+
+    /** Position nach einer Live-Delivery (Gerätesequenz bzw. Log-Sequenz ihrer Konversation); läuft nie rückwärts. */
+    public InboxCursor after(DTOs.DeliveryDTO d) {
+        if (d.seq() != null) return d.seq() > seq ? new InboxCursor(d.seq(), logSeqs) : this;
+        if (d.logSeq() == null || d.logSeq() <= logSeq(d.conversationId())) return this;
+        Map<UUID, Long> logs = new HashMap<>(logSeqs);
+        logs.put(d.conversationId(), d.logSeq());
+        return new InboxCursor(seq, logs);
+    }
+
+    /** Log-Position der Konversation im Cursor; 0 = nicht enthalten (beginnt hinter conversation_log_cursor.acked_seq). */
+    public long logSeq(UUID conversationId) {
+        return logSeqs.getOrDefault(conversationId, 0L);
+    }
+
+    public InboxCursor after(InboxEntry e) {
+        return after(List.of(e));
+    }
+
+    public InboxCursor after(List<InboxEntry> entries) {
+        long s = seq;
+        Map<UUID, Long> logs = null;
+        for (var e : entries) {
+            if (e.seq() != null) {
+                s = Math.max(s, e.seq());
+            } else if (e.logSeq() != null) {
+                if (logs == null) logs = new HashMap<>(logSeqs);
+                logs.merge(e.conversationId(), e.logSeq(), Math::max);
+            }
+        }
+        if (logs == null) return s == seq ? this : new InboxCursor(s, logSeqs);
+        return new InboxCursor(s, logs);
+    }
+
+    /** Weiteste Position beider Cursor (Direkt-Sequenz und Log-Sequenz je Konversation getrennt). */
+    public InboxCursor max(InboxCursor o) {
+        Map<UUID, Long> logs = new HashMap<>(logSeqs);
+        o.logSeqs.forEach((conv, logSeq) -> logs.merge(conv, logSeq, Math::max));
+        return new InboxCursor(Math.max(seq, o.seq), logs);
+    }
+}
@@ -0,0 +1,33 @@
+package com.chat.e2e.backend.chat;
+
+import com.chat.e2e.backend.api.dto.DTOs;
+
+import java.time.Instant;
+import java.util.Base64;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Inbox-Zeile mit rohem Ciphertext, wie sie aus der Abfrage kommt.
+ * JSON (DeliveryDTO) kodiert erst beim Mapping nach Base64; das Binärformat schreibt die Bytes direkt.
+ */
+public record InboxEntry(
+        UUID deliveryId,        // null bei Log-Einträgen (Fan-out-on-read)
+        UUID messageId,
+        UUID conversationId,
+        String contentType,
+        String msgHeaderJson,
+        byte[] ciphertext,
+        Instant createdAt,
+        Long seq,               // null bei Log-Einträgen
+        Long logSeq             // Log-Sequenz der Konversation, nur bei Log-Einträgen
+) {
+
+    public DTOs.DeliveryDTO toDto() {
+        return new DTOs.DeliveryDTO(deliveryId, messageId, conversationId, contentType, msgHeaderJson,
+                Base64.getEncoder().encodeToString(ciphertext), createdAt, seq, logSeq);
+    }
+
+    /** Eine Inbox-Seite plus Cursor für die nächste. */
+    public record Page(List<InboxEntry> entries, String nextCursor) {}
+}
@@ -0,0 +1,173 @@
+package com.chat.e2e.backend.chat;
+
+import com.chat.e2e.backend.api.dto.DTOs;
+import com.chat.e2e.backend.cluster.ClusterBus;
+import com.chat.e2e.backend.config.Workers;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Long-Poll für die Inbox: eine leere Abfrage parkt (DeferredResult) statt sofort zu antworten.
+ * Nach dem Commit neuer Deliveries (DeliveriesCommittedEvent) werden die wartenden Abfragen der
+ * Empfängergeräte geweckt und lesen erneut – bis dahin keine weiteren Inbox-Queries.
+ * Parkt die Abfrage auf einer anderen Instanz, geht das Wecken über den ClusterBus: Geräte ohne wartende Abfrage hier
+ * sammeln sich und gehen gebündelt (chat_inbox_wake, deviceIds zeilenweise) an alle Instanzen, die nur eigene
+ * Abfragen wecken. Best effort: ein verlorenes Wecken endet im Timeout, der Client fragt dann erneut.
+ */
+@Slf4j
+@Component
+public class InboxLongPoll {
+
+    static final String CHANNEL = "chat_inbox_wake";
+
+    private final MessageService messageService;
+    private final LongPollProperties props;
+    private final ClusterBus bus;
+    private final ExecutorService executor;
+    private final Map<UUID, Set<Waiter>> waiters = new ConcurrentHashMap<>();
+    private final AtomicLong parked = new AtomicLong();
+    private final Queue<UUID> remote = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean publishScheduled = new AtomicBoolean();
+
+    public InboxLongPoll(MessageService messageService, LongPollProperties props, ClusterBus bus, MeterRegistry meters) {
+        this.messageService = messageService;
+        this.props = props;
+        this.bus = bus;
+
+        this.executor = Workers.newPool("inbox-poll", props.workers());
+
+        Gauge.builder("chat.inbox.long-poll.waiting", parked, AtomicLong::get)
+                .description("Geparkte Inbox-Abfragen").register(meters);
+        bus.subscribe(CHANNEL, this::onRemoteWake);
+    }
+
+    public DeferredResult<DTOs.InboxResponse> await(UUID deviceId, String since, int limit, Duration wait) {
+        Duration timeout = wait.compareTo(props.maxWait()) > 0 ? props.maxWait() : wait;
+        var result = new DeferredResult<DTOs.InboxResponse>(Math.max(timeout.toMillis(), 1));
+        var waiter = new Waiter(deviceId, since, limit, result);
+
+        // Timeout ohne neue Deliveries: leere Seite, Cursor unverändert
+        result.onTimeout(() -> result.setResult(new DTOs.InboxResponse(List.of(), since)));
+        result.onCompletion(() -> {
+            unregister(waiter);
+            parked.decrementAndGet();
+        });
+        parked.incrementAndGet();
+
+        poll(waiter, timeout.isZero() || timeout.isNegative());
+        return result;
+    }
+
+    /** Nach dem Commit: wartende Abfragen der Empfängergeräte erneut ausführen, hier oder auf anderen Instanzen. */
+    @TransactionalEventListener
+    public void onCommitted(DeliveriesCommittedEvent e) {
+        boolean queued = false;
+        for (var r : e.recipients()) {
+            if (!wake(r.deviceId())) {
+                remote.add(r.deviceId());
+                queued = true;
+            }
+        }
+        // nicht auf dem Commit-Thread senden; Commits bis zur Ausführung gehen in dieselbe Nachricht
+        if (queued && publishScheduled.compareAndSet(false, true)) {
+            try {
+                executor.execute(this::publishRemote);
+            } catch (RejectedExecutionException ex) {
+                publishScheduled.set(false); // Shutdown
+            }
+        }
+    }
+
+    /** @return false → keine wartende Abfrage des Geräts auf dieser Instanz */
+    private boolean wake(UUID deviceId) {
+        var woken = waiters.remove(deviceId);
+        if (woken == null) return false;
+        for (var w : woken) {
+            try {
+                executor.execute(() -> poll(w, false));
+            } catch (RejectedExecutionException ex) {
+                // Shutdown: Abfrage läuft in den Timeout
+            }
+        }
+        return true;
+    }
+
+    // deviceIds zeilenweise in Nachrichten bis maxPayloadBytes
+    private void publishRemote() {
+        publishScheduled.set(false);
+        Set<UUID> devices = new LinkedHashSet<>();
+        for (UUID d; (d = remote.poll()) != null; ) devices.add(d);
+        int max = bus.maxPayloadBytes();
+        var message = new StringBuilder();
+        for (var d : devices) {
+            var line = d.toString();
+            if (!message.isEmpty() && message.length() + 1 + line.length() > max) {
+                publish(message.toString());
+                message.setLength(0);
+            }
+            if (!message.isEmpty()) message.append('\n');
+            message.append(line);
+        }
+        if (!message.isEmpty()) publish(message.toString());
+    }
+
+    private void publish(String message) {
+        try {
+            bus.publish(CHANNEL, message);
+        } catch (RuntimeException ex) {
+            // Abfragen auf anderen Instanzen laufen in den Timeout
+            log.warn("publishing inbox wake-ups failed", ex);
+        }
+    }
+
+    private void onRemoteWake(String message) {
+        for (var line : message.split("\n")) {
+            try {
+                wake(UUID.fromString(line));
+            } catch (IllegalArgumentException ex) {
+                log.debug("invalid inbox wake-up {}", line);
+            }
+        }
+    }
+
+    // Erst registrieren, dann lesen: ein Commit zwischen Abfrage und Registrierung geht so nicht verloren
+    private void poll(Waiter w, boolean answerEmpty) {
+        if (w.result.isSetOrExpired()) return;
+        if (!answerEmpty) register(w);
+        try {
+            var page = messageService.fetchInboxPage(w.deviceId, w.since, w.limit);
+            if (answerEmpty || !page.items().isEmpty()) w.result.setResult(page);
+        } catch (RuntimeException ex) {
+            w.result.setErrorResult(ex);
+        }
+    }
+
+    private void register(Waiter w) {
+        waiters.computeIfAbsent(w.deviceId, k -> ConcurrentHashMap.newKeySet()).add(w);
+    }
+
+    private void unregister(Waiter w) {
+        waiters.computeIfPresent(w.deviceId, (k, set) -> {
+            set.remove(w);
+            return set.isEmpty() ? null : set;
+        });
+    }
+
+    @PreDestroy
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private record Waiter(UUID deviceId, String since, int limit, DeferredResult<DTOs.InboxResponse> result) {}
+}
@@ -0,0 +1,19 @@
+package com.chat.e2e.backend.chat;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+
+/**
+ * chat.inbox.long-poll.* – Inbox-Abfrage mit ?wait=…
+ *
+ * @param maxWait obere Grenze für wait; darüber hinaus antwortet der Server leer
+ * @param workers Threads, die geweckte Abfragen erneut ausführen (nicht auf dem Commit-Thread des Senders);
+ *                0 = Virtual Threads
+ */
+@ConfigurationProperties(prefix = "chat.inbox.long-poll")
+public record LongPollProperties(
+        @DefaultValue("PT30S") Duration maxWait,
+        @DefaultValue("4") int workers
+) {}
@@ -2,6 +2,9 @@ package com.chat.e2e.backend.chat;
 
 import jakarta.persistence.*;
 import lombok.*;
+import org.hibernate.annotations.JdbcTypeCode;
+import org.hibernate.type.SqlTypes;
+
 import java.time.Instant;
 import java.util.UUID;
 
@@ -21,13 +24,30 @@ public class MessageCore {
     @Column(name = "sender_id", nullable = false)
     private UUID senderId;
 
+    @Column(name = "sender_device_id")
+    private UUID senderDeviceId;
+
     @Column(name = "created_at", nullable = false)
     private Instant createdAt;
 
     @Column(name = "content_type", nullable = false)
     private String contentType;
 
-    // JSONB – je nach Dialekt (Postgres) als Text persistiert
+    @Column(name = "msg_type", nullable = false)
+    private String msgType;
+
+    @Column(name = "epoch")
+    private Integer epoch;
+
+    @Column(name = "counter")
+    private Long counter;
+
+    // nur Zusatzfelder von Control-Messages (from_device, sig); Wire-Header via MessageHeaderCodec
+    @JdbcTypeCode(SqlTypes.JSON)
     @Column(name = "header", columnDefinition = "jsonb")
     private String header;
+
+    // nur in Fan-out-on-read-Konversationen gesetzt
+    @Column(name = "log_seq")
+    private Long logSeq;
 }
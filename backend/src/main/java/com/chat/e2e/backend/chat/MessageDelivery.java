@@ -21,15 +21,25 @@ public class MessageDelivery {
     @Column(name = "message_id", nullable = false)
     private UUID messageId;
 
+    // = message_core.created_at; Fremdschlüssel (message_id, message_created_at)
+    @Column(name = "message_created_at", nullable = false)
+    private Instant messageCreatedAt;
+
     @Column(name = "recipient_device_id", nullable = false)
     private UUID recipientDeviceId;
 
+    // monoton pro Empfängergerät (device_inbox_seq), Inbox-Cursor
+    @Column(name = "seq", nullable = false)
+    private Long seq;
+
+    // nur für per-Device versiegelte Control-Messages; sonst message_payload
     @JdbcTypeCode(org.hibernate.type.SqlTypes.VARBINARY)
-    @Column(name = "ciphertext", nullable = false, columnDefinition = "bytea")
+    @Column(name = "ciphertext", columnDefinition = "bytea")
     private byte[] ciphertext;
 
-    @Column(name = "msg_header", columnDefinition = "jsonb")
-    private String msgHeader;
+    // Partitionsschlüssel: Zeitpunkt des Fan-outs, pro Gerät monoton zur seq
+    @Column(name = "created_at", nullable = false)
+    private Instant createdAt;
 
     @Column(name = "delivered_at")
     private Instant deliveredAt;
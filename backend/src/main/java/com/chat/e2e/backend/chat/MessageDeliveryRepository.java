@@ -10,20 +10,34 @@ import java.time.Instant;
 import java.util.*;
 
 public interface MessageDeliveryRepository extends JpaRepository<MessageDelivery, UUID> {
+    // Range-Scan auf (recipient_device_id, seq); message_core nur für die Inhalte.
+    // createdFrom: Untergrenze für d.createdAt (InboxAckBuffer.deliveryFloor) → nur die jüngsten Partitionen;
+    // Nachricht und Payload über ihren Partitionsschlüssel
     @Query("""
-  select d.id, m.id, m.conversationId, m.contentType, m.header, d.ciphertext, m.createdAt
+  select d.id, m.id, m.conversationId, m.contentType, m.header, coalesce(d.ciphertext, p.ciphertext), m.createdAt,
+         m.msgType, m.epoch, m.counter, d.seq
   from MessageDelivery d
-    join MessageCore m on m.id = d.messageId
+    join MessageCore m on m.id = d.messageId and m.createdAt = d.messageCreatedAt
+    left join MessagePayload p on p.messageId = m.id and p.createdAt = m.createdAt
   where d.recipientDeviceId = :deviceId
-    and (:sinceTs is null or m.createdAt > :sinceTs
-         or (m.createdAt = :sinceTs and m.id > :sinceMsgId))
-  order by m.createdAt asc, m.id asc
+    and d.seq > :afterSeq
+    and d.createdAt >= :createdFrom
+  order by d.seq asc
   """)
     List<Object[]> findNextForDevice(@Param("deviceId") UUID deviceId,
-                                     @Param("sinceTs") Instant sinceTs,
-                                     @Param("sinceMsgId") UUID sinceMsgId,
+                                     @Param("afterSeq") long afterSeq,
+                                     @Param("createdFrom") Instant createdFrom,
                                      org.springframework.data.domain.Pageable pageable);
 
+    // Übergang vom alten Timestamp-Cursor: letzte Sequenz vor dem Zeitpunkt
+    @Query("""
+  select coalesce(max(d.seq), 0)
+  from MessageDelivery d
+  where d.recipientDeviceId = :deviceId
+    and d.messageCreatedAt < :ts
+  """)
+    long findLastSeqBefore(@Param("deviceId") UUID deviceId, @Param("ts") Instant ts);
+
     @Modifying
     @Query("""
   update MessageDelivery d
@@ -36,14 +50,4 @@ public interface MessageDeliveryRepository extends JpaRepository<MessageDelivery
                            @Param("ids") List<UUID> ids,
                            @Param("ts") Instant ts);
 
-    @Modifying
-    @Query("""
-  update MessageDelivery d
-     set d.readAt = :ts
-   where d.recipientDeviceId = :deviceId
-     and d.messageId = :messageId
-  """)
-    int updateRead(@Param("deviceId") UUID deviceId,
-                   @Param("messageId") UUID messageId,
-                   @Param("ts") Instant ts);
 }
@@ -0,0 +1,56 @@
+package com.chat.e2e.backend.chat;
+
+/**
+ * Wire-Format des Nachrichten-Headers aus den typisierten Spalten von message_core.
+ * Feste Feldreihenfolge, ein vorab dimensionierter StringBuilder, kein Map/ObjectMapper:
+ * {"type":"text","epoch":7,"counter":1001,"content_type":"text/plain"}
+ */
+public final class MessageHeaderCodec {
+
+    private MessageHeaderCodec() {}
+
+    public static String encode(String type, Integer epoch, Long counter, String contentType) {
+        var sb = new StringBuilder(64 + (contentType == null ? 0 : contentType.length()));
+        sb.append("{\"type\":");
+        appendString(sb, type);
+        sb.append(",\"epoch\":");
+        if (epoch == null) sb.append("null"); else sb.append(epoch.intValue());
+        sb.append(",\"counter\":");
+        if (counter == null) sb.append("null"); else sb.append(counter.longValue());
+        sb.append(",\"content_type\":");
+        appendString(sb, contentType);
+        return sb.append('}').toString();
+    }
+
+    private static void appendString(StringBuilder sb, String s) {
+        if (s == null) { sb.append("null"); return; }
+        sb.append('"');
+        if (!needsEscape(s)) {
+            sb.append(s); // Normalfall (z. B. "text/plain"): direkt kopieren
+        } else {
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                switch (c) {
+                    case '"' -> sb.append("\\\"");
+                    case '\\' -> sb.append("\\\\");
+                    case '\n' -> sb.append("\\n");
+                    case '\r' -> sb.append("\\r");
+                    case '\t' -> sb.append("\\t");
+                    default -> {
+                        if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+                        else sb.append(c);
+                    }
+                }
+            }
+        }
+        sb.append('"');
+    }
+
+    private static boolean needsEscape(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x20 || c == '"' || c == '\\') return true;
+        }
+        return false;
+    }
+}
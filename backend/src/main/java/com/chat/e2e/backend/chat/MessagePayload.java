@@ -0,0 +1,29 @@
+package com.chat.e2e.backend.chat;
+
+import jakarta.persistence.*;
+import lombok.*;
+import org.hibernate.annotations.JdbcTypeCode;
+import org.hibernate.type.SqlTypes;
+
+import java.time.Instant;
+import java.util.UUID;
+
+/** Gemeinsamer Ciphertext einer Nachricht – einmal pro message_core statt pro Zielgerät. */
+@Entity
+@Table(name = "message_payload")
+@Getter @Setter
+@NoArgsConstructor @AllArgsConstructor @Builder
+public class MessagePayload {
+
+    @Id
+    @Column(name = "message_id", nullable = false)
+    private UUID messageId;
+
+    // = message_core.created_at (Partitionsschlüssel)
+    @Column(name = "created_at", nullable = false)
+    private Instant createdAt;
+
+    @JdbcTypeCode(SqlTypes.VARBINARY)
+    @Column(name = "ciphertext", nullable = false, columnDefinition = "bytea")
+    private byte[] ciphertext;
+}
@@ -0,0 +1,21 @@
+package com.chat.e2e.backend.chat;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.time.Instant;
+import java.util.UUID;
+
+public interface MessagePayloadRepository extends JpaRepository<MessagePayload, UUID> {
+
+    // direkter Insert: save() würde bei gesetzter ID erst ein SELECT (merge) auslösen
+    @Modifying
+    @Query(value = """
+            insert into message_payload (message_id, created_at, ciphertext)
+            values (:messageId, :createdAt, :ciphertext)
+            """, nativeQuery = true)
+    int insert(@Param("messageId") UUID messageId, @Param("createdAt") Instant createdAt,
+               @Param("ciphertext") byte[] ciphertext);
+}
@@ -1,29 +1,37 @@
 package com.chat.e2e.backend.chat;
 
 import com.chat.e2e.backend.api.dto.DTOs;
-import com.chat.e2e.backend.device.UserDevice;
-import com.chat.e2e.backend.device.UserDeviceRepository;
+import com.chat.e2e.backend.user.IdentityDirectory;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import lombok.RequiredArgsConstructor;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 
 import java.time.Instant;
+import java.time.temporal.ChronoUnit;
 import java.util.*;
-import java.util.stream.Collectors;
 
 @Service
 @RequiredArgsConstructor
 public class MessageService {
 
-    private final ConversationRepository conversationRepo;
-    private final ConversationMemberRepository memberRepo;
+    private final ConversationRoutingCache routes;
     private final ConversationMemberDeviceRepository memberDeviceRepo;
     private final MessageCoreRepository messageCoreRepo;
     private final MessageDeliveryRepository messageDeliveryRepo;
-    private final UserDeviceRepository deviceRepo;
+    private final MessagePayloadRepository payloadRepo;
+    private final ConversationLogCursorRepository logCursorRepo;
+    private final ConversationReadWatermarkRepository readMarks;
+    private final UnreadCounters unread;
+    private final IdentityDirectory identities;
+    private final DeliveryFanout fanout;
+    private final SendIdempotency idempotency;
+    private final InboxAckBuffer acks;
+    private final FanoutProperties fanoutProps;
+    private final ApplicationEventPublisher events;
     private final ObjectMapper mapper = new ObjectMapper();
 
 
@@ -32,78 +40,82 @@ public class MessageService {
     public DTOs.SendMessageResponse send(UUID conversationId,
                                              UUID senderUserId,
                                              UUID senderDeviceId,
-                                             DTOs.SendMessageRequest req) throws JsonProcessingException {
+                                             DTOs.SendMessageRequest req) {
 
 
-        // 0) Checks
-        var conv = conversationRepo.findById(conversationId)
+        // 0) Checks – warm ohne DB-Zugriff (Routing-Cache)
+        var route = routes.get(conversationId)
                 .orElseThrow(() -> new IllegalArgumentException("conversation not found"));
 
-        if (!memberRepo.existsByConversationIdAndUserId(conversationId, senderUserId))
+        if (!route.isMember(senderUserId))
             throw new IllegalArgumentException("sender not a member");
 
-        var senderDevice = deviceRepo.findById(senderDeviceId)
-                .orElseThrow(() -> new IllegalArgumentException("sender device not found"));
+        // Gerät ohne Member-Device-Eintrag: wie bisher nur Existenz prüfen (Identitäts-Cache)
+        if (!route.hasActiveDevice(senderDeviceId) && identities.device(senderDeviceId).isEmpty())
+            throw new IllegalArgumentException("sender device not found");
 
-        // 1) message_core anlegen
-        var header = new java.util.HashMap<String,Object>();
-        header.put("type", "text");
-        header.put("epoch", req.epoch());
-        header.put("counter", req.counter());
-        header.put("content_type", req.contentType());
-
-        var headerJson = mapper.writeValueAsString(header);
+        // Retry mit bekannter clientMessageId: ursprüngliche Antwort, kein zweiter Insert/Fan-out
+        UUID clientMessageId = req.clientMessageId();
+        if (clientMessageId != null) {
+            var previous = idempotency.claimOrGet(senderUserId, clientMessageId);
+            if (previous.isPresent()) return previous.get();
+        }
 
+        // Große Konversation: ein Log-Eintrag statt einer Zeile pro Gerät
+        Long logSeq = route.fanoutOnRead() ? fanout.nextLogSeq(conversationId) : null;
 
+        // 1) message_core anlegen – Header-Felder als Spalten, kein jsonb
         var core = MessageCore.builder()
                 .conversationId(conversationId)
                 .senderId(senderUserId)
-                .createdAt(Instant.now())
+                .senderDeviceId(senderDeviceId)
+                .createdAt(Instant.now().truncatedTo(ChronoUnit.MICROS)) // Postgres-Genauigkeit: Teil des Fremdschlüssels
                 .contentType(req.contentType())
-                .header(headerJson)
+                .msgType("text")
+                .epoch(req.epoch())
+                .counter(req.counter())
+                .logSeq(logSeq)
                 .build();
-        core = messageCoreRepo.save(core);
-
-        // 2) Zielgeräte bestimmen (alle Geräte aller Mitglieder, i. d. R. ohne gesperrte/abgemeldete)
-        var recipientDeviceIds = memberDeviceRepo.findAllDeviceIdsByConversationId(conversationId)
-                .stream()
-                // optional: Sendergerät ausschließen (Echo vermeiden)
-                .filter(id -> !id.equals(senderDeviceId))
-                .collect(Collectors.toSet());
-
-        // 3) Per-Device-Delivery erzeugen (identischer Ciphertext)
-        var msgHeader = new java.util.HashMap<String,Object>();
-        msgHeader.put("epoch", req.epoch());
-        msgHeader.put("counter", req.counter());
+        core = messageCoreRepo.saveAndFlush(core); // flush: Fan-out-Insert referenziert message_core per FK
 
+        // 2) Ciphertext einmalig ablegen (identisch für alle Zielgeräte)
         byte[] ciphertext = java.util.Base64.getDecoder().decode(req.ciphertextB64());
-
-        int deliveries = 0;
-        for (UUID devId : recipientDeviceIds) {
-            // Option: Gerät ist revoked? dann auslassen
-            UserDevice d = deviceRepo.findById(devId).orElse(null);
-            if (d == null || d.getRevokedAt() != null) continue;
-
-            var msgHeaderJson = mapper.writeValueAsString(msgHeader);
-
-
-            var delivery = MessageDelivery.builder()
-                    .messageId(core.getId())
-                    .recipientDeviceId(devId)
-                    .ciphertext(ciphertext)
-                    .msgHeader(msgHeaderJson)
-                    .build();
-            messageDeliveryRepo.save(delivery);
-            deliveries++;
+        payloadRepo.insert(core.getId(), core.getCreatedAt(), ciphertext);
+
+        // 3) Per-Device-Delivery set-basiert erzeugen:
+        // Zielgeräte = alle aktiven Geräte aller Mitglieder, Sendergerät ausgeschlossen (Echo vermeiden)
+        int deliveries;
+        if (logSeq != null) {
+            // Geräte lesen das Log über ihren conversation_log_cursor (fetchInbox); Push an alle aktiven Geräte
+            List<DeliveryFanout.Recipient> recipients = new ArrayList<>(route.activeDevices().size());
+            route.activeDevices().forEach((deviceId, userId) -> {
+                if (!deviceId.equals(senderDeviceId)) recipients.add(new DeliveryFanout.Recipient(null, deviceId, userId, null, logSeq));
+            });
+            publishCommitted(core, req.ciphertextB64(), recipients);
+            // eigene Nachricht zählt beim Sendergerät nicht als ungelesen (ohne Lesestand/ReadEvent vorzurücken)
+            if (senderDeviceId != null) unread.onSent(senderDeviceId, core);
+            deliveries = 0;
+        } else if (fanoutProps.async()) {
+            // Ack wartet nicht auf die Per-Device-Zeilen; FanoutWorker expandiert (und pusht) nach dem Commit
+            fanout.enqueueShared(core.getId(), core.getCreatedAt(), conversationId, senderDeviceId);
+            events.publishEvent(new FanoutEnqueuedEvent(core.getId()));
+            // Zeilen entstehen erst im Worker: erwartete Zielgeräte laut Routing-Cache
+            deliveries = (int) route.activeDevices().keySet().stream().filter(d -> !d.equals(senderDeviceId)).count();
+        } else {
+            var recipients = fanout.fanOutShared(core.getId(), core.getCreatedAt(), conversationId, senderDeviceId);
+            publishCommitted(core, req.ciphertextB64(), recipients);
+            deliveries = recipients.size();
         }
 
-        return new DTOs.SendMessageResponse(core.getId(), core.getCreatedAt(), deliveries);
+        var resp = new DTOs.SendMessageResponse(core.getId(), core.getCreatedAt(), deliveries);
+        if (clientMessageId != null) idempotency.complete(senderUserId, clientMessageId, resp);
+        return resp;
     }
 
     /** CK-Verteilung: sealed CK pro Gerät, daher Map<deviceId, ciphertextB64> */
     @Transactional
     public DTOs.SendMessageResponse distributeCK(UUID conversationId, DTOs.DistributeCKRequest req) throws JsonProcessingException {
-        var conv = conversationRepo.findById(conversationId)
+        routes.get(conversationId)
                 .orElseThrow(() -> new IllegalArgumentException("conversation not found"));
 
         // Header als Control-Message
@@ -119,91 +131,148 @@ public class MessageService {
         var core = MessageCore.builder()
                 .conversationId(conversationId)
                 .senderId(null) // optional: System/Control; oder Owner-User setzen
-                .createdAt(Instant.now())
+                .createdAt(Instant.now().truncatedTo(ChronoUnit.MICROS))
                 .contentType("control/ck_distribute")
+                .msgType("ck_distribute")
+                .epoch(req.epoch())
+                .counter(0L)
                 .header(headerJson)
                 .build();
-        core = messageCoreRepo.save(core);
+        core = messageCoreRepo.saveAndFlush(core);
 
-        int deliveries = 0;
+        // Nur aktive Geräte der Konversation erhalten ihren sealed CK (Prüfung im Batch-Insert)
+        Map<UUID, byte[]> sealed = new LinkedHashMap<>();
         for (var e : req.sealedForDevice().entrySet()) {
-            UUID devId = e.getKey();
-            byte[] sealed = java.util.Base64.getDecoder().decode(e.getValue());
-
-            var msgHeaderJson = mapper.writeValueAsString(Map.of("epoch", req.epoch(), "counter", 0));
-
-            // Option: prüfen, ob Gerät zur Konversation gehört
-            if (!memberDeviceRepo.existsByConversationIdAndDeviceId(conversationId, devId)) continue;
-
-            var delivery = MessageDelivery.builder()
-                    .messageId(core.getId())
-                    .recipientDeviceId(devId)
-                    .ciphertext(sealed)
-                    .msgHeader(msgHeaderJson)
-                    .build();
-            messageDeliveryRepo.save(delivery);
-            deliveries++;
+            sealed.put(e.getKey(), java.util.Base64.getDecoder().decode(e.getValue()));
+        }
+        var recipients = fanout.fanOutSealed(core.getId(), core.getCreatedAt(), conversationId, sealed);
+        if (!recipients.isEmpty()) {
+            events.publishEvent(new DeliveriesCommittedEvent(core.getId(), conversationId, core.getContentType(),
+                    headerJson, null, req.sealedForDevice(), core.getCreatedAt(), recipients));
+        }
+        return new DTOs.SendMessageResponse(core.getId(), core.getCreatedAt(), recipients.size());
+    }
+
+    // Push an die Empfänger erst nach dem Commit (DeliveryPushService)
+    private void publishCommitted(MessageCore core, String ciphertextB64, List<DeliveryFanout.Recipient> recipients) {
+        if (recipients.isEmpty()) return;
+        String header = MessageHeaderCodec.encode(core.getMsgType(), core.getEpoch(), core.getCounter(), core.getContentType());
+        events.publishEvent(new DeliveriesCommittedEvent(core.getId(), core.getConversationId(), core.getContentType(),
+                header, ciphertextB64, Map.of(), core.getCreatedAt(), recipients));
+    }
+    @Transactional(readOnly = true)
+    public DTOs.InboxResponse fetchInboxPage(UUID deviceId, String sinceCursor, int limit) {
+        var page = fetchInboxEntryPage(deviceId, sinceCursor, limit);
+        return new DTOs.InboxResponse(page.entries().stream().map(InboxEntry::toDto).toList(), page.nextCursor());
+    }
+
+    /** Wie fetchInboxPage, aber mit rohem Ciphertext (Binärformat, ohne Base64-Kopie). */
+    @Transactional(readOnly = true)
+    public InboxEntry.Page fetchInboxEntryPage(UUID deviceId, String sinceCursor, int limit) {
+        var cursor = resolveCursor(deviceId, sinceCursor);
+        var entries = fetchInboxEntries(deviceId, cursor, limit);
+        return new InboxEntry.Page(entries, cursor.after(entries).encode());
+    }
+
+    /**
+     * Cursor des Clients; alte Timestamp-Cursor werden auf die Gerätesequenz abgebildet.
+     * Ohne Cursor beginnt die Inbox hinter dem bestätigten Wasserstand des Geräts.
+     */
+    @Transactional(readOnly = true)
+    public InboxCursor resolveCursor(UUID deviceId, String sinceCursor) {
+        if (sinceCursor == null || sinceCursor.isBlank()) return new InboxCursor(acks.ackedSeq(deviceId), Map.of());
+        if (!InboxCursor.isLegacy(sinceCursor)) return InboxCursor.decode(sinceCursor);
+        try {
+            String[] p = sinceCursor.split(":");
+            var ts = Instant.ofEpochSecond(Long.parseLong(p[0]));
+            // Sekundengenau: lieber Nachrichten der letzten Sekunde doppelt als eine verlieren; Logs ab acked_seq
+            return new InboxCursor(messageDeliveryRepo.findLastSeqBefore(deviceId, ts), Map.of());
+        } catch (RuntimeException e) {
+            return InboxCursor.START;
         }
-        return new DTOs.SendMessageResponse(core.getId(), core.getCreatedAt(), deliveries);
     }
+
     @Transactional(readOnly = true)
-    public List<DTOs.DeliveryDTO> fetchInbox(UUID deviceId, String sinceCursor, int limit) {
-        var cursor = Cursor.decode(sinceCursor); // createdAt + messageId oder null
+    public List<InboxEntry> fetchInboxEntries(UUID deviceId, InboxCursor after, int limit) {
         var page = org.springframework.data.domain.PageRequest.of(0, limit);
-        List<Object[]> rows = messageDeliveryRepo.findNextForDevice(deviceId, cursor.createdAt, cursor.messageId, page);
+        List<Object[]> rows = messageDeliveryRepo.findNextForDevice(deviceId, after.seq(),
+                acks.deliveryFloor(deviceId, after.seq()), page);
+        // Logs der Fan-out-on-read-Konversationen, Position je Konversation (log_seq)
+        List<InboxEntry> log = fanout.logEntries(deviceId, after.logSeqs(), limit);
 
-        List<DTOs.DeliveryDTO> out = new ArrayList<>();
+        List<InboxEntry> direct = new ArrayList<>(rows.size());
         for (Object[] r : rows) {
-            // mapping: d.id, m.id, m.conversationId, m.contentType, m.header(json), d.ciphertext(bytea), m.createdAt
-            UUID deliveryId = (UUID) r[0];
-            UUID messageId  = (UUID) r[1];
-            UUID convId     = (UUID) r[2];
-            String ctype    = (String) r[3];
-            String header   = (String) r[4];
-            byte[] ct       = (byte[]) r[5];
-            Instant created = (Instant) r[6];
-
-            out.add(new DTOs.DeliveryDTO(
-                    deliveryId, messageId, convId, ctype, header,
-                    Base64.getEncoder().encodeToString(ct), created
-            ));
+            // mapping: d.id, m.id, m.conversationId, m.contentType, m.header(json, nur Control),
+            //          coalesce(d.ciphertext, payload.ciphertext)(bytea), m.createdAt, m.msgType, m.epoch, m.counter, d.seq
+            direct.add(toEntry(r));
         }
-        return out;
+        if (log.isEmpty()) return direct;
+        return merge(direct, log, limit);
+    }
+
+    private static InboxEntry toEntry(Object[] r) {
+        UUID deliveryId = (UUID) r[0];
+        UUID messageId  = (UUID) r[1];
+        UUID convId     = (UUID) r[2];
+        String ctype    = (String) r[3];
+        String header   = (String) r[4];
+        byte[] ct       = (byte[]) r[5];
+        Instant created = (Instant) r[6];
+        if (header == null) {
+            header = MessageHeaderCodec.encode((String) r[7], (Integer) r[8], (Long) r[9], ctype);
+        }
+        return new InboxEntry(deliveryId, messageId, convId, ctype, header, ct, created, (Long) r[10], null);
     }
 
-    public String computeNextCursor(List<DTOs.DeliveryDTO> items, String prev) {
-        if (items == null || items.isEmpty()) return prev; // oder null
-        DTOs.DeliveryDTO last = items.get(items.size()-1);
-        return Cursor.encode(last.createdAt(), last.messageId());
+    // Reihenfolge innerhalb jeder Liste bleibt erhalten (Seite = Präfix beider Listen, passend zum Cursor);
+    // zwischen den Listen nach createdAt verzahnt
+    private static List<InboxEntry> merge(List<InboxEntry> a, List<InboxEntry> b, int limit) {
+        Comparator<InboxEntry> order = Comparator.comparing(InboxEntry::createdAt)
+                .thenComparing(InboxEntry::messageId);
+        List<InboxEntry> out = new ArrayList<>(Math.min(limit, a.size() + b.size()));
+        int i = 0, j = 0;
+        while (out.size() < limit && (i < a.size() || j < b.size())) {
+            if (j >= b.size() || (i < a.size() && order.compare(a.get(i), b.get(j)) <= 0)) out.add(a.get(i++));
+            else out.add(b.get(j++));
+        }
+        return out;
     }
 
     @Transactional
-    public void ack(UUID deviceId, List<UUID> deliveryIds) {
-        if (deliveryIds == null || deliveryIds.isEmpty()) return;
-        messageDeliveryRepo.bulkSetDeliveredAt(deviceId, deliveryIds, Instant.now());
+    public void ack(UUID deviceId, List<UUID> deliveryIds, List<UUID> logMessageIds) {
+        if (deliveryIds != null && !deliveryIds.isEmpty())
+            messageDeliveryRepo.bulkSetDeliveredAt(deviceId, deliveryIds, Instant.now());
+        // Log-Einträge haben keine deliveryId; Cursor rückt kumulativ vor
+        if (logMessageIds != null && !logMessageIds.isEmpty())
+            logCursorRepo.advance(deviceId, logMessageIds);
     }
 
+    /**
+     * Kumulatives Ack: alles bis einschließlich cursor (nextCursor einer Inbox-Seite bzw. eines Stream-Frames).
+     * Gepuffert, geschrieben wird gebündelt (InboxAckBuffer).
+     */
+    public void ackUpTo(UUID deviceId, String cursor) {
+        if (cursor == null || cursor.isBlank()) return;
+        acks.ackUpTo(deviceId, resolveCursor(deviceId, cursor));
+    }
+
+    /**
+     * Setzt den Lesestand des Geräts in der Konversation der Nachricht auf diese Nachricht (kumulativ).
+     * @return Read-Event, falls der Wasserstand vorgerückt ist; leer bei älterer/gleicher Nachricht
+     *         oder wenn das Gerät kein Mitglied ist
+     */
     @Transactional
-    public void markRead(UUID deviceId, UUID messageId) {
-        messageDeliveryRepo.updateRead(deviceId, messageId, Instant.now());
-        // optional: publish READ event
+    public Optional<DTOs.ReadEvent> markRead(UUID deviceId, UUID messageId) {
+        if (readMarks.advance(deviceId, messageId) == 0) return Optional.empty();
+        return messageCoreRepo.findById(messageId).map(m -> {
+            unread.onRead(deviceId, m);
+            return new DTOs.ReadEvent(m.getConversationId(), m.getId(), m.getCreatedAt(), deviceId, Instant.now());
+        });
     }
 
-    // --- kleiner Cursor-Helper ---
-    static class Cursor {
-        final Instant createdAt;
-        final UUID messageId;
-        Cursor(Instant c, UUID id){ this.createdAt=c; this.messageId=id; }
-        static Cursor decode(String s){
-            if (s==null || s.isBlank()) return new Cursor(null, null);
-            // simple format: "<epochSecond>:<uuid>"
-            try {
-                String[] p = s.split(":");
-                return new Cursor(Instant.ofEpochSecond(Long.parseLong(p[0])), UUID.fromString(p[1]));
-            } catch(Exception e){ return new Cursor(null, null); }
-        }
-        static String encode(Instant ts, UUID id){
-            return ts==null||id==null ? null : (ts.getEpochSecond() + ":" + id);
-        }
+    /** Ungelesen-Zähler des Geräts, eine Zeile pro Konversation (Badges). */
+    @Transactional(readOnly = true)
+    public DTOs.UnreadResponse unread(UUID deviceId) {
+        return unread.forDevice(deviceId);
     }
 }
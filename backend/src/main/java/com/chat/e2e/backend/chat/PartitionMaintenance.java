@@ -0,0 +1,170 @@
+package com.chat.e2e.backend.chat;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Zeit-Partitionen von message_core/message_payload (created_at der Nachricht) und message_delivery
+ * (created_at der Delivery): legt sie im Voraus an und entfernt abgelaufene als Ganzes (DETACH + DROP)
+ * statt per DELETE.
+ * Eine Partition fällt erst weg, wenn ihr Zeitraum älter als die Retention ist und alles darin bestätigt ist:
+ * Deliveries bis device_inbox_ack.acked_seq oder einzeln per delivered_at (Ack je deliveryId, MessageService.ack),
+ * Log-Einträge bis conversation_log_cursor.acked_seq (widerrufene
+ * Geräte zählen nicht). Nachrichten-Partitionen hält außerdem der Fremdschlüssel, solange noch Deliveries
+ * oder offene Fan-out-Tasks darauf zeigen – DETACH schlägt dann fehl, der nächste Lauf versucht es erneut.
+ */
+@Slf4j
+@Component
+public class PartitionMaintenance {
+
+    static final String CORE = "message_core";
+    static final String PAYLOAD = "message_payload";
+    static final String DELIVERY = "message_delivery";
+
+    private static final DateTimeFormatter SUFFIX = DateTimeFormatter.ofPattern("'_p'yyyyMMdd").withZone(ZoneOffset.UTC);
+    // mehrere Instanzen: nur eine wartet die Partitionen
+    private static final long LOCK_KEY = 0x6368617450415254L;
+    // DDL sperrt die Elterntabelle exklusiv; lieber den Lauf verschieben als Sends hinter sich aufzustauen
+    private static final String LOCK_TIMEOUT = "2s";
+
+    private static final String PARTITIONS = """
+            select c.relname,
+                   (regexp_match(pg_get_expr(c.relpartbound, c.oid), 'FROM \\(''([^'']+)''\\)'))[1]::timestamptz,
+                   (regexp_match(pg_get_expr(c.relpartbound, c.oid), 'TO \\(''([^'']+)''\\)'))[1]::timestamptz
+              from pg_inherits i
+              join pg_class c on c.oid = i.inhrelid
+             where i.inhparent = cast(? as regclass)
+            """;
+
+    private static final String UNACKED_DELIVERIES = """
+            select exists (
+                select 1 from %s d
+                  join user_device ud on ud.id = d.recipient_device_id and ud.revoked_at is null
+                  left join device_inbox_ack a on a.device_id = d.recipient_device_id
+                 where d.delivered_at is null and (a.acked_seq is null or d.seq > a.acked_seq))
+            """;
+
+    private static final String UNACKED_LOG_ENTRIES = """
+            select exists (
+                select 1 from %s m
+                  join conversation_log_cursor c on c.conversation_id = m.conversation_id and c.acked_seq < m.log_seq
+                  join user_device ud on ud.id = c.device_id and ud.revoked_at is null
+                 where m.log_seq is not null
+                   and c.device_id is distinct from m.sender_device_id)
+            """;
+
+    private final JdbcTemplate jdbc;
+    private final TransactionTemplate tx;
+    private final PartitionProperties props;
+    private final Counter dropped;
+
+    public PartitionMaintenance(JdbcTemplate jdbc, PlatformTransactionManager txManager,
+                                PartitionProperties props, MeterRegistry meters) {
+        this.jdbc = jdbc;
+        this.tx = new TransactionTemplate(txManager);
+        this.props = props;
+        this.dropped = Counter.builder("chat.partitions.dropped")
+                .description("Entfernte Zeit-Partitionen").register(meters);
+    }
+
+    @Scheduled(fixedDelayString = "${chat.partitions.maintenance-interval:PT1H}")
+    public void maintain() {
+        var now = Instant.now();
+        try {
+            createAhead(now);
+            dropExpired(now);
+        } catch (DataAccessException e) {
+            log.warn("partition maintenance failed, will retry", e);
+        }
+    }
+
+    /** Partitionen bis now + premake * width; Nachrichten und Payloads mit identischen Grenzen. */
+    void createAhead(Instant now) {
+        var horizon = now.plus(props.width().multipliedBy(props.premake()));
+        locked(() -> {
+            for (String table : List.of(CORE, PAYLOAD, DELIVERY)) {
+                Instant from = partitions(table).stream().map(Partition::to).filter(Objects::nonNull)
+                        .max(Comparator.naturalOrder()).orElse(now.truncatedTo(ChronoUnit.DAYS));
+                while (from.isBefore(horizon)) {
+                    Instant to = from.plus(props.width());
+                    jdbc.execute("create table if not exists %s partition of %s for values from ('%s') to ('%s')"
+                            .formatted(table + SUFFIX.format(from), table, from, to));
+                    from = to;
+                }
+            }
+        });
+    }
+
+    /** Partitionen, deren Zeitraum vor now - retention endet: erst Deliveries, dann Nachrichten samt Payload. */
+    void dropExpired(Instant now) {
+        var cutoff = now.minus(props.retention());
+        for (var p : expired(DELIVERY, cutoff)) {
+            locked(() -> {
+                if (Boolean.TRUE.equals(jdbc.queryForObject(UNACKED_DELIVERIES.formatted(p.name()), Boolean.class))) return;
+                detachAndDrop(DELIVERY, p.name());
+            });
+        }
+        for (var p : expired(CORE, cutoff)) {
+            String payload = PAYLOAD + p.name().substring(CORE.length());
+            try {
+                locked(() -> {
+                    if (Boolean.TRUE.equals(jdbc.queryForObject(UNACKED_LOG_ENTRIES.formatted(p.name()), Boolean.class))) return;
+                    jdbc.update("delete from message_idempotency where message_id in (select id from %s)".formatted(p.name()));
+                    detachAndDrop(PAYLOAD, payload);
+                    detachAndDrop(CORE, p.name()); // Fremdschlüssel prüft: keine Deliveries/Tasks mehr
+                });
+            } catch (DataIntegrityViolationException e) {
+                log.debug("partition {} still referenced, keeping it", p.name());
+            }
+        }
+    }
+
+    private List<Partition> expired(String table, Instant cutoff) {
+        return partitions(table).stream().filter(p -> p.to() != null && !p.to().isAfter(cutoff)).toList();
+    }
+
+    private void detachAndDrop(String table, String partition) {
+        jdbc.execute("alter table %s detach partition %s".formatted(table, partition));
+        jdbc.execute("drop table " + partition);
+        dropped.increment();
+        log.info("dropped partition {}", partition);
+    }
+
+    private void locked(Runnable work) {
+        tx.executeWithoutResult(s -> {
+            jdbc.execute("set local lock_timeout = '" + LOCK_TIMEOUT + "'");
+            if (Boolean.TRUE.equals(jdbc.queryForObject("select pg_try_advisory_xact_lock(?)", Boolean.class, LOCK_KEY))) {
+                work.run();
+            }
+        });
+    }
+
+    List<Partition> partitions(String table) {
+        return jdbc.query(PARTITIONS, (rs, i) -> new Partition(rs.getString(1),
+                instant(rs.getTimestamp(2)), instant(rs.getTimestamp(3))), table);
+    }
+
+    private static Instant instant(Timestamp ts) {
+        return ts == null ? null : ts.toInstant();
+    }
+
+    /** from = null bei MINVALUE (Bestandspartition *_p0). */
+    record Partition(String name, Instant from, Instant to) {}
+}
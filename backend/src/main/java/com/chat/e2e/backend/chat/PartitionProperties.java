@@ -0,0 +1,29 @@
+package com.chat.e2e.backend.chat;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+
+/**
+ * chat.partitions.* – Zeit-Partitionen von message_core, message_payload und message_delivery.
+ *
+ * @param width               Zeitraum einer Partition (ganze Tage)
+ * @param premake             so viele Partitionen liegen im Voraus bereit
+ * @param retention           Partitionen, deren Zeitraum länger zurückliegt, werden entfernt, sobald alles darin bestätigt ist
+ * @param maintenanceInterval Intervall für Anlegen und Entfernen
+ */
+@ConfigurationProperties(prefix = "chat.partitions")
+public record PartitionProperties(
+        @DefaultValue("P7D") Duration width,
+        @DefaultValue("4") int premake,
+        @DefaultValue("P30D") Duration retention,
+        @DefaultValue("PT1H") Duration maintenanceInterval
+) {
+    public PartitionProperties {
+        // Partitionsnamen tragen das Startdatum
+        if (width.toSeconds() % Duration.ofDays(1).toSeconds() != 0 || width.isZero() || width.isNegative()) {
+            throw new IllegalArgumentException("chat.partitions.width must be a whole number of days");
+        }
+    }
+}
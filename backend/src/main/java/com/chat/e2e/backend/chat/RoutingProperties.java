@@ -0,0 +1,18 @@
+package com.chat.e2e.backend.chat;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+
+/**
+ * chat.routing.* – In-Memory-Routing-Tabelle pro Konversation.
+ *
+ * @param maxSize maximale Zahl gecachter Konversationen (LRU-ähnliche Verdrängung)
+ * @param ttl     Sicherheitsnetz: Einträge verfallen spätestens nach dieser Zeit, auch ohne Invalidierung
+ */
+@ConfigurationProperties(prefix = "chat.routing")
+public record RoutingProperties(
+        @DefaultValue("10000") long maxSize,
+        @DefaultValue("PT10M") Duration ttl
+) {}
@@ -0,0 +1,131 @@
+package com.chat.e2e.backend.chat;
+
+import com.chat.e2e.backend.api.dto.DTOs;
+import com.chat.e2e.backend.cluster.ClusterBus;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Idempotentes Senden über clientMessageId.
+ * Der Claim (Insert in message_idempotency) läuft vor dem Anlegen der Nachricht in der Send-Transaktion;
+ * ein Retry bekommt die ursprüngliche SendMessageResponse zurück, ohne message_core/Fan-out zu wiederholen.
+ * Zuletzt gesehene Antworten liegen zusätzlich in einem begrenzten Cache (erst nach dem Commit befüllt).
+ * Löscht der Purge abgelaufene IDs, verwerfen alle Instanzen (ClusterBus) die Antworten davor – ein Retry wird dann
+ * überall gleich als neue Nachricht behandelt; nach einer Bus-Unterbrechung wird der Cache geleert.
+ */
+@Slf4j
+@Component
+public class SendIdempotency {
+
+    static final String CHANNEL = "chat_idempotency";
+
+    // Bei Konflikt wartet Postgres auf den konkurrierenden Claim; danach 0 Zeilen → Duplikat
+    private static final String CLAIM = """
+            insert into message_idempotency (sender_id, client_message_id)
+            values (?, ?)
+            on conflict do nothing
+            """;
+
+    private static final String COMPLETE = """
+            update message_idempotency set message_id = ?, deliveries = ?
+             where sender_id = ? and client_message_id = ?
+            """;
+
+    private static final String FIND = """
+            select i.message_id, m.created_at, i.deliveries
+              from message_idempotency i
+              join message_core m on m.id = i.message_id
+             where i.sender_id = ? and i.client_message_id = ?
+            """;
+
+    private final JdbcTemplate jdbc;
+    private final IdempotencyProperties props;
+    private final ClusterBus bus;
+    private final Cache<Key, DTOs.SendMessageResponse> recent;
+
+    public SendIdempotency(JdbcTemplate jdbc, IdempotencyProperties props, ClusterBus bus, MeterRegistry meters) {
+        this.jdbc = jdbc;
+        this.props = props;
+        this.bus = bus;
+        this.recent = Caffeine.newBuilder()
+                .maximumSize(props.cacheSize())
+                .expireAfterWrite(props.window())
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meters, recent, "message.idempotency");
+        bus.subscribe(CHANNEL, message -> evictBefore(Instant.parse(message)));
+        bus.onGap(recent::invalidateAll);
+    }
+
+    /**
+     * Muss in der Send-Transaktion laufen.
+     *
+     * @return leer, wenn dieser Aufruf die ID beansprucht hat (normal weitersenden);
+     *         sonst die Antwort des ursprünglichen Sends
+     */
+    public Optional<DTOs.SendMessageResponse> claimOrGet(UUID senderId, UUID clientMessageId) {
+        var key = new Key(senderId, clientMessageId);
+        var cached = recent.getIfPresent(key);
+        if (cached != null) return Optional.of(cached);
+
+        if (jdbc.update(CLAIM, senderId, clientMessageId) == 1) return Optional.empty();
+
+        List<DTOs.SendMessageResponse> found = jdbc.query(FIND, (rs, i) -> new DTOs.SendMessageResponse(
+                rs.getObject(1, UUID.class), rs.getTimestamp(2).toInstant(), rs.getInt(3)
+        ), senderId, clientMessageId);
+        if (found.isEmpty()) {
+            // Claim ohne Nachricht: nur möglich, wenn der Erstversuch noch nicht abgeschlossen hat
+            throw new IllegalStateException("send with clientMessageId " + clientMessageId + " still in progress");
+        }
+        recent.put(key, found.get(0));
+        return Optional.of(found.get(0));
+    }
+
+    /** Antwort zum Claim ablegen; Cache erst nach erfolgreichem Commit. */
+    public void complete(UUID senderId, UUID clientMessageId, DTOs.SendMessageResponse resp) {
+        jdbc.update(COMPLETE, resp.messageId(), resp.deliveries(), senderId, clientMessageId);
+        var key = new Key(senderId, clientMessageId);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    recent.put(key, resp);
+                }
+            });
+        } else {
+            recent.put(key, resp);
+        }
+    }
+
+    /** Einträge außerhalb des Dedupe-Fensters entfernen. */
+    @Scheduled(fixedDelayString = "${chat.idempotency.purge-interval:PT10M}")
+    public void purgeExpired() {
+        var cutoff = Instant.now().minus(props.window());
+        int n = jdbc.update("delete from message_idempotency where created_at < ?", Timestamp.from(cutoff));
+        if (n == 0) return;
+        log.debug("purged {} idempotency keys", n);
+        evictBefore(cutoff);
+        bus.publish(CHANNEL, cutoff.toString());
+    }
+
+    // Claim und Nachricht entstehen in derselben Transaktion: createdAt der Antwort ≈ created_at des Claims
+    private void evictBefore(Instant cutoff) {
+        recent.asMap().values().removeIf(r -> r.createdAt().isBefore(cutoff));
+    }
+
+    private record Key(UUID senderId, UUID clientMessageId) {}
+}
@@ -0,0 +1,87 @@
+package com.chat.e2e.backend.chat;
+
+import com.chat.e2e.backend.api.dto.DTOs;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Änderungen an Konversationen, Mitgliedschaften und Geräten eines Users seit einem Sync-Token (V12: sync_xid).
+ * Ohne Token: voller Stand (Bootstrap). Eine geänderte Konversation kommt mit vollständiger Mitgliederliste.
+ * Token = xmin des Snapshots, gelesen vor den Daten – Zeilen können doppelt kommen, aber keine fehlt.
+ */
+@Component
+@RequiredArgsConstructor
+public class SyncChangeFeed {
+
+    private static final String CURRENT_TOKEN = "select pg_snapshot_xmin(pg_current_snapshot())::text";
+
+    // eigene Mitgliedschaften über idx_conv_member_user; geändert = Konversation oder eine ihrer Mitgliedschaften
+    private static final String CHANGED_CONVERSATIONS = """
+            select c.id, c.is_group, c.created_at, m.user_id, u.handle
+              from conversation_member me
+              join conversation c on c.id = me.conversation_id
+              join conversation_member m on m.conversation_id = c.id
+              join app_user u on u.id = m.user_id
+             where me.user_id = ?
+               and (c.sync_xid >= cast(? as xid8)
+                    or exists (select 1 from conversation_member x
+                                where x.conversation_id = c.id and x.sync_xid >= cast(? as xid8)))
+             order by c.created_at, c.id, u.handle
+            """;
+
+    private static final String CHANGED_DEVICES = """
+            select id, platform, revoked_at, last_seen_at
+              from user_device
+             where user_id = ? and sync_xid >= cast(? as xid8)
+             order by created_at, id
+            """;
+
+    private final JdbcTemplate jdbc;
+
+    public DTOs.SyncChangesResponse changes(UUID userId, String since) {
+        String after = since == null || since.isBlank() ? "0" : parseToken(since);
+        String token = jdbc.queryForObject(CURRENT_TOKEN, String.class);
+
+        Map<UUID, DTOs.ConversationBrief> convs = new LinkedHashMap<>();
+        jdbc.query(CHANGED_CONVERSATIONS, rs -> {
+            UUID convId = rs.getObject(1, UUID.class);
+            var conv = convs.get(convId);
+            if (conv == null) {
+                conv = new DTOs.ConversationBrief(convId, rs.getBoolean(2), instant(rs.getTimestamp(3)), new ArrayList<>());
+                convs.put(convId, conv);
+            }
+            conv.members().add(new DTOs.MemberBrief(rs.getObject(4, UUID.class), rs.getString(5)));
+        }, userId, after, after);
+
+        List<DTOs.UserDeviceBrief> devices = jdbc.query(CHANGED_DEVICES, (rs, i) -> new DTOs.UserDeviceBrief(
+                rs.getObject(1, UUID.class), rs.getString(2),
+                instant(rs.getTimestamp(3)), instant(rs.getTimestamp(4))), userId, after);
+
+        List<DTOs.ConversationBrief> conversations = convs.values().stream()
+                .map(c -> new DTOs.ConversationBrief(c.conversationId(), c.isGroup(), c.createdAt(), List.copyOf(c.members())))
+                .toList();
+        return new DTOs.SyncChangesResponse(token, conversations, devices);
+    }
+
+    // Token ist eine xid8 (dezimal); alles andere ist ein Client-Fehler
+    private static String parseToken(String token) {
+        try {
+            return Long.toUnsignedString(Long.parseUnsignedLong(token));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid sync token");
+        }
+    }
+
+    private static Instant instant(Timestamp ts) {
+        return ts == null ? null : ts.toInstant();
+    }
+}
@@ -0,0 +1,104 @@
+package com.chat.e2e.backend.chat;
+
+import com.chat.e2e.backend.api.dto.DTOs;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Ungelesen-Zähler pro (Gerät, Konversation): ein Badge-Abruf liest eine Zeile pro Konversation,
+ * statt ungelesene Deliveries zu zählen.
+ * Direkte Konversationen: DeliveryFanout zählt beim Fan-out hoch (conversation_unread), ein Read setzt den
+ * Zähler auf die Nachrichten hinter dem neuen Lesestand – damit korrigiert jeder Read auch Abweichungen.
+ * Fan-out-on-read: log_seq der Konversation minus gelesener Log-Sequenz des Geräts; der Log-Cursor entsteht mit
+ * dem Beitritt am damaligen Log-Ende (V15), gezählt wird also ab dem Beitrittspunkt.
+ */
+@Component
+@RequiredArgsConstructor
+public class UnreadCounters {
+
+    private static final String FOR_DEVICES = """
+            select cmd.device_id, cmd.conversation_id,
+                   case when c.fanout_on_read then greatest(c.log_seq - coalesce(lc.read_log_seq, 0), 0)
+                        else coalesce(u.unread, 0) end
+              from conversation_member_device cmd
+              join conversation c on c.id = cmd.conversation_id
+              left join conversation_unread u on u.device_id = cmd.device_id and u.conversation_id = cmd.conversation_id
+              left join conversation_log_cursor lc on lc.device_id = cmd.device_id and lc.conversation_id = cmd.conversation_id
+             where cmd.device_id = any(?)
+             order by cmd.device_id, cmd.conversation_id
+            """;
+
+    // Rest hinter dem Lesestand; nur geteilte Nachrichten (sealed Control-Messages zählt der Fan-out nicht)
+    private static final String RECOUNT = """
+            update conversation_unread u
+               set unread = (select count(*)
+                               from message_core m
+                               join message_delivery d on d.message_id = m.id and d.message_created_at = m.created_at
+                              where m.conversation_id = u.conversation_id
+                                and m.created_at >= ?
+                                and (m.created_at, m.id) > (cast(? as timestamptz), cast(? as uuid))
+                                and d.recipient_device_id = u.device_id
+                                and d.created_at >= m.created_at
+                                and d.ciphertext is null)
+             where u.device_id = ?
+               and u.conversation_id = ?
+            """;
+
+    private static final String LOG_READ = """
+            update conversation_log_cursor
+               set read_log_seq = ?
+             where device_id = ? and conversation_id = ? and read_log_seq < ?
+            """;
+
+    // eigene Nachricht: nur lückenlos hinter dem Lesestand, sonst blieben ältere fremde Einträge ungezählt
+    private static final String LOG_SENT = """
+            update conversation_log_cursor
+               set read_log_seq = ?
+             where device_id = ? and conversation_id = ? and read_log_seq = ? - 1
+            """;
+
+    private final JdbcTemplate jdbc;
+
+    public DTOs.UnreadResponse forDevice(UUID deviceId) {
+        var all = forDevices(List.of(deviceId));
+        return all.isEmpty() ? new DTOs.UnreadResponse(deviceId, List.of()) : all.get(0);
+    }
+
+    public List<DTOs.UnreadResponse> forDevices(List<UUID> deviceIds) {
+        if (deviceIds.isEmpty()) return List.of();
+        Map<UUID, List<DTOs.ConversationUnread>> byDevice = new LinkedHashMap<>();
+        jdbc.query(FOR_DEVICES, rs -> {
+            byDevice.computeIfAbsent(rs.getObject(1, UUID.class), k -> new ArrayList<>())
+                    .add(new DTOs.ConversationUnread(rs.getObject(2, UUID.class), rs.getLong(3)));
+        }, (Object) deviceIds.toArray(UUID[]::new));
+        return byDevice.entrySet().stream().map(e -> new DTOs.UnreadResponse(e.getKey(), e.getValue())).toList();
+    }
+
+    /**
+     * Eigene Log-Nachricht des Sendergeräts zählt dort nicht als ungelesen – sofern das Gerät bis davor gelesen
+     * hat (log_seq wird lückenlos vergeben). Hängt es hinterher, zählt sie bis zum nächsten Read mit.
+     * Direkte Nachrichten erzeugen beim Sendergerät keine Delivery, dort ist nichts zu tun.
+     */
+    public void onSent(UUID senderDeviceId, MessageCore m) {
+        if (m.getLogSeq() == null) return;
+        jdbc.update(LOG_SENT, m.getLogSeq(), senderDeviceId, m.getConversationId(), m.getLogSeq());
+    }
+
+    /** Lesestand des Geräts ist bis m vorgerückt. */
+    public void onRead(UUID deviceId, MessageCore m) {
+        if (m.getLogSeq() != null) {
+            jdbc.update(LOG_READ, m.getLogSeq(), deviceId, m.getConversationId(), m.getLogSeq());
+        } else {
+            var at = Timestamp.from(m.getCreatedAt());
+            jdbc.update(RECOUNT, at, at, m.getId(), deviceId, m.getConversationId());
+        }
+    }
+}
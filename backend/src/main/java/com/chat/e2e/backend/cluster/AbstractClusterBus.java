@@ -0,0 +1,67 @@
+package com.chat.e2e.backend.cluster;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+/** Handler-Verwaltung und Absender-Filter; Nachrichten auf dem Transport: "<nodeId> <payload>". */
+@Slf4j
+abstract class AbstractClusterBus implements ClusterBus {
+
+    private static final Pattern CHANNEL = Pattern.compile("[a-z0-9_]+");
+
+    protected final String nodeId = UUID.randomUUID().toString();
+    protected final Map<String, List<Consumer<String>>> handlers = new ConcurrentHashMap<>();
+    protected final List<Runnable> gapHandlers = new CopyOnWriteArrayList<>();
+
+    @Override
+    public void subscribe(String channel, Consumer<String> handler) {
+        checkChannel(channel);
+        handlers.computeIfAbsent(channel, k -> new CopyOnWriteArrayList<>()).add(handler);
+    }
+
+    @Override
+    public void onGap(Runnable handler) {
+        gapHandlers.add(handler);
+    }
+
+    protected static void checkChannel(String channel) {
+        if (channel == null || !CHANNEL.matcher(channel).matches())
+            throw new IllegalArgumentException("invalid cluster channel: " + channel);
+    }
+
+    protected String envelope(String payload) {
+        return nodeId + ' ' + payload;
+    }
+
+    /** @return false für eigene bzw. unlesbare Nachrichten */
+    protected boolean dispatch(String channel, String message) {
+        int sp = message.indexOf(' ');
+        if (sp < 0 || nodeId.equals(message.substring(0, sp))) return false;
+        var payload = message.substring(sp + 1);
+        for (var h : handlers.getOrDefault(channel, List.of())) {
+            try {
+                h.accept(payload);
+            } catch (RuntimeException e) {
+                log.warn("cluster handler on {} failed", channel, e);
+            }
+        }
+        return true;
+    }
+
+    protected void gap() {
+        for (var h : gapHandlers) {
+            try {
+                h.run();
+            } catch (RuntimeException e) {
+                log.warn("cluster gap handler failed", e);
+            }
+        }
+    }
+}
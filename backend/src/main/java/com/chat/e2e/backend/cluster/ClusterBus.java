@@ -0,0 +1,31 @@
+package com.chat.e2e.backend.cluster;
+
+import java.util.function.Consumer;
+
+/**
+ * Nachrichten zwischen Backend-Instanzen (Cache-Invalidierung, Relay).
+ * Zustellung an alle anderen Instanzen, at-most-once; eigene Nachrichten kommen nicht zurück.
+ * Umschaltbar über chat.cluster.bus: postgres (LISTEN/NOTIFY) oder local (eine JVM).
+ */
+public interface ClusterBus {
+
+    /**
+     * Sendet sofort (eigene Transaktion) – Aufrufer, die Änderungen ankündigen, rufen nach dem Commit auf.
+     * Kanalnamen: [a-z0-9_]+.
+     */
+    void publish(String channel, String payload);
+
+    /** Handler laufen im Empfangs-Thread des Busses, sollen also nicht blockieren. */
+    void subscribe(String channel, Consumer<String> handler);
+
+    /**
+     * Wird aufgerufen, wenn Nachrichten verloren gegangen sein können (Verbindungsabbruch),
+     * z.B. um Caches komplett zu verwerfen.
+     */
+    void onGap(Runnable handler);
+
+    /** Obergrenze für payload in Bytes (UTF-8); größere Nachrichten lehnt publish mit IllegalArgumentException ab. */
+    default int maxPayloadBytes() {
+        return Integer.MAX_VALUE;
+    }
+}
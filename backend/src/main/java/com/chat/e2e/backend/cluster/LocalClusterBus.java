@@ -0,0 +1,37 @@
+package com.chat.e2e.backend.cluster;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * ClusterBus innerhalb einer JVM: alle Instanzen (z.B. mehrere Spring-Kontexte in einem Test) hören einander,
+ * zugestellt wird synchron im Thread des Senders. Für Einzelbetrieb ohne Postgres-Verbindung und Tests.
+ */
+@Component
+@ConditionalOnProperty(prefix = "chat.cluster", name = "bus", havingValue = "local", matchIfMissing = true)
+public class LocalClusterBus extends AbstractClusterBus {
+
+    private static final Set<LocalClusterBus> NODES = ConcurrentHashMap.newKeySet();
+
+    public LocalClusterBus() {
+        NODES.add(this);
+    }
+
+    @Override
+    public void publish(String channel, String payload) {
+        checkChannel(channel);
+        var message = envelope(payload);
+        for (var node : NODES) {
+            if (node != this) node.dispatch(channel, message);
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        NODES.remove(this);
+    }
+}
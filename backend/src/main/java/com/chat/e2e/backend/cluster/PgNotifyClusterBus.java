@@ -0,0 +1,130 @@
+package com.chat.e2e.backend.cluster;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.postgresql.PGConnection;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+
+/**
+ * ClusterBus über Postgres LISTEN/NOTIFY.
+ * Empfang über eine eigene Verbindung außerhalb des Pools (LISTEN-Zustand hängt an der Session),
+ * ein Thread fragt Benachrichtigungen ab. Nach einem Verbindungsabbruch: neu verbinden, neu LISTEN, onGap-Handler.
+ * Senden per pg_notify in eigener Transaktion. NOTIFY-Payloads sind auf knapp 8000 Bytes begrenzt.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(prefix = "chat.cluster", name = "bus", havingValue = "postgres")
+public class PgNotifyClusterBus extends AbstractClusterBus {
+
+    static final int MAX_PAYLOAD_BYTES = 7900;
+    private static final Duration POLL = Duration.ofMillis(500);
+    private static final Duration RECONNECT_BACKOFF = Duration.ofSeconds(2);
+
+    private final DataSourceProperties dataSource;
+    private final JdbcTemplate jdbc;
+    private final TransactionTemplate tx;
+    private final Queue<String> toListen = new ConcurrentLinkedQueue<>();
+    private final Counter published;
+    private final Counter received;
+    private final Counter reconnects;
+    private final Thread listener;
+    private volatile boolean running = true;
+
+    public PgNotifyClusterBus(DataSourceProperties dataSource, JdbcTemplate jdbc,
+                              PlatformTransactionManager txManager, MeterRegistry meters) {
+        this.dataSource = dataSource;
+        this.jdbc = jdbc;
+        this.tx = new TransactionTemplate(txManager);
+        this.tx.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.published = Counter.builder("chat.cluster.published").description("Gesendete Cluster-Nachrichten").register(meters);
+        this.received = Counter.builder("chat.cluster.received").description("Empfangene Cluster-Nachrichten").register(meters);
+        this.reconnects = Counter.builder("chat.cluster.reconnects").description("Neu aufgebaute LISTEN-Verbindungen").register(meters);
+        this.listener = Thread.ofPlatform().name("cluster-bus-listener").daemon().start(this::listen);
+    }
+
+    @Override
+    public void publish(String channel, String payload) {
+        checkChannel(channel);
+        var message = envelope(payload);
+        if (message.getBytes(StandardCharsets.UTF_8).length > MAX_PAYLOAD_BYTES)
+            throw new IllegalArgumentException("cluster message too large for NOTIFY");
+        tx.executeWithoutResult(s -> jdbc.queryForList("select pg_notify(?, ?)", channel, message));
+        published.increment();
+    }
+
+    @Override
+    public int maxPayloadBytes() {
+        return MAX_PAYLOAD_BYTES - envelope("").getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    @Override
+    public void subscribe(String channel, Consumer<String> handler) {
+        super.subscribe(channel, handler);
+        toListen.add(channel); // LISTEN nur aus dem Empfangs-Thread (Verbindung ist nicht thread-safe)
+    }
+
+    private void listen() {
+        boolean connectedBefore = false;
+        while (running) {
+            try (Connection c = DriverManager.getConnection(dataSource.determineUrl(),
+                    dataSource.determineUsername(), dataSource.determinePassword())) {
+                var pg = c.unwrap(PGConnection.class);
+                toListen.clear();
+                for (String channel : handlers.keySet()) listen(c, channel);
+                if (connectedBefore) {
+                    reconnects.increment();
+                    gap(); // Benachrichtigungen während der Unterbrechung sind verloren
+                }
+                connectedBefore = true;
+                while (running) {
+                    String channel;
+                    while ((channel = toListen.poll()) != null) listen(c, channel);
+                    var notifications = pg.getNotifications((int) POLL.toMillis());
+                    if (notifications == null) continue;
+                    for (var n : notifications) {
+                        if (dispatch(n.getName(), n.getParameter())) received.increment();
+                    }
+                }
+            } catch (SQLException e) {
+                if (!running) return;
+                log.warn("cluster bus connection lost, reconnecting in {}", RECONNECT_BACKOFF, e);
+                try {
+                    Thread.sleep(RECONNECT_BACKOFF);
+                } catch (InterruptedException ie) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private static void listen(Connection c, String channel) throws SQLException {
+        try (Statement st = c.createStatement()) {
+            st.execute("LISTEN \"" + channel + "\""); // Kanalname per checkChannel auf [a-z0-9_]+ beschränkt
+        }
+    }
+
+    @PreDestroy
+    void shutdown() throws InterruptedException {
+        running = false;
+        listener.interrupt();
+        listener.join(POLL.multipliedBy(4).toMillis());
+    }
+}
@@ -0,0 +1,140 @@
+package com.chat.e2e.backend.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * DataSource mit Semaphore vor dem Pool: auf Virtual Threads gibt es keinen knappen Thread-Pool mehr, der
+ * die gleichzeitige Datenbankarbeit begrenzt. Ohne Bulkhead würden sich bei erschöpftem Hikari-Pool beliebig
+ * viele Threads bis zum connectionTimeout (30 s) anstellen. Hier hält jede ausgegebene Verbindung ein Permit
+ * (Anzahl = Poolgröße) bis close(); wartende Threads sind auf maxWaiting und acquireTimeout begrenzt,
+ * darüber scheitert getConnection sofort mit SQLTransientConnectionException.
+ */
+public class JdbcBulkhead extends DelegatingDataSource {
+
+    private final Semaphore permits;
+    private final int maxWaiting;
+    private final long timeoutNanos;
+    private final Counter rejected;
+
+    public JdbcBulkhead(DataSource target, JdbcBulkheadProperties props, MeterRegistry meters) {
+        super(target);
+        int size = props.permits() > 0 ? props.permits() : poolSize(target);
+        this.permits = new Semaphore(size, true);
+        this.maxWaiting = props.maxWaiting();
+        this.timeoutNanos = props.acquireTimeout().toNanos();
+
+        Gauge.builder("chat.jdbc.bulkhead.waiting", permits, Semaphore::getQueueLength)
+                .description("Auf eine JDBC-Verbindung wartende Threads").register(meters);
+        Gauge.builder("chat.jdbc.bulkhead.available", permits, Semaphore::availablePermits)
+                .description("Freie Permits des JDBC-Bulkheads").register(meters);
+        this.rejected = Counter.builder("chat.jdbc.bulkhead.rejected")
+                .description("Abgewiesene Verbindungsanfragen (zu viele Wartende oder Timeout)").register(meters);
+    }
+
+    private static int poolSize(DataSource target) {
+        try {
+            if (target.isWrapperFor(HikariDataSource.class)) return target.unwrap(HikariDataSource.class).getMaximumPoolSize();
+        } catch (SQLException e) {
+            // kein Hikari erkennbar
+        }
+        return 10; // Hikari-Default
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        acquire();
+        return guarded(super::getConnection);
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        acquire();
+        return guarded(() -> super.getConnection(username, password));
+    }
+
+    private void acquire() throws SQLException {
+        if (permits.tryAcquire()) return;
+        if (permits.getQueueLength() >= maxWaiting) {
+            rejected.increment();
+            throw new SQLTransientConnectionException("JDBC bulkhead: " + maxWaiting + " threads already waiting");
+        }
+        try {
+            if (permits.tryAcquire(timeoutNanos, TimeUnit.NANOSECONDS)) return;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLTransientConnectionException("interrupted while waiting for JDBC bulkhead", e);
+        }
+        rejected.increment();
+        throw new SQLTransientConnectionException("JDBC bulkhead: no connection within " + timeoutNanos / 1_000_000 + " ms");
+    }
+
+    private interface ConnectionSupplier {
+        Connection get() throws SQLException;
+    }
+
+    // Permit wird mit dem ersten close() der Verbindung zurückgegeben.
+    // Identität (equals/hashCode/toString) und unwrap/isWrapperFor beantwortet der Proxy selbst: unwrap(Connection)
+    // darf die Pool-Verbindung nicht herausgeben, sonst gibt deren close() das Permit nie zurück. Andere
+    // Schnittstellen (z. B. PGConnection für LISTEN) kommen weiter von der Pool-Verbindung.
+    private Connection guarded(ConnectionSupplier supplier) throws SQLException {
+        Connection connection;
+        try {
+            connection = supplier.get();
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+        var released = new AtomicBoolean();
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "close" -> {
+                            if (released.compareAndSet(false, true)) {
+                                try {
+                                    connection.close();
+                                } finally {
+                                    permits.release();
+                                }
+                            }
+                            return null;
+                        }
+                        case "equals" -> {
+                            if (method.getParameterCount() == 1) return proxy == args[0];
+                        }
+                        case "hashCode" -> {
+                            if (method.getParameterCount() == 0) return System.identityHashCode(proxy);
+                        }
+                        case "toString" -> {
+                            if (method.getParameterCount() == 0) return "JdbcBulkhead[" + connection + "]";
+                        }
+                        case "unwrap" -> {
+                            if (((Class<?>) args[0]).isInstance(proxy)) return proxy;
+                        }
+                        case "isWrapperFor" -> {
+                            if (((Class<?>) args[0]).isInstance(proxy)) return true;
+                        }
+                        default -> {
+                        }
+                    }
+                    try {
+                        return method.invoke(connection, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getTargetException();
+                    }
+                });
+    }
+}
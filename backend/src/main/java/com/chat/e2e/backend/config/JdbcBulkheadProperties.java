@@ -0,0 +1,20 @@
+package com.chat.e2e.backend.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+
+/**
+ * chat.jdbc.bulkhead.* – Begrenzung der JDBC-Arbeit im Profil virtual-threads (JdbcBulkhead).
+ *
+ * @param permits        gleichzeitig gehaltene Verbindungen; 0 = maximumPoolSize des Hikari-Pools
+ * @param maxWaiting     so viele Threads dürfen auf eine Verbindung warten, weitere scheitern sofort
+ * @param acquireTimeout so lange wartet ein Thread höchstens auf eine Verbindung
+ */
+@ConfigurationProperties(prefix = "chat.jdbc.bulkhead")
+public record JdbcBulkheadProperties(
+        @DefaultValue("0") int permits,
+        @DefaultValue("200") int maxWaiting,
+        @DefaultValue("PT2S") Duration acquireTimeout
+) {}
@@ -0,0 +1,36 @@
+package com.chat.e2e.backend.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnThreading;
+import org.springframework.boot.autoconfigure.thread.Threading;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import javax.sql.DataSource;
+
+/**
+ * Profil virtual-threads (spring.threads.virtual.enabled=true): Tomcat, @Scheduled und die Worker-Pools
+ * (workers=0) laufen auf Virtual Threads, die STOMP-Channels ebenso (WebSocketConfig).
+ * Die DataSource bekommt einen JdbcBulkhead, damit die Poolgröße weiterhin die Datenbankarbeit begrenzt.
+ */
+@Configuration
+@ConditionalOnThreading(Threading.VIRTUAL)
+public class VirtualThreadsConfig {
+
+    // static: BeanPostProcessor vor der DataSource registriert
+    @Bean
+    static BeanPostProcessor jdbcBulkheadPostProcessor(ObjectProvider<JdbcBulkheadProperties> props,
+                                                       ObjectProvider<MeterRegistry> meters) {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                if (bean instanceof DataSource dataSource && !(bean instanceof JdbcBulkhead)) {
+                    return new JdbcBulkhead(dataSource, props.getObject(), meters.getObject());
+                }
+                return bean;
+            }
+        };
+    }
+}
@@ -0,0 +1,25 @@
+package com.chat.e2e.backend.config;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Worker-Pools der Services (Inbox-Stream, Long-Poll, WebSocket-Writer): threads feste Daemon-Threads
+ * "name-N" oder, bei threads = 0 (Profil virtual-threads), ein Virtual Thread pro Aufgabe.
+ * Datenbankarbeit begrenzt dann der JdbcBulkhead statt der Poolgröße.
+ */
+public final class Workers {
+
+    private Workers() {}
+
+    public static ExecutorService newPool(String name, int threads) {
+        if (threads <= 0) return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(name + "-", 1).factory());
+        var threadNo = new AtomicLong();
+        return Executors.newFixedThreadPool(threads, r -> {
+            var t = new Thread(r, name + "-" + threadNo.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+}
@@ -1,9 +1,10 @@
 package com.chat.e2e.backend.device;
 
 import com.chat.e2e.backend.api.dto.*;
-import com.chat.e2e.backend.user.AppUser;
+import com.chat.e2e.backend.user.IdentityDirectory;
 import com.chat.e2e.backend.user.AppUserRepository;
 import lombok.RequiredArgsConstructor;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -20,15 +21,18 @@ import static java.nio.charset.StandardCharsets.UTF_8;
 public class DeviceEnrollmentService {
     private final AppUserRepository userRepo;
     private final UserDeviceRepository deviceRepo;
+    private final IdentityDirectory identities;
+    private final ApplicationEventPublisher events;
 
     // Simple in-memory nonce store demo; in prod: DB or cache
     private final java.util.Map<UUID, String> nonces = new java.util.concurrent.ConcurrentHashMap<>();
     private final java.util.Map<UUID, Instant> nonceExpiry = new java.util.concurrent.ConcurrentHashMap<>();
 
     public DTOs.EnrollmentStartResponse start(DTOs.EnrollmentStartRequest req) {
-        AppUser user = userRepo.findByHandle(req.userHandle())
+        var user = identities.userByHandle(req.userHandle())
                 .orElseThrow(() -> new IllegalArgumentException("user not found"));
-        UserDevice d = deviceRepo.save(UserDevice.builder().user(user).platform("unknown").build());
+        UserDevice d = deviceRepo.save(UserDevice.builder().user(userRepo.getReferenceById(user.id())).platform("unknown").build());
+        events.publishEvent(new UserDevicesChangedEvent(user.id()));
         String nonce = Base64.getEncoder().encodeToString(java.util.UUID.randomUUID().toString().getBytes());
         nonces.put(d.getId(), nonce);
         nonceExpiry.put(d.getId(), Instant.now().plusSeconds(300));
@@ -102,6 +106,7 @@ public class DeviceEnrollmentService {
         dev.setIdentityBindingSig(bindSig);      // raw bytes
         dev.setLastSeenAt(Instant.now());
         deviceRepo.save(dev);
+        events.publishEvent(new UserDevicesChangedEvent(dev.getUser().getId()));
 
         // 7) Aufräumen (Replay verhindern)
         nonces.remove(deviceId);
@@ -152,5 +157,6 @@ public class DeviceEnrollmentService {
                 .orElseThrow(() -> new IllegalArgumentException("device not found"));
         dev.setRevokedAt(Instant.now());
         deviceRepo.save(dev);
+        events.publishEvent(new DeviceRevokedEvent(deviceId));
     }
 }
@@ -0,0 +1,6 @@
+package com.chat.e2e.backend.device;
+
+import java.util.UUID;
+
+/** Gerät wurde widerrufen; Routing-Caches müssen es verwerfen. */
+public record DeviceRevokedEvent(UUID deviceId) {}
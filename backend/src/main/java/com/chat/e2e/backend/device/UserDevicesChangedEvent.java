@@ -0,0 +1,6 @@
+package com.chat.e2e.backend.device;
+
+import java.util.UUID;
+
+/** Geräteliste eines Users hat sich geändert (angelegt, eingerichtet); Bootstrap-Cache verwerfen. */
+public record UserDevicesChangedEvent(UUID userId) {}
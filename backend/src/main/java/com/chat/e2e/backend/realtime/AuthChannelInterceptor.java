@@ -9,12 +9,15 @@ import org.springframework.messaging.support.ChannelInterceptor;
 import org.springframework.messaging.simp.stomp.StompCommand;
 import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
 import org.springframework.messaging.support.MessageHeaderAccessor;
+import org.springframework.stereotype.Component;
 
+@Component
 @RequiredArgsConstructor
 public class AuthChannelInterceptor implements ChannelInterceptor {
 
     private final JwtVerifier jwtVerifier;
     private final PrincipalFactory principalFactory;
+    private final DeviceSessionRegistry deviceSessions;
 
     @Override
     public Message<?> preSend(@NonNull Message<?> message, @NonNull MessageChannel channel) {
@@ -38,6 +41,7 @@ public class AuthChannelInterceptor implements ChannelInterceptor {
             // wichtig: Principal setzen + Header mutierbar lassen
             acc.setUser(principal);
             acc.setLeaveMutable(true);
+            deviceSessions.register(acc.getSessionId(), principal);
         }
 
         return message;
@@ -0,0 +1,463 @@
+package com.chat.e2e.backend.realtime;
+
+import com.chat.e2e.backend.cluster.ClusterBus;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.context.event.EventListener;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Component;
+import org.springframework.util.MimeType;
+import org.springframework.web.socket.messaging.SessionConnectedEvent;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+import org.springframework.web.socket.messaging.SessionSubscribeEvent;
+import org.springframework.web.socket.messaging.SessionUnsubscribeEvent;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Verbindet die Simple Broker mehrerer Instanzen. Nachrichten an User-Ziele (/user/{userId}/…), Geräte-Ziele
+ * (/device/{deviceId}/…, s. DeviceSessionRegistry) und an /topic/conversation.* stellt der lokale Broker wie bisher
+ * zu; zusätzlich gehen sie über den ClusterBus an die Instanzen, auf denen eine passende Session hängt (User bzw.
+ * Gerät verbunden, Topic abonniert). Die dortigen Broker
+ * stellen sie ihren Sessions zu, ohne sie erneut weiterzureichen.
+ * Routen: jede Instanz kündigt auf chat_stomp_routes an, welche User, Geräte und Topics sie hostet – Änderungen als Delta,
+ * periodisch vollständig. Frames sammeln sich chat.relay.linger lang und gehen gebündelt an den Kanal der
+ * Zielinstanz. Nur solange die Routen unvollständig sein können (Start, Bus-Unterbrechung), gehen Frames an alle
+ * Instanzen, die dann nur bei eigener Session zustellen.
+ * Best effort wie der Direkt-Push: verlorene oder für den Bus zu große Frames holt der Client über die Inbox nach.
+ * Payloads werden als UTF-8-Text übertragen (JSON).
+ */
+@Slf4j
+@Component
+public class ClusterStompRelay implements ChannelInterceptor {
+
+    static final String ROUTES_CHANNEL = "chat_stomp_routes";
+    static final String BROADCAST_CHANNEL = "chat_stomp_all";
+    static final String NODE_CHANNEL_PREFIX = "chat_stomp_";
+    // markiert Frames anderer Instanzen, damit sie nicht erneut weitergereicht werden
+    static final String RELAYED_HEADER = "chatRelayedFrom";
+    static final String TOPIC_PREFIX = "/topic/conversation.";
+    private static final String USER_PREFIX = "/user/";
+
+    // coalesceKey: STOMP-Header coalesce-key (OutboundQueues), fehlt bei Instanzen älteren Stands
+    record Frame(String destination, String contentType, String coalesceKey, String payload) {}
+
+    record Batch(String from, List<Frame> frames) {}
+
+    // node == null: an alle Instanzen
+    private record Outbound(String node, Frame frame) {}
+
+    private static final class LocalSession {
+        final String userKey;
+        final String deviceKey;
+        final Map<String, String> topics = new HashMap<>(); // subscriptionId -> Routen-Schlüssel
+
+        LocalSession(String userKey, String deviceKey) {
+            this.userKey = userKey;
+            this.deviceKey = deviceKey;
+        }
+    }
+
+    private static final class Node {
+        volatile Set<String> keys = ConcurrentHashMap.newKeySet();
+        volatile long seenAt = System.nanoTime();
+    }
+
+    // [a-z0-9]: Teil des Kanalnamens der Instanz
+    private final String nodeId = UUID.randomUUID().toString().replace("-", "");
+    private final ClusterBus bus;
+    private final MessageChannel brokerChannel;
+    private final StompRelayProperties props;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final ScheduledExecutorService scheduler;
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    // Schlüssel "u:<userId>", "d:<deviceId>" bzw. "t:<destination>" mit Zahl der lokalen Sessions/Subscriptions
+    private final Map<String, Integer> localKeys = new ConcurrentHashMap<>();
+    private final Map<String, LocalSession> sessions = new HashMap<>(); // guarded by localKeys
+    private final Queue<String> deltas = new ConcurrentLinkedQueue<>();
+    private final Queue<Outbound> outbox = new ConcurrentLinkedQueue<>();
+    private final Map<String, Node> nodes = new ConcurrentHashMap<>();
+    private volatile long settledAt;
+    private final Counter forwarded;
+    private final Counter batches;
+    private final Counter received;
+    private final Counter dropped;
+
+    public ClusterStompRelay(ClusterBus bus,
+                             @Lazy @Qualifier("brokerChannel") MessageChannel brokerChannel,
+                             StompRelayProperties props,
+                             MeterRegistry meters) {
+        this.bus = bus;
+        this.brokerChannel = brokerChannel;
+        this.props = props;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            var t = new Thread(r, "stomp-relay");
+            t.setDaemon(true);
+            return t;
+        });
+        this.settledAt = System.nanoTime() + props.settle().toNanos();
+
+        Gauge.builder("chat.relay.nodes", nodes, Map::size)
+                .description("Bekannte andere Instanzen").register(meters);
+        this.forwarded = Counter.builder("chat.relay.frames.out")
+                .description("An andere Instanzen weitergereichte Frames").register(meters);
+        this.batches = Counter.builder("chat.relay.batches.out")
+                .description("Gesendete Frame-Bündel").register(meters);
+        this.received = Counter.builder("chat.relay.frames.in")
+                .description("Von anderen Instanzen zugestellte Frames").register(meters);
+        this.dropped = Counter.builder("chat.relay.frames.dropped")
+                .description("Nicht weitergereichte Frames (zu groß, Bus nicht erreichbar)").register(meters);
+
+        bus.subscribe(ROUTES_CHANNEL, this::onRoutes);
+        bus.subscribe(BROADCAST_CHANNEL, this::onFrames);
+        bus.subscribe(NODE_CHANNEL_PREFIX + nodeId, this::onFrames);
+        bus.onGap(this::onGap);
+        scheduler.execute(() -> announce("hello"));
+        long interval = props.announceInterval().toNanos();
+        scheduler.scheduleWithFixedDelay(this::heartbeat, interval, interval, TimeUnit.NANOSECONDS);
+    }
+
+    // ---- ausgehend: Broker-Channel ----
+
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        var headers = message.getHeaders();
+        if (SimpMessageHeaderAccessor.getMessageType(headers) != SimpMessageType.MESSAGE
+                || headers.containsKey(RELAYED_HEADER)) return message;
+        var destination = SimpMessageHeaderAccessor.getDestination(headers);
+        var key = routeKey(destination);
+        if (key == null) return message;
+
+        String body = switch (message.getPayload()) {
+            case byte[] b -> new String(b, StandardCharsets.UTF_8);
+            case String s -> s;
+            default -> null;
+        };
+        if (body == null) return message;
+        var contentType = headers.get(MessageHeaders.CONTENT_TYPE);
+        var coalesceKey = SimpMessageHeaderAccessor.getFirstNativeHeader(OutboundQueues.COALESCE_HEADER, headers);
+        var frame = new Frame(destination, contentType == null ? null : contentType.toString(), coalesceKey, body);
+
+        if (System.nanoTime() - settledAt < 0) {
+            outbox.add(new Outbound(null, frame));
+        } else {
+            nodes.forEach((node, routes) -> {
+                if (routes.keys.contains(key)) outbox.add(new Outbound(node, frame));
+            });
+        }
+        scheduleFlush();
+        return message;
+    }
+
+    /**
+     * "u:<user>" für /user/{user}/…, "d:<deviceId>" für /device/{deviceId}/…, "t:<destination>" für
+     * /topic/conversation.*, sonst null (nicht weitergereicht).
+     */
+    static String routeKey(String destination) {
+        if (destination == null || destination.indexOf('\n') >= 0) return null;
+        if (destination.startsWith(USER_PREFIX)) {
+            int end = destination.indexOf('/', USER_PREFIX.length());
+            return end <= USER_PREFIX.length() ? null : "u:" + destination.substring(USER_PREFIX.length(), end);
+        }
+        if (destination.startsWith(DeviceSessionRegistry.DEVICE_PREFIX)) {
+            var deviceId = DeviceSessionRegistry.deviceId(destination);
+            return deviceId == null ? null : deviceKey(deviceId);
+        }
+        return destination.startsWith(TOPIC_PREFIX) ? "t:" + destination : null;
+    }
+
+    private static String deviceKey(UUID deviceId) {
+        return "d:" + deviceId;
+    }
+
+    /** Gerät auf einer anderen Instanz verbunden – oder Routen noch unvollständig (Start, Bus-Unterbrechung). */
+    public boolean hostsDeviceElsewhere(UUID deviceId) {
+        if (System.nanoTime() - settledAt < 0) return true;
+        var key = deviceKey(deviceId);
+        for (var node : nodes.values()) {
+            if (node.keys.contains(key)) return true;
+        }
+        return false;
+    }
+
+    // ---- lokale Sessions → eigene Routen ----
+
+    @EventListener
+    public void onConnected(SessionConnectedEvent event) {
+        var sessionId = SimpMessageHeaderAccessor.getSessionId(event.getMessage().getHeaders());
+        if (sessionId == null) return;
+        var user = event.getUser();
+        synchronized (localKeys) {
+            if (sessions.containsKey(sessionId)) return;
+            var session = new LocalSession(user == null ? null : routeKey(USER_PREFIX + user.getName() + "/"),
+                    user instanceof UserDevicePrincipal p ? deviceKey(p.deviceId()) : null);
+            sessions.put(sessionId, session);
+            if (session.userKey != null) retain(session.userKey);
+            if (session.deviceKey != null) retain(session.deviceKey);
+        }
+        scheduleFlush();
+    }
+
+    @EventListener
+    public void onSubscribe(SessionSubscribeEvent event) {
+        var headers = event.getMessage().getHeaders();
+        var key = routeKey(SimpMessageHeaderAccessor.getDestination(headers));
+        var subscriptionId = SimpMessageHeaderAccessor.getSubscriptionId(headers);
+        // User-Ziele deckt schon der User-Schlüssel der Session ab
+        if (key == null || !key.startsWith("t:") || subscriptionId == null) return;
+        synchronized (localKeys) {
+            var session = sessions.get(SimpMessageHeaderAccessor.getSessionId(headers));
+            if (session == null) return;
+            var previous = session.topics.put(subscriptionId, key);
+            retain(key);
+            if (previous != null) release(previous);
+        }
+        scheduleFlush();
+    }
+
+    @EventListener
+    public void onUnsubscribe(SessionUnsubscribeEvent event) {
+        var headers = event.getMessage().getHeaders();
+        synchronized (localKeys) {
+            var session = sessions.get(SimpMessageHeaderAccessor.getSessionId(headers));
+            var key = session == null ? null : session.topics.remove(SimpMessageHeaderAccessor.getSubscriptionId(headers));
+            if (key == null) return;
+            release(key);
+        }
+        scheduleFlush();
+    }
+
+    @EventListener
+    public void onDisconnect(SessionDisconnectEvent event) {
+        synchronized (localKeys) {
+            var session = sessions.remove(event.getSessionId()); // kann mehrfach kommen
+            if (session == null) return;
+            if (session.userKey != null) release(session.userKey);
+            if (session.deviceKey != null) release(session.deviceKey);
+            session.topics.values().forEach(this::release);
+        }
+        scheduleFlush();
+    }
+
+    // guarded by localKeys: Deltas in derselben Reihenfolge wie die Zählerwechsel
+    private void retain(String key) {
+        if (localKeys.merge(key, 1, Integer::sum) == 1) deltas.add("+" + key);
+    }
+
+    private void release(String key) {
+        if (localKeys.computeIfPresent(key, (k, n) -> n > 1 ? n - 1 : null) == null) deltas.add("-" + key);
+    }
+
+    // ---- Bus ----
+
+    private void scheduleFlush() {
+        if (!flushScheduled.compareAndSet(false, true)) return;
+        try {
+            scheduler.schedule(this::flush, props.linger().toNanos(), TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException e) {
+            // Shutdown: lokale Zustellung läuft weiter, nur ohne Weiterleitung
+        }
+    }
+
+    private void flush() {
+        flushScheduled.set(false);
+        List<String> changes = new ArrayList<>();
+        for (String d; (d = deltas.poll()) != null; ) changes.add(d);
+        if (!changes.isEmpty()) publishRoutes("delta", "delta", changes);
+
+        Map<String, List<Frame>> byChannel = new LinkedHashMap<>();
+        for (Outbound o; (o = outbox.poll()) != null; ) {
+            var channel = o.node() == null ? BROADCAST_CHANNEL : NODE_CHANNEL_PREFIX + o.node();
+            byChannel.computeIfAbsent(channel, k -> new ArrayList<>()).add(o.frame());
+        }
+        byChannel.forEach(this::publishFrames);
+    }
+
+    // {"from":…,"frames":[…]} in Bündeln bis maxPayloadBytes; einzelne zu große Frames entfallen
+    private void publishFrames(String channel, List<Frame> frames) {
+        var head = "{\"from\":\"" + nodeId + "\",\"frames\":[";
+        int max = bus.maxPayloadBytes() - head.length() - 2;
+        var batch = new StringBuilder();
+        int bytes = 0;
+        int count = 0;
+        for (var frame : frames) {
+            String json;
+            try {
+                json = mapper.writeValueAsString(frame);
+            } catch (JsonProcessingException e) {
+                dropped.increment();
+                continue;
+            }
+            int len = json.getBytes(StandardCharsets.UTF_8).length + 1;
+            if (len > max) {
+                log.debug("frame for {} too large to relay ({} bytes)", frame.destination(), len);
+                dropped.increment();
+                continue;
+            }
+            if (bytes + len > max) {
+                publishBatch(channel, head + batch + "]}", count);
+                batch.setLength(0);
+                bytes = 0;
+                count = 0;
+            }
+            if (count > 0) batch.append(',');
+            batch.append(json);
+            bytes += len;
+            count++;
+        }
+        if (count > 0) publishBatch(channel, head + batch + "]}", count);
+    }
+
+    private void publishBatch(String channel, String payload, int frames) {
+        try {
+            bus.publish(channel, payload);
+            batches.increment();
+            forwarded.increment(frames);
+        } catch (RuntimeException e) {
+            dropped.increment(frames);
+            log.warn("relaying {} frames on {} failed", frames, channel, e);
+        }
+    }
+
+    // "<nodeId> <kind>\n<zeile>\n…" in Teilen bis maxPayloadBytes; Folgeteile mit nextKind
+    private void publishRoutes(String kind, String nextKind, List<String> lines) {
+        int max = bus.maxPayloadBytes();
+        var message = new StringBuilder(nodeId).append(' ').append(kind);
+        int bytes = message.length();
+        for (var line : lines) {
+            int len = line.getBytes(StandardCharsets.UTF_8).length + 1;
+            if (bytes + len > max && bytes > nodeId.length() + 1 + nextKind.length()) {
+                publishRouteMessage(message.toString());
+                message = new StringBuilder(nodeId).append(' ').append(nextKind);
+                bytes = message.length();
+            }
+            if (bytes + len > max) continue; // einzelner Schlüssel zu lang: Frames dafür gehen nur lokal
+            message.append('\n').append(line);
+            bytes += len;
+        }
+        publishRouteMessage(message.toString());
+    }
+
+    private void publishRouteMessage(String message) {
+        try {
+            bus.publish(ROUTES_CHANNEL, message);
+        } catch (RuntimeException e) {
+            // der nächste Heartbeat sendet die Routen vollständig
+            log.warn("announcing stomp routes failed", e);
+        }
+    }
+
+    /** Vollständige eigene Routen; ersetzt noch nicht gesendete Deltas. Nur im Relay-Thread. */
+    private void announce(String kind) {
+        List<String> keys;
+        synchronized (localKeys) {
+            deltas.clear();
+            keys = new ArrayList<>(localKeys.keySet());
+        }
+        publishRoutes(kind, "more", keys);
+    }
+
+    private void heartbeat() {
+        announce("full");
+        long expiry = 3 * props.announceInterval().toNanos();
+        long now = System.nanoTime();
+        nodes.values().removeIf(n -> now - n.seenAt > expiry);
+    }
+
+    private void onGap() {
+        // Deltas der anderen können fehlen: bis zu deren vollständiger Ankündigung an alle senden
+        settledAt = System.nanoTime() + props.settle().toNanos();
+        try {
+            scheduler.execute(() -> announce("hello"));
+        } catch (RejectedExecutionException e) {
+            // Shutdown
+        }
+    }
+
+    // hello: vollständig + Bitte um vollständige Routen aller anderen | full | more: Fortsetzung | delta: +key/-key | bye
+    private void onRoutes(String message) {
+        var lines = message.split("\n");
+        var head = lines[0].split(" ", 2);
+        if (head.length < 2) return;
+        var from = head[0];
+        if ("bye".equals(head[1])) {
+            nodes.remove(from);
+            return;
+        }
+        var node = nodes.computeIfAbsent(from, k -> new Node());
+        node.seenAt = System.nanoTime();
+        switch (head[1]) {
+            case "hello", "full" -> {
+                Set<String> keys = ConcurrentHashMap.newKeySet();
+                keys.addAll(Arrays.asList(lines).subList(1, lines.length));
+                node.keys = keys; // ersetzen statt leeren: kein Moment ohne Routen
+                if ("hello".equals(head[1])) {
+                    try {
+                        scheduler.execute(() -> announce("full"));
+                    } catch (RejectedExecutionException e) {
+                        // Shutdown
+                    }
+                }
+            }
+            case "more" -> node.keys.addAll(Arrays.asList(lines).subList(1, lines.length));
+            case "delta" -> {
+                for (int i = 1; i < lines.length; i++) {
+                    if (lines[i].isEmpty()) continue;
+                    var key = lines[i].substring(1);
+                    if (lines[i].charAt(0) == '+') node.keys.add(key);
+                    else node.keys.remove(key);
+                }
+            }
+            default -> log.debug("unknown stomp route message {}", head[1]);
+        }
+    }
+
+    private void onFrames(String payload) {
+        Batch batch;
+        try {
+            batch = mapper.readValue(payload, Batch.class);
+        } catch (JsonProcessingException e) {
+            log.warn("unreadable stomp relay batch", e);
+            return;
+        }
+        for (var frame : batch.frames()) {
+            var key = routeKey(frame.destination());
+            if (key == null || !localKeys.containsKey(key)) continue; // keine passende Session (mehr) hier
+
+            var accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+            accessor.setDestination(frame.destination());
+            if (frame.contentType() != null) accessor.setContentType(MimeType.valueOf(frame.contentType()));
+            if (frame.coalesceKey() != null) accessor.setNativeHeader(OutboundQueues.COALESCE_HEADER, frame.coalesceKey());
+            accessor.setHeader(RELAYED_HEADER, batch.from());
+            try {
+                brokerChannel.send(MessageBuilder.createMessage(
+                        frame.payload().getBytes(StandardCharsets.UTF_8), accessor.getMessageHeaders()));
+                received.increment();
+            } catch (RuntimeException e) {
+                log.debug("delivering relayed frame for {} failed", frame.destination(), e);
+            }
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        scheduler.shutdownNow();
+        publishRouteMessage(nodeId + " bye");
+    }
+}
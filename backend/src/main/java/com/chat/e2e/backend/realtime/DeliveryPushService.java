@@ -0,0 +1,96 @@
+package com.chat.e2e.backend.realtime;
+
+import com.chat.e2e.backend.api.dto.DTOs;
+import com.chat.e2e.backend.chat.DeliveriesCommittedEvent;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.UUID;
+
+/**
+ * Pusht committete Deliveries an die Empfängergeräte (STOMP).
+ * Client abonniert /user/queue/deliveries.{deviceId}; Payload = DeliveryDTO wie im Inbox-Pull.
+ * Nicht zugestellte Pushes (offline, Verbindungsabbruch) holt der Client über die Inbox nach.
+ * Hat das Gerät einen Inbox-Stream offen, läuft die Delivery über den Stream (Credits, ohne Lücke zum Backlog).
+ * Hängt das Gerät an einer anderen Instanz, reicht ClusterStompRelay den Push dorthin weiter; dort leitet preSend
+ * (Broker-Channel) ihn in den Inbox-Stream um, falls das Gerät dort einen offen hat.
+ * Geräte ohne Session auf irgendeiner Instanz werden übersprungen.
+ */
+@Slf4j
+@Component
+public class DeliveryPushService implements ChannelInterceptor {
+
+    public static final String DEVICE_QUEUE_PREFIX = "/queue/deliveries.";
+
+    private final SimpMessagingTemplate broker;
+    private final InboxStreamService streams;
+    private final DeviceSessionRegistry sessions;
+    private final Counter pushed;
+    private final Counter offline;
+
+    // @Lazy: als Interceptor des Broker-Channels (WebSocketConfig) entsteht der Service vor dem Template
+    public DeliveryPushService(@Lazy SimpMessagingTemplate broker, @Lazy InboxStreamService streams,
+                               DeviceSessionRegistry sessions, MeterRegistry meters) {
+        this.broker = broker;
+        this.streams = streams;
+        this.sessions = sessions;
+        this.pushed = Counter.builder("chat.push.deliveries")
+                .description("Nach dem Commit gepushte Deliveries").register(meters);
+        this.offline = Counter.builder("chat.push.skipped.offline")
+                .description("Nicht gepushte Deliveries an Geräte ohne Session").register(meters);
+    }
+
+    @TransactionalEventListener
+    public void onCommitted(DeliveriesCommittedEvent e) {
+        for (var r : e.recipients()) {
+            if (!sessions.isOnline(r.deviceId())) {
+                offline.increment();
+                continue;
+            }
+            var dto = new DTOs.DeliveryDTO(r.deliveryId(), e.messageId(), e.conversationId(), e.contentType(),
+                    e.msgHeaderJson(), e.ciphertextFor(r.deviceId()), e.createdAt(), r.seq(), r.logSeq());
+            if (streams.offerLive(r.deviceId(), dto)) continue;
+            try {
+                broker.convertAndSend(DeviceSessionRegistry.destination(r.deviceId(), destination(r.deviceId())), dto);
+                pushed.increment();
+            } catch (RuntimeException ex) {
+                // Push ist best effort; die Delivery liegt committed in der Inbox
+                log.debug("push of message {} to device {} failed", e.messageId(), r.deviceId(), ex);
+            }
+        }
+    }
+
+    // Broker-Channel: von einer anderen Instanz weitergereichter Push → Inbox-Stream des Geräts auf dieser Instanz
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        var headers = message.getHeaders();
+        if (!headers.containsKey(ClusterStompRelay.RELAYED_HEADER)
+                || SimpMessageHeaderAccessor.getMessageType(headers) != SimpMessageType.MESSAGE) return message;
+        var target = SimpMessageHeaderAccessor.getDestination(headers);
+        var deviceId = target == null ? null : DeviceSessionRegistry.deviceId(target);
+        if (deviceId == null || !target.equals(DeviceSessionRegistry.destination(deviceId, destination(deviceId)))) {
+            return message;
+        }
+        try {
+            var dto = (DTOs.DeliveryDTO) broker.getMessageConverter().fromMessage(message, DTOs.DeliveryDTO.class);
+            if (dto != null && streams.offerLive(deviceId, dto)) return null; // zugestellt über den Stream
+        } catch (RuntimeException ex) {
+            log.debug("relayed push to device {} not readable, delivering as is", deviceId, ex);
+        }
+        return message;
+    }
+
+    public static String destination(UUID deviceId) {
+        return DEVICE_QUEUE_PREFIX + deviceId;
+    }
+}
@@ -0,0 +1,120 @@
+package com.chat.e2e.backend.realtime;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.context.event.EventListener;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * STOMP-Sessions dieser Instanz pro Gerät (UserDevicePrincipal.deviceId), eingetragen beim CONNECT
+ * (AuthChannelInterceptor), ausgetragen beim Disconnect. Pro Gerät zählt die jüngste Session.
+ * Nachrichten an genau ein Gerät gehen an /device/{deviceId}/queue/… (destination(..)); der Broker-Channel
+ * schreibt sie auf die Session des Geräts um (/user/{sessionId}/queue/…). Der Client abonniert wie bisher
+ * /user/queue/…. Ist das Gerät hier nicht verbunden, bleibt die Nachricht lokal ohne Empfänger –
+ * ClusterStompRelay reicht sie an die Instanz des Geräts weiter.
+ * isOnline: Präsenz über alle Instanzen, damit Push-Pfade für Offline-Geräte gar nicht erst arbeiten.
+ */
+@Component
+public class DeviceSessionRegistry implements ChannelInterceptor {
+
+    public static final String DEVICE_PREFIX = "/device/";
+    private static final String USER_PREFIX = "/user/";
+
+    private record Session(String sessionId, UUID deviceId) {}
+
+    private final ClusterStompRelay relay;
+    private final Map<UUID, List<String>> sessionsByDevice = new ConcurrentHashMap<>(); // älteste zuerst
+    private final Map<String, Session> bySession = new ConcurrentHashMap<>();
+
+    public DeviceSessionRegistry(ClusterStompRelay relay, MeterRegistry meters) {
+        this.relay = relay;
+        Gauge.builder("chat.sessions.devices", sessionsByDevice, Map::size)
+                .description("Auf dieser Instanz verbundene Geräte").register(meters);
+    }
+
+    /** Ziel für genau ein Gerät, z.B. destination(deviceId, "/queue/device"). */
+    public static String destination(UUID deviceId, String userQueue) {
+        return DEVICE_PREFIX + deviceId + userQueue;
+    }
+
+    public void register(String sessionId, UserDevicePrincipal principal) {
+        var previous = bySession.put(sessionId, new Session(sessionId, principal.deviceId()));
+        if (previous != null) remove(previous);
+        sessionsByDevice.compute(principal.deviceId(), (id, sessions) -> {
+            var list = sessions == null ? new ArrayList<String>(1) : new ArrayList<>(sessions);
+            list.add(sessionId);
+            return List.copyOf(list);
+        });
+    }
+
+    @EventListener
+    public void onDisconnect(SessionDisconnectEvent event) {
+        var session = bySession.remove(event.getSessionId()); // kann mehrfach kommen
+        if (session != null) remove(session);
+    }
+
+    private void remove(Session session) {
+        sessionsByDevice.computeIfPresent(session.deviceId(), (id, sessions) -> {
+            var rest = sessions.stream().filter(s -> !s.equals(session.sessionId())).toList();
+            return rest.isEmpty() ? null : rest;
+        });
+    }
+
+    /** Jüngste Session des Geräts auf dieser Instanz. */
+    public Optional<String> session(UUID deviceId) {
+        var sessions = sessionsByDevice.get(deviceId);
+        return sessions == null ? Optional.empty() : Optional.of(sessions.getLast());
+    }
+
+    public boolean isLocal(UUID deviceId) {
+        return sessionsByDevice.containsKey(deviceId);
+    }
+
+    /** Gerät auf irgendeiner Instanz verbunden; im Zweifel (Routen unvollständig) true. */
+    public boolean isOnline(UUID deviceId) {
+        return isLocal(deviceId) || relay.hostsDeviceElsewhere(deviceId);
+    }
+
+    // Broker-Channel: /device/{deviceId}/queue/… → /user/{sessionId}/queue/… (nur diese Session)
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        var headers = message.getHeaders();
+        var destination = SimpMessageHeaderAccessor.getDestination(headers);
+        if (destination == null || !destination.startsWith(DEVICE_PREFIX)
+                || SimpMessageHeaderAccessor.getMessageType(headers) != SimpMessageType.MESSAGE) return message;
+        var deviceId = deviceId(destination);
+        var sessionId = deviceId == null ? null : session(deviceId).orElse(null);
+        if (sessionId == null) return message; // niemand abonniert /device/… → verworfen
+
+        int queueStart = destination.indexOf('/', DEVICE_PREFIX.length());
+        return MessageBuilder.fromMessage(message)
+                .setHeader(SimpMessageHeaderAccessor.DESTINATION_HEADER, USER_PREFIX + sessionId + destination.substring(queueStart))
+                .setHeader(SimpMessageHeaderAccessor.SESSION_ID_HEADER, sessionId)
+                .build();
+    }
+
+    /** deviceId aus /device/{deviceId}/…, null bei ungültigem Ziel. */
+    static UUID deviceId(String destination) {
+        int end = destination.indexOf('/', DEVICE_PREFIX.length());
+        if (end < 0) return null;
+        try {
+            return UUID.fromString(destination.substring(DEVICE_PREFIX.length(), end));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
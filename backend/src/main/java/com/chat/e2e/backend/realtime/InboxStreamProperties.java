@@ -0,0 +1,20 @@
+package com.chat.e2e.backend.realtime;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+/**
+ * chat.inbox-stream.* – Streaming-Drain der Inbox über STOMP.
+ *
+ * @param pageSize   maximale Zeilen pro Keyset-Abfrage beim Drain (zusätzlich durch offene Credits begrenzt)
+ * @param maxCredits Obergrenze offener Credits pro Stream
+ * @param liveBuffer Live-Deliveries, die ein Stream ohne Credits puffert; bei Überlauf liest er wieder aus der Inbox
+ * @param workers    Threads, die Streams abarbeiten; 0 = Virtual Threads
+ */
+@ConfigurationProperties(prefix = "chat.inbox-stream")
+public record InboxStreamProperties(
+        @DefaultValue("200") int pageSize,
+        @DefaultValue("1000") int maxCredits,
+        @DefaultValue("1000") int liveBuffer,
+        @DefaultValue("4") int workers
+) {}
@@ -0,0 +1,212 @@
+package com.chat.e2e.backend.realtime;
+
+import com.chat.e2e.backend.api.dto.DTOs;
+import com.chat.e2e.backend.chat.InboxCursor;
+import com.chat.e2e.backend.chat.MessageService;
+import com.chat.e2e.backend.config.Workers;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.event.EventListener;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Streamt den Inbox-Backlog eines Geräts über STOMP (/user/queue/inbox.{deviceId}), gesteuert durch Credits:
+ * jeder Delivery-Frame verbraucht einen Credit, ohne Credits pausiert der Stream.
+ * Ist der Backlog abgearbeitet (caughtUp-Frame), laufen Live-Deliveries des Geräts über denselben Stream.
+ * Live-Deliveries, die schon während des Drains eintreffen, werden gepuffert und nach dem Umschalten
+ * zugestellt, sofern der Drain sie nicht bereits gelesen hat – so entsteht zwischen Backlog und Live keine Lücke.
+ * Live-Deliveries gehen nur lückenlos in Sequenz-Reihenfolge raus, direkte nach Gerätesequenz, Log-Einträge
+ * (Fan-out-on-read) nach Log-Sequenz je Konversation: Push-Listener verschiedener Commits laufen parallel und
+ * können überholen. Fehlt die Vorgängerin (seq > cursor + 1, bzw. die Konversation steht noch nicht im Cursor),
+ * liest der Stream ab dem Cursor aus der Inbox nach – beide Sequenzen werden unter einer Zeilensperre vergeben,
+ * alle kleineren sind dann committed. Der Cursor eines Frames zeigt so nie hinter eine noch nicht zugestellte
+ * Delivery und deckt auch live zugestellte Log-Einträge ab (Ack, Reconnect).
+ */
+@Slf4j
+@Component
+public class InboxStreamService {
+
+    public static final String STREAM_QUEUE_PREFIX = "/queue/inbox.";
+
+    private final MessageService messageService;
+    private final SimpMessagingTemplate broker;
+    private final InboxStreamProperties props;
+    private final ExecutorService executor;
+    private final Map<String, InboxStream> bySession = new ConcurrentHashMap<>();
+    private final Map<UUID, InboxStream> byDevice = new ConcurrentHashMap<>();
+    private final Counter streamed;
+
+    public InboxStreamService(MessageService messageService, SimpMessagingTemplate broker,
+                              InboxStreamProperties props, MeterRegistry meters) {
+        this.messageService = messageService;
+        this.broker = broker;
+        this.props = props;
+
+        // jeder Stream ist höchstens einmal eingeplant → Warteschlange durch Zahl der Streams begrenzt
+        this.executor = Workers.newPool("inbox-stream", props.workers());
+
+        Gauge.builder("chat.inbox.streams", bySession, Map::size)
+                .description("Offene Inbox-Streams").register(meters);
+        this.streamed = Counter.builder("chat.inbox.stream.frames")
+                .description("Über Inbox-Streams zugestellte Deliveries").register(meters);
+    }
+
+    /** Öffnet (oder ersetzt) den Stream des Geräts ab sinceCursor mit einem Anfangsguthaben an Credits. */
+    public void open(String sessionId, UUID userId, UUID deviceId, String sinceCursor, int credits) {
+        var stream = new InboxStream(sessionId, userId, deviceId, sinceCursor);
+        close(sessionId);
+        var previous = byDevice.put(deviceId, stream);
+        if (previous != null) {
+            previous.closed = true; // ein Stream pro Gerät, z. B. nach Reconnect auf neuer Session
+            bySession.remove(previous.sessionId, previous);
+        }
+        bySession.put(sessionId, stream);
+        grant(sessionId, credits);
+    }
+
+    public void grant(String sessionId, int credits) {
+        var stream = bySession.get(sessionId);
+        if (stream == null || credits <= 0) return;
+        stream.credits.updateAndGet(c -> (int) Math.min(props.maxCredits(), (long) c + credits));
+        schedule(stream);
+    }
+
+    public void close(String sessionId) {
+        var stream = bySession.remove(sessionId);
+        if (stream == null) return;
+        stream.closed = true;
+        byDevice.remove(stream.deviceId, stream);
+    }
+
+    @EventListener
+    public void onDisconnect(SessionDisconnectEvent e) {
+        close(e.getSessionId());
+    }
+
+    /**
+     * Übernimmt eine Live-Delivery, falls für das Gerät ein Stream offen ist.
+     * @return false → kein Stream, Aufrufer pusht wie gewohnt direkt
+     */
+    public boolean offerLive(UUID deviceId, DTOs.DeliveryDTO delivery) {
+        var stream = byDevice.get(deviceId);
+        if (stream == null || stream.closed) return false;
+        if (stream.liveSize.incrementAndGet() > props.liveBuffer()) {
+            // Client gibt keine Credits nach: Puffer verwerfen, der Stream liest wieder aus der Inbox
+            stream.liveSize.decrementAndGet();
+            stream.overflow = true;
+        } else {
+            stream.live.add(delivery);
+        }
+        schedule(stream);
+        return true;
+    }
+
+    private void schedule(InboxStream s) {
+        if (s.closed || !s.scheduled.compareAndSet(false, true)) return;
+        try {
+            executor.execute(() -> drain(s));
+        } catch (RejectedExecutionException e) {
+            s.scheduled.set(false); // Shutdown
+        }
+    }
+
+    private void drain(InboxStream s) {
+        try {
+            while (!s.closed && s.credits.get() > 0) {
+                if (s.overflow) {
+                    s.overflow = false;
+                    s.caughtUp = false;
+                    s.live.clear();
+                    s.liveSize.set(0);
+                }
+                if (!s.caughtUp) {
+                    int n = Math.min(s.credits.get(), props.pageSize());
+                    if (s.cursor == null) s.cursor = messageService.resolveCursor(s.deviceId, s.sinceCursor);
+                    var page = messageService.fetchInboxEntries(s.deviceId, s.cursor, n);
+                    for (var e : page) send(s, e.toDto(), s.cursor.after(e));
+                    if (page.size() < n) {
+                        s.caughtUp = true;
+                        frame(s, new DTOs.InboxStreamFrame(null, true, s.cursor.encode()));
+                    }
+                } else {
+                    var d = s.live.poll();
+                    if (d == null) break;
+                    s.liveSize.decrementAndGet();
+                    if (d.seq() == null && d.logSeq() == null) {
+                        send(s, d, s.cursor); // ohne Position, z. B. Push älterer Knoten
+                        continue;
+                    }
+                    long at = d.seq() != null ? s.cursor.seq() : s.cursor.logSeq(d.conversationId());
+                    long next = d.seq() != null ? d.seq() : d.logSeq();
+                    if (next == at + 1 && (d.seq() != null || at > 0)) {
+                        send(s, d, s.cursor.after(d));
+                    } else if (next > at) {
+                        s.caughtUp = false; // Lücke oder Log-Position unbekannt: aus der Inbox nachlesen, d kommt mit
+                    } // <= cursor: schon vom Drain gelesen
+                }
+            }
+        } catch (RuntimeException e) {
+            // z. B. DB nicht erreichbar; Client öffnet nach dem Reconnect neu, bis dahin wieder Direkt-Push
+            log.warn("inbox stream of device {} failed, closing", s.deviceId, e);
+            close(s.sessionId);
+        } finally {
+            s.scheduled.set(false);
+        }
+        // Credits oder Live-Deliveries, die während des Drains eintrafen
+        if (!s.closed && s.credits.get() > 0 && (!s.caughtUp || s.overflow || !s.live.isEmpty())) schedule(s);
+    }
+
+    private void send(InboxStream s, DTOs.DeliveryDTO d, InboxCursor next) {
+        s.credits.decrementAndGet();
+        s.cursor = next;
+        frame(s, new DTOs.InboxStreamFrame(d, false, s.cursor.encode()));
+        streamed.increment();
+    }
+
+    private void frame(InboxStream s, DTOs.InboxStreamFrame frame) {
+        broker.convertAndSend(DeviceSessionRegistry.destination(s.deviceId, destination(s.deviceId)), frame);
+    }
+
+    public static String destination(UUID deviceId) {
+        return STREAM_QUEUE_PREFIX + deviceId;
+    }
+
+    @PreDestroy
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    static final class InboxStream {
+        final String sessionId;
+        final UUID userId;
+        final UUID deviceId;
+        final String sinceCursor;
+        final AtomicInteger credits = new AtomicInteger();
+        final AtomicBoolean scheduled = new AtomicBoolean();
+        final Queue<DTOs.DeliveryDTO> live = new ConcurrentLinkedQueue<>();
+        final AtomicInteger liveSize = new AtomicInteger();
+        volatile boolean closed;
+        volatile boolean overflow;
+
+        // nur im Drain verändert; scheduled sorgt dafür, dass pro Stream höchstens ein Thread läuft
+        volatile boolean caughtUp;
+        volatile InboxCursor cursor; // beim ersten Drain aus sinceCursor aufgelöst
+
+        InboxStream(String sessionId, UUID userId, UUID deviceId, String sinceCursor) {
+            this.sessionId = sessionId;
+            this.userId = userId;
+            this.deviceId = deviceId;
+            this.sinceCursor = sinceCursor;
+        }
+    }
+}
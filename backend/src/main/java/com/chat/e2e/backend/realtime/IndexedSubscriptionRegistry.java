@@ -0,0 +1,113 @@
+package com.chat.e2e.backend.realtime;
+
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.broker.AbstractSubscriptionRegistry;
+import org.springframework.util.AntPathMatcher;
+import org.springframework.util.CollectionUtils;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+import org.springframework.util.PathMatcher;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Subscription-Registry des SimpleBrokers mit Hash-Index über das exakte Ziel. Springs
+ * DefaultSubscriptionRegistry durchsucht bei jedem Cache-Fehlschlag (LRU, 1024 Ziele) alle Subscriptions –
+ * bei zehntausenden /topic/conversation.*- und User-Queue-Zielen also pro ReadEvent und Ack.
+ * Hier kostet ein Publish einen Map-Zugriff; die Abonnenten eines Ziels liegen als unveränderlicher
+ * Schnappschuss vor, der beim (seltenen) Subscribe/Unsubscribe ersetzt wird.
+ * Ziele mit Platzhaltern (*, **, {…}) werden wie bisher per AntPathMatcher verglichen, nur wenn es welche gibt.
+ * Selector-Header werden nicht ausgewertet (kein Client nutzt sie).
+ */
+public class IndexedSubscriptionRegistry extends AbstractSubscriptionRegistry {
+
+    private static final MultiValueMap<String, String> NONE =
+            CollectionUtils.unmodifiableMultiValueMap(new LinkedMultiValueMap<>());
+
+    private record Subscription(String sessionId, String subscriptionId, String destination, boolean pattern) {}
+
+    private final PathMatcher pathMatcher = new AntPathMatcher();
+    // exaktes Ziel → sessionId → subscriptionIds; Werte unveränderlich
+    private final Map<String, MultiValueMap<String, String>> byDestination = new ConcurrentHashMap<>();
+    private final Map<String, Map<String, Subscription>> bySession = new ConcurrentHashMap<>();
+    private final List<Subscription> patterns = new CopyOnWriteArrayList<>();
+
+    @Override
+    protected void addSubscriptionInternal(String sessionId, String subscriptionId, String destination, Message<?> message) {
+        var subscription = new Subscription(sessionId, subscriptionId, destination, pathMatcher.isPattern(destination));
+        var subscriptions = bySession.computeIfAbsent(sessionId, id -> new ConcurrentHashMap<>());
+        if (subscriptions.putIfAbsent(subscriptionId, subscription) != null) return; // wie DefaultSubscriptionRegistry: erste gilt
+        if (subscription.pattern()) {
+            patterns.add(subscription);
+        } else {
+            byDestination.compute(destination, (d, subscribers) -> with(subscribers, sessionId, subscriptionId));
+        }
+    }
+
+    @Override
+    protected void removeSubscriptionInternal(String sessionId, String subscriptionId, Message<?> message) {
+        var subscriptions = bySession.get(sessionId);
+        var subscription = subscriptions == null ? null : subscriptions.remove(subscriptionId);
+        if (subscription != null) remove(subscription);
+    }
+
+    @Override
+    public void unregisterAllSubscriptions(String sessionId) {
+        var subscriptions = bySession.remove(sessionId);
+        if (subscriptions != null) subscriptions.values().forEach(this::remove);
+    }
+
+    @Override
+    protected MultiValueMap<String, String> findSubscriptionsInternal(String destination, Message<?> message) {
+        var exact = byDestination.getOrDefault(destination, NONE);
+        if (patterns.isEmpty()) return exact;
+
+        MultiValueMap<String, String> result = null;
+        for (var p : patterns) {
+            if (!pathMatcher.match(p.destination(), destination)) continue;
+            if (result == null) result = copy(exact);
+            result.add(p.sessionId(), p.subscriptionId());
+        }
+        return result == null ? exact : result;
+    }
+
+    /** Anzahl exakter Ziele mit mindestens einem Abonnenten. */
+    int destinations() {
+        return byDestination.size();
+    }
+
+    private void remove(Subscription subscription) {
+        if (subscription.pattern()) {
+            patterns.remove(subscription);
+        } else {
+            byDestination.computeIfPresent(subscription.destination(),
+                    (d, subscribers) -> without(subscribers, subscription.sessionId(), subscription.subscriptionId()));
+        }
+    }
+
+    private static MultiValueMap<String, String> with(MultiValueMap<String, String> subscribers,
+                                                      String sessionId, String subscriptionId) {
+        var copy = subscribers == null ? new LinkedMultiValueMap<String, String>(2) : copy(subscribers);
+        copy.add(sessionId, subscriptionId);
+        return CollectionUtils.unmodifiableMultiValueMap(copy);
+    }
+
+    private static MultiValueMap<String, String> without(MultiValueMap<String, String> subscribers,
+                                                         String sessionId, String subscriptionId) {
+        var copy = copy(subscribers);
+        var ids = copy.get(sessionId);
+        if (ids == null || !ids.remove(subscriptionId)) return subscribers;
+        if (ids.isEmpty()) copy.remove(sessionId);
+        return copy.isEmpty() ? null : CollectionUtils.unmodifiableMultiValueMap(copy);
+    }
+
+    private static LinkedMultiValueMap<String, String> copy(MultiValueMap<String, String> subscribers) {
+        var copy = new LinkedMultiValueMap<String, String>(subscribers.size() + 1);
+        subscribers.forEach((sessionId, ids) -> copy.put(sessionId, new ArrayList<>(ids)));
+        return copy;
+    }
+}
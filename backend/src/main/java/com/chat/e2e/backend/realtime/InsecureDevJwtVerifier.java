@@ -2,7 +2,8 @@ package com.chat.e2e.backend.realtime;
 
 import com.chat.e2e.backend.api.dto.DTOs;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Profile;
 import org.springframework.stereotype.Component;
 
 import java.nio.charset.StandardCharsets;
@@ -10,15 +11,15 @@ import java.util.Base64;
 import java.util.Map;
 import java.util.UUID;
 
-//TODO Make Secure
+// nur Entwicklung (Profil dev und auth.dev.accept-unsigned=true); sonst prüft SignedJwtVerifier.
+// Ohne Profil dev startet die Anwendung mit accept-unsigned=true nicht (kein JwtVerifier).
 @Component
+@Profile("dev")
+@ConditionalOnProperty(prefix = "auth.dev", name = "accept-unsigned", havingValue = "true")
 class InsecureDevJwtVerifier implements JwtVerifier {
 
     private final ObjectMapper om = new ObjectMapper();
 
-    // Optional: shared secret; NICHT verwendet hier (weil "insecure")
-    public InsecureDevJwtVerifier(@Value("${auth.dev.acceptUnsigned:true}") boolean acceptUnsigned) {}
-
     @Override
     public DTOs.JwtClaims verify(String token) {
         try {
@@ -0,0 +1,80 @@
+package com.chat.e2e.backend.realtime;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+
+/**
+ * Liest Header und Payload eines JWT direkt aus dem Token-Strom von Jackson in feste Felder, ohne Map oder
+ * Databinding; unbekannte Claims werden übersprungen. Prüft nur Form und Typen, nicht Signatur oder Zeiten.
+ */
+final class JwtClaimsParser {
+
+    record Header(String alg, String kid) {}
+
+    /** exp/nbf als NumericDate (Sekunden seit Epoch); fehlend = 0, ein fehlendes exp gilt damit als abgelaufen. */
+    record Payload(String sub, String did, String iss, long exp, long nbf) {}
+
+    private static final JsonFactory JSON = new JsonFactory();
+
+    private JwtClaimsParser() {}
+
+    static Header header(byte[] json) throws IOException {
+        String alg = null, kid = null;
+        try (var p = JSON.createParser(json)) {
+            startObject(p);
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                var name = p.currentName();
+                p.nextToken();
+                switch (name) {
+                    case "alg" -> alg = string(p);
+                    case "kid" -> kid = string(p);
+                    // kritische Erweiterungen verstehen wir nicht → Token ablehnen (RFC 7515, 4.1.11)
+                    case "crit" -> throw new IOException("unsupported critical header");
+                    default -> p.skipChildren();
+                }
+            }
+        }
+        return new Header(alg, kid);
+    }
+
+    static Payload payload(byte[] json) throws IOException {
+        String sub = null, did = null, iss = null;
+        long exp = 0, nbf = 0;
+        try (var p = JSON.createParser(json)) {
+            startObject(p);
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                var name = p.currentName();
+                p.nextToken();
+                switch (name) {
+                    case "sub" -> sub = string(p);
+                    case "did" -> did = string(p);
+                    case "iss" -> iss = string(p);
+                    case "exp" -> exp = numericDate(p);
+                    case "nbf" -> nbf = numericDate(p);
+                    default -> p.skipChildren();
+                }
+            }
+        }
+        return new Payload(sub, did, iss, exp, nbf);
+    }
+
+    private static void startObject(JsonParser p) throws IOException {
+        if (p.nextToken() != JsonToken.START_OBJECT) throw new IOException("JSON object expected");
+    }
+
+    private static String string(JsonParser p) throws IOException {
+        if (p.currentToken() != JsonToken.VALUE_STRING) throw new IOException("string expected: " + p.currentName());
+        return p.getText();
+    }
+
+    private static long numericDate(JsonParser p) throws IOException {
+        return switch (p.currentToken()) {
+            case VALUE_NUMBER_INT -> p.getLongValue();
+            case VALUE_NUMBER_FLOAT -> (long) p.getDoubleValue();
+            default -> throw new IOException("NumericDate expected: " + p.currentName());
+        };
+    }
+}
@@ -0,0 +1,24 @@
+package com.chat.e2e.backend.realtime;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+import java.util.Map;
+
+/**
+ * auth.jwt.* – Prüfung signierter Tokens beim STOMP-CONNECT (SignedJwtVerifier).
+ *
+ * @param keys      Prüfschlüssel je kid: Public Key als PEM (RSA/EC) für RS256/ES256 usw., sonst Base64-Secret
+ *                  für HS256 usw.
+ * @param issuer    erwarteter iss-Claim; leer = nicht geprüft
+ * @param clockSkew Toleranz für exp/nbf
+ * @param cacheSize so viele zuletzt geprüfte Tokens (als SHA-256) werden bis zu ihrem exp wiedererkannt
+ */
+@ConfigurationProperties(prefix = "auth.jwt")
+public record JwtProperties(
+        @DefaultValue Map<String, String> keys,
+        String issuer,
+        @DefaultValue("PT30S") Duration clockSkew,
+        @DefaultValue("50000") int cacheSize
+) {}
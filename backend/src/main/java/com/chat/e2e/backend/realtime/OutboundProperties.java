@@ -0,0 +1,36 @@
+package com.chat.e2e.backend.realtime;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+
+/**
+ * chat.ws.outbound.* – ausgehende Warteschlange pro WebSocket-Session (OutboundQueues).
+ *
+ * @param bufferSizeLimit so viele Bytes dürfen pro Session auf das Senden warten
+ * @param sendTimeLimit   hängt ein einzelner Schreibvorgang länger, wird die Session getrennt
+ * @param policy          Verhalten, wenn ein langsamer Leser bufferSizeLimit überschreitet
+ * @param writers         Threads, die Schreibvorgänge aus den Warteschlangen anstoßen (warten nicht auf den Socket);
+ *                        0 = Virtual Threads
+ * @param channelThreads  Threads des clientOutboundChannel (stellen nur noch in die Warteschlangen ein)
+ */
+@ConfigurationProperties(prefix = "chat.ws.outbound")
+public record OutboundProperties(
+        @DefaultValue("512KB") DataSize bufferSizeLimit,
+        @DefaultValue("PT10S") Duration sendTimeLimit,
+        @DefaultValue("COALESCE") SlowConsumerPolicy policy,
+        @DefaultValue("8") int writers,
+        @DefaultValue("4") int channelThreads
+) {
+
+    public enum SlowConsumerPolicy {
+        /** überholte Frames ersetzen, dann älteste verwerfbare (/topic/…) Frames verwerfen; reicht das nicht: trennen */
+        DROP,
+        /** überholte Frames ersetzen; reicht das nicht: trennen */
+        COALESCE,
+        /** sofort trennen, der Client holt nach dem Reconnect über die Inbox nach */
+        DISCONNECT
+    }
+}
@@ -0,0 +1,343 @@
+package com.chat.e2e.backend.realtime;
+
+import com.chat.e2e.backend.config.Workers;
+import com.chat.e2e.backend.realtime.OutboundProperties.SlowConsumerPolicy;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import jakarta.websocket.RemoteEndpoint;
+import jakarta.websocket.SendHandler;
+import jakarta.websocket.Session;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.*;
+import org.springframework.web.socket.adapter.NativeWebSocketSession;
+import org.springframework.web.socket.handler.WebSocketHandlerDecorator;
+import org.springframework.web.socket.handler.WebSocketHandlerDecoratorFactory;
+import org.springframework.web.socket.handler.WebSocketSessionDecorator;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.ToIntFunction;
+
+/**
+ * Begrenzte ausgehende Warteschlange pro WebSocket-Session. Der clientOutboundChannel stellt Frames nur ein
+ * und blockiert nie an einem langsamen Leser; eigene Writer-Threads leeren die Warteschlangen auf die Sockets.
+ * Geschrieben wird asynchron (RemoteEndpoint.Async des Containers, ein Frame pro Session unterwegs): ein Writer
+ * stößt den Schreibvorgang nur an, den nächsten Frame plant erst dessen Abschluss ein. Ein hängender Socket hält
+ * so keinen Writer fest. Sessions ohne JSR-356-Endpunkt, Teilnachrichten und Ping/Pong schreiben blockierend auf
+ * einem eigenen Virtual Thread.
+ * Grenzen (chat.ws.outbound.*): bufferSizeLimit Bytes pro Session, sendTimeLimit pro Schreibvorgang.
+ * Über bufferSizeLimit greift die SlowConsumerPolicy:
+ * <ul>
+ *   <li>Frames mit STOMP-Header coalesce-key ersetzen noch wartende Frames mit gleichem Ziel und Schlüssel
+ *       (z.B. Lesestand eines Geräts) – unter COALESCE und DROP immer, nicht erst beim Überlauf,</li>
+ *   <li>DROP verwirft danach die ältesten /topic/…-Frames,</li>
+ *   <li>reicht das nicht (oder DISCONNECT), wird die Session getrennt.</li>
+ * </ul>
+ * Deliveries und Inbox-Stream-Frames werden nie verworfen: kumulative Acks würden eine Lücke überspringen.
+ * Nach dem Trennen holt der Client über die Inbox ab seinem Cursor nach.
+ */
+@Slf4j
+@Component
+public class OutboundQueues implements WebSocketHandlerDecoratorFactory {
+
+    public static final String COALESCE_HEADER = "coalesce-key";
+    private static final String TOPIC_PREFIX = "/topic/";
+
+    private final OutboundProperties props;
+    private final ExecutorService writers;
+    private final Map<String, OutboundQueue> bySession = new ConcurrentHashMap<>();
+    private final Counter coalesced;
+    private final Counter dropped;
+    private final Counter disconnectedBuffer;
+    private final Counter disconnectedTime;
+
+    public OutboundQueues(OutboundProperties props, MeterRegistry meters) {
+        this.props = props;
+
+        // jede Warteschlange ist höchstens einmal eingeplant → Executor-Queue durch Zahl der Sessions begrenzt
+        this.writers = Workers.newPool("ws-writer", props.writers());
+
+        Gauge.builder("chat.ws.outbound.sessions", bySession, Map::size)
+                .description("Sessions mit ausgehender Warteschlange").register(meters);
+        Gauge.builder("chat.ws.outbound.queue.bytes", this, q -> q.sum(OutboundQueue::queuedBytes))
+                .description("Wartende Bytes über alle Sessions").baseUnit("bytes").register(meters);
+        Gauge.builder("chat.ws.outbound.queue.bytes.max", this, q -> q.max(OutboundQueue::queuedBytes))
+                .description("Wartende Bytes der vollsten Session").baseUnit("bytes").register(meters);
+        Gauge.builder("chat.ws.outbound.queue.frames.max", this, q -> q.max(OutboundQueue::queuedFrames))
+                .description("Wartende Frames der vollsten Session").register(meters);
+        this.coalesced = Counter.builder("chat.ws.outbound.coalesced")
+                .description("Durch neuere Frames ersetzte Frames").register(meters);
+        this.dropped = Counter.builder("chat.ws.outbound.dropped")
+                .description("Wegen Überlauf verworfene Frames").register(meters);
+        this.disconnectedBuffer = Counter.builder("chat.ws.outbound.disconnects").tag("reason", "buffer")
+                .description("Wegen langsamen Lesens getrennte Sessions").register(meters);
+        this.disconnectedTime = Counter.builder("chat.ws.outbound.disconnects").tag("reason", "time")
+                .description("Wegen langsamen Lesens getrennte Sessions").register(meters);
+    }
+
+    @Override
+    public WebSocketHandler decorate(WebSocketHandler handler) {
+        return new WebSocketHandlerDecorator(handler) {
+            @Override
+            public void afterConnectionEstablished(WebSocketSession session) throws Exception {
+                super.afterConnectionEstablished(wrap(session));
+            }
+
+            @Override
+            public void afterConnectionClosed(WebSocketSession session, CloseStatus closeStatus) throws Exception {
+                release(session.getId());
+                super.afterConnectionClosed(session, closeStatus);
+            }
+        };
+    }
+
+    WebSocketSession wrap(WebSocketSession session) {
+        var queue = new OutboundQueue(session);
+        bySession.put(session.getId(), queue);
+        return queue;
+    }
+
+    void release(String sessionId) {
+        var queue = bySession.remove(sessionId);
+        if (queue != null) queue.discard();
+    }
+
+    // hängende Schreibvorgänge erkennen, auch wenn für die Session nichts Neues mehr eingestellt wird
+    @Scheduled(fixedDelayString = "${chat.ws.outbound.check-interval:PT1S}")
+    public void checkSendTime() {
+        long limit = props.sendTimeLimit().toNanos();
+        long now = System.nanoTime();
+        bySession.values().forEach(q -> {
+            if (q.sending && now - q.sendingSince > limit) q.disconnect(disconnectedTime);
+        });
+    }
+
+    private int sum(ToIntFunction<OutboundQueue> f) {
+        return bySession.values().stream().mapToInt(f).sum();
+    }
+
+    private int max(ToIntFunction<OutboundQueue> f) {
+        return bySession.values().stream().mapToInt(f).max().orElse(0);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        writers.shutdownNow();
+    }
+
+    /** Wartender Frame; coalesceKey = Ziel + coalesce-key, droppable für /topic/…-Frames. */
+    private record Frame(WebSocketMessage<?> message, String coalesceKey, boolean droppable, int bytes) {}
+
+    final class OutboundQueue extends WebSocketSessionDecorator {
+
+        private final Deque<Frame> frames = new ArrayDeque<>(); // guarded by frames
+        private int bytes;                                      // guarded by frames, inkl. Frame im Versand
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private volatile boolean sending;
+        private volatile long sendingSince;
+        private volatile boolean closed;
+        private final RemoteEndpoint.Async async; // null: blockierend auf einem Virtual Thread
+
+        OutboundQueue(WebSocketSession session) {
+            super(session);
+            this.async = asyncRemote(session);
+        }
+
+        // clientOutboundChannel (über Springs ConcurrentWebSocketSessionDecorator): nur einstellen
+        @Override
+        public void sendMessage(WebSocketMessage<?> message) {
+            if (closed) return;
+            var frame = frame(message, props.policy() != SlowConsumerPolicy.DISCONNECT);
+            boolean overflow;
+            synchronized (frames) {
+                if (frame.coalesceKey() != null) coalesce(frame.coalesceKey());
+                frames.add(frame);
+                bytes += frame.bytes();
+                overflow = bytes > props.bufferSizeLimit().toBytes() && !shed();
+            }
+            if (overflow) {
+                disconnect(disconnectedBuffer);
+                return;
+            }
+            schedule();
+        }
+
+        // guarded by frames
+        private void coalesce(String key) {
+            for (Iterator<Frame> it = frames.iterator(); it.hasNext(); ) {
+                var f = it.next();
+                if (key.equals(f.coalesceKey())) {
+                    it.remove();
+                    bytes -= f.bytes();
+                    coalesced.increment();
+                    return; // höchstens einer wartet pro Schlüssel
+                }
+            }
+        }
+
+        // guarded by frames: true, wenn die Warteschlange wieder unter dem Limit ist
+        private boolean shed() {
+            if (props.policy() != SlowConsumerPolicy.DROP) return false;
+            long limit = props.bufferSizeLimit().toBytes();
+            for (Iterator<Frame> it = frames.iterator(); it.hasNext() && bytes > limit; ) {
+                var f = it.next();
+                if (!f.droppable()) continue;
+                it.remove();
+                bytes -= f.bytes();
+                dropped.increment();
+            }
+            return bytes <= limit;
+        }
+
+        private void schedule() {
+            if (!scheduled.compareAndSet(false, true)) return;
+            try {
+                writers.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                scheduled.set(false); // Shutdown
+            }
+        }
+
+        private void drain() {
+            Frame f = null;
+            if (!closed) {
+                synchronized (frames) {
+                    f = frames.poll();
+                }
+            }
+            if (f == null) {
+                scheduled.set(false);
+                if (!closed && queuedFrames() > 0) schedule(); // zwischen poll und scheduled=false eingestellt
+                return;
+            }
+            // scheduled bleibt gesetzt, bis der Schreibvorgang abgeschlossen ist: höchstens ein Frame unterwegs
+            sendingSince = System.nanoTime();
+            sending = true;
+            var frame = f;
+            send(f.message(), error -> sent(frame, error));
+        }
+
+        // Abschluss eines Schreibvorgangs, in einem beliebigen Thread (Container-I/O, Virtual Thread)
+        private void sent(Frame f, Throwable error) {
+            sending = false;
+            synchronized (frames) {
+                if (!closed) bytes -= f.bytes();
+            }
+            if (error != null) {
+                log.debug("websocket send to {} failed", getId(), error);
+                discard();
+                scheduled.set(false);
+                return;
+            }
+            try {
+                writers.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                scheduled.set(false); // Shutdown
+            }
+        }
+
+        private void send(WebSocketMessage<?> message, Consumer<Throwable> done) {
+            if (async != null && message.isLast()) {
+                SendHandler handler = result -> done.accept(result.isOK() ? null : result.getException());
+                try {
+                    if (message instanceof TextMessage text) {
+                        async.sendText(text.getPayload(), handler);
+                        return;
+                    }
+                    if (message instanceof BinaryMessage binary) {
+                        async.sendBinary(binary.getPayload(), handler);
+                        return;
+                    }
+                } catch (RuntimeException e) {
+                    done.accept(e);
+                    return;
+                }
+            }
+            Thread.ofVirtual().name("ws-send-" + getId()).start(() -> {
+                Throwable error = null;
+                try {
+                    getDelegate().sendMessage(message);
+                } catch (IOException | RuntimeException e) {
+                    error = e;
+                }
+                done.accept(error);
+            });
+        }
+
+        void disconnect(Counter reason) {
+            if (closed) return;
+            discard();
+            reason.increment();
+            log.debug("disconnecting slow websocket consumer {}", getId());
+            try {
+                getDelegate().close(CloseStatus.SESSION_NOT_RELIABLE);
+            } catch (IOException | RuntimeException e) {
+                log.debug("closing websocket {} failed", getId(), e);
+            }
+        }
+
+        void discard() {
+            closed = true;
+            synchronized (frames) {
+                frames.clear();
+                bytes = 0;
+            }
+        }
+
+        int queuedBytes() {
+            synchronized (frames) {
+                return bytes;
+            }
+        }
+
+        int queuedFrames() {
+            synchronized (frames) {
+                return frames.size();
+            }
+        }
+    }
+
+    private RemoteEndpoint.Async asyncRemote(WebSocketSession session) {
+        if (!(WebSocketSessionDecorator.unwrap(session) instanceof NativeWebSocketSession nativeSession)
+                || !(nativeSession.getNativeSession() instanceof Session endpoint)) {
+            return null;
+        }
+        var async = endpoint.getAsyncRemote();
+        async.setSendTimeout(props.sendTimeLimit().toMillis()); // der Container bricht hängende Schreibvorgänge ab
+        return async;
+    }
+
+    /**
+     * Liest destination und coalesce-key aus dem Header-Block eines STOMP-MESSAGE-Frames.
+     * Andere Frames (CONNECTED, RECEIPT, ERROR, Heartbeats) werden weder ersetzt noch verworfen.
+     */
+    private static Frame frame(WebSocketMessage<?> message, boolean coalesce) {
+        int bytes = message.getPayloadLength();
+        if (!(message instanceof TextMessage text)) return new Frame(message, null, false, bytes);
+        var payload = text.getPayload();
+        int end = payload.indexOf("\n\n");
+        if (!payload.startsWith("MESSAGE\n") || end < 0) return new Frame(message, null, false, bytes);
+
+        var destination = header(payload, end, "destination");
+        var key = coalesce && destination != null ? header(payload, end, COALESCE_HEADER) : null;
+        return new Frame(message, key == null ? null : destination + '\n' + key,
+                destination != null && destination.startsWith(TOPIC_PREFIX), bytes);
+    }
+
+    private static String header(String frame, int headersEnd, String name) {
+        int i = frame.indexOf('\n' + name + ':');
+        if (i < 0 || i >= headersEnd) return null;
+        int start = i + name.length() + 2;
+        return frame.substring(start, frame.indexOf('\n', start));
+    }
+}
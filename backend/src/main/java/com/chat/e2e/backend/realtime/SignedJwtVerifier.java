@@ -0,0 +1,185 @@
+package com.chat.e2e.backend.realtime;
+
+import com.chat.e2e.backend.api.dto.DTOs;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.*;
+import java.security.interfaces.ECPublicKey;
+import java.security.interfaces.RSAPublicKey;
+import java.security.spec.InvalidKeySpecException;
+import java.security.spec.X509EncodedKeySpec;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * JwtVerifier für signierte Tokens (JWS Compact, HS/RS/ES mit 256/384/512): Signatur, exp/nbf mit clockSkew,
+ * optional iss. Die Schlüssel aus auth.jwt.keys werden einmal beim Start geparst und über kid gefunden;
+ * Header und Claims liest JwtClaimsParser ohne Map-Deserialisierung.
+ * Nach einem Neustart des Load-Balancers verbinden sich alle Clients in kurzer Zeit mit ihren noch gültigen Tokens
+ * neu: erfolgreich geprüfte Tokens merkt sich ein begrenzter Cache unter ihrem SHA-256 bis zu ihrem exp, ein
+ * wiederholter CONNECT kostet dann einen Hash statt einer RSA-/ECDSA-Prüfung. Abgelehnte Tokens werden nicht gecacht.
+ * Aktiv, solange auth.dev.accept-unsigned nicht gesetzt ist (sonst InsecureDevJwtVerifier).
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(prefix = "auth.dev", name = "accept-unsigned", havingValue = "false", matchIfMissing = true)
+public class SignedJwtVerifier implements JwtVerifier {
+
+    private enum Algorithm {
+        HS256("HmacSHA256", SecretKey.class), HS384("HmacSHA384", SecretKey.class), HS512("HmacSHA512", SecretKey.class),
+        RS256("SHA256withRSA", RSAPublicKey.class), RS384("SHA384withRSA", RSAPublicKey.class),
+        RS512("SHA512withRSA", RSAPublicKey.class),
+        // JWS kodiert ECDSA-Signaturen als R||S, nicht DER
+        ES256("SHA256withECDSAinP1363Format", ECPublicKey.class), ES384("SHA384withECDSAinP1363Format", ECPublicKey.class),
+        ES512("SHA512withECDSAinP1363Format", ECPublicKey.class);
+
+        private final String jcaName;
+        private final Class<? extends Key> keyType;
+
+        Algorithm(String jcaName, Class<? extends Key> keyType) {
+            this.jcaName = jcaName;
+            this.keyType = keyType;
+        }
+
+        boolean verify(Key key, byte[] signingInput, byte[] signature) throws GeneralSecurityException {
+            if (key instanceof SecretKey secret) {
+                var mac = Mac.getInstance(jcaName);
+                mac.init(secret);
+                return MessageDigest.isEqual(mac.doFinal(signingInput), signature);
+            }
+            var verifier = Signature.getInstance(jcaName);
+            verifier.initVerify((PublicKey) key);
+            verifier.update(signingInput);
+            return verifier.verify(signature);
+        }
+    }
+
+    private record Verified(DTOs.JwtClaims claims, long exp) {}
+
+    private final Map<String, Key> keys;
+    private final String issuer;
+    private final long skewSeconds;
+    private final Cache<String, Verified> verified;
+    private final Counter rejected;
+
+    public SignedJwtVerifier(JwtProperties props, MeterRegistry meters) {
+        var parsed = new HashMap<String, Key>();
+        props.keys().forEach((kid, material) -> parsed.put(kid, parseKey(kid, material)));
+        this.keys = Map.copyOf(parsed);
+        if (keys.isEmpty()) log.warn("auth.jwt.keys is empty, every STOMP CONNECT will be rejected");
+
+        this.issuer = StringUtils.hasText(props.issuer()) ? props.issuer() : null;
+        this.skewSeconds = props.clockSkew().toSeconds();
+        // Eintrag lebt genau so lange, wie das Token gültig ist
+        this.verified = Caffeine.newBuilder()
+                .maximumSize(props.cacheSize())
+                .expireAfter(Expiry.creating((String hash, Verified v) ->
+                        Duration.ofSeconds(Math.max(0, v.exp() + skewSeconds - nowSeconds()))))
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meters, verified, "jwt");
+        this.rejected = Counter.builder("chat.auth.jwt.rejected")
+                .description("Abgelehnte Tokens beim STOMP-CONNECT").register(meters);
+    }
+
+    @Override
+    public DTOs.JwtClaims verify(String token) {
+        var hash = sha256(token);
+        var hit = verified.getIfPresent(hash);
+        if (hit != null) return hit.claims();
+        try {
+            var checked = check(token);
+            verified.put(hash, checked);
+            return checked.claims();
+        } catch (GeneralSecurityException | IOException | IllegalArgumentException e) {
+            rejected.increment();
+            throw new IllegalArgumentException("Invalid token", e);
+        }
+    }
+
+    private Verified check(String token) throws GeneralSecurityException, IOException {
+        int headerEnd = token.indexOf('.');
+        int payloadEnd = token.indexOf('.', headerEnd + 1);
+        if (headerEnd <= 0 || payloadEnd < 0 || token.indexOf('.', payloadEnd + 1) >= 0) {
+            throw new IllegalArgumentException("Malformed JWT");
+        }
+        var base64 = Base64.getUrlDecoder();
+        var header = JwtClaimsParser.header(base64.decode(token.substring(0, headerEnd)));
+        var payload = JwtClaimsParser.payload(base64.decode(token.substring(headerEnd + 1, payloadEnd)));
+
+        // billige Prüfungen vor der Signatur: abgelaufene Tokens kosten keine Kryptografie
+        long now = nowSeconds();
+        if (now > payload.exp() + skewSeconds) throw new IllegalArgumentException("Token expired");
+        if (now < payload.nbf() - skewSeconds) throw new IllegalArgumentException("Token not yet valid");
+        if (issuer != null && !issuer.equals(payload.iss())) throw new IllegalArgumentException("Unexpected issuer");
+        if (payload.sub() == null || payload.did() == null) throw new IllegalArgumentException("sub and did required");
+
+        var algorithm = algorithm(header.alg());
+        var key = key(header.kid());
+        // verhindert u. a. HS256 mit einem Public Key als Secret
+        if (!algorithm.keyType.isInstance(key)) throw new IllegalArgumentException("Key does not fit " + algorithm);
+        var signingInput = token.substring(0, payloadEnd).getBytes(StandardCharsets.US_ASCII);
+        if (!algorithm.verify(key, signingInput, base64.decode(token.substring(payloadEnd + 1)))) {
+            throw new SignatureException("Bad signature");
+        }
+        var claims = new DTOs.JwtClaims(UUID.fromString(payload.sub()), UUID.fromString(payload.did()));
+        return new Verified(claims, payload.exp());
+    }
+
+    private static Algorithm algorithm(String alg) {
+        if (alg == null) throw new IllegalArgumentException("alg missing");
+        return Algorithm.valueOf(alg); // "none" und Unbekanntes → IllegalArgumentException
+    }
+
+    private Key key(String kid) {
+        var key = kid != null ? keys.get(kid) : keys.size() == 1 ? keys.values().iterator().next() : null;
+        if (key == null) throw new IllegalArgumentException("Unknown key: " + kid);
+        return key;
+    }
+
+    // PEM → Public Key (RSA oder EC), sonst Base64-Secret für HMAC
+    static Key parseKey(String kid, String material) {
+        var text = material.strip();
+        if (!text.startsWith("-----BEGIN")) return new SecretKeySpec(Base64.getMimeDecoder().decode(text), "HmacSHA256");
+
+        var spec = new X509EncodedKeySpec(Base64.getMimeDecoder().decode(text.replaceAll("-----[A-Z ]+-----", "")));
+        for (var type : new String[]{"RSA", "EC"}) {
+            try {
+                return KeyFactory.getInstance(type).generatePublic(spec);
+            } catch (InvalidKeySpecException | NoSuchAlgorithmException e) {
+                // nächster Schlüsseltyp
+            }
+        }
+        throw new IllegalArgumentException("auth.jwt.keys." + kid + ": neither an RSA nor an EC public key");
+    }
+
+    private static String sha256(String token) {
+        try {
+            var digest = MessageDigest.getInstance("SHA-256").digest(token.getBytes(StandardCharsets.US_ASCII));
+            return Base64.getEncoder().encodeToString(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static long nowSeconds() {
+        return System.currentTimeMillis() / 1000;
+    }
+}
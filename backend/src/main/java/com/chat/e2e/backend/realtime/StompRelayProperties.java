@@ -0,0 +1,21 @@
+package com.chat.e2e.backend.realtime;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+
+/**
+ * chat.relay.* – Weiterleitung von STOMP-Nachrichten zwischen Instanzen (ClusterStompRelay).
+ *
+ * @param linger           so lange sammelt eine Instanz Frames, bevor sie gebündelt über den Bus gehen
+ * @param announceInterval Abstand der vollständigen Routen-Ankündigung; wer sich dreimal so lange nicht meldet, gilt als weg
+ * @param settle           nach Start und Bus-Unterbrechung gehen Frames so lange an alle Instanzen,
+ *                         bis die Routen der anderen wieder vollständig vorliegen
+ */
+@ConfigurationProperties(prefix = "chat.relay")
+public record StompRelayProperties(
+        @DefaultValue("PT0.01S") Duration linger,
+        @DefaultValue("PT30S") Duration announceInterval,
+        @DefaultValue("PT2S") Duration settle
+) {}
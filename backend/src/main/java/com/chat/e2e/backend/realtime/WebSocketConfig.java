@@ -1,7 +1,13 @@
 package com.chat.e2e.backend.realtime;
 
 import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.thread.Threading;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+import org.springframework.core.task.VirtualThreadTaskExecutor;
+import org.springframework.messaging.simp.broker.SimpleBrokerMessageHandler;
 import org.springframework.messaging.simp.config.*;
 import org.springframework.web.socket.config.annotation.*;
 
@@ -11,6 +17,26 @@ import org.springframework.web.socket.config.annotation.*;
 public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
 
     private final AuthChannelInterceptor authChannelInterceptor;
+    private final ClusterStompRelay clusterRelay;
+    private final DeviceSessionRegistry deviceSessions;
+    private final DeliveryPushService deliveryPush;
+    private final OutboundQueues outboundQueues;
+    private final OutboundProperties outbound;
+    private final Environment environment;
+
+    // SimpleBroker mit Hash-Index statt Durchsuchen aller Subscriptions; enableSimpleBroker bietet dafür keinen Hook
+    @Bean
+    static BeanPostProcessor indexedSubscriptionRegistry() {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessBeforeInitialization(Object bean, String beanName) {
+                if (bean instanceof SimpleBrokerMessageHandler broker) {
+                    broker.setSubscriptionRegistry(new IndexedSubscriptionRegistry());
+                }
+                return bean;
+            }
+        };
+    }
 
     @Override
     public void registerStompEndpoints(StompEndpointRegistry registry) {
@@ -22,12 +48,38 @@ public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
     @Override
     public void configureMessageBroker(MessageBrokerRegistry registry) {
         registry.setApplicationDestinationPrefixes("/app");   // Client -> Server
-        registry.enableSimpleBroker("/topic", "/queue");      // Server -> Client (dev)
+        registry.enableSimpleBroker("/topic", "/queue");      // Server -> Client, pro Instanz
         registry.setUserDestinationPrefix("/user");           // /user/queue/… für convertAndSendToUser
+        // Reihenfolge pro Session trotz mehrerer Outbound-Threads (Inbox-Stream, coalesce-key in OutboundQueues)
+        registry.setPreservePublishOrder(true);
+        // erst weiterreichen (andere Instanzen), weitergereichte Pushes in einen offenen Inbox-Stream umleiten,
+        // dann /device/… auf die lokale Session des Geräts umschreiben
+        registry.configureBrokerChannel().interceptors(clusterRelay, deliveryPush, deviceSessions);
     }
 
     @Override
     public void configureClientInboundChannel(ChannelRegistration registration) {
         registration.interceptors(authChannelInterceptor);     // <-- HIER registriert
+        // Profil virtual-threads: SEND-Verarbeitung (MessageService.send) blockiert keinen Pool-Thread mehr,
+        // die Datenbankarbeit begrenzt der JdbcBulkhead
+        if (Threading.VIRTUAL.isActive(environment)) registration.executor(new VirtualThreadTaskExecutor("stomp-in-"));
+    }
+
+    @Override
+    public void configureClientOutboundChannel(ChannelRegistration registration) {
+        if (Threading.VIRTUAL.isActive(environment)) {
+            registration.executor(new VirtualThreadTaskExecutor("stomp-out-"));
+            return;
+        }
+        // Threads stellen nur in die Warteschlangen von OutboundQueues ein, warten also nie auf langsame Leser
+        registration.taskExecutor().corePoolSize(outbound.channelThreads()).maxPoolSize(outbound.channelThreads());
+    }
+
+    @Override
+    public void configureWebSocketTransport(WebSocketTransportRegistration registration) {
+        // Springs eigener Puffer pro Session bleibt als Rückfallebene mit denselben Grenzen
+        registration.setSendTimeLimit((int) outbound.sendTimeLimit().toMillis())
+                .setSendBufferSizeLimit((int) outbound.bufferSizeLimit().toBytes())
+                .addDecoratorFactory(outboundQueues);
     }
 }
@@ -1,6 +1,7 @@
 package com.chat.e2e.backend.user;
 
 import lombok.RequiredArgsConstructor;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.stereotype.Service;
 
@@ -13,6 +14,7 @@ public class AppUserService {
 
     private final AppUserRepository repo;
     private final BCryptPasswordEncoder passwordEncoder;
+    private final ApplicationEventPublisher events;
 
     public List<AppUser> findAll() {
         return repo.findAll();
@@ -35,7 +37,9 @@ public class AppUserService {
                 .passwordHash(hash)
                 .build();
 
-        return repo.save(user);
+        user = repo.save(user);
+        events.publishEvent(new UserRegisteredEvent(user.getId(), user.getHandle()));
+        return user;
     }
 
 
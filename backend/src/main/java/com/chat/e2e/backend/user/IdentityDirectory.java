@@ -0,0 +1,131 @@
+package com.chat.e2e.backend.user;
+
+import com.chat.e2e.backend.cluster.ClusterBus;
+import com.chat.e2e.backend.device.DeviceRevokedEvent;
+import com.chat.e2e.backend.device.UserDevice;
+import com.chat.e2e.backend.device.UserDeviceRepository;
+import com.chat.e2e.backend.device.UserDevicesChangedEvent;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.time.Instant;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Near-Cache für Identitäten: User per Handle und Id, Geräte-Metadaten per Id – unveränderliche Kopien,
+ * keine Entities. Nicht gefundene Einträge werden nicht gecacht.
+ * Invalidiert nach dem Commit (Registrierung, Einrichtung, Widerruf), lokal und über den ClusterBus
+ * auf allen anderen Instanzen; nach einer Bus-Unterbrechung wird alles verworfen.
+ * Hit/Miss/Eviction-Metriken unter cache.* mit Tag cache=identity.user.handle, identity.user.id, identity.device.
+ */
+@Component
+public class IdentityDirectory {
+
+    static final String CHANNEL = "chat_identity";
+
+    public record UserRef(UUID id, String handle, String displayName) {
+        static UserRef of(AppUser u) {
+            return new UserRef(u.getId(), u.getHandle(), u.getDisplayName());
+        }
+    }
+
+    public record DeviceRef(UUID id, UUID userId, String platform, Instant revokedAt) {
+        static DeviceRef of(UserDevice d) {
+            return new DeviceRef(d.getId(), d.getUser().getId(), d.getPlatform(), d.getRevokedAt());
+        }
+
+        public boolean active() {
+            return revokedAt == null;
+        }
+    }
+
+    private final AppUserRepository userRepo;
+    private final UserDeviceRepository deviceRepo;
+    private final ClusterBus bus;
+    private final Cache<String, UserRef> usersByHandle;
+    private final Cache<UUID, UserRef> usersById;
+    private final Cache<UUID, DeviceRef> devices;
+
+    public IdentityDirectory(AppUserRepository userRepo,
+                             UserDeviceRepository deviceRepo,
+                             IdentityProperties props,
+                             ClusterBus bus,
+                             MeterRegistry meters) {
+        this.userRepo = userRepo;
+        this.deviceRepo = deviceRepo;
+        this.bus = bus;
+        this.usersByHandle = Caffeine.newBuilder().maximumSize(props.maxSize()).expireAfterWrite(props.ttl()).recordStats().build();
+        this.usersById = Caffeine.newBuilder().maximumSize(props.maxSize()).expireAfterWrite(props.ttl()).recordStats().build();
+        this.devices = Caffeine.newBuilder().maximumSize(props.maxSize()).expireAfterWrite(props.ttl()).recordStats().build();
+        CaffeineCacheMetrics.monitor(meters, usersByHandle, "identity.user.handle");
+        CaffeineCacheMetrics.monitor(meters, usersById, "identity.user.id");
+        CaffeineCacheMetrics.monitor(meters, devices, "identity.device");
+        bus.subscribe(CHANNEL, this::onRemoteInvalidation);
+        bus.onGap(this::invalidateAll);
+    }
+
+    public Optional<UserRef> userByHandle(String handle) {
+        return Optional.ofNullable(usersByHandle.get(handle, h -> userRepo.findByHandle(h).map(UserRef::of).orElse(null)));
+    }
+
+    public Optional<UserRef> user(UUID userId) {
+        return Optional.ofNullable(usersById.get(userId, id -> userRepo.findById(id).map(UserRef::of).orElse(null)));
+    }
+
+    /** Gerät inklusive widerrufener; leer, wenn es nicht existiert. */
+    public Optional<DeviceRef> device(UUID deviceId) {
+        return Optional.ofNullable(devices.get(deviceId, id -> deviceRepo.findById(id).map(DeviceRef::of).orElse(null)));
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onUserRegistered(UserRegisteredEvent event) {
+        invalidateAndPublish("user:" + event.userId() + ":" + event.handle());
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onDevicesChanged(UserDevicesChangedEvent event) {
+        invalidateAndPublish("user-devices:" + event.userId());
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onDeviceRevoked(DeviceRevokedEvent event) {
+        invalidateAndPublish("device:" + event.deviceId());
+    }
+
+    public void invalidateAll() {
+        usersByHandle.invalidateAll();
+        usersById.invalidateAll();
+        devices.invalidateAll();
+    }
+
+    private void invalidateAndPublish(String message) {
+        apply(message);
+        bus.publish(CHANNEL, message);
+    }
+
+    private void onRemoteInvalidation(String message) {
+        apply(message);
+    }
+
+    // "user:<id>:<handle>" | "user-devices:<userId>" | "device:<id>"
+    private void apply(String message) {
+        String[] parts = message.split(":", 3);
+        switch (parts[0]) {
+            case "user" -> {
+                usersById.invalidate(UUID.fromString(parts[1]));
+                usersByHandle.invalidate(parts[2]);
+            }
+            case "user-devices" -> {
+                UUID userId = UUID.fromString(parts[1]);
+                devices.asMap().values().removeIf(d -> d.userId().equals(userId));
+            }
+            case "device" -> devices.invalidate(UUID.fromString(parts[1]));
+            default -> throw new IllegalArgumentException("unknown identity invalidation: " + message);
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.chat.e2e.backend.user;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+
+/**
+ * chat.identity.* – Near-Cache für User (per Handle und Id) und Geräte-Metadaten.
+ *
+ * @param maxSize maximale Einträge je Cache
+ * @param ttl     Sicherheitsnetz: Einträge verfallen spätestens nach dieser Zeit, auch ohne Invalidierung
+ */
+@ConfigurationProperties(prefix = "chat.identity")
+public record IdentityProperties(
+        @DefaultValue("100000") long maxSize,
+        @DefaultValue("PT10M") Duration ttl
+) {}
@@ -0,0 +1,6 @@
+package com.chat.e2e.backend.user;
+
+import java.util.UUID;
+
+/** Neuer User; Identitäts-Caches müssen den Handle neu auflösen. */
+public record UserRegisteredEvent(UUID userId, String handle) {}
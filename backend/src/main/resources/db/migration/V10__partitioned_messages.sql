@@ -0,0 +1,121 @@
+-- V10__partitioned_messages.sql
+-- message_core, message_payload und message_delivery als nach Zeit partitionierte Tabellen (RANGE).
+-- Alte Daten verschwinden als ganze Partition (PartitionMaintenance: DETACH + DROP) statt per DELETE.
+--
+-- Partitionsschlüssel:
+--   message_core, message_payload: created_at der Nachricht – gleiche Grenzen, werden gemeinsam entfernt.
+--   message_delivery: created_at der Delivery = clock_timestamp() beim Insert, also nach der Zeilensperre
+--     in device_inbox_seq ⇒ pro Gerät monoton zur seq. Die Inbox grenzt ihren Range-Scan damit über eine
+--     Zeit-Untergrenze (device_inbox_ack.acked_delivery_at) auf die jüngsten Partitionen ein.
+-- Primär- und Unique-Schlüssel müssen den Partitionsschlüssel enthalten; Fremdschlüssel auf message_core
+-- laufen deshalb über (message_id, created_at der Nachricht).
+-- Der Bestand landet in je einer Partition *_p0 (bis Monatsende, UTC); weitere legt PartitionMaintenance an.
+
+-- 1) Fremdschlüssel auf message_core lösen, alte Tabellen beiseite
+ALTER TABLE fanout_task DROP CONSTRAINT fanout_task_message_id_fkey;
+-- Idempotenz-Einträge leben nur chat.idempotency.window (kürzer als die Retention) → ohne Fremdschlüssel
+ALTER TABLE message_idempotency DROP CONSTRAINT message_idempotency_message_id_fkey;
+
+ALTER TABLE message_delivery RENAME TO message_delivery_old;
+ALTER TABLE message_payload RENAME TO message_payload_old;
+ALTER TABLE message_core RENAME TO message_core_old;
+
+-- 2) Partitionierte Tabellen
+CREATE TABLE message_core (
+                              id               UUID        NOT NULL DEFAULT gen_random_uuid(),
+                              conversation_id  UUID        NOT NULL REFERENCES conversation(id) ON DELETE CASCADE,
+                              sender_id        UUID        NOT NULL REFERENCES app_user(id) ON DELETE CASCADE,
+                              sender_device_id UUID        REFERENCES user_device(id) ON DELETE SET NULL,
+                              created_at       TIMESTAMPTZ NOT NULL DEFAULT now(),
+                              content_type     TEXT        NOT NULL DEFAULT 'text/plain',
+                              msg_type         TEXT        NOT NULL DEFAULT 'text',
+                              epoch            INTEGER,
+                              counter          BIGINT,
+                              header           JSONB,
+                              log_seq          BIGINT
+) PARTITION BY RANGE (created_at);
+
+CREATE TABLE message_payload (
+                                 message_id  UUID        NOT NULL,
+                                 created_at  TIMESTAMPTZ NOT NULL,   -- = message_core.created_at
+                                 ciphertext  BYTEA       NOT NULL
+) PARTITION BY RANGE (created_at);
+
+CREATE TABLE message_delivery (
+                                  id                   UUID        NOT NULL DEFAULT gen_random_uuid(),
+                                  message_id           UUID        NOT NULL,
+                                  message_created_at   TIMESTAMPTZ NOT NULL,   -- = message_core.created_at
+                                  recipient_device_id  UUID        NOT NULL REFERENCES user_device(id) ON DELETE CASCADE,
+                                  seq                  BIGINT      NOT NULL,
+                                  ciphertext           BYTEA,
+                                  created_at           TIMESTAMPTZ NOT NULL DEFAULT clock_timestamp(),
+                                  delivered_at         TIMESTAMPTZ,
+                                  read_at              TIMESTAMPTZ
+) PARTITION BY RANGE (created_at);
+
+DO $$
+DECLARE
+    p0_upper TIMESTAMPTZ := (date_trunc('month', now() AT TIME ZONE 'UTC') + INTERVAL '1 month') AT TIME ZONE 'UTC';
+BEGIN
+    EXECUTE format('CREATE TABLE message_core_p0 PARTITION OF message_core FOR VALUES FROM (MINVALUE) TO (%L)', p0_upper);
+    EXECUTE format('CREATE TABLE message_payload_p0 PARTITION OF message_payload FOR VALUES FROM (MINVALUE) TO (%L)', p0_upper);
+    EXECUTE format('CREATE TABLE message_delivery_p0 PARTITION OF message_delivery FOR VALUES FROM (MINVALUE) TO (%L)', p0_upper);
+END $$;
+
+-- 3) Bestand übernehmen
+INSERT INTO message_core (id, conversation_id, sender_id, sender_device_id, created_at, content_type,
+                          msg_type, epoch, counter, header, log_seq)
+SELECT id, conversation_id, sender_id, sender_device_id, created_at, content_type,
+       msg_type, epoch, counter, header, log_seq
+  FROM message_core_old;
+
+INSERT INTO message_payload (message_id, created_at, ciphertext)
+SELECT p.message_id, m.created_at, p.ciphertext
+  FROM message_payload_old p
+  JOIN message_core_old m ON m.id = p.message_id;
+
+-- Bestand: ein gemeinsamer Zeitpunkt (Migration) ist trivial monoton zur seq
+INSERT INTO message_delivery (id, message_id, message_created_at, recipient_device_id, seq, ciphertext,
+                              created_at, delivered_at, read_at)
+SELECT d.id, d.message_id, m.created_at, d.recipient_device_id, d.seq, d.ciphertext,
+       now(), d.delivered_at, d.read_at
+  FROM message_delivery_old d
+  JOIN message_core_old m ON m.id = d.message_id;
+
+ALTER TABLE fanout_task ADD COLUMN message_created_at TIMESTAMPTZ;
+UPDATE fanout_task t
+   SET message_created_at = m.created_at
+  FROM message_core_old m
+ WHERE m.id = t.message_id;
+ALTER TABLE fanout_task ALTER COLUMN message_created_at SET NOT NULL;
+
+DROP TABLE message_delivery_old;
+DROP TABLE message_payload_old;
+DROP TABLE message_core_old;
+
+-- 4) Schlüssel und Indizes (nach dem Kopieren)
+ALTER TABLE message_core ADD PRIMARY KEY (id, created_at);
+CREATE INDEX idx_msg_core_conv_time ON message_core (conversation_id, created_at DESC, id);
+CREATE INDEX idx_msg_core_sender ON message_core (sender_id);
+-- Eindeutigkeit der Log-Sequenz sichert die Zeilensperre auf conversation.log_seq
+CREATE INDEX idx_msg_core_conv_log_seq ON message_core (conversation_id, log_seq) WHERE log_seq IS NOT NULL;
+
+ALTER TABLE message_payload ADD PRIMARY KEY (message_id, created_at);
+ALTER TABLE message_payload ADD FOREIGN KEY (message_id, created_at)
+    REFERENCES message_core (id, created_at) ON DELETE CASCADE;
+
+ALTER TABLE message_delivery ADD PRIMARY KEY (id, created_at);
+ALTER TABLE message_delivery ADD FOREIGN KEY (message_id, message_created_at)
+    REFERENCES message_core (id, created_at) ON DELETE CASCADE;
+-- Eindeutigkeit von seq bzw. (Nachricht, Gerät) sichern device_inbox_seq und die Claim-Logik des Fan-outs
+CREATE INDEX idx_delivery_device_seq ON message_delivery (recipient_device_id, seq);
+CREATE INDEX idx_delivery_message ON message_delivery (message_id);
+CREATE INDEX idx_delivery_device_msg ON message_delivery (recipient_device_id, message_id);
+CREATE INDEX idx_delivery_device_delivered_null ON message_delivery (recipient_device_id) WHERE delivered_at IS NULL;
+
+ALTER TABLE fanout_task ADD FOREIGN KEY (message_id, message_created_at)
+    REFERENCES message_core (id, created_at) ON DELETE CASCADE;
+
+-- 5) Zeit-Untergrenze der Inbox: created_at der Delivery mit seq = acked_seq
+ALTER TABLE device_inbox_ack ADD COLUMN acked_delivery_at TIMESTAMPTZ;
+UPDATE device_inbox_ack SET acked_delivery_at = now();
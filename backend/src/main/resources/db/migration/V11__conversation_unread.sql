@@ -0,0 +1,29 @@
+-- V11__conversation_unread.sql
+-- Ungelesen-Zähler pro (Gerät, Konversation) statt Zählen über ungelesene Deliveries.
+-- Direkte Konversationen: der Fan-out zählt hoch, ein Read setzt auf den Rest hinter dem Lesestand.
+-- Fan-out-on-read-Konversationen: ungelesen = conversation.log_seq - conversation_log_cursor.read_log_seq,
+-- Senden schreibt dort nichts pro Gerät.
+
+CREATE TABLE conversation_unread (
+                                     device_id       UUID    NOT NULL,
+                                     conversation_id UUID    NOT NULL,
+                                     unread          INTEGER NOT NULL DEFAULT 0,
+                                     PRIMARY KEY (device_id, conversation_id),
+                                     FOREIGN KEY (conversation_id, device_id)
+                                         REFERENCES conversation_member_device(conversation_id, device_id) ON DELETE CASCADE
+);
+
+-- Bestand: geteilte Nachrichten (keine sealed Control-Messages) hinter dem Lesestand
+INSERT INTO conversation_unread (device_id, conversation_id, unread)
+SELECT d.recipient_device_id, m.conversation_id, count(*)
+  FROM message_delivery d
+  JOIN message_core m ON m.id = d.message_id AND m.created_at = d.message_created_at
+  JOIN conversation_member_device cmd ON cmd.conversation_id = m.conversation_id AND cmd.device_id = d.recipient_device_id
+  LEFT JOIN conversation_read_watermark w ON w.device_id = d.recipient_device_id AND w.conversation_id = m.conversation_id
+ WHERE d.ciphertext IS NULL
+   AND (w.device_id IS NULL OR (m.created_at, m.id) > (w.read_created_at, w.read_message_id))
+ GROUP BY d.recipient_device_id, m.conversation_id;
+
+-- Gelesene Log-Sequenz; Bestand: bis zum bestätigten Stand
+ALTER TABLE conversation_log_cursor ADD COLUMN read_log_seq BIGINT NOT NULL DEFAULT 0;
+UPDATE conversation_log_cursor SET read_log_seq = acked_seq;
@@ -0,0 +1,32 @@
+-- V12__sync_versions.sql
+-- Änderungsversionen für die Delta-Synchronisation (GET /v1/sync/changes?since=<token>).
+-- sync_xid = Transaktions-ID (xid8) der letzten relevanten Änderung der Zeile.
+-- Token = xmin des Snapshots beim Lesen: alle Transaktionen darunter sind abgeschlossen und waren sichtbar,
+-- spätere Änderungen haben sync_xid >= Token. Nichts geht verloren, solange laufende Transaktionen
+-- den Token drücken, kommen Zeilen höchstens doppelt.
+
+ALTER TABLE conversation ADD COLUMN sync_xid xid8 NOT NULL DEFAULT pg_current_xact_id();
+ALTER TABLE conversation_member ADD COLUMN sync_xid xid8 NOT NULL DEFAULT pg_current_xact_id();
+ALTER TABLE user_device ADD COLUMN sync_xid xid8 NOT NULL DEFAULT pg_current_xact_id();
+
+CREATE FUNCTION touch_sync_xid() RETURNS trigger AS $$
+BEGIN
+    NEW.sync_xid := pg_current_xact_id();
+    RETURN NEW;
+END
+$$ LANGUAGE plpgsql;
+
+-- conversation: nur was der Client sieht; log_seq/fanout_on_read ändern sich ohne Sync-Relevanz
+CREATE TRIGGER trg_conversation_sync_xid BEFORE UPDATE ON conversation
+    FOR EACH ROW WHEN (OLD.is_group IS DISTINCT FROM NEW.is_group)
+    EXECUTE FUNCTION touch_sync_xid();
+
+CREATE TRIGGER trg_conversation_member_sync_xid BEFORE UPDATE ON conversation_member
+    FOR EACH ROW WHEN (OLD.role IS DISTINCT FROM NEW.role)
+    EXECUTE FUNCTION touch_sync_xid();
+
+CREATE TRIGGER trg_user_device_sync_xid BEFORE UPDATE ON user_device
+    FOR EACH ROW WHEN (OLD.platform IS DISTINCT FROM NEW.platform
+                    OR OLD.revoked_at IS DISTINCT FROM NEW.revoked_at
+                    OR OLD.last_seen_at IS DISTINCT FROM NEW.last_seen_at)
+    EXECUTE FUNCTION touch_sync_xid();
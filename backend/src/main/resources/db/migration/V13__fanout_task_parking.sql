@@ -0,0 +1,10 @@
+-- V13__fanout_task_parking.sql
+-- Fan-out-Tasks, die wiederholt scheitern, werden nach chat.fanout.max-attempts geparkt statt vom Poller
+-- endlos neu eingeplant. Geparkte Tasks bleiben mit dem letzten Fehler zur Analyse liegen (und halten, wie
+-- offene Tasks, ihre Nachrichten-Partition); parked_at = NULL plant sie wieder ein.
+
+ALTER TABLE fanout_task ADD COLUMN parked_at TIMESTAMPTZ;
+ALTER TABLE fanout_task ADD COLUMN last_error TEXT;
+
+DROP INDEX idx_fanout_task_enqueued;
+CREATE INDEX idx_fanout_task_enqueued ON fanout_task(enqueued_at) WHERE parked_at IS NULL;
@@ -0,0 +1,14 @@
+-- V14__conversation_log_acked_at.sql
+-- Log-Einträge werden pro Konversation nach log_seq gelesen und bestätigt (statt über ein globales
+-- (created_at, id)-Keyset, das bei parallelen Commits Einträge überspringt).
+-- acked_created_at = created_at des bestätigten Log-Eintrags: Untergrenze für spätere Einträge der Konversation
+-- (log_seq wird unter der Zeilensperre auf conversation vor created_at vergeben), damit die Inbox nur die
+-- jüngsten Partitionen von message_core liest. NULL = keine Untergrenze.
+
+ALTER TABLE conversation_log_cursor ADD COLUMN acked_created_at TIMESTAMPTZ;
+
+UPDATE conversation_log_cursor c
+   SET acked_created_at = m.created_at
+  FROM message_core m
+ WHERE m.conversation_id = c.conversation_id
+   AND m.log_seq = c.acked_seq;
@@ -0,0 +1,25 @@
+-- V15__conversation_log_cursor_on_join.sql
+-- Inbox und Ungelesen-Zähler lesen Fan-out-on-read-Logs nur über conversation_log_cursor. Bisher legte den
+-- Cursor nur ConversationService.addMemberDevices an; ein Member-Device ohne Cursor bekam keine Log-Einträge
+-- und zählte 0 ungelesen. Jetzt entsteht er mit dem Beitritt in derselben Transaktion, am aktuellen Log-Ende
+-- (Beitrittspunkt: keine Historie, wie beim Per-Device-Fan-out).
+
+CREATE FUNCTION init_conversation_log_cursor() RETURNS trigger AS $$
+BEGIN
+    INSERT INTO conversation_log_cursor (device_id, conversation_id, acked_seq, read_log_seq, acked_created_at)
+    SELECT NEW.device_id, c.id, c.log_seq, c.log_seq, now()
+      FROM conversation c
+     WHERE c.id = NEW.conversation_id
+    ON CONFLICT DO NOTHING;
+    RETURN NULL;
+END
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER trg_member_device_log_cursor AFTER INSERT ON conversation_member_device
+    FOR EACH ROW EXECUTE FUNCTION init_conversation_log_cursor();
+
+-- Bestand ohne Cursor: Beitrittspunkt unbekannt, das ganze Log gilt als nicht gelesen (wie in V4)
+INSERT INTO conversation_log_cursor (device_id, conversation_id, acked_seq, read_log_seq)
+SELECT device_id, conversation_id, 0, 0
+  FROM conversation_member_device
+ON CONFLICT DO NOTHING;
@@ -0,0 +1,24 @@
+-- V2__message_payload.sql
+-- Gemeinsamer Ciphertext einmal pro Nachricht statt einmal pro Zielgerät.
+-- message_delivery hält danach nur noch Per-Device-State; ein eigener Ciphertext
+-- pro Gerät bleibt versiegelten Control-Messages (z. B. CK-Verteilung) vorbehalten.
+
+CREATE TABLE message_payload (
+                                 message_id  UUID PRIMARY KEY REFERENCES message_core(id) ON DELETE CASCADE,
+                                 ciphertext  BYTEA NOT NULL
+);
+
+ALTER TABLE message_delivery ALTER COLUMN ciphertext DROP NOT NULL;
+
+-- Bestandsdaten: identische Ciphertexts normaler Nachrichten einmalig übernehmen
+INSERT INTO message_payload (message_id, ciphertext)
+SELECT DISTINCT ON (d.message_id) d.message_id, d.ciphertext
+FROM message_delivery d
+         JOIN message_core m ON m.id = d.message_id
+WHERE m.content_type NOT LIKE 'control/%'
+ORDER BY d.message_id;
+
+UPDATE message_delivery d
+SET ciphertext = NULL
+FROM message_payload p
+WHERE p.message_id = d.message_id;
@@ -0,0 +1,16 @@
+-- V3__fanout_task.sql
+-- Dauerhafte Fan-out-Stufe: message_core wird sofort committed und bestätigt,
+-- die Per-Device-Zeilen erzeugt danach ein Worker-Pool.
+-- Ein Task wird im selben Commit wie seine Deliveries gelöscht; nach einem Crash
+-- liegen offene Tasks weiter hier und werden vom Poller erneut eingeplant.
+
+CREATE TABLE fanout_task (
+                             message_id         UUID PRIMARY KEY REFERENCES message_core(id) ON DELETE CASCADE,
+                             conversation_id    UUID NOT NULL,
+                             exclude_device_id  UUID,   -- Sendergerät (kein Echo)
+                             msg_header         JSONB,
+                             enqueued_at        TIMESTAMPTZ NOT NULL DEFAULT now(),
+                             attempts           INTEGER NOT NULL DEFAULT 0
+);
+
+CREATE INDEX idx_fanout_task_enqueued ON fanout_task(enqueued_at);
@@ -0,0 +1,32 @@
+-- V4__conversation_log.sql
+-- Fan-out-on-read für große Konversationen:
+-- statt einer message_delivery-Zeile pro Gerät ein Log-Eintrag (message_core.log_seq)
+-- plus ein Lese-Cursor pro (Gerät, Konversation).
+
+ALTER TABLE conversation
+    ADD COLUMN fanout_on_read BOOLEAN NOT NULL DEFAULT FALSE,
+    ADD COLUMN log_seq        BIGINT  NOT NULL DEFAULT 0;   -- zuletzt vergebene Log-Sequenz
+
+-- Log-Sequenz nur für Nachrichten in Fan-out-on-read-Konversationen
+ALTER TABLE message_core
+    ADD COLUMN log_seq          BIGINT,
+    ADD COLUMN sender_device_id UUID REFERENCES user_device(id) ON DELETE SET NULL;
+
+CREATE UNIQUE INDEX uq_msg_core_conv_log_seq
+    ON message_core (conversation_id, log_seq)
+    WHERE log_seq IS NOT NULL;
+
+-- Bis acked_seq hat das Gerät das Konversations-Log bestätigt
+CREATE TABLE conversation_log_cursor (
+                                         device_id       UUID   NOT NULL,
+                                         conversation_id UUID   NOT NULL,
+                                         acked_seq       BIGINT NOT NULL DEFAULT 0,
+                                         PRIMARY KEY (device_id, conversation_id),
+                                         FOREIGN KEY (conversation_id, device_id)
+                                             REFERENCES conversation_member_device(conversation_id, device_id) ON DELETE CASCADE
+);
+
+-- Bestehende Member-Devices bekommen ihren Cursor
+INSERT INTO conversation_log_cursor (device_id, conversation_id, acked_seq)
+SELECT device_id, conversation_id, 0
+  FROM conversation_member_device;
@@ -0,0 +1,28 @@
+-- V5__typed_message_header.sql
+-- Header-Felder als typisierte Spalten statt jsonb.
+-- message_core: type/epoch/counter (content_type existiert bereits);
+--               header-jsonb bleibt nur für Control-Messages mit Zusatzfeldern (from_device, sig).
+-- message_delivery/fanout_task: msg_header war pro Zeile eine Kopie von epoch/counter der Nachricht → entfällt.
+
+ALTER TABLE message_core
+    ADD COLUMN msg_type TEXT NOT NULL DEFAULT 'text',
+    ADD COLUMN epoch    INTEGER,
+    ADD COLUMN counter  BIGINT;
+
+UPDATE message_core
+   SET msg_type = coalesce(header->>'type', 'text'),
+       epoch    = (header->>'epoch')::integer,
+       counter  = (header->>'counter')::bigint;
+
+ALTER TABLE message_core
+    ALTER COLUMN header DROP NOT NULL,
+    ALTER COLUMN header DROP DEFAULT;
+
+-- Normale Nachrichten: alles steht jetzt in Spalten
+UPDATE message_core SET header = NULL WHERE msg_type = 'text';
+
+-- CK-Verteilung: counter lag bisher nur im Delivery-Header (immer 0)
+UPDATE message_core SET counter = 0 WHERE msg_type = 'ck_distribute' AND counter IS NULL;
+
+ALTER TABLE message_delivery DROP COLUMN msg_header;
+ALTER TABLE fanout_task DROP COLUMN msg_header;
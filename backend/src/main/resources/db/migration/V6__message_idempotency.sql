@@ -0,0 +1,16 @@
+-- V6__message_idempotency.sql
+-- Client-Message-IDs für idempotentes Senden (Retries mobiler Clients).
+-- Eigene Tabelle statt Unique-Constraint auf message_core: der Claim passiert vor dem Anlegen der Nachricht,
+-- ein paralleler Retry wartet am Unique-Index, bis der erste Versuch committed oder zurückgerollt ist.
+
+CREATE TABLE message_idempotency (
+                                     sender_id         UUID        NOT NULL REFERENCES app_user(id) ON DELETE CASCADE,
+                                     client_message_id UUID        NOT NULL,
+                                     message_id        UUID        REFERENCES message_core(id) ON DELETE CASCADE, -- gesetzt beim Abschluss
+                                     deliveries        INTEGER     NOT NULL DEFAULT 0,
+                                     created_at        TIMESTAMPTZ NOT NULL DEFAULT now(),
+                                     PRIMARY KEY (sender_id, client_message_id)
+);
+
+-- Aufräumen nach Ablauf des Dedupe-Fensters
+CREATE INDEX idx_msg_idempotency_created ON message_idempotency (created_at);
@@ -0,0 +1,34 @@
+-- V7__device_inbox_seq.sql
+-- Monotone Sequenz pro Empfängergerät statt (created_at, message_id)-Cursor.
+-- created_at wird vor dem Commit vergeben, parallele Sends committen daher nicht in created_at-Reihenfolge
+-- und ein Timestamp-Cursor kann Zeilen überspringen. Die Sequenz wird unter der Zeilensperre in
+-- device_inbox_seq vergeben, die bis zum Commit gehalten wird ⇒ pro Gerät sichtbar in Sequenz-Reihenfolge.
+
+CREATE TABLE device_inbox_seq (
+                                  device_id UUID   PRIMARY KEY REFERENCES user_device(id) ON DELETE CASCADE,
+                                  last_seq  BIGINT NOT NULL                 -- zuletzt vergebene Sequenz
+);
+
+ALTER TABLE message_delivery ADD COLUMN seq BIGINT;
+
+-- Bestand: bisherige Inbox-Reihenfolge
+UPDATE message_delivery d
+   SET seq = x.seq
+  FROM (SELECT md.id,
+               row_number() OVER (PARTITION BY md.recipient_device_id ORDER BY m.created_at, m.id) AS seq
+          FROM message_delivery md
+          JOIN message_core m ON m.id = md.message_id) x
+ WHERE d.id = x.id;
+
+ALTER TABLE message_delivery ALTER COLUMN seq SET NOT NULL;
+
+INSERT INTO device_inbox_seq (device_id, last_seq)
+SELECT recipient_device_id, max(seq)
+  FROM message_delivery
+ GROUP BY recipient_device_id;
+
+-- Inbox-Seite = Range-Scan auf diesem Index
+CREATE UNIQUE INDEX uq_delivery_device_seq ON message_delivery (recipient_device_id, seq);
+
+-- Präfix von uq_delivery_device_seq
+DROP INDEX idx_delivery_device;
@@ -0,0 +1,9 @@
+-- V8__device_inbox_ack.sql
+-- Kumulative Acks: pro Gerät ein Wasserstand auf message_delivery.seq statt delivered_at pro Zeile
+-- (ein UPDATE und ein toter Tupel pro Delivery). Log-Konversationen nutzen weiter conversation_log_cursor.
+
+CREATE TABLE device_inbox_ack (
+                                  device_id UUID        PRIMARY KEY REFERENCES user_device(id) ON DELETE CASCADE,
+                                  acked_seq BIGINT      NOT NULL,   -- alle Deliveries mit seq <= acked_seq bestätigt
+                                  acked_at  TIMESTAMPTZ NOT NULL DEFAULT now()
+);
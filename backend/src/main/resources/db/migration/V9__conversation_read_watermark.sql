@@ -0,0 +1,24 @@
+-- V9__conversation_read_watermark.sql
+-- Lesestand pro (Gerät, Konversation) als Wasserstand (created_at, message_id) statt read_at pro Delivery.
+-- Ein Read ist ein Upsert, der nur vorwärts läuft; ungelesen = Nachrichten hinter dem Wasserstand.
+
+CREATE TABLE conversation_read_watermark (
+                                             device_id        UUID        NOT NULL REFERENCES user_device(id) ON DELETE CASCADE,
+                                             conversation_id  UUID        NOT NULL REFERENCES conversation(id) ON DELETE CASCADE,
+                                             read_created_at  TIMESTAMPTZ NOT NULL,
+                                             read_message_id  UUID        NOT NULL,
+                                             updated_at       TIMESTAMPTZ NOT NULL DEFAULT now(),
+                                             PRIMARY KEY (device_id, conversation_id)
+);
+
+-- Bestand: jüngste gelesene Nachricht je Gerät und Konversation
+INSERT INTO conversation_read_watermark (device_id, conversation_id, read_created_at, read_message_id)
+SELECT DISTINCT ON (d.recipient_device_id, m.conversation_id)
+       d.recipient_device_id, m.conversation_id, m.created_at, m.id
+  FROM message_delivery d
+  JOIN message_core m ON m.id = d.message_id
+ WHERE d.read_at IS NOT NULL
+ ORDER BY d.recipient_device_id, m.conversation_id, m.created_at DESC, m.id DESC;
+
+-- read_at wird nicht mehr geschrieben
+DROP INDEX idx_delivery_device_read_null;
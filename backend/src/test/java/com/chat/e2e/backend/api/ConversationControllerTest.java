@@ -90,7 +90,7 @@ class ConversationControllerTest {
 
         var req = new DTOs.SendMessageRequest(
                 "text/plain", 1, 42L,
-                java.util.Base64.getEncoder().encodeToString("cipher".getBytes()));
+                java.util.Base64.getEncoder().encodeToString("cipher".getBytes()), null);
 
         mvc.perform(post("/v1/conversations/{id}/messages", convId)
                         .header("X-User-Id", UUID.randomUUID().toString())
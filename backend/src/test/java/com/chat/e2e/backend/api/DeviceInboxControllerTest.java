@@ -2,6 +2,9 @@ package com.chat.e2e.backend.api;
 
 import com.chat.e2e.backend.api.dto.DTOs;
 import com.chat.e2e.backend.chat.DeviceInboxController;
+import com.chat.e2e.backend.chat.InboxBinaryCodec;
+import com.chat.e2e.backend.chat.InboxEntry;
+import com.chat.e2e.backend.chat.InboxLongPoll;
 import com.chat.e2e.backend.chat.MessageService;
 import org.junit.jupiter.api.Test;                       // <-- JUnit 5
 import org.junit.jupiter.api.extension.ExtendWith;     // <-- JUnit 5
@@ -12,17 +15,23 @@ import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.web.context.request.async.DeferredResult;
 
+import java.io.ByteArrayInputStream;
+import java.time.Duration;
 import java.time.Instant;
 import java.util.Base64;
 import java.util.List;
 import java.util.UUID;
 
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyInt;
-import static org.mockito.ArgumentMatchers.anyList;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 @ExtendWith(SpringExtension.class)
@@ -36,6 +45,9 @@ class DeviceInboxControllerTest {
     @MockBean
     MessageService messageService;
 
+    @MockBean
+    InboxLongPoll longPoll;
+
     @Test
     void inbox() throws Exception {
         var item = new DTOs.DeliveryDTO(
@@ -43,17 +55,71 @@ class DeviceInboxControllerTest {
                 "text/plain",
                 "{\"epoch\":1,\"counter\":1}",
                 Base64.getEncoder().encodeToString("ct".getBytes()),
-                Instant.now()
+                Instant.now(),
+                123L
         );
 
-        Mockito.when(messageService.fetchInbox(any(UUID.class), any(), anyInt()))
-                .thenReturn(List.of(item));
-        Mockito.when(messageService.computeNextCursor(anyList(), any()))
-                .thenReturn("123:abc");
+        Mockito.when(messageService.fetchInboxPage(any(UUID.class), any(), anyInt()))
+                .thenReturn(new DTOs.InboxResponse(List.of(item), "123"));
 
         mvc.perform(get("/v1/devices/{id}/inbox", UUID.randomUUID()))
                 .andExpect(status().isOk())
                 .andExpect(jsonPath("$.items[0].contentType").value("text/plain"))
-                .andExpect(jsonPath("$.nextCursor").value("123:abc"));
+                .andExpect(jsonPath("$.items[0].seq").value(123))
+                .andExpect(jsonPath("$.nextCursor").value("123"));
+    }
+
+    @Test
+    void inbox_withWait_isAnsweredAsynchronously() throws Exception {
+        var deviceId = UUID.randomUUID();
+        var deferred = new DeferredResult<DTOs.InboxResponse>();
+        Mockito.when(longPoll.await(deviceId, "5", 50, Duration.ofSeconds(25))).thenReturn(deferred);
+
+        var started = mvc.perform(get("/v1/devices/{id}/inbox", deviceId).param("since", "5").param("wait", "25"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        deferred.setResult(new DTOs.InboxResponse(List.of(), "5"));
+
+        mvc.perform(asyncDispatch(started))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.nextCursor").value("5"));
+    }
+
+    @Test
+    void inbox_binary_writesRawCiphertextFrames() throws Exception {
+        byte[] ct = {0, 1, 2, (byte) 0xff};
+        var direct = new InboxEntry(UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID(), "text/plain",
+                "{\"type\":\"text\"}", ct, Instant.parse("2025-11-06T00:00:00.123456Z"), 7L, null);
+        var logEntry = new InboxEntry(null, UUID.randomUUID(), UUID.randomUUID(), "text/plain",
+                null, new byte[0], Instant.parse("2025-11-06T00:00:01Z"), null, null);
+        Mockito.when(messageService.fetchInboxEntryPage(any(UUID.class), any(), anyInt()))
+                .thenReturn(new InboxEntry.Page(List.of(direct, logEntry), "7"));
+
+        byte[] body = mvc.perform(get("/v1/devices/{id}/inbox", UUID.randomUUID()).accept(InboxBinaryCodec.MEDIA_TYPE))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(InboxBinaryCodec.MEDIA_TYPE))
+                .andReturn().getResponse().getContentAsByteArray();
+
+        var page = InboxBinaryCodec.read(new ByteArrayInputStream(body));
+        assertThat(page.nextCursor()).isEqualTo("7");
+        assertThat(page.entries()).hasSize(2);
+        var first = page.entries().get(0);
+        assertThat(first.ciphertext()).isEqualTo(ct);
+        assertThat(first).usingRecursiveComparison().isEqualTo(direct);
+        assertThat(page.entries().get(1).deliveryId()).isNull();
+        assertThat(page.entries().get(1).seq()).isNull();
+    }
+
+    @Test
+    void inbox_binary_clampsPageSize() throws Exception {
+        var device = UUID.randomUUID();
+        Mockito.when(messageService.fetchInboxEntryPage(any(UUID.class), any(), anyInt()))
+                .thenReturn(new InboxEntry.Page(List.of(), "0"));
+
+        mvc.perform(get("/v1/devices/{id}/inbox", device).param("limit", "100000").accept(InboxBinaryCodec.MEDIA_TYPE))
+                .andExpect(status().isOk());
+
+        // Seite wird materialisiert: Speicher höchstens 200 Ciphertexte
+        Mockito.verify(messageService).fetchInboxEntryPage(device, null, 200);
     }
 }
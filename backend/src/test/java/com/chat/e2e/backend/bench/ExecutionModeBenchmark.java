@@ -0,0 +1,156 @@
+package com.chat.e2e.backend.bench;
+
+import com.chat.e2e.backend.config.JdbcBulkheadProperties;
+import com.chat.e2e.backend.config.VirtualThreadsConfig;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.actuate.autoconfigure.security.servlet.ManagementWebSecurityAutoConfiguration;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.autoconfigure.data.jpa.JpaRepositoriesAutoConfiguration;
+import org.springframework.boot.autoconfigure.flyway.FlywayAutoConfiguration;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceAutoConfiguration;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernateJpaAutoConfiguration;
+import org.springframework.boot.autoconfigure.security.servlet.SecurityAutoConfiguration;
+import org.springframework.boot.autoconfigure.security.servlet.UserDetailsServiceAutoConfiguration;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.web.servlet.context.ServletWebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.datasource.AbstractDataSource;
+import org.springframework.web.servlet.function.RouterFunction;
+import org.springframework.web.servlet.function.RouterFunctions;
+import org.springframework.web.servlet.function.ServerResponse;
+
+import javax.sql.DataSource;
+import java.lang.reflect.Proxy;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ausführungsmodus platform gegen virtual unter Last: Tomcat mit Standard-Pool (200 Threads) bzw. Virtual
+ * Threads, davor 300 Clients auf einem langsamen Endpunkt ohne Datenbank (/bench/wait, Long-Poll-artig)
+ * und 16 Clients auf einem Endpunkt mit JDBC-Arbeit (/bench/db) gegen einen simulierten Pool mit
+ * 10 Verbindungen. Im Modus virtual sitzt der JdbcBulkhead vor dem Pool (VirtualThreadsConfig).
+ * Gemessen wird die Latenzverteilung je Endpunkt (SampleTime: p50/p99).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 10)
+@Fork(1)
+public class ExecutionModeBenchmark {
+
+    @Param({"platform", "virtual"})
+    String mode;
+
+    private ConfigurableApplicationContext context;
+    private HttpClient client;
+    private HttpRequest waitRequest;
+    private HttpRequest dbRequest;
+
+    @Setup
+    public void setup() {
+        context = new SpringApplicationBuilder(BenchApp.class).run(
+                "--server.port=0",
+                "--server.tomcat.accept-count=1000",
+                "--spring.threads.virtual.enabled=" + mode.equals("virtual"),
+                "--spring.devtools.restart.enabled=false",
+                "--spring.main.banner-mode=off",
+                "--logging.level.root=WARN");
+        int port = ((ServletWebServerApplicationContext) context).getWebServer().getPort();
+        client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        waitRequest = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/bench/wait")).build();
+        dbRequest = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/bench/db")).build();
+    }
+
+    @TearDown
+    public void tearDown() {
+        client.close();
+        context.close();
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(300)
+    public int waiting() throws Exception {
+        return client.send(waitRequest, HttpResponse.BodyHandlers.discarding()).statusCode();
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(16)
+    public int database() throws Exception {
+        return client.send(dbRequest, HttpResponse.BodyHandlers.discarding()).statusCode();
+    }
+
+    // bewusst ohne @Configuration/@Controller: der Component-Scan der BackendApplication sieht auch Testklassen
+    @EnableAutoConfiguration(exclude = {
+            DataSourceAutoConfiguration.class, HibernateJpaAutoConfiguration.class, JpaRepositoriesAutoConfiguration.class,
+            FlywayAutoConfiguration.class,
+            SecurityAutoConfiguration.class, UserDetailsServiceAutoConfiguration.class,
+            ManagementWebSecurityAutoConfiguration.class})
+    @EnableConfigurationProperties(JdbcBulkheadProperties.class)
+    @Import(VirtualThreadsConfig.class)
+    static class BenchApp {
+
+        @Bean
+        DataSource dataSource() {
+            return new SimulatedPool(10);
+        }
+
+        @Bean
+        RouterFunction<ServerResponse> benchRoutes(DataSource dataSource) {
+            return RouterFunctions.route()
+                    .GET("/bench/wait", request -> {
+                        Thread.sleep(100); // Long-Poll ohne Datenbank
+                        return ServerResponse.ok().build();
+                    })
+                    .GET("/bench/db", request -> {
+                        try (var ignored = dataSource.getConnection()) {
+                            Thread.sleep(5);
+                        }
+                        return ServerResponse.ok().build();
+                    })
+                    .build();
+        }
+    }
+
+    /** Verbindungspool mit fester Größe und Hikari-Timeout, ohne Datenbank dahinter. */
+    static final class SimulatedPool extends AbstractDataSource {
+
+        private final Semaphore connections;
+
+        SimulatedPool(int size) {
+            this.connections = new Semaphore(size, true);
+        }
+
+        @Override
+        public Connection getConnection() throws SQLException {
+            try {
+                if (!connections.tryAcquire(30, TimeUnit.SECONDS)) throw new SQLTransientConnectionException("pool exhausted");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLTransientConnectionException("interrupted", e);
+            }
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class},
+                    (proxy, method, args) -> {
+                        if (method.getName().equals("close")) connections.release();
+                        return null;
+                    });
+        }
+
+        @Override
+        public Connection getConnection(String username, String password) throws SQLException {
+            return getConnection();
+        }
+    }
+}
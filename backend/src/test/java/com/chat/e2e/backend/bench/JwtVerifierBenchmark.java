@@ -0,0 +1,66 @@
+package com.chat.e2e.backend.bench;
+
+import com.chat.e2e.backend.api.dto.DTOs;
+import com.chat.e2e.backend.realtime.JwtProperties;
+import com.chat.e2e.backend.realtime.SignedJwtVerifier;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * STOMP-CONNECT-Welle mit 1024 verschiedenen RS256-Tokens: cold prüft jedes Token (Cache kleiner als die Welle),
+ * reconnect trifft den Cache geprüfter Tokens wie nach einem Neustart des Load-Balancers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JwtVerifierBenchmark {
+
+    @Param({"cold", "reconnect"})
+    String scenario;
+
+    private SignedJwtVerifier verifier;
+    private String[] tokens;
+    private int next;
+
+    @Setup
+    public void setup() throws Exception {
+        var generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        var pair = generator.generateKeyPair();
+        var pem = "-----BEGIN PUBLIC KEY-----\n" + Base64.getMimeEncoder().encodeToString(pair.getPublic().getEncoded())
+                + "\n-----END PUBLIC KEY-----";
+        int cacheSize = scenario.equals("cold") ? 1 : 50_000;
+        verifier = new SignedJwtVerifier(new JwtProperties(Map.of("k1", pem), null, Duration.ofSeconds(30), cacheSize),
+                new SimpleMeterRegistry());
+
+        var encoder = Base64.getUrlEncoder().withoutPadding();
+        long exp = System.currentTimeMillis() / 1000 + 3600;
+        tokens = new String[1024];
+        for (int i = 0; i < tokens.length; i++) {
+            var payload = "{\"sub\":\"" + UUID.randomUUID() + "\",\"did\":\"" + UUID.randomUUID() + "\",\"exp\":" + exp + "}";
+            var input = encoder.encodeToString("{\"alg\":\"RS256\",\"kid\":\"k1\"}".getBytes(StandardCharsets.UTF_8))
+                    + "." + encoder.encodeToString(payload.getBytes(StandardCharsets.UTF_8));
+            var signer = Signature.getInstance("SHA256withRSA");
+            signer.initSign(pair.getPrivate());
+            signer.update(input.getBytes(StandardCharsets.US_ASCII));
+            tokens[i] = input + "." + encoder.encodeToString(signer.sign());
+        }
+    }
+
+    @Benchmark
+    public DTOs.JwtClaims connect() {
+        return verifier.verify(tokens[next++ & (tokens.length - 1)]);
+    }
+}
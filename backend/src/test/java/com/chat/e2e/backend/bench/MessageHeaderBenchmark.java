@@ -0,0 +1,48 @@
+package com.chat.e2e.backend.bench;
+
+import com.chat.e2e.backend.chat.MessageHeaderCodec;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bisheriger Pfad (HashMap + ObjectMapper für header und msgHeader pro Send)
+ * gegen MessageHeaderCodec. Mit -prof gc auch die Allokation pro Aufruf vergleichen.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageHeaderBenchmark {
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    @Param({"text/plain"})
+    String contentType;
+
+    int epoch = 7;
+    long counter = 1001L;
+
+    @Benchmark
+    public String objectMapperMaps() throws JsonProcessingException {
+        var header = new HashMap<String, Object>();
+        header.put("type", "text");
+        header.put("epoch", epoch);
+        header.put("counter", counter);
+        header.put("content_type", contentType);
+        var msgHeader = new HashMap<String, Object>();
+        msgHeader.put("epoch", epoch);
+        msgHeader.put("counter", counter);
+        return mapper.writeValueAsString(header) + mapper.writeValueAsString(msgHeader);
+    }
+
+    @Benchmark
+    public String codec() {
+        return MessageHeaderCodec.encode("text", epoch, counter, contentType);
+    }
+}
@@ -0,0 +1,77 @@
+package com.chat.e2e.backend.bench;
+
+import com.chat.e2e.backend.realtime.IndexedSubscriptionRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.broker.DefaultSubscriptionRegistry;
+import org.springframework.messaging.simp.broker.SubscriptionRegistry;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.util.MultiValueMap;
+
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Zustellung eines Frames an ein Ziel (ReadEvent an /topic/conversation.{id}, Ack an die Queue einer Session):
+ * SimpleBroker mit DefaultSubscriptionRegistry gegen IndexedSubscriptionRegistry. Jede Session abonniert ihre
+ * User-Queue und das Topic einer von subscriptions/4 Konversationen; veröffentlicht wird an zufällige Ziele,
+ * also meist außerhalb des 1024er-Caches der DefaultSubscriptionRegistry.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SubscriptionRegistryBenchmark {
+
+    @Param({"10000", "100000"})
+    int subscriptions;
+
+    @Param({"simpleBroker", "indexed"})
+    String registryType;
+
+    private SubscriptionRegistry registry;
+    private Message<?>[] publishes;
+    private int next;
+
+    @Setup
+    public void setup() {
+        registry = registryType.equals("indexed") ? new IndexedSubscriptionRegistry() : new DefaultSubscriptionRegistry();
+        var random = new Random(42);
+        int sessions = subscriptions / 2;
+        var conversations = new String[Math.max(1, subscriptions / 4)];
+        for (int i = 0; i < conversations.length; i++) conversations[i] = "/topic/conversation." + UUID.randomUUID();
+
+        var queues = new String[sessions];
+        for (int s = 0; s < sessions; s++) {
+            var sessionId = "session-" + s;
+            queues[s] = "/queue/device-user" + sessionId; // wie UserDestinationResolver
+            registry.registerSubscription(message(SimpMessageType.SUBSCRIBE, sessionId, "sub-0", queues[s]));
+            registry.registerSubscription(message(SimpMessageType.SUBSCRIBE, sessionId, "sub-1",
+                    conversations[random.nextInt(conversations.length)]));
+        }
+
+        publishes = new Message<?>[4096];
+        for (int i = 0; i < publishes.length; i++) {
+            var destination = i % 2 == 0 ? conversations[random.nextInt(conversations.length)] : queues[random.nextInt(sessions)];
+            publishes[i] = message(SimpMessageType.MESSAGE, null, null, destination);
+        }
+    }
+
+    private static Message<byte[]> message(SimpMessageType type, String sessionId, String subscriptionId, String destination) {
+        var accessor = SimpMessageHeaderAccessor.create(type);
+        accessor.setSessionId(sessionId);
+        accessor.setSubscriptionId(subscriptionId);
+        accessor.setDestination(destination);
+        return MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders());
+    }
+
+    @Benchmark
+    public MultiValueMap<String, String> findSubscriptions() {
+        return registry.findSubscriptions(publishes[next++ & (publishes.length - 1)]);
+    }
+}
@@ -0,0 +1,135 @@
+package com.chat.e2e.backend.chat;
+
+import com.chat.e2e.backend.api.dto.DTOs;
+import com.chat.e2e.backend.cluster.ClusterBus;
+import com.chat.e2e.backend.cluster.LocalClusterBus;
+import com.chat.e2e.backend.device.DeviceRevokedEvent;
+import com.chat.e2e.backend.device.UserDevicesChangedEvent;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.*;
+
+class BootstrapCacheTest {
+
+    private ConversationMemberRepository memberRepo;
+    private SyncChangeFeed feed;
+    private LocalClusterBus busA;
+    private LocalClusterBus busB;
+    private BootstrapCache cache;
+    private BootstrapCache otherNode;
+
+    private final UUID alice = UUID.randomUUID();
+    private final UUID bob = UUID.randomUUID();
+    private final UUID conv1 = UUID.randomUUID();
+    private final UUID aliceDevice = UUID.randomUUID();
+    private final UUID revokedDevice = UUID.randomUUID();
+    private final Instant t0 = Instant.parse("2025-11-06T00:00:00Z");
+
+    @BeforeEach
+    void setup() {
+        memberRepo = mock(ConversationMemberRepository.class);
+        feed = mock(SyncChangeFeed.class);
+        busA = new LocalClusterBus();
+        busB = new LocalClusterBus();
+        cache = new BootstrapCache(memberRepo, feed, new BootstrapProperties(100, Duration.ofMinutes(10)),
+                busA, new SimpleMeterRegistry());
+        otherNode = new BootstrapCache(memberRepo, feed, new BootstrapProperties(100, Duration.ofMinutes(10)),
+                busB, new SimpleMeterRegistry());
+
+        var members = List.of(new DTOs.MemberBrief(alice, "alice"), new DTOs.MemberBrief(bob, "bob"));
+        when(feed.changes(alice, null)).thenReturn(new DTOs.SyncChangesResponse("42",
+                List.of(new DTOs.ConversationBrief(conv1, true, t0, members)),
+                List.of(new DTOs.UserDeviceBrief(aliceDevice, "ios", null, null),
+                        new DTOs.UserDeviceBrief(revokedDevice, "web", t0, null))));
+    }
+
+    @AfterEach
+    void tearDown() {
+        busA.close();
+        busB.close();
+    }
+
+    @Test
+    void get_loadsFullState_andCaches() {
+        var snapshot = cache.get(alice);
+
+        assertThat(snapshot.conversations()).extracting(DTOs.ConversationBrief::conversationId).containsExactly(conv1);
+        assertThat(snapshot.devices()).hasSize(2);
+        assertThat(snapshot.activeDeviceIds()).containsExactly(aliceDevice);
+        assertThat(snapshot.syncToken()).isEqualTo("42");
+
+        assertThat(cache.get(alice)).isSameAs(snapshot);
+        verify(feed, times(1)).changes(alice, null);
+    }
+
+    @Test
+    void membershipChange_invalidatesAllMembers() {
+        cache.get(alice);
+        when(memberRepo.findUserIdsByConversationId(conv1)).thenReturn(List.of(alice, bob));
+
+        cache.onRoutingChanged(new ConversationRoutingChangedEvent(conv1));
+        cache.get(alice);
+
+        verify(feed, times(2)).changes(alice, null);
+    }
+
+    @Test
+    void deviceChanges_invalidateOwner() {
+        cache.get(alice);
+        cache.onDevicesChanged(new UserDevicesChangedEvent(bob));
+        cache.onDeviceRevoked(new DeviceRevokedEvent(UUID.randomUUID()));
+        cache.get(alice);
+        verify(feed, times(1)).changes(alice, null);
+
+        cache.onDeviceRevoked(new DeviceRevokedEvent(aliceDevice));
+        cache.get(alice);
+        cache.onDevicesChanged(new UserDevicesChangedEvent(alice));
+        cache.get(alice);
+        verify(feed, times(3)).changes(alice, null);
+    }
+
+    @Test
+    void changes_invalidateOnOtherNodes() {
+        otherNode.get(alice);
+        when(memberRepo.findUserIdsByConversationId(conv1)).thenReturn(List.of(alice, bob));
+        cache.onRoutingChanged(new ConversationRoutingChangedEvent(conv1));
+        otherNode.get(alice);
+        verify(feed, times(2)).changes(alice, null);
+
+        cache.onDevicesChanged(new UserDevicesChangedEvent(alice));
+        otherNode.get(alice);
+        cache.onDeviceRevoked(new DeviceRevokedEvent(aliceDevice));
+        otherNode.get(alice);
+        verify(feed, times(4)).changes(alice, null);
+    }
+
+    @Test
+    void largeMembership_isSplitIntoPayloadSizedMessages() {
+        var bus = mock(ClusterBus.class);
+        when(bus.maxPayloadBytes()).thenReturn(100);
+        var node = new BootstrapCache(memberRepo, feed, new BootstrapProperties(100, Duration.ofMinutes(10)),
+                bus, new SimpleMeterRegistry());
+        var members = Stream.generate(UUID::randomUUID).limit(5).toList();
+        when(memberRepo.findUserIdsByConversationId(conv1)).thenReturn(members);
+
+        node.onRoutingChanged(new ConversationRoutingChangedEvent(conv1));
+
+        var captor = ArgumentCaptor.forClass(String.class);
+        verify(bus, times(3)).publish(eq(BootstrapCache.CHANNEL), captor.capture());
+        assertThat(captor.getAllValues()).allSatisfy(m -> assertThat(m.length()).isLessThanOrEqualTo(100));
+        assertThat(String.join(",", captor.getAllValues()).replace("users:", ""))
+                .isEqualTo(members.stream().map(UUID::toString).collect(Collectors.joining(",")));
+    }
+}
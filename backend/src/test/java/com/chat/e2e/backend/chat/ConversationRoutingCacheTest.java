@@ -0,0 +1,115 @@
+package com.chat.e2e.backend.chat;
+
+import com.chat.e2e.backend.cluster.LocalClusterBus;
+import com.chat.e2e.backend.device.DeviceRevokedEvent;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.*;
+
+class ConversationRoutingCacheTest {
+
+    private ConversationRepository conversationRepo;
+    private ConversationMemberRepository memberRepo;
+    private ConversationMemberDeviceRepository memberDeviceRepo;
+    private SimpleMeterRegistry meters;
+    private LocalClusterBus busA;
+    private LocalClusterBus busB;
+    private ConversationRoutingCache cache;
+    private ConversationRoutingCache otherNode;
+
+    private final UUID convId = UUID.randomUUID();
+    private final UUID alice = UUID.randomUUID();
+    private final UUID aliceDevice = UUID.randomUUID();
+
+    @BeforeEach
+    void setup() {
+        conversationRepo = mock(ConversationRepository.class);
+        memberRepo = mock(ConversationMemberRepository.class);
+        memberDeviceRepo = mock(ConversationMemberDeviceRepository.class);
+        meters = new SimpleMeterRegistry();
+        busA = new LocalClusterBus();
+        busB = new LocalClusterBus();
+        cache = new ConversationRoutingCache(conversationRepo, memberRepo, memberDeviceRepo,
+                new RoutingProperties(100, Duration.ofMinutes(10)), busA, meters);
+        otherNode = new ConversationRoutingCache(conversationRepo, memberRepo, memberDeviceRepo,
+                new RoutingProperties(100, Duration.ofMinutes(10)), busB, new SimpleMeterRegistry());
+
+        when(conversationRepo.findById(convId)).thenReturn(Optional.of(
+                Conversation.builder().id(convId).isGroup(true).fanoutOnRead(true).createdAt(Instant.now()).build()));
+        when(memberRepo.findUserIdsByConversationId(convId)).thenReturn(List.of(alice));
+        when(memberDeviceRepo.findActiveDevicesByConversationId(convId))
+                .thenReturn(List.<Object[]>of(new Object[]{aliceDevice, alice}));
+    }
+
+    @AfterEach
+    void tearDown() {
+        busA.close();
+        busB.close();
+    }
+
+    @Test
+    void get_loadsOnce_thenServesFromCache() {
+        var first = cache.get(convId).orElseThrow();
+        var second = cache.get(convId).orElseThrow();
+
+        assertThat(second).isSameAs(first);
+        assertThat(first.isMember(alice)).isTrue();
+        assertThat(first.hasActiveDevice(aliceDevice)).isTrue();
+        assertThat(first.fanoutOnRead()).isTrue();
+        verify(conversationRepo, times(1)).findById(convId);
+        assertThat(meters.get("cache.gets").tag("cache", "conversation.routing").tag("result", "hit")
+                .functionCounter().count()).isEqualTo(1.0);
+    }
+
+    @Test
+    void get_unknownConversation_isEmptyAndNotCached() {
+        var unknown = UUID.randomUUID();
+
+        assertThat(cache.get(unknown)).isEmpty();
+        assertThat(cache.get(unknown)).isEmpty();
+        verify(conversationRepo, times(2)).findById(unknown);
+    }
+
+    @Test
+    void routingChange_invalidatesConversation() {
+        cache.get(convId);
+        cache.onRoutingChanged(new ConversationRoutingChangedEvent(convId));
+        cache.get(convId);
+
+        verify(conversationRepo, times(2)).findById(convId);
+    }
+
+    @Test
+    void deviceRevoked_invalidatesRoutesContainingDevice() {
+        cache.get(convId);
+        cache.onDeviceRevoked(new DeviceRevokedEvent(UUID.randomUUID()));
+        cache.get(convId);
+        verify(conversationRepo, times(1)).findById(convId);
+
+        cache.onDeviceRevoked(new DeviceRevokedEvent(aliceDevice));
+        cache.get(convId);
+        verify(conversationRepo, times(2)).findById(convId);
+    }
+
+    @Test
+    void changes_invalidateOnOtherNodes() {
+        otherNode.get(convId);
+        cache.onRoutingChanged(new ConversationRoutingChangedEvent(convId));
+        otherNode.get(convId);
+        verify(conversationRepo, times(2)).findById(convId);
+
+        cache.onDeviceRevoked(new DeviceRevokedEvent(aliceDevice));
+        otherNode.get(convId);
+        verify(conversationRepo, times(3)).findById(convId);
+    }
+}
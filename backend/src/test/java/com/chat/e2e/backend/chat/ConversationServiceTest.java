@@ -1,14 +1,21 @@
 package com.chat.e2e.backend.chat;
 
 import com.chat.e2e.backend.api.dto.DTOs;
+import com.chat.e2e.backend.cluster.ClusterBus;
 import com.chat.e2e.backend.device.UserDevice;
 import com.chat.e2e.backend.device.UserDeviceRepository;
 import com.chat.e2e.backend.user.AppUser;
 import com.chat.e2e.backend.user.AppUserRepository;
+import com.chat.e2e.backend.user.IdentityDirectory;
+import com.chat.e2e.backend.user.IdentityProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.springframework.context.ApplicationEventPublisher;
 
+import java.time.Duration;
 import java.time.Instant;
+import java.util.List;
 import java.util.Optional;
 import java.util.Set;
 import java.util.UUID;
@@ -24,6 +31,10 @@ class ConversationServiceTest {
     private ConversationMemberDeviceRepository memberDeviceRepo;
     private AppUserRepository userRepo;
     private UserDeviceRepository deviceRepo;
+    private UnreadCounters unread;
+    private BootstrapCache bootstrapCache;
+    private SyncChangeFeed syncFeed;
+    private ApplicationEventPublisher events;
     private ConversationService service;
 
     @BeforeEach
@@ -33,7 +44,11 @@ class ConversationServiceTest {
         memberDeviceRepo = mock(ConversationMemberDeviceRepository.class);
         userRepo = mock(AppUserRepository.class);
         deviceRepo = mock(UserDeviceRepository.class);
-        service = new ConversationService(conversationRepo, memberRepo, memberDeviceRepo, userRepo, deviceRepo);
+        unread = mock(UnreadCounters.class);
+        bootstrapCache = mock(BootstrapCache.class);
+        syncFeed = mock(SyncChangeFeed.class);
+        events = mock(ApplicationEventPublisher.class);
+        service = newService(500);
 
         when(conversationRepo.save(any(Conversation.class))).thenAnswer(inv -> {
             Conversation c = inv.getArgument(0);
@@ -43,6 +58,14 @@ class ConversationServiceTest {
         });
     }
 
+    private ConversationService newService(int readThreshold) {
+        return new ConversationService(conversationRepo, memberRepo, memberDeviceRepo,
+                new IdentityDirectory(userRepo, deviceRepo, new IdentityProperties(100, Duration.ofMinutes(10)),
+                        mock(ClusterBus.class), new SimpleMeterRegistry()),
+                unread, bootstrapCache, syncFeed,
+                new FanoutProperties(false, 1, 1, Duration.ofSeconds(5), readThreshold, 5), events);
+    }
+
     @Test
     void createConversation_ok() {
         when(userRepo.findByHandle("alice")).thenReturn(Optional.of(AppUser.builder().id(UUID.randomUUID()).handle("alice").build()));
@@ -52,6 +75,7 @@ class ConversationServiceTest {
 
         assertThat(resp.conversationId()).isNotNull();
         verify(memberRepo, times(2)).save(any(ConversationMember.class));
+        verify(events).publishEvent(new ConversationRoutingChangedEvent(resp.conversationId()));
     }
 
     @Test
@@ -70,6 +94,24 @@ class ConversationServiceTest {
         service.addMemberDevices(convId, new DTOs.AddMemberDevicesRequest("alice", Set.of(d1.getId(), d2.getId())));
 
         verify(memberDeviceRepo, times(2)).save(any(ConversationMemberDevice.class));
+        verify(conversationRepo, never()).enableFanoutOnRead(any());
+        verify(events).publishEvent(new ConversationRoutingChangedEvent(convId));
+    }
+
+    @Test
+    void addMemberDevices_switchesToFanoutOnReadAtThreshold() {
+        service = newService(3);
+        var convId = UUID.randomUUID();
+        var user = AppUser.builder().id(UUID.randomUUID()).handle("alice").build();
+        when(userRepo.findByHandle("alice")).thenReturn(Optional.of(user));
+        when(memberRepo.existsByConversationIdAndUserId(convId, user.getId())).thenReturn(true);
+        var d1 = UserDevice.builder().id(UUID.randomUUID()).user(user).build();
+        when(deviceRepo.findById(d1.getId())).thenReturn(Optional.of(d1));
+        when(memberDeviceRepo.countByConversationId(convId)).thenReturn(3L);
+
+        service.addMemberDevices(convId, new DTOs.AddMemberDevicesRequest("alice", Set.of(d1.getId())));
+
+        verify(conversationRepo).enableFanoutOnRead(convId);
     }
 
     @Test
@@ -84,4 +126,22 @@ class ConversationServiceTest {
                 .isInstanceOf(IllegalArgumentException.class)
                 .hasMessageContaining("user not member");
     }
+
+    @Test
+    void bootstrap_cachedSnapshot_plusFreshUnreadCounters() {
+        var me = AppUser.builder().id(UUID.randomUUID()).handle("alice").build();
+        var device = UUID.randomUUID();
+        var snapshot = new BootstrapCache.Snapshot(List.of(), List.of(), List.of(device), "7");
+        var counters = List.of(new DTOs.UnreadResponse(device, List.of()));
+        when(userRepo.findByHandle("alice")).thenReturn(Optional.of(me));
+        when(bootstrapCache.get(me.getId())).thenReturn(snapshot);
+        when(unread.forDevices(List.of(device))).thenReturn(counters);
+
+        var resp = service.bootstrap(() -> "alice");
+
+        assertThat(resp.userId()).isEqualTo(me.getId());
+        assertThat(resp.unread()).isEqualTo(counters);
+        assertThat(resp.syncToken()).isEqualTo("7");
+        verifyNoInteractions(conversationRepo, memberRepo);
+    }
 }
@@ -0,0 +1,418 @@
+package com.chat.e2e.backend.chat;
+
+import com.chat.e2e.backend.api.dto.DTOs;
+import com.chat.e2e.backend.device.UserDevice;
+import com.chat.e2e.backend.device.UserDeviceRepository;
+import com.chat.e2e.backend.user.AppUser;
+import com.chat.e2e.backend.user.AppUserRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@Testcontainers
+@DataJpaTest
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Import({DeliveryFanout.class, UnreadCounters.class})
+class DeliveryFanoutTest {
+
+    @Container
+    static PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>("postgres:15-alpine");
+
+    @DynamicPropertySource
+    static void props(DynamicPropertyRegistry r) {
+        r.add("spring.datasource.url", postgres::getJdbcUrl);
+        r.add("spring.datasource.username", postgres::getUsername);
+        r.add("spring.datasource.password", postgres::getPassword);
+        r.add("spring.datasource.driver-class-name", () -> "org.postgresql.Driver");
+        r.add("spring.flyway.enabled", () -> "true");
+        r.add("spring.jpa.hibernate.ddl-auto", () -> "validate");
+    }
+
+    @Autowired AppUserRepository userRepo;
+    @Autowired UserDeviceRepository deviceRepo;
+    @Autowired ConversationRepository conversationRepo;
+    @Autowired ConversationMemberRepository memberRepo;
+    @Autowired ConversationMemberDeviceRepository memberDeviceRepo;
+    @Autowired MessageCoreRepository coreRepo;
+    @Autowired MessagePayloadRepository payloadRepo;
+    @Autowired MessageDeliveryRepository deliveryRepo;
+    @Autowired ConversationLogCursorRepository logCursorRepo;
+    @Autowired ConversationReadWatermarkRepository readMarks;
+    @Autowired DeliveryFanout fanout;
+    @Autowired UnreadCounters unread;
+    @Autowired JdbcTemplate jdbc;
+
+    private AppUser user(String handle) {
+        return userRepo.save(AppUser.builder().handle(handle).displayName(handle).passwordHash("x").build());
+    }
+
+    private UserDevice device(AppUser u, boolean revoked) {
+        return deviceRepo.save(UserDevice.builder()
+                .user(u)
+                .platform("android")
+                .publicIdentityKey("IK")
+                .publicKxKey("KX")
+                .revokedAt(revoked ? Instant.now() : null)
+                .build());
+    }
+
+    private void join(Conversation c, AppUser u, UserDevice... devices) {
+        memberRepo.save(ConversationMember.builder().conversationId(c.getId()).userId(u.getId()).role("member").build());
+        for (var d : devices) {
+            memberDeviceRepo.save(ConversationMemberDevice.builder()
+                    .conversationId(c.getId()).userId(u.getId()).deviceId(d.getId()).build());
+        }
+    }
+
+    @Test
+    void fanOutShared_skipsSenderAndRevokedDevices() {
+        var alice = user("alice");
+        var bob = user("bob");
+        var a1 = device(alice, false);
+        var a2 = device(alice, false);
+        var a3 = device(alice, true);
+        var b1 = device(bob, false);
+
+        var conv = conversationRepo.save(Conversation.builder().isGroup(true).createdAt(Instant.now()).build());
+        join(conv, alice, a1, a2, a3);
+        join(conv, bob, b1);
+        var msg = coreRepo.saveAndFlush(MessageCore.builder()
+                .conversationId(conv.getId()).senderId(alice.getId())
+                .createdAt(Instant.now()).contentType("text/plain").msgType("text").build());
+
+        payloadRepo.insert(msg.getId(), msg.getCreatedAt(), "ct".getBytes());
+        var pushed = fanout.fanOutShared(msg.getId(), msg.getCreatedAt(), conv.getId(), a1.getId());
+
+        assertThat(pushed).hasSize(2);
+        assertThat(pushed).extracting(DeliveryFanout.Recipient::deviceId).containsExactlyInAnyOrder(a2.getId(), b1.getId());
+        assertThat(pushed).filteredOn(r -> r.deviceId().equals(b1.getId()))
+                .extracting(DeliveryFanout.Recipient::userId).containsExactly(bob.getId());
+        List<UUID> recipients = jdbc.queryForList(
+                "select recipient_device_id from message_delivery where message_id = ? and ciphertext is null",
+                UUID.class, msg.getId());
+        assertThat(recipients).containsExactlyInAnyOrder(a2.getId(), b1.getId());
+
+        // Inbox liest den gemeinsamen Ciphertext transparent aus message_payload
+        var rows = deliveryRepo.findNextForDevice(b1.getId(), 0L, Instant.EPOCH, PageRequest.of(0, 10));
+        assertThat(rows).hasSize(1);
+        assertThat((byte[]) rows.get(0)[5]).isEqualTo("ct".getBytes());
+        assertThat(rows.get(0)[10]).isEqualTo(1L);
+
+        // zweite Nachricht: nächste Sequenz pro Gerät, Seite ab Cursor = Range-Scan ab seq
+        var msg2 = coreRepo.saveAndFlush(MessageCore.builder()
+                .conversationId(conv.getId()).senderId(alice.getId())
+                .createdAt(Instant.now()).contentType("text/plain").msgType("text").build());
+        payloadRepo.insert(msg2.getId(), msg2.getCreatedAt(), "ct2".getBytes());
+        assertThat(fanout.fanOutShared(msg2.getId(), msg2.getCreatedAt(), conv.getId(), a1.getId()))
+                .extracting(DeliveryFanout.Recipient::seq).containsExactly(2L, 2L);
+        var next = deliveryRepo.findNextForDevice(b1.getId(), 1L, Instant.EPOCH, PageRequest.of(0, 10));
+        assertThat(next).extracting(r -> r[1]).containsExactly(msg2.getId());
+        assertThat(deliveryRepo.findLastSeqBefore(b1.getId(), msg2.getCreatedAt())).isEqualTo(1L);
+
+        // Delivery-Zeitpunkte monoton zur seq: Untergrenze ab seq 1 schließt seq 2 ein
+        var firstAt = jdbc.queryForObject("select created_at from message_delivery where recipient_device_id = ? and seq = 1",
+                java.sql.Timestamp.class, b1.getId()).toInstant();
+        assertThat(deliveryRepo.findNextForDevice(b1.getId(), 1L, firstAt, PageRequest.of(0, 10))).hasSize(1);
+    }
+
+    @Test
+    void fanOutSealed_onlyActiveMemberDevices() {
+        var alice = user("carol");
+        var a1 = device(alice, false);
+        var a2 = device(alice, true);
+        var outsider = device(alice, false);
+
+        var conv = conversationRepo.save(Conversation.builder().isGroup(true).createdAt(Instant.now()).build());
+        join(conv, alice, a1, a2);
+        var msg = coreRepo.saveAndFlush(MessageCore.builder()
+                .conversationId(conv.getId()).senderId(alice.getId())
+                .createdAt(Instant.now()).contentType("control/ck_distribute").msgType("ck_distribute").header("{}").build());
+
+        Map<UUID, byte[]> sealed = new LinkedHashMap<>();
+        sealed.put(a1.getId(), "s1".getBytes());
+        sealed.put(a2.getId(), "s2".getBytes());
+        sealed.put(outsider.getId(), "s3".getBytes());
+
+        var pushed = fanout.fanOutSealed(msg.getId(), msg.getCreatedAt(), conv.getId(), sealed);
+
+        assertThat(pushed).extracting(DeliveryFanout.Recipient::deviceId).containsExactly(a1.getId());
+        byte[] stored = jdbc.queryForObject(
+                "select ciphertext from message_delivery where message_id = ? and recipient_device_id = ?",
+                byte[].class, msg.getId(), a1.getId());
+        assertThat(stored).isEqualTo("s1".getBytes());
+
+        var rows = deliveryRepo.findNextForDevice(a1.getId(), 0L, Instant.EPOCH, PageRequest.of(0, 10));
+        assertThat((byte[]) rows.get(0)[5]).isEqualTo("s1".getBytes());
+        assertThat(pushed).extracting(DeliveryFanout.Recipient::seq).containsExactly(1L);
+    }
+
+    @Test
+    void enqueueShared_expandPending_claimsTaskOnce() {
+        var alice = user("dave");
+        var bob = user("erin");
+        var a1 = device(alice, false);
+        var b1 = device(bob, false);
+
+        var conv = conversationRepo.save(Conversation.builder().isGroup(false).createdAt(Instant.now()).build());
+        join(conv, alice, a1);
+        join(conv, bob, b1);
+        var msg = coreRepo.saveAndFlush(MessageCore.builder()
+                .conversationId(conv.getId()).senderId(alice.getId())
+                .createdAt(Instant.now()).contentType("text/plain").msgType("text").build());
+
+        fanout.enqueueShared(msg.getId(), msg.getCreatedAt(), conv.getId(), a1.getId());
+        assertThat(fanout.backlog().pending()).isEqualTo(1);
+        assertThat(fanout.findStalledTasks(Duration.ZERO, 10)).containsExactly(msg.getId());
+
+        payloadRepo.insert(msg.getId(), msg.getCreatedAt(), "ct".getBytes());
+        var expanded = fanout.expandPending(msg.getId());
+        assertThat(expanded).hasSize(1);
+        assertThat(fanout.expandPending(msg.getId())).isEmpty(); // Task bereits übernommen
+
+        var event = fanout.sharedDeliveriesEvent(msg.getId(), expanded);
+        assertThat(event.conversationId()).isEqualTo(conv.getId());
+        assertThat(event.ciphertextFor(b1.getId())).isEqualTo(java.util.Base64.getEncoder().encodeToString("ct".getBytes()));
+        assertThat(event.msgHeaderJson()).startsWith("{\"type\":\"text\"");
+        assertThat(fanout.backlog().pending()).isZero();
+        assertThat(jdbc.queryForList("select recipient_device_id from message_delivery where message_id = ?",
+                UUID.class, msg.getId())).containsExactly(b1.getId());
+    }
+
+    @Test
+    void failingTask_isParkedAfterMaxAttempts() {
+        var alice = user("olivia");
+        var a1 = device(alice, false);
+        var conv = conversationRepo.save(Conversation.builder().isGroup(false).createdAt(Instant.now()).build());
+        join(conv, alice, a1);
+        var msg = coreRepo.saveAndFlush(MessageCore.builder()
+                .conversationId(conv.getId()).senderId(alice.getId())
+                .createdAt(Instant.now()).contentType("text/plain").msgType("text").build());
+        fanout.enqueueShared(msg.getId(), msg.getCreatedAt(), conv.getId(), a1.getId());
+
+        assertThat(fanout.markFailed(msg.getId(), "boom 1", 2)).isFalse();
+        assertThat(fanout.findStalledTasks(Duration.ZERO, 10)).containsExactly(msg.getId());
+        assertThat(fanout.markFailed(msg.getId(), "boom 2", 2)).isTrue();
+
+        // geparkt: weder eingeplant noch übernommen, aber mit letztem Fehler aufbewahrt
+        assertThat(fanout.findStalledTasks(Duration.ZERO, 10)).isEmpty();
+        assertThat(fanout.expandPending(msg.getId())).isEmpty();
+        assertThat(fanout.backlog()).isEqualTo(new DeliveryFanout.Backlog(0, null, 1));
+        assertThat(jdbc.queryForObject("select last_error from fanout_task where message_id = ?", String.class, msg.getId()))
+                .isEqualTo("boom 2");
+    }
+
+    @Test
+    void fanoutOnRead_logEntriesFollowCursor() {
+        var alice = user("frank");
+        var bob = user("grace");
+        var a1 = device(alice, false);
+        var b1 = device(bob, false);
+
+        var conv = conversationRepo.save(Conversation.builder().isGroup(true).fanoutOnRead(true).createdAt(Instant.now()).build());
+        join(conv, alice, a1);
+        join(conv, bob, b1);
+        memberDeviceRepo.flush();
+
+        var t0 = Instant.now();
+        var m1 = logMessage(conv, alice, a1, t0, "one");
+        var m2 = logMessage(conv, alice, a1, t0.plusMillis(1), "two");
+        assertThat(m2.getLogSeq()).isEqualTo(m1.getLogSeq() + 1);
+
+        var entries = fanout.logEntries(b1.getId(), Map.of(), 10);
+        assertThat(entries).extracting(InboxEntry::messageId).containsExactly(m1.getId(), m2.getId());
+        assertThat(entries).extracting(InboxEntry::logSeq).containsExactly(m1.getLogSeq(), m2.getLogSeq());
+        assertThat(entries.get(0).ciphertext()).isEqualTo("one".getBytes());
+        // Position aus dem Cursor: nur noch m2
+        assertThat(fanout.logEntries(b1.getId(), Map.of(conv.getId(), m1.getLogSeq()), 10))
+                .extracting(InboxEntry::messageId).containsExactly(m2.getId());
+        // Sendergerät sieht seine eigenen Nachrichten nicht
+        assertThat(fanout.logEntries(a1.getId(), Map.of(), 10)).isEmpty();
+
+        // kumulatives Ack: m2 bestätigt auch m1; kein Rückschritt durch späteres Ack von m1
+        assertThat(logCursorRepo.advance(b1.getId(), List.of(m2.getId()))).isEqualTo(1);
+        assertThat(logCursorRepo.advance(b1.getId(), List.of(m1.getId()))).isZero();
+        assertThat(fanout.logEntries(b1.getId(), Map.of(), 10)).isEmpty();
+        assertThat(deliveryRepo.count()).isZero();
+    }
+
+    @Test
+    void fanoutOnRead_lateCommitsAreNotSkipped() {
+        var alice = user("kate");
+        var bob = user("leo");
+        var a1 = device(alice, false);
+        var b1 = device(bob, false);
+        var conv1 = conversationRepo.save(Conversation.builder().isGroup(true).fanoutOnRead(true).createdAt(Instant.now()).build());
+        var conv2 = conversationRepo.save(Conversation.builder().isGroup(true).fanoutOnRead(true).createdAt(Instant.now()).build());
+        join(conv1, alice, a1);
+        join(conv1, bob, b1);
+        join(conv2, alice, a1);
+        join(conv2, bob, b1);
+        memberDeviceRepo.flush();
+
+        var t0 = Instant.now();
+        var m1 = logMessage(conv1, alice, a1, t0.plusMillis(10), "one");
+        var cursor = InboxCursor.START.after(fanout.logEntries(b1.getId(), Map.of(), 10));
+
+        // committet nach der gelesenen Seite, created_at aber davor (andere Konversation bzw. Uhr einer anderen Instanz)
+        var m2 = logMessage(conv2, alice, a1, t0, "two");
+        var m3 = logMessage(conv1, alice, a1, t0.plusMillis(5), "three");
+
+        var next = fanout.logEntries(b1.getId(), cursor.logSeqs(), 1);
+        assertThat(next).extracting(InboxEntry::messageId).containsExactly(m2.getId());
+        cursor = cursor.after(next);
+        assertThat(fanout.logEntries(b1.getId(), cursor.logSeqs(), 10))
+                .extracting(InboxEntry::messageId).containsExactly(m3.getId());
+        assertThat(cursor.logSeqs()).containsEntry(conv1.getId(), m1.getLogSeq()).containsEntry(conv2.getId(), m2.getLogSeq());
+    }
+
+    @Test
+    void readWatermark_onlyAdvances_andOnlyForMembers() {
+        var alice = user("heidi");
+        var a1 = device(alice, false);
+        var outsider = device(alice, false);
+        var conv = conversationRepo.save(Conversation.builder().isGroup(false).createdAt(Instant.now()).build());
+        join(conv, alice, a1);
+        memberDeviceRepo.flush();
+
+        var t0 = Instant.now();
+        var m1 = logMessage(conv, alice, a1, t0, "one");
+        var m2 = logMessage(conv, alice, a1, t0.plusMillis(1), "two");
+
+        assertThat(readMarks.advance(a1.getId(), m2.getId())).isEqualTo(1);
+        assertThat(readMarks.advance(a1.getId(), m1.getId())).isZero(); // kein Rückschritt
+        assertThat(readMarks.advance(a1.getId(), m2.getId())).isZero(); // idempotent
+        assertThat(readMarks.advance(outsider.getId(), m2.getId())).isZero();
+
+        var mark = readMarks.findById(new ConversationReadWatermark.ConversationReadWatermarkId(a1.getId(), conv.getId()));
+        assertThat(mark).get().extracting(ConversationReadWatermark::getReadMessageId).isEqualTo(m2.getId());
+    }
+
+    @Test
+    void unreadCounters_countedByFanOut_recountedOnRead() {
+        var alice = user("ivan");
+        var bob = user("judy");
+        var a1 = device(alice, false);
+        var b1 = device(bob, false);
+        var conv = conversationRepo.save(Conversation.builder().isGroup(false).createdAt(Instant.now()).build());
+        join(conv, alice, a1);
+        join(conv, bob, b1);
+        var group = conversationRepo.save(Conversation.builder().isGroup(true).fanoutOnRead(true).createdAt(Instant.now()).build());
+        join(group, alice, a1);
+        join(group, bob, b1);
+        memberDeviceRepo.flush();
+
+        var t0 = Instant.now().truncatedTo(java.time.temporal.ChronoUnit.MICROS);
+        var m1 = sharedMessage(conv, alice, a1, t0);
+        var m2 = sharedMessage(conv, alice, a1, t0.plusMillis(1));
+        sharedMessage(conv, alice, a1, t0.plusMillis(2));
+        var g1 = logMessage(group, alice, a1, t0, "one");
+        unread.onSent(a1.getId(), g1); // wie MessageService beim Senden
+        unread.onSent(a1.getId(), logMessage(group, alice, a1, t0.plusMillis(1), "two"));
+
+        assertThat(unread.forDevice(b1.getId()).conversations()).containsExactlyInAnyOrder(
+                new DTOs.ConversationUnread(conv.getId(), 3), new DTOs.ConversationUnread(group.getId(), 2));
+        assertThat(unread.forDevice(a1.getId()).conversations()).extracting(DTOs.ConversationUnread::unread)
+                .containsOnly(0L);
+
+        // Read setzt auf den Rest hinter dem Lesestand
+        readMarks.advance(b1.getId(), m2.getId());
+        unread.onRead(b1.getId(), m2);
+        unread.onRead(b1.getId(), g1);
+        // verspäteter Fan-out einer Nachricht vor dem Lesestand zählt nicht
+        sharedMessage(conv, alice, a1, m1.getCreatedAt().minusMillis(1));
+
+        assertThat(unread.forDevices(List.of(b1.getId()))).singleElement().satisfies(r ->
+                assertThat(r.conversations()).containsExactlyInAnyOrder(
+                        new DTOs.ConversationUnread(conv.getId(), 1), new DTOs.ConversationUnread(group.getId(), 1)));
+    }
+
+    private MessageCore sharedMessage(Conversation conv, AppUser sender, UserDevice senderDevice, Instant at) {
+        var msg = coreRepo.saveAndFlush(MessageCore.builder()
+                .conversationId(conv.getId()).senderId(sender.getId()).senderDeviceId(senderDevice.getId())
+                .createdAt(at).contentType("text/plain").msgType("text").build());
+        payloadRepo.insert(msg.getId(), msg.getCreatedAt(), "ct".getBytes());
+        fanout.fanOutShared(msg.getId(), msg.getCreatedAt(), conv.getId(), senderDevice.getId());
+        return msg;
+    }
+
+    private MessageCore logMessage(Conversation conv, AppUser sender, UserDevice senderDevice, Instant at, String ct) {
+        var msg = coreRepo.saveAndFlush(MessageCore.builder()
+                .conversationId(conv.getId()).senderId(sender.getId()).senderDeviceId(senderDevice.getId())
+                .createdAt(at).contentType("text/plain").msgType("text")
+                .logSeq(fanout.nextLogSeq(conv.getId())).build());
+        payloadRepo.insert(msg.getId(), msg.getCreatedAt(), ct.getBytes());
+        return msg;
+    }
+
+    @Test
+    void fanoutOnRead_deviceJoiningLater_countsAndReadsFromJoinPoint() {
+        var alice = user("kim");
+        var bob = user("liam");
+        var a1 = device(alice, false);
+        var b1 = device(bob, false);
+        var group = conversationRepo.save(Conversation.builder().isGroup(true).fanoutOnRead(true).createdAt(Instant.now()).build());
+        join(group, alice, a1);
+        join(group, bob, b1);
+        memberDeviceRepo.flush();
+
+        var t0 = Instant.now().truncatedTo(java.time.temporal.ChronoUnit.MICROS);
+        logMessage(group, alice, a1, t0, "one");
+        logMessage(group, alice, a1, t0.plusMillis(1), "two");
+        // zweites Gerät von bob tritt erst jetzt bei, ohne ConversationService (Cursor legt der Beitritt an)
+        var b2 = device(bob, false);
+        memberDeviceRepo.saveAndFlush(ConversationMemberDevice.builder()
+                .conversationId(group.getId()).userId(bob.getId()).deviceId(b2.getId()).build());
+        var m3 = logMessage(group, alice, a1, t0.plusMillis(2), "three");
+
+        assertThat(unread.forDevice(b1.getId()).conversations()).containsExactly(new DTOs.ConversationUnread(group.getId(), 3));
+        assertThat(unread.forDevice(b2.getId()).conversations()).containsExactly(new DTOs.ConversationUnread(group.getId(), 1));
+        assertThat(fanout.logEntries(b2.getId(), Map.of(), 10)).extracting(InboxEntry::messageId)
+                .containsExactly(m3.getId());
+    }
+
+    @Test
+    void fanoutOnRead_sendingKeepsEarlierUnreadEntries() {
+        var alice = user("mia");
+        var bob = user("noah");
+        var a1 = device(alice, false);
+        var b1 = device(bob, false);
+        var group = conversationRepo.save(Conversation.builder().isGroup(true).fanoutOnRead(true).createdAt(Instant.now()).build());
+        join(group, alice, a1);
+        join(group, bob, b1);
+        memberDeviceRepo.flush();
+
+        var t0 = Instant.now().truncatedTo(java.time.temporal.ChronoUnit.MICROS);
+        unread.onSent(a1.getId(), logMessage(group, alice, a1, t0, "one"));
+        unread.onSent(a1.getId(), logMessage(group, alice, a1, t0.plusMillis(1), "two"));
+        // bob hat beides nicht gelesen und antwortet: die beiden bleiben ungelesen
+        var reply = logMessage(group, bob, b1, t0.plusMillis(2), "three");
+        unread.onSent(b1.getId(), reply);
+        assertThat(unread.forDevice(b1.getId()).conversations()).extracting(DTOs.ConversationUnread::unread)
+                .containsExactly(3L); // eigene Antwort zählt mit, bis bob liest
+        assertThat(unread.forDevice(a1.getId()).conversations()).extracting(DTOs.ConversationUnread::unread)
+                .containsExactly(1L);
+
+        unread.onRead(b1.getId(), reply);
+        unread.onSent(b1.getId(), logMessage(group, bob, b1, t0.plusMillis(3), "four"));
+        assertThat(unread.forDevice(b1.getId()).conversations()).extracting(DTOs.ConversationUnread::unread)
+                .containsExactly(0L);
+    }
+}
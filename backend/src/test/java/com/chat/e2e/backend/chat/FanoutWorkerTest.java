@@ -0,0 +1,96 @@
+package com.chat.e2e.backend.chat;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class FanoutWorkerTest {
+
+    private DeliveryFanout fanout;
+    private ApplicationEventPublisher events;
+    private PlatformTransactionManager txManager;
+    private SimpleMeterRegistry meters;
+    private FanoutWorker worker;
+
+    @BeforeEach
+    void setup() {
+        fanout = mock(DeliveryFanout.class);
+        txManager = mock(PlatformTransactionManager.class);
+        when(txManager.getTransaction(any())).thenReturn(new SimpleTransactionStatus());
+        meters = new SimpleMeterRegistry();
+        events = mock(ApplicationEventPublisher.class);
+        worker = new FanoutWorker(fanout, events, txManager, new FanoutProperties(true, 2, 10, Duration.ofSeconds(5), 0, 3), meters);
+    }
+
+    @AfterEach
+    void tearDown() { worker.shutdown(); }
+
+    @Test
+    void onEnqueued_expandsTaskInTransaction() {
+        var msgId = UUID.randomUUID();
+        var recipients = List.of(new DeliveryFanout.Recipient(UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID(), null));
+        var pushEvent = new DeliveriesCommittedEvent(msgId, UUID.randomUUID(), "text/plain", "{}", "Y3Q=",
+                java.util.Map.of(), Instant.now(), recipients);
+        when(fanout.expandPending(msgId)).thenReturn(recipients);
+        when(fanout.sharedDeliveriesEvent(msgId, recipients)).thenReturn(pushEvent);
+
+        worker.onEnqueued(new FanoutEnqueuedEvent(msgId));
+
+        verify(fanout, timeout(2000)).expandPending(msgId);
+        verify(txManager, timeout(2000)).commit(any(TransactionStatus.class));
+        verify(events).publishEvent(pushEvent);
+    }
+
+    @Test
+    void failedExpansion_isMarkedForRetry() {
+        var msgId = UUID.randomUUID();
+        when(fanout.expandPending(msgId)).thenThrow(new IllegalStateException("db down"));
+
+        worker.onEnqueued(new FanoutEnqueuedEvent(msgId));
+
+        verify(fanout, timeout(2000)).markFailed(eq(msgId), contains("db down"), eq(3));
+        verify(txManager, timeout(2000)).rollback(any(TransactionStatus.class));
+    }
+
+    @Test
+    void parkedTask_isNotRescheduled() {
+        var poison = UUID.randomUUID();
+        when(fanout.expandPending(poison)).thenThrow(new IllegalStateException("bad row"));
+        when(fanout.markFailed(eq(poison), anyString(), eq(3))).thenReturn(true);
+        when(fanout.backlog()).thenReturn(new DeliveryFanout.Backlog(0, null, 1));
+
+        worker.onEnqueued(new FanoutEnqueuedEvent(poison));
+        verify(fanout, timeout(2000)).markFailed(eq(poison), anyString(), eq(3));
+        worker.recover();
+
+        verify(fanout, never()).findStalledTasks(any(), anyInt()); // nichts Offenes mehr
+        assertThat(meters.get("chat.fanout.parked").gauge().value()).isEqualTo(1.0);
+    }
+
+    @Test
+    void recover_reschedulesStalledTasks_andPublishesLag() {
+        var stalled = UUID.randomUUID();
+        when(fanout.backlog()).thenReturn(new DeliveryFanout.Backlog(1, Instant.now().minusSeconds(30), 0));
+        when(fanout.findStalledTasks(eq(Duration.ofSeconds(5)), anyInt())).thenReturn(List.of(stalled));
+
+        worker.recover();
+
+        verify(fanout, timeout(2000)).expandPending(stalled);
+        assertThat(meters.get("chat.fanout.backlog").gauge().value()).isEqualTo(1.0);
+        assertThat(meters.get("chat.fanout.lag").gauge().value()).isGreaterThanOrEqualTo(30.0);
+    }
+}
@@ -0,0 +1,93 @@
+package com.chat.e2e.backend.chat;
+
+import com.chat.e2e.backend.device.UserDevice;
+import com.chat.e2e.backend.device.UserDeviceRepository;
+import com.chat.e2e.backend.user.AppUser;
+import com.chat.e2e.backend.user.AppUserRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@Testcontainers
+@DataJpaTest
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+class InboxAckBufferTest {
+
+    @Container
+    static PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>("postgres:15-alpine");
+
+    @DynamicPropertySource
+    static void props(DynamicPropertyRegistry r) {
+        r.add("spring.datasource.url", postgres::getJdbcUrl);
+        r.add("spring.datasource.username", postgres::getUsername);
+        r.add("spring.datasource.password", postgres::getPassword);
+        r.add("spring.datasource.driver-class-name", () -> "org.postgresql.Driver");
+        r.add("spring.flyway.enabled", () -> "true");
+        r.add("spring.jpa.hibernate.ddl-auto", () -> "validate");
+    }
+
+    @Autowired AppUserRepository userRepo;
+    @Autowired UserDeviceRepository deviceRepo;
+    @Autowired ConversationRepository conversationRepo;
+    @Autowired ConversationMemberRepository memberRepo;
+    @Autowired ConversationMemberDeviceRepository memberDeviceRepo;
+    @Autowired MessageCoreRepository coreRepo;
+    @Autowired JdbcTemplate jdbc;
+    @Autowired PlatformTransactionManager txManager;
+
+    @Test
+    void flush_writesWatermarkAndAdvancesLogCursor_onlyForward() {
+        var bob = userRepo.save(AppUser.builder().handle("bob").displayName("bob").passwordHash("x").build());
+        var b1 = deviceRepo.save(UserDevice.builder().user(bob).platform("ios").publicIdentityKey("IK").publicKxKey("KX").build());
+        var conv = conversationRepo.save(Conversation.builder().isGroup(true).fanoutOnRead(true).createdAt(Instant.now()).build());
+        memberRepo.save(ConversationMember.builder().conversationId(conv.getId()).userId(bob.getId()).role("member").build());
+        memberDeviceRepo.saveAndFlush(ConversationMemberDevice.builder()
+                .conversationId(conv.getId()).userId(bob.getId()).deviceId(b1.getId()).build());
+        var t0 = Instant.now().truncatedTo(ChronoUnit.MICROS);
+        var m1 = logMessage(conv, bob, t0, 1);
+        logMessage(conv, bob, t0.plusSeconds(1), 2);
+
+        var acks = new InboxAckBuffer(jdbc, txManager, new SimpleMeterRegistry());
+        acks.ackUpTo(b1.getId(), new InboxCursor(5, Map.of(conv.getId(), 1L)));
+        acks.ackUpTo(b1.getId(), new InboxCursor(3, Map.of(conv.getId(), 0L))); // älteres Ack überholt nichts
+        assertThat(acks.ackedSeq(b1.getId())).isEqualTo(5); // schon vor dem Flush sichtbar
+
+        acks.flush();
+
+        assertThat(jdbc.queryForObject("select acked_seq from device_inbox_ack where device_id = ?", Long.class, b1.getId()))
+                .isEqualTo(5L);
+        assertThat(jdbc.queryForObject("select acked_seq from conversation_log_cursor where device_id = ?", Long.class, b1.getId()))
+                .isEqualTo(1L);
+        // Zeit-Untergrenze der folgenden Log-Einträge
+        assertThat(jdbc.queryForObject("select acked_created_at from conversation_log_cursor where device_id = ?",
+                Timestamp.class, b1.getId()).toInstant()).isEqualTo(m1.getCreatedAt());
+
+        acks.ackUpTo(b1.getId(), new InboxCursor(2, Map.of()));
+        acks.flush();
+        assertThat(new InboxAckBuffer(jdbc, txManager, new SimpleMeterRegistry()).ackedSeq(b1.getId())).isEqualTo(5);
+    }
+
+    private MessageCore logMessage(Conversation conv, AppUser sender, Instant at, long seq) {
+        jdbc.update("update conversation set log_seq = ? where id = ?", seq, conv.getId());
+        return coreRepo.saveAndFlush(MessageCore.builder()
+                .conversationId(conv.getId()).senderId(sender.getId()).createdAt(at).contentType("text/plain").msgType("text")
+                .logSeq(seq).build());
+    }
+}
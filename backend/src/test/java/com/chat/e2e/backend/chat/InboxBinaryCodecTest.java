@@ -0,0 +1,49 @@
+package com.chat.e2e.backend.chat;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class InboxBinaryCodecTest {
+
+    private static InboxEntry.Page roundTrip(InboxEntry.Page page) throws Exception {
+        var out = new ByteArrayOutputStream();
+        InboxBinaryCodec.write(page, out);
+        return InboxBinaryCodec.read(new ByteArrayInputStream(out.toByteArray()));
+    }
+
+    @Test
+    void stringsBeyond64KiB_areNotTruncated() throws Exception {
+        // Cursor mit vielen Log-Positionen, contentType ungeprüft vom Sender: beide über der u16-Grenze
+        String cursor = "c".repeat(0xFFFF + 1);
+        String contentType = "t".repeat(70_000);
+        var entry = new InboxEntry(UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID(), contentType,
+                "{\"type\":\"text\"}", new byte[]{1, 2, 3}, Instant.parse("2025-11-06T00:00:00Z"), 5L, null);
+
+        var page = roundTrip(new InboxEntry.Page(List.of(entry), cursor));
+
+        assertThat(page.nextCursor()).isEqualTo(cursor);
+        assertThat(page.entries()).hasSize(1);
+        assertThat(page.entries().getFirst().contentType()).isEqualTo(contentType);
+        assertThat(page.entries().getFirst().ciphertext()).containsExactly(1, 2, 3);
+        assertThat(page.entries().getFirst().seq()).isEqualTo(5L);
+    }
+
+    @Test
+    void missingHeader_staysNull() throws Exception {
+        var entry = new InboxEntry(null, UUID.randomUUID(), UUID.randomUUID(), "text/plain", null, new byte[0],
+                Instant.parse("2025-11-06T00:00:00Z"), null, 3L);
+
+        var read = roundTrip(new InboxEntry.Page(List.of(entry), "")).entries().getFirst();
+
+        assertThat(read.msgHeaderJson()).isNull();
+        assertThat(read.deliveryId()).isNull();
+        assertThat(read.seq()).isNull();
+    }
+}
@@ -0,0 +1,106 @@
+package com.chat.e2e.backend.chat;
+
+import com.chat.e2e.backend.api.dto.DTOs;
+import com.chat.e2e.backend.cluster.ClusterBus;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.*;
+
+class InboxLongPollTest {
+
+    private final MessageService messageService = mock(MessageService.class);
+    private final SimpleMeterRegistry meters = new SimpleMeterRegistry();
+    private final ClusterBus bus = mock(ClusterBus.class);
+    private final InboxLongPoll longPoll = new InboxLongPoll(messageService,
+            new LongPollProperties(Duration.ofSeconds(30), 1), bus, meters);
+
+    private final UUID device = UUID.randomUUID();
+    private final DTOs.InboxResponse empty = new DTOs.InboxResponse(List.of(), "0");
+    private final DTOs.InboxResponse one = new DTOs.InboxResponse(List.of(new DTOs.DeliveryDTO(UUID.randomUUID(),
+            UUID.randomUUID(), UUID.randomUUID(), "text/plain", "{}", "eA==", Instant.now(), 1L)), "1");
+
+    @AfterEach
+    void tearDown() { longPoll.shutdown(); }
+
+    private DeliveriesCommittedEvent committedFor(UUID deviceId) {
+        return new DeliveriesCommittedEvent(UUID.randomUUID(), UUID.randomUUID(), "text/plain", "{}", "eA==", Map.of(),
+                Instant.now(), List.of(new DeliveryFanout.Recipient(UUID.randomUUID(), deviceId, UUID.randomUUID(), 1L)));
+    }
+
+    @Test
+    void pendingDeliveries_answerImmediately() {
+        when(messageService.fetchInboxPage(device, "0", 50)).thenReturn(one);
+
+        var result = longPoll.await(device, "0", 50, Duration.ofSeconds(20));
+
+        assertThat(result.getResult()).isEqualTo(one);
+    }
+
+    @Test
+    void emptyInbox_parksUntilDeliveryCommitted() throws InterruptedException {
+        when(messageService.fetchInboxPage(device, "0", 50)).thenReturn(empty, one);
+
+        var result = longPoll.await(device, "0", 50, Duration.ofSeconds(20));
+        assertThat(result.hasResult()).isFalse();
+        assertThat(meters.get("chat.inbox.long-poll.waiting").gauge().value()).isEqualTo(1.0);
+
+        // Commit für ein anderes Gerät weckt nicht, keine weitere Abfrage
+        longPoll.onCommitted(committedFor(UUID.randomUUID()));
+        verify(messageService, times(1)).fetchInboxPage(device, "0", 50);
+
+        var answered = new CountDownLatch(1);
+        result.setResultHandler(r -> answered.countDown());
+        longPoll.onCommitted(committedFor(device));
+
+        assertThat(answered.await(2, TimeUnit.SECONDS)).isTrue();
+        assertThat(result.getResult()).isEqualTo(one);
+    }
+
+    @Test
+    void commitForDeviceNotWaitingHere_wakesOtherNodes() {
+        when(bus.maxPayloadBytes()).thenReturn(7000);
+        var other = UUID.randomUUID();
+
+        longPoll.onCommitted(committedFor(other));
+
+        verify(bus, timeout(2000)).publish(InboxLongPoll.CHANNEL, other.toString());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void wakeFromOtherNode_answersParkedPoll() throws InterruptedException {
+        ArgumentCaptor<Consumer<String>> handler = ArgumentCaptor.forClass(Consumer.class);
+        verify(bus).subscribe(eq(InboxLongPoll.CHANNEL), handler.capture());
+        when(messageService.fetchInboxPage(device, "0", 50)).thenReturn(empty, one);
+
+        var result = longPoll.await(device, "0", 50, Duration.ofSeconds(20));
+        var answered = new CountDownLatch(1);
+        result.setResultHandler(r -> answered.countDown());
+        handler.getValue().accept(UUID.randomUUID() + "\n" + device);
+
+        assertThat(answered.await(2, TimeUnit.SECONDS)).isTrue();
+        assertThat(result.getResult()).isEqualTo(one);
+    }
+
+    @Test
+    void waitZero_answersEmptyWithoutParking() {
+        when(messageService.fetchInboxPage(device, null, 50)).thenReturn(empty);
+
+        var result = longPoll.await(device, null, 50, Duration.ZERO);
+
+        assertThat(result.getResult()).isEqualTo(empty);
+    }
+}
@@ -0,0 +1,29 @@
+package com.chat.e2e.backend.chat;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MessageHeaderCodecTest {
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    @Test
+    void encode_fixedFieldOrder() {
+        assertThat(MessageHeaderCodec.encode("text", 7, 1001L, "text/plain"))
+                .isEqualTo("{\"type\":\"text\",\"epoch\":7,\"counter\":1001,\"content_type\":\"text/plain\"}");
+    }
+
+    @Test
+    void encode_isValidJson_withEscapesAndNulls() throws Exception {
+        String json = MessageHeaderCodec.encode("text", null, null, "a\"b\\c\n\u0001");
+
+        Map<?, ?> parsed = mapper.readValue(json, Map.class);
+        assertThat(parsed.get("epoch")).isNull();
+        assertThat(parsed.get("counter")).isNull();
+        assertThat(parsed.get("content_type")).isEqualTo("a\"b\\c\n\u0001");
+    }
+}
@@ -1,16 +1,22 @@
 package com.chat.e2e.backend.chat;
 
 import com.chat.e2e.backend.api.dto.DTOs;
-import com.chat.e2e.backend.device.UserDevice;
+import com.chat.e2e.backend.cluster.ClusterBus;
 import com.chat.e2e.backend.device.UserDeviceRepository;
+import com.chat.e2e.backend.user.AppUserRepository;
+import com.chat.e2e.backend.user.IdentityDirectory;
+import com.chat.e2e.backend.user.IdentityProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.springframework.context.ApplicationEventPublisher;
 
+import java.time.Duration;
 import java.time.Instant;
 import java.util.Base64;
+import java.util.Map;
 import java.util.Optional;
-import java.util.Set;
 import java.util.UUID;
 
 import static org.assertj.core.api.Assertions.*;
@@ -19,25 +25,39 @@ import static org.mockito.Mockito.*;
 
 class MessageServiceTest {
 
-    private ConversationRepository conversationRepo;
-    private ConversationMemberRepository memberRepo;
+    private ConversationRoutingCache routes;
     private ConversationMemberDeviceRepository memberDeviceRepo;
     private MessageCoreRepository messageCoreRepo;
     private MessageDeliveryRepository messageDeliveryRepo;
+    private MessagePayloadRepository payloadRepo;
+    private ConversationLogCursorRepository logCursorRepo;
+    private ConversationReadWatermarkRepository readMarks;
+    private UnreadCounters unread;
     private UserDeviceRepository deviceRepo;
+    private DeliveryFanout fanout;
+    private SendIdempotency idempotency;
+    private InboxAckBuffer acks;
+    private ApplicationEventPublisher events;
     private MessageService service;
 
     @BeforeEach
     void setup() {
-        conversationRepo = mock(ConversationRepository.class);
-        memberRepo = mock(ConversationMemberRepository.class);
+        routes = mock(ConversationRoutingCache.class);
         memberDeviceRepo = mock(ConversationMemberDeviceRepository.class);
         messageCoreRepo = mock(MessageCoreRepository.class);
         messageDeliveryRepo = mock(MessageDeliveryRepository.class);
+        payloadRepo = mock(MessagePayloadRepository.class);
+        logCursorRepo = mock(ConversationLogCursorRepository.class);
+        readMarks = mock(ConversationReadWatermarkRepository.class);
+        unread = mock(UnreadCounters.class);
         deviceRepo = mock(UserDeviceRepository.class);
-        service = new MessageService(conversationRepo, memberRepo, memberDeviceRepo, messageCoreRepo, messageDeliveryRepo, deviceRepo);
+        fanout = mock(DeliveryFanout.class);
+        idempotency = mock(SendIdempotency.class);
+        acks = mock(InboxAckBuffer.class);
+        events = mock(ApplicationEventPublisher.class);
+        service = newService(false);
 
-        when(messageCoreRepo.save(any(MessageCore.class))).thenAnswer(inv -> {
+        when(messageCoreRepo.saveAndFlush(any(MessageCore.class))).thenAnswer(inv -> {
             var m = inv.getArgument(0, MessageCore.class);
             if (m.getId() == null) m.setId(UUID.randomUUID());
             if (m.getCreatedAt() == null) m.setCreatedAt(Instant.now());
@@ -45,40 +65,240 @@ class MessageServiceTest {
         });
     }
 
+    private MessageService newService(boolean asyncFanout) {
+        return new MessageService(routes, memberDeviceRepo, messageCoreRepo, messageDeliveryRepo,
+                payloadRepo, logCursorRepo, readMarks, unread,
+                new IdentityDirectory(mock(AppUserRepository.class), deviceRepo, new IdentityProperties(100, Duration.ofMinutes(10)),
+                        mock(ClusterBus.class), new SimpleMeterRegistry()), fanout, idempotency, acks,
+                new FanoutProperties(asyncFanout, 1, 1, Duration.ofSeconds(5), 500, 5), events);
+    }
+
+    private void route(UUID convId, boolean fanoutOnRead, UUID memberUser, UUID memberDevice) {
+        when(routes.get(convId)).thenReturn(Optional.of(new ConversationRoute(convId, fanoutOnRead,
+                java.util.Set.of(memberUser), java.util.Map.of(memberDevice, memberUser))));
+    }
+
     @Test
     void send_ok_fansOutToDevices() throws JsonProcessingException {
         var convId = UUID.randomUUID();
         var senderUser = UUID.randomUUID();
         var senderDevice = UUID.randomUUID();
 
-        when(conversationRepo.findById(convId)).thenReturn(Optional.of(Conversation.builder().id(convId).isGroup(true).createdAt(Instant.now()).build()));
-        when(memberRepo.existsByConversationIdAndUserId(convId, senderUser)).thenReturn(true);
+        route(convId, false, senderUser, senderDevice);
+        var r1 = new DeliveryFanout.Recipient(UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID(), null);
+        var r2 = new DeliveryFanout.Recipient(UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID(), null);
+        when(fanout.fanOutShared(any(), any(), eq(convId), eq(senderDevice))).thenReturn(java.util.List.of(r1, r2));
 
-        var d1 = UUID.randomUUID(); var d2 = UUID.randomUUID(); var d3 = senderDevice; // d3 ist Sender → filtern
-        when(memberDeviceRepo.findAllDeviceIdsByConversationId(convId)).thenReturn(Set.of(d1, d2, d3));
+        var req = new DTOs.SendMessageRequest("text/plain", 7, 1001L,
+                Base64.getEncoder().encodeToString("cipher!".getBytes()), null);
+
+        var resp = service.send(convId, senderUser, senderDevice, req);
+
+        assertThat(resp.messageId()).isNotNull();
+        assertThat(resp.deliveries()).isEqualTo(2);
+        // Ciphertext einmal pro Nachricht, dann ein set-basierter Insert ohne Sendergerät
+        verify(payloadRepo).insert(eq(resp.messageId()), eq(resp.createdAt()), eq("cipher!".getBytes()));
+        verify(fanout).fanOutShared(resp.messageId(), resp.createdAt(), convId, senderDevice);
+        // Header als typisierte Spalten, kein jsonb
+        verify(messageCoreRepo).saveAndFlush(argThat(m -> m.getHeader() == null && "text".equals(m.getMsgType())
+                && m.getEpoch() == 7 && m.getCounter() == 1001L));
+        verify(messageDeliveryRepo, never()).save(any(MessageDelivery.class));
+        // Push-Event mit Wire-Header und gemeinsamem Ciphertext, zugestellt nach dem Commit
+        verify(events).publishEvent(argThat((Object e) -> e instanceof DeliveriesCommittedEvent d
+                && d.recipients().equals(java.util.List.of(r1, r2))
+                && d.ciphertextFor(r1.deviceId()).equals(req.ciphertextB64())
+                && d.msgHeaderJson().contains("\"counter\":1001")));
+        // warmer Routing-Cache: keine Lookups für Sendergerät
+        verifyNoInteractions(deviceRepo);
+    }
+
+    @Test
+    void send_async_enqueuesFanoutInsteadOfWritingDeliveries() throws JsonProcessingException {
+        service = newService(true);
+        var convId = UUID.randomUUID();
+        var senderUser = UUID.randomUUID();
+        var senderDevice = UUID.randomUUID();
 
-        when(deviceRepo.findById(d1)).thenReturn(Optional.of(UserDevice.builder().id(d1).build()));
-        when(deviceRepo.findById(d2)).thenReturn(Optional.of(UserDevice.builder().id(d2).revokedAt(null).build()));
-        when(deviceRepo.findById(d3)).thenReturn(Optional.of(UserDevice.builder().id(d3).build()));
+        var otherUser = UUID.randomUUID();
+        when(routes.get(convId)).thenReturn(Optional.of(new ConversationRoute(convId, false,
+                java.util.Set.of(senderUser, otherUser),
+                java.util.Map.of(senderDevice, senderUser, UUID.randomUUID(), otherUser, UUID.randomUUID(), otherUser))));
 
         var req = new DTOs.SendMessageRequest("text/plain", 7, 1001L,
-                Base64.getEncoder().encodeToString("cipher!".getBytes()));
+                Base64.getEncoder().encodeToString("cipher!".getBytes()), null);
 
         var resp = service.send(convId, senderUser, senderDevice, req);
 
-        assertThat(resp.messageId()).isNotNull();
-        assertThat(resp.deliveries()).isEqualTo(2); // d1 & d2, Sendergerät rausgefiltert
-        verify(messageDeliveryRepo, times(2)).save(any(MessageDelivery.class));
+        // Zeilen entstehen erst im Worker; gemeldet werden die erwarteten Zielgeräte ohne Sendergerät
+        assertThat(resp.deliveries()).isEqualTo(2);
+        verify(fanout).enqueueShared(resp.messageId(), resp.createdAt(), convId, senderDevice);
+        verify(fanout, never()).fanOutShared(any(), any(), any(), any());
+        verify(events).publishEvent(new FanoutEnqueuedEvent(resp.messageId()));
+    }
+
+    @Test
+    void send_fanoutOnRead_appendsToLogWithoutDeliveries() throws JsonProcessingException {
+        var convId = UUID.randomUUID();
+        var senderUser = UUID.randomUUID();
+        var senderDevice = UUID.randomUUID();
+
+        route(convId, true, senderUser, senderDevice);
+        when(fanout.nextLogSeq(convId)).thenReturn(42L);
+
+        var req = new DTOs.SendMessageRequest("text/plain", 1, 1L, Base64.getEncoder().encodeToString("x".getBytes()), null);
+        var resp = service.send(convId, senderUser, senderDevice, req);
+
+        assertThat(resp.deliveries()).isZero();
+        verify(messageCoreRepo).saveAndFlush(argThat(m -> m.getLogSeq() == 42L && senderDevice.equals(m.getSenderDeviceId())));
+        verify(payloadRepo).insert(eq(resp.messageId()), any(), any());
+        verify(fanout, never()).fanOutShared(any(), any(), any(), any());
+        verify(fanout, never()).enqueueShared(any(), any(), any(), any());
+        // Sendergerät ist das einzige aktive Gerät → kein Push
+        verify(events, never()).publishEvent(any(DeliveriesCommittedEvent.class));
+        // eigene Nachricht zählt beim Sendergerät nicht als ungelesen, ohne Read
+        verify(unread).onSent(eq(senderDevice), argThat(m -> m.getLogSeq() == 42L));
+        verify(unread, never()).onRead(any(), any());
+    }
+
+    @Test
+    void fetchInbox_mergesDirectDeliveriesAndLogEntries() {
+        var device = UUID.randomUUID();
+        var t0 = Instant.parse("2025-01-01T00:00:00Z");
+        var direct1 = UUID.randomUUID();
+        var direct2 = UUID.randomUUID();
+        var logMsg = UUID.randomUUID();
+        var conv = UUID.randomUUID();
+        byte[] ct = "c".getBytes();
+
+        when(messageDeliveryRepo.findNextForDevice(eq(device), eq(0L), any(), any())).thenReturn(java.util.List.of(
+                new Object[]{UUID.randomUUID(), direct1, conv, "text/plain", null, ct, t0, "text", 1, 5L, 11L},
+                new Object[]{UUID.randomUUID(), direct2, conv, "text/plain", null, ct, t0.plusSeconds(2), "text", 1, 6L, 12L}));
+        when(fanout.logEntries(device, Map.of(), 2)).thenReturn(java.util.List.of(
+                new InboxEntry(null, logMsg, conv, "control/x", "{\"type\":\"x\"}", ct, t0.plusSeconds(1), null, 7L)));
+
+        var page = service.fetchInboxPage(device, null, 2);
+        var items = page.items();
+
+        assertThat(items).extracting(DTOs.DeliveryDTO::messageId).containsExactly(direct1, logMsg);
+        assertThat(items).extracting(DTOs.DeliveryDTO::seq).containsExactly(11L, null);
+        assertThat(items.get(1).deliveryId()).isNull();
+        // Cursor: Gerätesequenz der direkten Deliveries + Log-Sequenz je Konversation
+        var next = InboxCursor.decode(page.nextCursor());
+        assertThat(next).isEqualTo(new InboxCursor(11L, Map.of(conv, 7L)));
+        assertThat(page.nextCursor()).isEqualTo("11." + conv + "~7");
+        // Header aus Spalten kodiert, Control-Header unverändert durchgereicht
+        assertThat(items.get(0).msgHeaderJson())
+                .isEqualTo("{\"type\":\"text\",\"epoch\":1,\"counter\":5,\"content_type\":\"text/plain\"}");
+        assertThat(items.get(1).msgHeaderJson()).isEqualTo("{\"type\":\"x\"}");
+    }
+
+    @Test
+    void fetchInboxPage_legacyTimestampCursor_resumesFromDeviceSequence() {
+        var device = UUID.randomUUID();
+        var ts = Instant.ofEpochSecond(1_700_000_000L);
+        when(messageDeliveryRepo.findLastSeqBefore(device, ts)).thenReturn(41L);
+
+        var lastSeen = UUID.randomUUID();
+
+        var page = service.fetchInboxPage(device, "1700000000:" + lastSeen, 10);
+
+        verify(messageDeliveryRepo).findNextForDevice(eq(device), eq(41L), any(), any());
+        // Logs ab dem bestätigten Stand je Konversation
+        verify(fanout).logEntries(device, Map.of(), 10);
+        assertThat(page.nextCursor()).isEqualTo("41");
+    }
+
+    @Test
+    void fetchInboxPage_withoutCursor_startsAfterAckedWatermark() {
+        var device = UUID.randomUUID();
+        var floor = Instant.parse("2025-11-06T00:00:00Z");
+        when(acks.ackedSeq(device)).thenReturn(17L);
+        when(acks.deliveryFloor(device, 17L)).thenReturn(floor);
+
+        var page = service.fetchInboxPage(device, null, 10);
+
+        // Zeit-Untergrenze des Wasserstands → nur die jüngsten Delivery-Partitionen
+        verify(messageDeliveryRepo).findNextForDevice(eq(device), eq(17L), eq(floor), any());
+        assertThat(page.nextCursor()).isEqualTo("17");
+    }
+
+    @Test
+    void ackUpTo_buffersDecodedCursor() {
+        var device = UUID.randomUUID();
+        var conv1 = UUID.randomUUID();
+        var conv2 = UUID.randomUUID();
+
+        service.ackUpTo(device, "42." + conv1 + "~7." + conv2 + "~3");
+
+        verify(acks).ackUpTo(device, new InboxCursor(42, Map.of(conv1, 7L, conv2, 3L)));
+        verifyNoInteractions(messageDeliveryRepo);
+    }
+
+    @Test
+    void ackUpTo_keysetLogCursor_keepsOnlyDeviceSequence() {
+        var device = UUID.randomUUID();
+
+        // früheres Format mit globalem Log-Keyset: Logs laufen ab acked_seq weiter
+        service.ackUpTo(device, "42:1700000000000000:" + UUID.randomUUID());
+
+        verify(acks).ackUpTo(device, new InboxCursor(42, Map.of()));
+    }
+
+    @Test
+    void ack_advancesLogCursorForMessageIds() {
+        var device = UUID.randomUUID();
+        var deliveryIds = java.util.List.of(UUID.randomUUID());
+        var logIds = java.util.List.of(UUID.randomUUID());
+
+        service.ack(device, deliveryIds, logIds);
+
+        verify(messageDeliveryRepo).bulkSetDeliveredAt(eq(device), eq(deliveryIds), any());
+        verify(logCursorRepo).advance(device, logIds);
+    }
+
+    @Test
+    void send_retryWithClientMessageId_returnsOriginalResponse() {
+        var convId = UUID.randomUUID();
+        var senderUser = UUID.randomUUID();
+        var senderDevice = UUID.randomUUID();
+        var clientMsgId = UUID.randomUUID();
+        route(convId, false, senderUser, senderDevice);
+        var original = new DTOs.SendMessageResponse(UUID.randomUUID(), Instant.now(), 3);
+        when(idempotency.claimOrGet(senderUser, clientMsgId)).thenReturn(Optional.of(original));
+
+        var req = new DTOs.SendMessageRequest("text/plain", 1, 1L, Base64.getEncoder().encodeToString("x".getBytes()), clientMsgId);
+        var resp = service.send(convId, senderUser, senderDevice, req);
+
+        assertThat(resp).isEqualTo(original);
+        verifyNoInteractions(messageCoreRepo, payloadRepo, fanout);
+    }
+
+    @Test
+    void send_firstAttemptWithClientMessageId_recordsResponse() {
+        var convId = UUID.randomUUID();
+        var senderUser = UUID.randomUUID();
+        var senderDevice = UUID.randomUUID();
+        var clientMsgId = UUID.randomUUID();
+        route(convId, false, senderUser, senderDevice);
+        when(idempotency.claimOrGet(senderUser, clientMsgId)).thenReturn(Optional.empty());
+        when(fanout.fanOutShared(any(), any(), eq(convId), eq(senderDevice))).thenReturn(java.util.List.of(
+                new DeliveryFanout.Recipient(UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID(), null),
+                new DeliveryFanout.Recipient(UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID(), null)));
+
+        var req = new DTOs.SendMessageRequest("text/plain", 1, 1L, Base64.getEncoder().encodeToString("x".getBytes()), clientMsgId);
+        var resp = service.send(convId, senderUser, senderDevice, req);
+
+        verify(idempotency).complete(senderUser, clientMsgId, resp);
+        assertThat(resp.deliveries()).isEqualTo(2);
     }
 
     @Test
     void send_rejectsNonMember() {
         var convId = UUID.randomUUID();
         var senderUser = UUID.randomUUID();
-        when(conversationRepo.findById(convId)).thenReturn(Optional.of(Conversation.builder().id(convId).isGroup(false).createdAt(Instant.now()).build()));
-        when(memberRepo.existsByConversationIdAndUserId(convId, senderUser)).thenReturn(false);
+        route(convId, false, UUID.randomUUID(), UUID.randomUUID());
 
-        var req = new DTOs.SendMessageRequest("text/plain", 1, 1L, Base64.getEncoder().encodeToString("x".getBytes()));
+        var req = new DTOs.SendMessageRequest("text/plain", 1, 1L, Base64.getEncoder().encodeToString("x".getBytes()), null);
 
         assertThatThrownBy(() -> service.send(convId, senderUser, UUID.randomUUID(), req))
                 .isInstanceOf(IllegalArgumentException.class)
@@ -86,22 +306,31 @@ class MessageServiceTest {
     }
 
     @Test
-    void distributeCK_ok() throws JsonProcessingException {
+    void send_rejectsUnknownSenderDevice() {
         var convId = UUID.randomUUID();
-        when(conversationRepo.findById(convId)).thenReturn(Optional.of(Conversation.builder().id(convId).isGroup(true).createdAt(Instant.now()).build()));
+        var senderUser = UUID.randomUUID();
+        var unknownDevice = UUID.randomUUID();
+        route(convId, false, senderUser, UUID.randomUUID());
+        when(deviceRepo.findById(unknownDevice)).thenReturn(Optional.empty());
 
-        when(messageCoreRepo.save(any(MessageCore.class))).thenAnswer(inv -> {
-            var m = inv.getArgument(0, MessageCore.class);
-            if (m.getId() == null) m.setId(UUID.randomUUID());
-            if (m.getCreatedAt() == null) m.setCreatedAt(Instant.now());
-            return m;
-        });
+        var req = new DTOs.SendMessageRequest("text/plain", 1, 1L, Base64.getEncoder().encodeToString("x".getBytes()), null);
+
+        assertThatThrownBy(() -> service.send(convId, senderUser, unknownDevice, req))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("sender device not found");
+    }
+
+    @Test
+    void distributeCK_ok() throws JsonProcessingException {
+        var convId = UUID.randomUUID();
+        route(convId, false, UUID.randomUUID(), UUID.randomUUID());
 
         var d1 = UUID.randomUUID();
         var d2 = UUID.randomUUID();
 
-        when(memberDeviceRepo.existsByConversationIdAndDeviceId(convId, d1)).thenReturn(true);
-        when(memberDeviceRepo.existsByConversationIdAndDeviceId(convId, d2)).thenReturn(true);
+        when(fanout.fanOutSealed(any(), any(), eq(convId), anyMap())).thenReturn(java.util.List.of(
+                new DeliveryFanout.Recipient(UUID.randomUUID(), d1, UUID.randomUUID(), null),
+                new DeliveryFanout.Recipient(UUID.randomUUID(), d2, UUID.randomUUID(), null)));
 
         var req = new DTOs.DistributeCKRequest(
                 3,
@@ -116,6 +345,35 @@ class MessageServiceTest {
         var resp = service.distributeCK(convId, req);
 
         assertThat(resp.deliveries()).isEqualTo(2);
-        verify(messageDeliveryRepo, times(2)).save(any(MessageDelivery.class));
+        verify(fanout).fanOutSealed(eq(resp.messageId()), eq(resp.createdAt()), eq(convId),
+                argThat(m -> m.size() == 2 && java.util.Arrays.equals(m.get(d1), "sealed1".getBytes())));
+    }
+
+    @Test
+    void markRead_advancedWatermark_returnsReadEvent() {
+        var device = UUID.randomUUID();
+        var msg = MessageCore.builder().id(UUID.randomUUID()).conversationId(UUID.randomUUID())
+                .createdAt(Instant.parse("2025-11-06T00:00:00Z")).build();
+        when(readMarks.advance(device, msg.getId())).thenReturn(1);
+        when(messageCoreRepo.findById(msg.getId())).thenReturn(Optional.of(msg));
+
+        var ev = service.markRead(device, msg.getId()).orElseThrow();
+
+        assertThat(ev.conversationId()).isEqualTo(msg.getConversationId());
+        assertThat(ev.upToMessageId()).isEqualTo(msg.getId());
+        assertThat(ev.upToCreatedAt()).isEqualTo(msg.getCreatedAt());
+        assertThat(ev.byDeviceId()).isEqualTo(device);
+        verify(unread).onRead(device, msg);
+    }
+
+    @Test
+    void markRead_olderMessage_noEvent() {
+        var device = UUID.randomUUID();
+        var msgId = UUID.randomUUID();
+        when(readMarks.advance(device, msgId)).thenReturn(0);
+
+        assertThat(service.markRead(device, msgId)).isEmpty();
+        verify(messageCoreRepo, never()).findById(any());
+        verifyNoInteractions(unread);
     }
 }
@@ -0,0 +1,133 @@
+package com.chat.e2e.backend.chat;
+
+import com.chat.e2e.backend.device.UserDevice;
+import com.chat.e2e.backend.device.UserDeviceRepository;
+import com.chat.e2e.backend.user.AppUser;
+import com.chat.e2e.backend.user.AppUserRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.Objects;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@Testcontainers
+@DataJpaTest
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Import(DeliveryFanout.class)
+@Transactional(propagation = Propagation.NOT_SUPPORTED) // DDL und FK-Prüfung beim DETACH in eigenen Transaktionen
+class PartitionMaintenanceTest {
+
+    @Container
+    static PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>("postgres:15-alpine");
+
+    @DynamicPropertySource
+    static void props(DynamicPropertyRegistry r) {
+        r.add("spring.datasource.url", postgres::getJdbcUrl);
+        r.add("spring.datasource.username", postgres::getUsername);
+        r.add("spring.datasource.password", postgres::getPassword);
+        r.add("spring.datasource.driver-class-name", () -> "org.postgresql.Driver");
+        r.add("spring.flyway.enabled", () -> "true");
+        r.add("spring.jpa.hibernate.ddl-auto", () -> "validate");
+    }
+
+    @Autowired AppUserRepository userRepo;
+    @Autowired UserDeviceRepository deviceRepo;
+    @Autowired ConversationRepository conversationRepo;
+    @Autowired ConversationMemberRepository memberRepo;
+    @Autowired ConversationMemberDeviceRepository memberDeviceRepo;
+    @Autowired MessageCoreRepository coreRepo;
+    @Autowired DeliveryFanout fanout;
+    @Autowired JdbcTemplate jdbc;
+    @Autowired PlatformTransactionManager txManager;
+
+    @Test
+    void expiredPartitions_areDroppedOnceAcked_messagesAfterTheirDeliveries() {
+        var maintenance = new PartitionMaintenance(jdbc, txManager,
+                new PartitionProperties(Duration.ofDays(7), 2, Duration.ofDays(30), Duration.ofHours(1)),
+                new SimpleMeterRegistry());
+        var p0End = maintenance.partitions(PartitionMaintenance.CORE).stream()
+                .map(PartitionMaintenance.Partition::to).filter(Objects::nonNull)
+                .max(Comparator.naturalOrder()).orElseThrow();
+
+        // zwei Wochen nach der Bestandspartition, Nachrichten- und Payload-Partitionen mit gleichen Grenzen
+        maintenance.createAhead(p0End);
+        assertThat(maintenance.partitions(PartitionMaintenance.CORE)).extracting(PartitionMaintenance.Partition::to)
+                .contains(p0End.plus(Duration.ofDays(7)), p0End.plus(Duration.ofDays(14)));
+        assertThat(maintenance.partitions(PartitionMaintenance.PAYLOAD)).hasSize(3);
+
+        var alice = userRepo.save(AppUser.builder().handle("alice").displayName("alice").passwordHash("x").build());
+        var bob = userRepo.save(AppUser.builder().handle("bob").displayName("bob").passwordHash("x").build());
+        var a1 = device(alice);
+        var b1 = device(bob);
+        var b2 = device(bob);
+        var conv = conversationRepo.save(Conversation.builder().isGroup(false).createdAt(Instant.now()).build());
+        join(conv, alice, a1);
+        join(conv, bob, b1);
+        join(conv, bob, b2);
+
+        // Nachricht in der ersten neuen Partition, Delivery (Fan-out jetzt) in message_delivery_p0
+        var msg = coreRepo.saveAndFlush(MessageCore.builder()
+                .conversationId(conv.getId()).senderId(alice.getId()).senderDeviceId(a1.getId())
+                .createdAt(p0End.plus(Duration.ofDays(1))).contentType("text/plain").msgType("text").build());
+        jdbc.update("insert into message_payload (message_id, created_at, ciphertext) values (?, ?, ?)",
+                msg.getId(), java.sql.Timestamp.from(msg.getCreatedAt()), "ct".getBytes());
+        var recipients = fanout.fanOutShared(msg.getId(), msg.getCreatedAt(), conv.getId(), a1.getId());
+        assertThat(recipients).hasSize(2);
+        var toB1 = recipients.stream().filter(r -> r.deviceId().equals(b1.getId())).findFirst().orElseThrow();
+        var toB2 = recipients.stream().filter(r -> r.deviceId().equals(b2.getId())).findFirst().orElseThrow();
+
+        // Retention abgelaufen für p0 und die erste Woche, aber die Delivery ist unbestätigt
+        var later = p0End.plus(Duration.ofDays(40));
+        maintenance.dropExpired(later);
+        assertThat(maintenance.partitions(PartitionMaintenance.DELIVERY))
+                .extracting(PartitionMaintenance.Partition::name).contains("message_delivery_p0");
+        assertThat(coreRepo.existsById(msg.getId())).isTrue();
+        // leere, unreferenzierte Bestandspartition ist weg
+        assertThat(maintenance.partitions(PartitionMaintenance.CORE))
+                .extracting(PartitionMaintenance.Partition::name).doesNotContain("message_core_p0");
+
+        // b1 bestätigt kumulativ, b2 noch gar nicht
+        jdbc.update("insert into device_inbox_ack (device_id, acked_seq) values (?, ?)", b1.getId(), toB1.seq());
+        maintenance.dropExpired(later);
+        assertThat(maintenance.partitions(PartitionMaintenance.DELIVERY))
+                .extracting(PartitionMaintenance.Partition::name).contains("message_delivery_p0");
+
+        // b2 bestätigt nur je deliveryId (wie MessageService.ack), ohne device_inbox_ack
+        jdbc.update("update message_delivery set delivered_at = now() where id = ? and recipient_device_id = ?",
+                toB2.deliveryId(), b2.getId());
+        maintenance.dropExpired(later);
+
+        assertThat(maintenance.partitions(PartitionMaintenance.DELIVERY))
+                .extracting(PartitionMaintenance.Partition::name).doesNotContain("message_delivery_p0");
+        assertThat(coreRepo.existsById(msg.getId())).isFalse();
+        assertThat(maintenance.partitions(PartitionMaintenance.PAYLOAD)).hasSize(1);
+    }
+
+    private UserDevice device(AppUser u) {
+        return deviceRepo.save(UserDevice.builder()
+                .user(u).platform("android").publicIdentityKey("IK").publicKxKey("KX").build());
+    }
+
+    private void join(Conversation c, AppUser u, UserDevice d) {
+        memberRepo.save(ConversationMember.builder().conversationId(c.getId()).userId(u.getId()).role("member").build());
+        memberDeviceRepo.saveAndFlush(ConversationMemberDevice.builder()
+                .conversationId(c.getId()).userId(u.getId()).deviceId(d.getId()).build());
+    }
+}
@@ -0,0 +1,117 @@
+package com.chat.e2e.backend.chat;
+
+import com.chat.e2e.backend.api.dto.DTOs;
+import com.chat.e2e.backend.cluster.LocalClusterBus;
+import com.chat.e2e.backend.user.AppUser;
+import com.chat.e2e.backend.user.AppUserRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@Testcontainers
+@DataJpaTest
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+class SendIdempotencyTest {
+
+    @Container
+    static PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>("postgres:15-alpine");
+
+    @DynamicPropertySource
+    static void props(DynamicPropertyRegistry r) {
+        r.add("spring.datasource.url", postgres::getJdbcUrl);
+        r.add("spring.datasource.username", postgres::getUsername);
+        r.add("spring.datasource.password", postgres::getPassword);
+        r.add("spring.datasource.driver-class-name", () -> "org.postgresql.Driver");
+        r.add("spring.flyway.enabled", () -> "true");
+        r.add("spring.jpa.hibernate.ddl-auto", () -> "validate");
+    }
+
+    @Autowired AppUserRepository userRepo;
+    @Autowired ConversationRepository conversationRepo;
+    @Autowired MessageCoreRepository coreRepo;
+    @Autowired JdbcTemplate jdbc;
+
+    final LocalClusterBus bus = new LocalClusterBus();
+    final LocalClusterBus otherBus = new LocalClusterBus();
+
+    @AfterEach
+    void tearDown() {
+        bus.close();
+        otherBus.close();
+    }
+
+    private SendIdempotency newStore() {
+        return new SendIdempotency(jdbc, new IdempotencyProperties(Duration.ofHours(1), 100), bus, new SimpleMeterRegistry());
+    }
+
+    @Test
+    void claim_thenRetry_returnsOriginalResponse() {
+        var alice = userRepo.save(AppUser.builder().handle("alice").displayName("alice").passwordHash("x").build());
+        var conv = conversationRepo.save(Conversation.builder().isGroup(false).createdAt(Instant.now()).build());
+        var msg = coreRepo.saveAndFlush(MessageCore.builder()
+                .conversationId(conv.getId()).senderId(alice.getId())
+                .createdAt(Instant.now()).contentType("text/plain").msgType("text").build());
+        var clientMsgId = UUID.randomUUID();
+
+        var store = newStore();
+        assertThat(store.claimOrGet(alice.getId(), clientMsgId)).isEmpty();
+        // zweiter Claim vor dem Abschluss (gleiche Transaktion): Erstversuch läuft noch
+        assertThatThrownBy(() -> store.claimOrGet(alice.getId(), clientMsgId))
+                .isInstanceOf(IllegalStateException.class);
+
+        store.complete(alice.getId(), clientMsgId, new DTOs.SendMessageResponse(msg.getId(), msg.getCreatedAt(), 4));
+
+        // frischer Cache → Antwort aus der Tabelle
+        var retry = newStore().claimOrGet(alice.getId(), clientMsgId);
+        assertThat(retry).isPresent();
+        assertThat(retry.get().messageId()).isEqualTo(msg.getId());
+        assertThat(retry.get().deliveries()).isEqualTo(4);
+
+        // andere ID desselben Senders ist unabhängig
+        assertThat(store.claimOrGet(alice.getId(), UUID.randomUUID())).isEmpty();
+    }
+
+    @Test
+    void purge_evictsCachedResponsesOnOtherNodes() {
+        var alice = userRepo.save(AppUser.builder().handle("carol").displayName("carol").passwordHash("x").build());
+        var conv = conversationRepo.save(Conversation.builder().isGroup(false).createdAt(Instant.now()).build());
+        var sentAt = Instant.now().minus(Duration.ofHours(2));
+        var msg = coreRepo.saveAndFlush(MessageCore.builder()
+                .conversationId(conv.getId()).senderId(alice.getId())
+                .createdAt(sentAt).contentType("text/plain").msgType("text").build());
+        var clientMsgId = UUID.randomUUID();
+
+        var nodeA = newStore();
+        assertThat(nodeA.claimOrGet(alice.getId(), clientMsgId)).isEmpty();
+        nodeA.complete(alice.getId(), clientMsgId, new DTOs.SendMessageResponse(msg.getId(), msg.getCreatedAt(), 1));
+        jdbc.update("update message_idempotency set created_at = ? where client_message_id = ?",
+                Timestamp.from(sentAt), clientMsgId);
+
+        // zweite Instanz kennt die Antwort aus ihrem Cache
+        var nodeB = new SendIdempotency(jdbc, new IdempotencyProperties(Duration.ofHours(1), 100), otherBus,
+                new SimpleMeterRegistry());
+        assertThat(nodeB.claimOrGet(alice.getId(), clientMsgId)).isPresent();
+
+        nodeA.purgeExpired();
+
+        // ID abgelaufen: auch nodeB behandelt den Retry als neue Nachricht
+        assertThat(nodeB.claimOrGet(alice.getId(), clientMsgId)).isEmpty();
+    }
+}
@@ -0,0 +1,106 @@
+package com.chat.e2e.backend.chat;
+
+import com.chat.e2e.backend.api.dto.DTOs;
+import com.chat.e2e.backend.device.UserDevice;
+import com.chat.e2e.backend.device.UserDeviceRepository;
+import com.chat.e2e.backend.user.AppUser;
+import com.chat.e2e.backend.user.AppUserRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.time.Instant;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@Testcontainers
+@DataJpaTest
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Import(SyncChangeFeed.class)
+@Transactional(propagation = Propagation.NOT_SUPPORTED) // Tokens beziehen sich auf committete Transaktionen
+class SyncChangeFeedTest {
+
+    @Container
+    static PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>("postgres:15-alpine");
+
+    @DynamicPropertySource
+    static void props(DynamicPropertyRegistry r) {
+        r.add("spring.datasource.url", postgres::getJdbcUrl);
+        r.add("spring.datasource.username", postgres::getUsername);
+        r.add("spring.datasource.password", postgres::getPassword);
+        r.add("spring.datasource.driver-class-name", () -> "org.postgresql.Driver");
+        r.add("spring.flyway.enabled", () -> "true");
+        r.add("spring.jpa.hibernate.ddl-auto", () -> "validate");
+    }
+
+    @Autowired AppUserRepository userRepo;
+    @Autowired UserDeviceRepository deviceRepo;
+    @Autowired ConversationRepository conversationRepo;
+    @Autowired ConversationMemberRepository memberRepo;
+    @Autowired SyncChangeFeed feed;
+    @Autowired JdbcTemplate jdbc;
+
+    private AppUser user(String handle) {
+        return userRepo.save(AppUser.builder().handle(handle).displayName(handle).passwordHash("x").build());
+    }
+
+    private void join(Conversation c, AppUser u) {
+        memberRepo.save(ConversationMember.builder().conversationId(c.getId()).userId(u.getId()).role("member").build());
+    }
+
+    @Test
+    void changes_onlyReturnsRowsChangedSinceToken() {
+        var alice = user("sync-alice");
+        var bob = user("sync-bob");
+        var carol = user("sync-carol");
+        var a1 = deviceRepo.save(UserDevice.builder().user(alice).platform("ios")
+                .publicIdentityKey("IK").publicKxKey("KX").build());
+        var conv = conversationRepo.save(Conversation.builder().isGroup(true).createdAt(Instant.now()).build());
+        join(conv, alice);
+        join(conv, bob);
+        var other = conversationRepo.save(Conversation.builder().isGroup(false).createdAt(Instant.now()).build());
+        join(other, bob);
+
+        var full = feed.changes(alice.getId(), null);
+        assertThat(full.conversations()).singleElement().satisfies(c -> {
+            assertThat(c.conversationId()).isEqualTo(conv.getId());
+            assertThat(c.members()).extracting(DTOs.MemberBrief::handle).containsExactly("sync-alice", "sync-bob");
+        });
+        assertThat(full.devices()).extracting(DTOs.UserDeviceBrief::deviceId).containsExactly(a1.getId());
+
+        var unchanged = feed.changes(alice.getId(), full.syncToken());
+        assertThat(unchanged.conversations()).isEmpty();
+        assertThat(unchanged.devices()).isEmpty();
+
+        // neues Mitglied: Konversation kommt mit vollständiger Mitgliederliste; log_seq zählt nicht als Änderung
+        join(conv, carol);
+        jdbc.update("update conversation set log_seq = log_seq + 1 where id = ?", conv.getId());
+        var joined = feed.changes(alice.getId(), unchanged.syncToken());
+        assertThat(joined.conversations()).singleElement().satisfies(c ->
+                assertThat(c.members()).extracting(DTOs.MemberBrief::handle)
+                        .containsExactly("sync-alice", "sync-bob", "sync-carol"));
+        assertThat(joined.devices()).isEmpty();
+
+        // widerrufenes Gerät
+        a1.setRevokedAt(Instant.now());
+        deviceRepo.save(a1);
+        var revoked = feed.changes(alice.getId(), joined.syncToken());
+        assertThat(revoked.conversations()).isEmpty();
+        assertThat(revoked.devices()).singleElement()
+                .satisfies(d -> assertThat(d.revokedAt()).isNotNull());
+
+        assertThatThrownBy(() -> feed.changes(alice.getId(), "not-a-token"))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}
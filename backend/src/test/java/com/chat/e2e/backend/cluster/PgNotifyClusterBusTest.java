@@ -0,0 +1,82 @@
+package com.chat.e2e.backend.cluster;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@Testcontainers
+@DataJpaTest
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+class PgNotifyClusterBusTest {
+
+    @Container
+    static PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>("postgres:15-alpine");
+
+    @DynamicPropertySource
+    static void props(DynamicPropertyRegistry r) {
+        r.add("spring.datasource.url", postgres::getJdbcUrl);
+        r.add("spring.datasource.username", postgres::getUsername);
+        r.add("spring.datasource.password", postgres::getPassword);
+        r.add("spring.datasource.driver-class-name", () -> "org.postgresql.Driver");
+        r.add("spring.flyway.enabled", () -> "true");
+        r.add("spring.jpa.hibernate.ddl-auto", () -> "validate");
+    }
+
+    @Autowired DataSourceProperties dataSource;
+    @Autowired JdbcTemplate jdbc;
+    @Autowired PlatformTransactionManager txManager;
+
+    @Test
+    void deliversToOtherNodes_notBackToSender_andReportsGaps() throws Exception {
+        var nodeA = new PgNotifyClusterBus(dataSource, jdbc, txManager, new SimpleMeterRegistry());
+        var nodeB = new PgNotifyClusterBus(dataSource, jdbc, txManager, new SimpleMeterRegistry());
+        try {
+            List<String> atA = new CopyOnWriteArrayList<>();
+            var atB = new CountDownLatch(2);
+            var gapAtB = new CountDownLatch(1);
+            nodeA.subscribe("test_bus", atA::add);
+            nodeB.subscribe("test_bus", p -> atB.countDown());
+            nodeB.onGap(gapAtB::countDown);
+            awaitListening(2);
+
+            nodeA.publish("test_bus", "one");
+            nodeA.publish("test_bus", "two");
+
+            assertThat(atB.await(5, TimeUnit.SECONDS)).isTrue();
+            assertThat(atA).isEmpty();
+
+            // Verbindungsabbruch: neu verbinden, Lücke melden
+            jdbc.queryForList("select pg_terminate_backend(pid) from pg_stat_activity where query like 'LISTEN%'");
+            assertThat(gapAtB.await(10, TimeUnit.SECONDS)).isTrue();
+        } finally {
+            nodeA.shutdown();
+            nodeB.shutdown();
+        }
+    }
+
+    private void awaitListening(int sessions) throws InterruptedException {
+        for (int i = 0; i < 50; i++) {
+            Integer n = jdbc.queryForObject("select count(*) from pg_stat_activity where query like 'LISTEN%'", Integer.class);
+            if (n != null && n >= sessions) return;
+            Thread.sleep(100);
+        }
+        throw new AssertionError("buses not listening");
+    }
+}
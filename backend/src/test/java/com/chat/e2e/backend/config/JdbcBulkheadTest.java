@@ -0,0 +1,124 @@
+package com.chat.e2e.backend.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import org.postgresql.PGConnection;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.*;
+
+class JdbcBulkheadTest {
+
+    private final MeterRegistry meters = new SimpleMeterRegistry();
+    private final DataSource pool = mock(DataSource.class);
+
+    private JdbcBulkhead bulkhead(int permits, int maxWaiting, Duration timeout) throws SQLException {
+        when(pool.getConnection()).thenAnswer(inv -> mock(Connection.class));
+        return new JdbcBulkhead(pool, new JdbcBulkheadProperties(permits, maxWaiting, timeout), meters);
+    }
+
+    private double available() {
+        return meters.get("chat.jdbc.bulkhead.available").gauge().value();
+    }
+
+    @Test
+    void connectionHoldsPermitUntilFirstClose() throws Exception {
+        var bulkhead = bulkhead(2, 10, Duration.ofMillis(50));
+
+        var c1 = bulkhead.getConnection();
+        bulkhead.getConnection();
+        assertThat(available()).isZero();
+        assertThatThrownBy(bulkhead::getConnection).isInstanceOf(SQLTransientConnectionException.class);
+
+        c1.close();
+        c1.close(); // zweites close gibt kein weiteres Permit frei
+        assertThat(available()).isEqualTo(1);
+        assertThat(bulkhead.getConnection()).isNotNull();
+        assertThat(meters.get("chat.jdbc.bulkhead.rejected").counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    void waiterGetsReleasedPermit() throws Exception {
+        var bulkhead = bulkhead(1, 10, Duration.ofSeconds(5));
+        var held = bulkhead.getConnection();
+
+        try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            var waiting = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return bulkhead.getConnection();
+                } catch (SQLException e) {
+                    throw new IllegalStateException(e);
+                }
+            }, executor);
+            while (meters.get("chat.jdbc.bulkhead.waiting").gauge().value() < 1) TimeUnit.MILLISECONDS.sleep(5);
+
+            held.close();
+            assertThat(waiting.get(5, TimeUnit.SECONDS)).isNotNull();
+        }
+    }
+
+    @Test
+    void tooManyWaiters_failImmediately() throws Exception {
+        var bulkhead = bulkhead(1, 1, Duration.ofSeconds(5));
+        bulkhead.getConnection();
+
+        try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            executor.submit(() -> bulkhead.getConnection()); // wartet
+            while (meters.get("chat.jdbc.bulkhead.waiting").gauge().value() < 1) TimeUnit.MILLISECONDS.sleep(5);
+
+            long start = System.nanoTime();
+            assertThatThrownBy(bulkhead::getConnection).isInstanceOf(SQLTransientConnectionException.class);
+            assertThat(Duration.ofNanos(System.nanoTime() - start)).isLessThan(Duration.ofSeconds(1));
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void failingPool_returnsPermit() throws Exception {
+        var bulkhead = bulkhead(1, 10, Duration.ofMillis(50));
+        when(pool.getConnection()).thenThrow(new SQLException("down"));
+
+        assertThatThrownBy(bulkhead::getConnection).hasMessage("down");
+        assertThat(available()).isEqualTo(1);
+    }
+
+    @Test
+    void proxy_hasOwnIdentity_andDoesNotHandOutPoolConnection() throws Exception {
+        var raw = mock(Connection.class);
+        when(raw.isWrapperFor(PGConnection.class)).thenReturn(true);
+        when(raw.unwrap(PGConnection.class)).thenReturn(mock(PGConnection.class));
+        when(raw.unwrap(Connection.class)).thenReturn(raw);
+        when(pool.getConnection()).thenReturn(raw);
+        var bulkhead = new JdbcBulkhead(pool, new JdbcBulkheadProperties(1, 10, Duration.ofMillis(50)), meters);
+
+        var c = bulkhead.getConnection();
+        var set = new HashSet<Connection>();
+        set.add(c);
+        assertThat(c).isEqualTo(c).isNotEqualTo(raw);
+        assertThat(set).contains(c);
+        assertThat(c.hashCode()).isEqualTo(System.identityHashCode(c));
+        assertThat(c.toString()).startsWith("JdbcBulkhead[");
+        // unwrap(Connection) bleibt beim Proxy, sonst liefe close() am Permit vorbei
+        assertThat(c.unwrap(Connection.class)).isSameAs(c);
+        assertThat(c.isWrapperFor(Connection.class)).isTrue();
+        assertThat(c.isWrapperFor(PGConnection.class)).isTrue();
+        assertThat(c.unwrap(PGConnection.class)).isNotNull();
+
+        c.unwrap(Connection.class).close();
+        assertThat(available()).isEqualTo(1);
+        verify(raw).close();
+    }
+}
@@ -1,12 +1,18 @@
 package com.chat.e2e.backend.device;
 
 import com.chat.e2e.backend.api.dto.DTOs;
+import com.chat.e2e.backend.cluster.ClusterBus;
 import com.chat.e2e.backend.user.AppUser;
 import com.chat.e2e.backend.user.AppUserRepository;
+import com.chat.e2e.backend.user.IdentityDirectory;
+import com.chat.e2e.backend.user.IdentityProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.springframework.context.ApplicationEventPublisher;
 
 import java.security.KeyPair;
+import java.time.Duration;
 import java.time.Instant;
 import java.util.Base64;
 import java.util.Optional;
@@ -20,13 +26,18 @@ class DeviceEnrollmentServiceTest {
 
     private AppUserRepository userRepo;
     private UserDeviceRepository deviceRepo;
+    private ApplicationEventPublisher events;
     private DeviceEnrollmentService service;
 
     @BeforeEach
     void setup() {
         userRepo = mock(AppUserRepository.class);
         deviceRepo = mock(UserDeviceRepository.class);
-        service = new DeviceEnrollmentService(userRepo, deviceRepo);
+        events = mock(ApplicationEventPublisher.class);
+        service = new DeviceEnrollmentService(userRepo, deviceRepo,
+                new IdentityDirectory(userRepo, deviceRepo, new IdentityProperties(100, Duration.ofMinutes(10)),
+                        mock(ClusterBus.class), new SimpleMeterRegistry()),
+                events);
 
         // save(...) vergibt eine ID falls null und gibt das Objekt zurück
         when(deviceRepo.save(any(UserDevice.class))).thenAnswer(inv -> {
@@ -52,8 +63,8 @@ class DeviceEnrollmentServiceTest {
     @Test
     void finish_shouldStoreDeviceKeys() throws Exception {
         // 1) User für start()
-        when(userRepo.findByHandle("bob"))
-                .thenReturn(Optional.of(AppUser.builder().handle("bob").build()));
+        var bob = AppUser.builder().id(UUID.randomUUID()).handle("bob").build();
+        when(userRepo.findByHandle("bob")).thenReturn(Optional.of(bob));
 
         // 2) start(): Device + Nonce erzeugen
         var startResp = service.start(new DTOs.EnrollmentStartRequest("bob"));
@@ -61,7 +72,7 @@ class DeviceEnrollmentServiceTest {
         String nonceB64 = startResp.nonce(); // vom Service erzeugt (Base64-String)
 
         // 3) findById(...) muss das gleiche Device liefern
-        var storedDevice = UserDevice.builder().id(deviceId).build();
+        var storedDevice = UserDevice.builder().id(deviceId).user(bob).build();
         when(deviceRepo.findById(deviceId)).thenReturn(Optional.of(storedDevice));
 
         // --- Krypto vorbereiten ---
@@ -114,9 +125,23 @@ class DeviceEnrollmentServiceTest {
         assertThat(storedDevice.getDeviceName()).isEqualTo("Pixel 9");
         assertThat(storedDevice.getPlatform()).isEqualTo("android");
         assertThat(storedDevice.getLastSeenAt()).isNotNull();
+        // Bootstrap-Cache des Users verwerfen (start + finish)
+        verify(events, times(2)).publishEvent(new UserDevicesChangedEvent(bob.getId()));
     }
 
     /* ===== lokale Test-Helper ===== */
+    @Test
+    void revoke_setsRevokedAtAndPublishesEvent() {
+        var deviceId = UUID.randomUUID();
+        var dev = UserDevice.builder().id(deviceId).build();
+        when(deviceRepo.findByIdAndUser_Handle(deviceId, "alice")).thenReturn(Optional.of(dev));
+
+        service.revoke("alice", deviceId);
+
+        assertThat(dev.getRevokedAt()).isNotNull();
+        verify(events).publishEvent(new DeviceRevokedEvent(deviceId));
+    }
+
     private static byte[] concat(byte[]... arrs) {
         int len = 0; for (var a : arrs) len += a.length;
         byte[] out = new byte[len];
@@ -31,11 +31,13 @@ class AuthChannelInterceptorTest {
         String token = "header.payload.sig";
         when(verifier.verify(token)).thenReturn(claims);
 
-        var interceptor = new AuthChannelInterceptor(verifier, pf);
+        DeviceSessionRegistry sessions = mock(DeviceSessionRegistry.class);
+        var interceptor = new AuthChannelInterceptor(verifier, pf, sessions);
 
         // STOMP CONNECT Frame mit Native-Header "Authorization: Bearer <token>"
         StompHeaderAccessor acc = StompHeaderAccessor.create(StompCommand.CONNECT);
         acc.setNativeHeader("Authorization", "Bearer " + token);
+        acc.setSessionId("s1");
         acc.setLeaveMutable(true); // wichtig, damit setUser persistiert
 
         Message<byte[]> msg = MessageBuilder.createMessage(new byte[0], acc.getMessageHeaders());
@@ -49,12 +51,13 @@ class AuthChannelInterceptorTest {
         assertThat(outAcc.getUser()).isNotNull();
         assertThat(outAcc.getUser().getName()).isEqualTo(userId.toString());
         assertThat(((UserDevicePrincipal) outAcc.getUser()).deviceId()).isEqualTo(deviceId);
+        verify(sessions).register(eq("s1"), argThat(p -> p.deviceId().equals(deviceId)));
     }
 
     @Test
     void missingAuthorizationHeaderThrows() {
         JwtVerifier verifier = mock(JwtVerifier.class);
-        var interceptor = new AuthChannelInterceptor(verifier, new PrincipalFactory());
+        var interceptor = new AuthChannelInterceptor(verifier, new PrincipalFactory(), mock(DeviceSessionRegistry.class));
 
         StompHeaderAccessor acc = StompHeaderAccessor.create(StompCommand.CONNECT);
         acc.setLeaveMutable(true);
@@ -3,12 +3,22 @@ package com.chat.e2e.backend.realtime;
 import com.chat.e2e.backend.BackendApplication;
 import com.chat.e2e.backend.api.PublicDeviceController;
 import com.chat.e2e.backend.api.dto.DTOs;
+import com.chat.e2e.backend.chat.BootstrapCache;
+import com.chat.e2e.backend.chat.ConversationRoutingCache;
 import com.chat.e2e.backend.chat.ConversationService;
+import com.chat.e2e.backend.chat.DeliveryFanout;
+import com.chat.e2e.backend.chat.InboxAckBuffer;
 import com.chat.e2e.backend.chat.MessageService;
+import com.chat.e2e.backend.chat.PartitionMaintenance;
+import com.chat.e2e.backend.chat.SendIdempotency;
+import com.chat.e2e.backend.chat.SyncChangeFeed;
+import com.chat.e2e.backend.chat.UnreadCounters;
 import com.chat.e2e.backend.device.DeviceEnrollmentService;
 import com.chat.e2e.backend.user.AppUserRepository;
+import com.chat.e2e.backend.user.IdentityDirectory;
 import org.junit.jupiter.api.*;
 import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.context.TestConfiguration;
 import org.springframework.boot.test.mock.mockito.MockBean;
@@ -25,6 +35,7 @@ import org.springframework.web.socket.messaging.WebSocketStompClient;
 import java.lang.reflect.Type;
 import java.time.Instant;
 import java.util.Base64;
+import java.util.Optional;
 import java.util.UUID;
 import java.util.concurrent.*;
 
@@ -56,6 +67,17 @@ class ChatWsIntegrationTest {
     @MockBean DeviceEnrollmentService deviceEnrollmentService;
     @MockBean
     PublicDeviceController publicDeviceController;
+    @MockBean DeliveryFanout deliveryFanout;
+    @MockBean ConversationRoutingCache conversationRoutingCache;
+    @MockBean SendIdempotency sendIdempotency;
+    @MockBean InboxAckBuffer inboxAckBuffer;
+    @MockBean PartitionMaintenance partitionMaintenance;
+    @MockBean UnreadCounters unreadCounters;
+    @MockBean BootstrapCache bootstrapCache;
+    @MockBean SyncChangeFeed syncChangeFeed;
+    @MockBean IdentityDirectory identityDirectory;
+
+    @Autowired DeviceSessionRegistry deviceSessions;
 
     WebSocketStompClient stomp;
 
@@ -98,7 +120,9 @@ class ChatWsIntegrationTest {
 
                     // Wenn kein Principal gesetzt ist, fügen wir ihn hinzu
                     if (accessor.getUser() == null) {
-                        accessor.setUser(new UserDevicePrincipal(TEST_USER, TEST_DEVICE));
+                        var principal = new UserDevicePrincipal(TEST_USER, TEST_DEVICE);
+                        accessor.setUser(principal);
+                        deviceSessions.register(accessor.getSessionId(), principal); // wie der echte Interceptor
                     }
 
                     // Neue Message mit aktualisierten Headers zurückgeben
@@ -172,7 +196,7 @@ class ChatWsIntegrationTest {
         });
 
         DTOs.SendWsMessage wsMsg = new DTOs.SendWsMessage(
-                convId, "text/plain", 1, 42L, Base64.getEncoder().encodeToString("cipher".getBytes())
+                convId, "text/plain", 1, 42L, Base64.getEncoder().encodeToString("cipher".getBytes()), null
         );
         sendQuiet(session, "/app/messages.send", wsMsg, "Bearer good");
 
@@ -189,7 +213,8 @@ class ChatWsIntegrationTest {
         UUID convId = UUID.randomUUID();
         UUID msgId  = UUID.randomUUID();
 
-        Mockito.doNothing().when(messageService).markRead(eq(TEST_DEVICE), eq(msgId));
+        Mockito.when(messageService.markRead(eq(TEST_DEVICE), eq(msgId))).thenReturn(Optional.of(
+                new DTOs.ReadEvent(convId, msgId, Instant.now(), TEST_DEVICE, Instant.now())));
 
         BlockingQueue<DTOs.ReadEvent> events = new ArrayBlockingQueue<>(1);
 
@@ -208,7 +233,7 @@ class ChatWsIntegrationTest {
         DTOs.ReadEvent ev = events.poll(5, TimeUnit.SECONDS);
         assertThat(ev).isNotNull();
         assertThat(ev.conversationId()).isEqualTo(convId);
-        assertThat(ev.messageId()).isEqualTo(msgId);
+        assertThat(ev.upToMessageId()).isEqualTo(msgId);
         assertThat(ev.byDeviceId()).isEqualTo(TEST_DEVICE);
     }
 }
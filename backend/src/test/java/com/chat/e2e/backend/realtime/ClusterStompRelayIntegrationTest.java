@@ -0,0 +1,311 @@
+package com.chat.e2e.backend.realtime;
+
+import com.chat.e2e.backend.api.ChatWsController;
+import com.chat.e2e.backend.api.dto.DTOs;
+import com.chat.e2e.backend.chat.DeliveriesCommittedEvent;
+import com.chat.e2e.backend.chat.DeliveryFanout;
+import com.chat.e2e.backend.chat.InboxLongPoll;
+import com.chat.e2e.backend.chat.LongPollProperties;
+import com.chat.e2e.backend.chat.MessageService;
+import com.chat.e2e.backend.cluster.LocalClusterBus;
+import com.chat.e2e.backend.config.SecurityConfig;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.*;
+import org.mockito.Mockito;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.autoconfigure.flyway.FlywayAutoConfiguration;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceAutoConfiguration;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernateJpaAutoConfiguration;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.simp.stomp.*;
+import org.springframework.scheduling.concurrent.ConcurrentTaskScheduler;
+import org.springframework.web.socket.WebSocketHttpHeaders;
+import org.springframework.web.socket.client.standard.StandardWebSocketClient;
+import org.springframework.web.socket.messaging.WebSocketStompClient;
+
+import java.lang.reflect.Type;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+/**
+ * Zwei Backend-Instanzen in einer JVM (eigene Kontexte und Ports), verbunden über den LocalClusterBus.
+ * Nur die STOMP-Schicht läuft echt, Services ohne DB sind Mocks.
+ */
+class ClusterStompRelayIntegrationTest {
+
+    static final UUID ALICE        = UUID.fromString("aaaaaaaa-aaaa-aaaa-aaaa-aaaaaaaaaaaa");
+    static final UUID ALICE_DEVICE = UUID.fromString("aaaaaaaa-0000-0000-0000-000000000001");
+    static final UUID BOB          = UUID.fromString("bbbbbbbb-bbbb-bbbb-bbbb-bbbbbbbbbbbb");
+    static final UUID BOB_DEVICE   = UUID.fromString("bbbbbbbb-0000-0000-0000-000000000001");
+    static final UUID BOB_LAPTOP   = UUID.fromString("bbbbbbbb-0000-0000-0000-000000000002");
+
+    static ConfigurableApplicationContext nodeA;
+    static ConfigurableApplicationContext nodeB;
+
+    WebSocketStompClient stomp;
+
+    @Configuration
+    @EnableAutoConfiguration(exclude = {
+            DataSourceAutoConfiguration.class,
+            HibernateJpaAutoConfiguration.class,
+            FlywayAutoConfiguration.class
+    })
+    @EnableConfigurationProperties({StompRelayProperties.class, OutboundProperties.class, LongPollProperties.class})
+    @Import({WebSocketConfig.class, ClusterStompRelay.class, DeviceSessionRegistry.class, OutboundQueues.class,
+            DeliveryPushService.class, InboxLongPoll.class, LocalClusterBus.class, ChatWsController.class,
+            SecurityConfig.class})
+    static class Node {
+        @Bean
+        AuthChannelInterceptor authChannelInterceptor(DeviceSessionRegistry deviceSessions) {
+            JwtVerifier verifier = token -> switch (token) {
+                case "alice" -> new DTOs.JwtClaims(ALICE, ALICE_DEVICE);
+                case "bob" -> new DTOs.JwtClaims(BOB, BOB_DEVICE);
+                case "bob-laptop" -> new DTOs.JwtClaims(BOB, BOB_LAPTOP);
+                default -> throw new IllegalArgumentException("bad token");
+            };
+            return new AuthChannelInterceptor(verifier, new PrincipalFactory(), deviceSessions);
+        }
+
+        @Bean
+        MessageService messageService() {
+            return Mockito.mock(MessageService.class);
+        }
+
+        @Bean
+        InboxStreamService inboxStreamService() {
+            return Mockito.mock(InboxStreamService.class);
+        }
+    }
+
+    @BeforeAll
+    static void startNodes() {
+        nodeA = start();
+        nodeB = start();
+    }
+
+    @AfterAll
+    static void stopNodes() {
+        if (nodeB != null) nodeB.close();
+        if (nodeA != null) nodeA.close();
+    }
+
+    private static ConfigurableApplicationContext start() {
+        return new SpringApplicationBuilder(Node.class)
+                .profiles("test")
+                .run("--server.port=0",
+                        "--chat.cluster.bus=local",
+                        "--chat.relay.settle=PT0S"); // Routen liegen über den LocalClusterBus sofort vor
+    }
+
+    @BeforeEach
+    void init() {
+        stomp = new WebSocketStompClient(new StandardWebSocketClient());
+        var converter = new MappingJackson2MessageConverter();
+        converter.getObjectMapper().registerModule(new JavaTimeModule()); // Instant in den DTOs
+        stomp.setMessageConverter(converter);
+        stomp.setTaskScheduler(new ConcurrentTaskScheduler());
+        stomp.setDefaultHeartbeat(new long[]{10000, 10000});
+    }
+
+    @AfterEach
+    void shutdown() {
+        if (stomp != null) stomp.stop();
+    }
+
+    private StompSession connect(ConfigurableApplicationContext node, String token) throws Exception {
+        String url = "ws://localhost:" + node.getEnvironment().getProperty("local.server.port") + "/ws";
+        StompHeaders connectHeaders = new StompHeaders();
+        connectHeaders.add("Authorization", "Bearer " + token);
+        StompSession session = stomp.connectAsync(url, (WebSocketHttpHeaders) null, connectHeaders,
+                        new StompSessionHandlerAdapter() {})
+                .get(5, TimeUnit.SECONDS);
+        assertThat(session.isConnected()).as("connected").isTrue();
+        return session;
+    }
+
+    private <T> BlockingQueue<T> subscribeQuiet(StompSession session, String destination, Class<T> type)
+            throws InterruptedException {
+        BlockingQueue<T> frames = new LinkedBlockingQueue<>();
+        session.subscribe(destination, new StompFrameHandler() {
+            @Override public Type getPayloadType(StompHeaders headers) {
+                return type;
+            }
+            @Override public void handleFrame(StompHeaders headers, Object payload) {
+                frames.offer(type.cast(payload));
+            }
+        });
+        // kurze Wartezeit: Subscription serverseitig registriert und Route an die andere Instanz angekündigt
+        TimeUnit.MILLISECONDS.sleep(300);
+        return frames;
+    }
+
+    private static double counter(ConfigurableApplicationContext node, String name) {
+        return node.getBean(MeterRegistry.class).counter(name).count();
+    }
+
+    private static DTOs.DeliveryDTO delivery(long seq) {
+        return new DTOs.DeliveryDTO(UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID(), "text/plain",
+                "{}", "Y2lwaGVy", Instant.parse("2025-11-06T00:00:00Z"), seq);
+    }
+
+    @Test
+    void userDestination_reachesDeviceOnOtherNode() throws Exception {
+        StompSession bob = connect(nodeB, "bob");
+        var deliveries = subscribeQuiet(bob, "/user" + DeliveryPushService.destination(BOB_DEVICE), DTOs.DeliveryDTO.class);
+
+        // wie DeliveryPushService nach dem Commit – hier auf der Instanz ohne Bobs Session
+        var sent = delivery(1);
+        nodeA.getBean(SimpMessagingTemplate.class)
+                .convertAndSendToUser(BOB.toString(), DeliveryPushService.destination(BOB_DEVICE), sent);
+
+        var received = deliveries.poll(5, TimeUnit.SECONDS);
+        assertThat(received).isEqualTo(sent);
+        assertThat(deliveries.poll(300, TimeUnit.MILLISECONDS)).as("genau einmal zugestellt").isNull();
+    }
+
+    @Test
+    void conversationTopic_reachesSubscriberOnOtherNode() throws Exception {
+        UUID convId = UUID.randomUUID();
+        UUID msgId = UUID.randomUUID();
+        Mockito.when(nodeA.getBean(MessageService.class).markRead(eq(ALICE_DEVICE), eq(msgId))).thenReturn(Optional.of(
+                new DTOs.ReadEvent(convId, msgId, Instant.now(), ALICE_DEVICE, Instant.now())));
+
+        StompSession bob = connect(nodeB, "bob");
+        var events = subscribeQuiet(bob, ClusterStompRelay.TOPIC_PREFIX + convId, DTOs.ReadEvent.class);
+
+        StompSession alice = connect(nodeA, "alice");
+        alice.send("/app/messages.read", new DTOs.ReadWsMessage(convId, msgId));
+
+        DTOs.ReadEvent ev = events.poll(5, TimeUnit.SECONDS);
+        assertThat(ev).isNotNull();
+        assertThat(ev.upToMessageId()).isEqualTo(msgId);
+        assertThat(ev.byDeviceId()).isEqualTo(ALICE_DEVICE);
+    }
+
+    @Test
+    void framesGoOnlyToNodesWithMatchingSession() throws Exception {
+        StompSession alice = connect(nodeA, "alice");
+        var deliveries = subscribeQuiet(alice, "/user" + DeliveryPushService.destination(ALICE_DEVICE), DTOs.DeliveryDTO.class);
+        double forwardedBefore = counter(nodeA, "chat.relay.frames.out");
+
+        var template = nodeA.getBean(SimpMessagingTemplate.class);
+        template.convertAndSendToUser(ALICE.toString(), DeliveryPushService.destination(ALICE_DEVICE), delivery(1));
+        template.convertAndSendToUser(UUID.randomUUID().toString(), "/queue/device", delivery(2)); // nirgends verbunden
+        template.convertAndSend(ClusterStompRelay.TOPIC_PREFIX + UUID.randomUUID(), delivery(3)); // nirgends abonniert
+
+        assertThat(deliveries.poll(5, TimeUnit.SECONDS)).isNotNull();
+        TimeUnit.MILLISECONDS.sleep(200);
+        assertThat(counter(nodeA, "chat.relay.frames.out")).isEqualTo(forwardedBefore);
+    }
+
+    @Test
+    void burst_isRelayedInBatches() throws Exception {
+        StompSession bob = connect(nodeB, "bob");
+        var deliveries = subscribeQuiet(bob, "/user" + DeliveryPushService.destination(BOB_DEVICE), DTOs.DeliveryDTO.class);
+        double batchesBefore = counter(nodeA, "chat.relay.batches.out");
+
+        var template = nodeA.getBean(SimpMessagingTemplate.class);
+        for (long seq = 1; seq <= 50; seq++) {
+            template.convertAndSendToUser(BOB.toString(), DeliveryPushService.destination(BOB_DEVICE), delivery(seq));
+        }
+
+        Set<Long> seqs = new HashSet<>();
+        for (int i = 0; i < 50; i++) {
+            var d = deliveries.poll(5, TimeUnit.SECONDS);
+            assertThat(d).isNotNull();
+            seqs.add(d.seq());
+        }
+        assertThat(seqs).hasSize(50);
+        assertThat(counter(nodeA, "chat.relay.batches.out") - batchesBefore).isLessThan(50);
+    }
+
+    @Test
+    void deviceDestination_reachesOnlyThatDevice_acrossNodes() throws Exception {
+        StompSession phone = connect(nodeB, "bob");
+        StompSession laptop = connect(nodeA, "bob-laptop");
+        // beide Geräte abonnieren dieselbe User-Queue; adressiert wird das Telefon auf der anderen Instanz
+        var phoneAcks = subscribeQuiet(phone, "/user/queue/device", DTOs.SendAckEvent.class);
+        var laptopAcks = subscribeQuiet(laptop, "/user/queue/device", DTOs.SendAckEvent.class);
+        assertThat(nodeA.getBean(DeviceSessionRegistry.class).isOnline(BOB_DEVICE)).isTrue();
+        assertThat(nodeA.getBean(DeviceSessionRegistry.class).isLocal(BOB_DEVICE)).isFalse();
+
+        var ack = new DTOs.SendAckEvent(UUID.randomUUID(), UUID.randomUUID(), Instant.parse("2025-11-06T00:00:00Z"), 2);
+        nodeA.getBean(SimpMessagingTemplate.class)
+                .convertAndSend(DeviceSessionRegistry.destination(BOB_DEVICE, "/queue/device"), ack);
+
+        assertThat(phoneAcks.poll(5, TimeUnit.SECONDS)).isEqualTo(ack);
+        assertThat(laptopAcks.poll(300, TimeUnit.MILLISECONDS)).isNull();
+    }
+
+    private static DeliveriesCommittedEvent committedFor(UUID deviceId, UUID userId, long seq) {
+        return new DeliveriesCommittedEvent(UUID.randomUUID(), UUID.randomUUID(), "text/plain", "{}", "Y2lwaGVy", Map.of(),
+                Instant.parse("2025-11-06T00:00:00Z"),
+                List.of(new DeliveryFanout.Recipient(UUID.randomUUID(), deviceId, userId, seq)));
+    }
+
+    @Test
+    void livePush_goesIntoInboxStreamOnOtherNode() throws Exception {
+        var streamsOnB = nodeB.getBean(InboxStreamService.class);
+        when(streamsOnB.offerLive(eq(BOB_DEVICE), any())).thenReturn(true); // Bobs Stream ist auf Instanz B offen
+        try {
+            StompSession bob = connect(nodeB, "bob");
+            var direct = subscribeQuiet(bob, "/user" + DeliveryPushService.destination(BOB_DEVICE), DTOs.DeliveryDTO.class);
+
+            var event = committedFor(BOB_DEVICE, BOB, 4);
+            nodeA.getBean(DeliveryPushService.class).onCommitted(event);
+
+            var r = event.recipients().getFirst();
+            verify(streamsOnB, timeout(5000)).offerLive(BOB_DEVICE, new DTOs.DeliveryDTO(r.deliveryId(),
+                    event.messageId(), event.conversationId(), "text/plain", "{}", "Y2lwaGVy", event.createdAt(), 4L));
+            assertThat(direct.poll(300, TimeUnit.MILLISECONDS)).as("kein Direkt-Push am Stream vorbei").isNull();
+        } finally {
+            reset(streamsOnB);
+        }
+    }
+
+    @Test
+    void commit_wakesLongPollParkedOnOtherNode() throws Exception {
+        var inboxOnB = nodeB.getBean(MessageService.class);
+        var empty = new DTOs.InboxResponse(List.of(), "0");
+        var page = new DTOs.InboxResponse(List.of(delivery(1)), "1");
+        when(inboxOnB.fetchInboxPage(BOB_LAPTOP, "0", 50)).thenReturn(empty, page);
+        try {
+            var result = nodeB.getBean(InboxLongPoll.class).await(BOB_LAPTOP, "0", 50, Duration.ofSeconds(20));
+            BlockingQueue<Object> answers = new LinkedBlockingQueue<>();
+            result.setResultHandler(answers::offer);
+
+            nodeA.getBean(InboxLongPoll.class).onCommitted(committedFor(BOB_LAPTOP, BOB, 1));
+
+            assertThat(answers.poll(5, TimeUnit.SECONDS)).as("geweckt statt Timeout").isEqualTo(page);
+        } finally {
+            reset(inboxOnB);
+        }
+    }
+
+    @Test
+    void presence_followsConnectAndDisconnect() throws Exception {
+        var presenceOnA = nodeA.getBean(DeviceSessionRegistry.class);
+        StompSession laptop = connect(nodeB, "bob-laptop");
+        TimeUnit.MILLISECONDS.sleep(300); // Route an Instanz A angekündigt
+        assertThat(presenceOnA.isOnline(BOB_LAPTOP)).isTrue();
+
+        laptop.disconnect();
+        TimeUnit.MILLISECONDS.sleep(500);
+        assertThat(presenceOnA.isOnline(BOB_LAPTOP)).isFalse();
+    }
+}
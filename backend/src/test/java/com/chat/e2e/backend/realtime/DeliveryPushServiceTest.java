@@ -0,0 +1,91 @@
+package com.chat.e2e.backend.realtime;
+
+import com.chat.e2e.backend.api.dto.DTOs;
+import com.chat.e2e.backend.chat.DeliveriesCommittedEvent;
+import com.chat.e2e.backend.chat.DeliveryFanout;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.MessagingException;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class DeliveryPushServiceTest {
+
+    private final SimpMessagingTemplate broker = mock(SimpMessagingTemplate.class);
+    private final InboxStreamService streams = mock(InboxStreamService.class);
+    private final DeviceSessionRegistry sessions = mock(DeviceSessionRegistry.class);
+    private final DeliveryPushService push = new DeliveryPushService(broker, streams, sessions, new SimpleMeterRegistry());
+
+    @BeforeEach
+    void allOnline() {
+        when(sessions.isOnline(any())).thenReturn(true);
+    }
+
+    @Test
+    void onCommitted_pushesDeliveryDtoToEachRecipientDeviceQueue() {
+        var msgId = UUID.randomUUID();
+        var convId = UUID.randomUUID();
+        var bob = UUID.randomUUID();
+        var bobPhone = UUID.randomUUID();
+        var carol = UUID.randomUUID();
+        var carolLaptop = UUID.randomUUID();
+        var deliveryBob = UUID.randomUUID();
+        var at = Instant.now();
+
+        push.onCommitted(new DeliveriesCommittedEvent(msgId, convId, "text/plain", "{\"type\":\"text\"}", "c2hhcmVk",
+                Map.of(carolLaptop, "c2VhbGVk"), at, List.of(
+                new DeliveryFanout.Recipient(deliveryBob, bobPhone, bob, 7L),
+                new DeliveryFanout.Recipient(null, carolLaptop, carol, null, 3L))));
+
+        verify(broker).convertAndSend("/device/" + bobPhone + "/queue/deliveries." + bobPhone,
+                new DTOs.DeliveryDTO(deliveryBob, msgId, convId, "text/plain", "{\"type\":\"text\"}", "c2hhcmVk", at, 7L));
+        verify(broker).convertAndSend("/device/" + carolLaptop + "/queue/deliveries." + carolLaptop,
+                new DTOs.DeliveryDTO(null, msgId, convId, "text/plain", "{\"type\":\"text\"}", "c2VhbGVk", at, null, 3L));
+    }
+
+    @Test
+    void onCommitted_failedPushDoesNotStopOthers() {
+        var a = new DeliveryFanout.Recipient(UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID(), null);
+        var b = new DeliveryFanout.Recipient(UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID(), null);
+        doThrow(new MessagingException("closed")).when(broker)
+                .convertAndSend(eq("/device/" + a.deviceId() + "/queue/deliveries." + a.deviceId()), any(Object.class));
+
+        push.onCommitted(new DeliveriesCommittedEvent(UUID.randomUUID(), UUID.randomUUID(), "text/plain", "{}", "eA==",
+                Map.of(), Instant.now(), List.of(a, b)));
+
+        verify(broker).convertAndSend(eq("/device/" + b.deviceId() + "/queue/deliveries." + b.deviceId()), any(Object.class));
+    }
+
+    @Test
+    void onCommitted_deviceWithOpenStream_isServedByStream() {
+        var r = new DeliveryFanout.Recipient(UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID(), null);
+        when(streams.offerLive(eq(r.deviceId()), any())).thenReturn(true);
+
+        push.onCommitted(new DeliveriesCommittedEvent(UUID.randomUUID(), UUID.randomUUID(), "text/plain", "{}", "eA==",
+                Map.of(), Instant.now(), List.of(r)));
+
+        verifyNoInteractions(broker);
+    }
+
+    @Test
+    void onCommitted_offlineDevice_isSkipped() {
+        var online = new DeliveryFanout.Recipient(UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID(), null);
+        var offline = new DeliveryFanout.Recipient(UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID(), null);
+        when(sessions.isOnline(offline.deviceId())).thenReturn(false);
+
+        push.onCommitted(new DeliveriesCommittedEvent(UUID.randomUUID(), UUID.randomUUID(), "text/plain", "{}", "eA==",
+                Map.of(), Instant.now(), List.of(online, offline)));
+
+        verify(broker).convertAndSend(eq("/device/" + online.deviceId() + "/queue/deliveries." + online.deviceId()), any(Object.class));
+        verify(streams, never()).offerLive(eq(offline.deviceId()), any());
+        verifyNoMoreInteractions(broker);
+    }
+}
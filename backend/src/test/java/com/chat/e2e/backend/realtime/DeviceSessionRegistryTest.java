@@ -0,0 +1,84 @@
+package com.chat.e2e.backend.realtime;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.*;
+
+class DeviceSessionRegistryTest {
+
+    private final ClusterStompRelay relay = mock(ClusterStompRelay.class);
+    private final DeviceSessionRegistry registry = new DeviceSessionRegistry(relay, new SimpleMeterRegistry());
+    private final UUID user = UUID.randomUUID();
+    private final UUID phone = UUID.randomUUID();
+
+    private static SessionDisconnectEvent disconnect(String sessionId) {
+        var msg = MessageBuilder.withPayload(new byte[0]).build();
+        return new SessionDisconnectEvent(new Object(), msg, sessionId, CloseStatus.NORMAL);
+    }
+
+    private static Message<byte[]> message(String destination) {
+        var accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        accessor.setDestination(destination);
+        return MessageBuilder.createMessage("{}".getBytes(), accessor.getMessageHeaders());
+    }
+
+    @Test
+    void newestSession_winsUntilItDisconnects() {
+        registry.register("s1", new UserDevicePrincipal(user, phone));
+        registry.register("s2", new UserDevicePrincipal(user, phone)); // Reconnect, alte Session noch offen
+
+        assertThat(registry.session(phone)).contains("s2");
+        registry.onDisconnect(disconnect("s2"));
+        assertThat(registry.session(phone)).contains("s1");
+        registry.onDisconnect(disconnect("s1"));
+        registry.onDisconnect(disconnect("s1"));
+        assertThat(registry.session(phone)).isEmpty();
+        assertThat(registry.isLocal(phone)).isFalse();
+    }
+
+    @Test
+    void isOnline_localOrOnOtherInstance() {
+        var laptop = UUID.randomUUID();
+        registry.register("s1", new UserDevicePrincipal(user, phone));
+        when(relay.hostsDeviceElsewhere(laptop)).thenReturn(true);
+
+        assertThat(registry.isOnline(phone)).isTrue();
+        assertThat(registry.isOnline(laptop)).isTrue();
+        assertThat(registry.isOnline(UUID.randomUUID())).isFalse();
+        verify(relay, never()).hostsDeviceElsewhere(phone);
+    }
+
+    @Test
+    void deviceDestination_isRewrittenToTheDevicesSession() {
+        registry.register("s1", new UserDevicePrincipal(user, phone));
+
+        var out = registry.preSend(message(DeviceSessionRegistry.destination(phone, "/queue/device")), mock(MessageChannel.class));
+
+        assertThat(SimpMessageHeaderAccessor.getDestination(out.getHeaders())).isEqualTo("/user/s1/queue/device");
+        assertThat(SimpMessageHeaderAccessor.getSessionId(out.getHeaders())).isEqualTo("s1");
+    }
+
+    @Test
+    void otherMessages_passUnchanged() {
+        var channel = mock(MessageChannel.class);
+        var offline = message(DeviceSessionRegistry.destination(UUID.randomUUID(), "/queue/device"));
+        var topic = message("/topic/conversation." + UUID.randomUUID());
+        var subscribe = MessageBuilder.createMessage(new byte[0],
+                SimpMessageHeaderAccessor.create(SimpMessageType.SUBSCRIBE).getMessageHeaders());
+
+        assertThat(registry.preSend(offline, channel)).isSameAs(offline); // ohne Abonnent: verworfen, ggf. weitergereicht
+        assertThat(registry.preSend(topic, channel)).isSameAs(topic);
+        assertThat(registry.preSend(subscribe, channel)).isSameAs(subscribe);
+    }
+}
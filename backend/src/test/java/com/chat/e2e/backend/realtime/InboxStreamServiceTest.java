@@ -0,0 +1,182 @@
+package com.chat.e2e.backend.realtime;
+
+import com.chat.e2e.backend.api.dto.DTOs;
+import com.chat.e2e.backend.chat.InboxCursor;
+import com.chat.e2e.backend.chat.InboxEntry;
+import com.chat.e2e.backend.chat.MessageService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class InboxStreamServiceTest {
+
+    private final MessageService messageService = mock(MessageService.class);
+    private final SimpMessagingTemplate broker = mock(SimpMessagingTemplate.class);
+    private final InboxStreamService streams = new InboxStreamService(messageService, broker,
+            new InboxStreamProperties(100, 1000, 10, 1), new SimpleMeterRegistry());
+
+    private final UUID user = UUID.randomUUID();
+    private final UUID device = UUID.randomUUID();
+    private final Instant t0 = Instant.parse("2025-11-06T00:00:00Z");
+
+    @AfterEach
+    void tearDown() { streams.shutdown(); }
+
+    private InboxEntry delivery(int i) {
+        return new InboxEntry(UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID(), "text/plain", "{}", new byte[]{'x'},
+                t0.plusSeconds(i), (long) i, null);
+    }
+
+    private InboxEntry logEntry(UUID conversation, long logSeq) {
+        return new InboxEntry(null, UUID.randomUUID(), conversation, "text/plain", "{}", new byte[]{'x'},
+                t0.plusSeconds(logSeq), null, logSeq);
+    }
+
+    private InboxCursor at(long seq) {
+        return new InboxCursor(seq, Map.of());
+    }
+
+    private List<DTOs.InboxStreamFrame> frames(int expected) {
+        var captor = ArgumentCaptor.forClass(Object.class);
+        verify(broker, timeout(2000).times(expected))
+                .convertAndSend(eq("/device/" + device + "/queue/inbox." + device), captor.capture());
+        return captor.getAllValues().stream().map(DTOs.InboxStreamFrame.class::cast).toList();
+    }
+
+    @Test
+    void open_streamsBacklog_untilCaughtUp() {
+        var d1 = delivery(1);
+        var d2 = delivery(2);
+        when(messageService.resolveCursor(device, "0")).thenReturn(at(0));
+        when(messageService.fetchInboxEntries(device, at(0), 5)).thenReturn(List.of(d1, d2));
+
+        streams.open("s1", user, device, "0", 5);
+
+        var frames = frames(3);
+        assertThat(frames).extracting(DTOs.InboxStreamFrame::delivery).containsExactly(d1.toDto(), d2.toDto(), null);
+        assertThat(frames.get(2).caughtUp()).isTrue();
+        assertThat(frames.get(2).cursor()).isEqualTo("2");
+    }
+
+    @Test
+    void drainPausesWithoutCredits_andResumesAfterGrant() {
+        var d1 = delivery(1);
+        var d2 = delivery(2);
+        var d3 = delivery(3);
+        when(messageService.resolveCursor(device, null)).thenReturn(InboxCursor.START);
+        when(messageService.fetchInboxEntries(device, InboxCursor.START, 2)).thenReturn(List.of(d1, d2));
+        when(messageService.fetchInboxEntries(device, at(2), 10)).thenReturn(List.of(d3));
+
+        streams.open("s1", user, device, null, 2);
+        frames(2);
+
+        streams.grant("s1", 10);
+
+        var frames = frames(4);
+        assertThat(frames).extracting(DTOs.InboxStreamFrame::delivery).containsExactly(d1.toDto(), d2.toDto(), d3.toDto(), null);
+    }
+
+    @Test
+    void liveDeliveriesDuringDrain_followBacklogWithoutDuplicates() {
+        var drained = delivery(1);
+        var late = delivery(2);
+        // beide Nachrichten committen, während der Drain läuft; nur die erste erwischt die Abfrage
+        when(messageService.resolveCursor(device, null)).thenReturn(InboxCursor.START);
+        when(messageService.fetchInboxEntries(device, InboxCursor.START, 5)).thenAnswer(inv -> {
+            streams.offerLive(device, drained.toDto());
+            streams.offerLive(device, late.toDto());
+            return List.of(drained);
+        });
+
+        streams.open("s1", user, device, null, 5);
+
+        var frames = frames(3);
+        assertThat(frames).extracting(DTOs.InboxStreamFrame::delivery).containsExactly(drained.toDto(), null, late.toDto());
+    }
+
+    @Test
+    void liveDeliveriesOutOfOrder_areReleasedContiguouslyInSeqOrder() {
+        var d1 = delivery(1);
+        var d2 = delivery(2);
+        var d3 = delivery(3);
+        when(messageService.resolveCursor(device, null)).thenReturn(InboxCursor.START);
+        // beim Öffnen ist die Inbox leer; beim Nachlesen der Lücke sind d1 und d2 committed
+        when(messageService.fetchInboxEntries(device, InboxCursor.START, 5)).thenReturn(List.of(), List.of(d1, d2));
+        streams.open("s1", user, device, null, 5);
+        frames(1);
+
+        // Push-Listener von d2 überholt den von d1
+        streams.offerLive(device, d2.toDto());
+        streams.offerLive(device, d1.toDto());
+        frames(4);
+        streams.offerLive(device, d3.toDto());
+
+        var frames = frames(5);
+        assertThat(frames).extracting(DTOs.InboxStreamFrame::delivery)
+                .containsExactly(null, d1.toDto(), d2.toDto(), null, d3.toDto());
+        assertThat(frames).extracting(DTOs.InboxStreamFrame::cursor).containsExactly("0", "1", "2", "2", "3");
+    }
+
+    @Test
+    void liveLogEntry_advancesCursor_andIsNotResentAfterReconnect() {
+        var conv = UUID.randomUUID();
+        var l5 = logEntry(conv, 5);
+        when(messageService.resolveCursor(eq(device), anyString())).thenAnswer(inv -> InboxCursor.decode(inv.getArgument(1)));
+        when(messageService.fetchInboxEntries(eq(device), any(InboxCursor.class), anyInt())).thenReturn(List.of());
+        streams.open("s1", user, device, "0." + conv + "~4", 5);
+        frames(1);
+
+        streams.offerLive(device, l5.toDto());
+        var live = frames(2).get(1);
+        assertThat(live.delivery()).isEqualTo(l5.toDto());
+        assertThat(live.cursor()).isEqualTo("0." + conv + "~5");
+
+        // Reconnect mit dem Cursor des Frames: die Inbox liest hinter dem live zugestellten Log-Eintrag weiter
+        streams.open("s2", user, device, live.cursor(), 5);
+        frames(3);
+        verify(messageService).fetchInboxEntries(device, new InboxCursor(0, Map.of(conv, 5L)), 5);
+    }
+
+    @Test
+    void liveLogEntriesWithGap_areRereadFromInbox() {
+        var conv = UUID.randomUUID();
+        var l5 = logEntry(conv, 5);
+        var l6 = logEntry(conv, 6);
+        var from = new InboxCursor(0, Map.of(conv, 4L));
+        when(messageService.resolveCursor(device, from.encode())).thenReturn(from);
+        when(messageService.fetchInboxEntries(device, from, 5)).thenReturn(List.of(), List.of(l5, l6));
+        streams.open("s1", user, device, from.encode(), 5);
+        frames(1);
+
+        // Push-Listener von l6 überholt den von l5
+        streams.offerLive(device, l6.toDto());
+        streams.offerLive(device, l5.toDto());
+
+        var frames = frames(4);
+        assertThat(frames).extracting(DTOs.InboxStreamFrame::delivery).containsExactly(null, l5.toDto(), l6.toDto(), null);
+        assertThat(frames.get(3).cursor()).isEqualTo("0." + conv + "~6");
+    }
+
+    @Test
+    void closedStream_releasesLiveDeliveries() {
+        when(messageService.resolveCursor(device, null)).thenReturn(InboxCursor.START);
+        when(messageService.fetchInboxEntries(eq(device), any(InboxCursor.class), anyInt())).thenReturn(List.of());
+        streams.open("s1", user, device, null, 5);
+        frames(1);
+
+        streams.close("s1");
+
+        assertThat(streams.offerLive(device, delivery(1).toDto())).isFalse();
+    }
+}
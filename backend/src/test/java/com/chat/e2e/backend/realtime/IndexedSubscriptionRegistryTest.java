@@ -0,0 +1,126 @@
+package com.chat.e2e.backend.realtime;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.broker.DefaultSubscriptionRegistry;
+import org.springframework.messaging.simp.broker.SubscriptionRegistry;
+import org.springframework.messaging.support.MessageBuilder;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class IndexedSubscriptionRegistryTest {
+
+    private final IndexedSubscriptionRegistry registry = new IndexedSubscriptionRegistry();
+
+    static Message<byte[]> subscribe(String sessionId, String subscriptionId, String destination) {
+        var accessor = SimpMessageHeaderAccessor.create(SimpMessageType.SUBSCRIBE);
+        accessor.setSessionId(sessionId);
+        accessor.setSubscriptionId(subscriptionId);
+        accessor.setDestination(destination);
+        return MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders());
+    }
+
+    private static Message<byte[]> unsubscribe(String sessionId, String subscriptionId) {
+        var accessor = SimpMessageHeaderAccessor.create(SimpMessageType.UNSUBSCRIBE);
+        accessor.setSessionId(sessionId);
+        accessor.setSubscriptionId(subscriptionId);
+        return MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders());
+    }
+
+    static Message<byte[]> publish(String destination) {
+        var accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        accessor.setDestination(destination);
+        return MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders());
+    }
+
+    @Test
+    void exactDestination_findsAllSubscribersOfThatDestinationOnly() {
+        registry.registerSubscription(subscribe("s1", "sub-0", "/topic/conversation.a"));
+        registry.registerSubscription(subscribe("s1", "sub-1", "/topic/conversation.a"));
+        registry.registerSubscription(subscribe("s2", "sub-0", "/topic/conversation.a"));
+        registry.registerSubscription(subscribe("s3", "sub-0", "/topic/conversation.b"));
+
+        assertThat(registry.findSubscriptions(publish("/topic/conversation.a")))
+                .containsExactlyInAnyOrderEntriesOf(Map.of("s1", List.of("sub-0", "sub-1"), "s2", List.of("sub-0")));
+        assertThat(registry.findSubscriptions(publish("/topic/conversation.c"))).isEmpty();
+    }
+
+    @Test
+    void unsubscribeAndDisconnect_removeSubscriptionsAndEmptyDestinations() {
+        registry.registerSubscription(subscribe("s1", "sub-0", "/topic/conversation.a"));
+        registry.registerSubscription(subscribe("s1", "sub-1", "/topic/conversation.b"));
+        registry.registerSubscription(subscribe("s2", "sub-0", "/topic/conversation.a"));
+
+        registry.unregisterSubscription(unsubscribe("s1", "sub-0"));
+        assertThat(registry.findSubscriptions(publish("/topic/conversation.a"))).containsOnlyKeys("s2");
+
+        registry.unregisterAllSubscriptions("s1");
+        registry.unregisterAllSubscriptions("s2");
+        registry.unregisterAllSubscriptions("s2");
+        assertThat(registry.findSubscriptions(publish("/topic/conversation.a"))).isEmpty();
+        assertThat(registry.destinations()).isZero();
+    }
+
+    @Test
+    void resubscribeWithSameId_keepsFirstDestination() {
+        registry.registerSubscription(subscribe("s1", "sub-0", "/topic/conversation.a"));
+        registry.registerSubscription(subscribe("s1", "sub-0", "/topic/conversation.b"));
+
+        assertThat(registry.findSubscriptions(publish("/topic/conversation.a"))).containsOnlyKeys("s1");
+        assertThat(registry.findSubscriptions(publish("/topic/conversation.b"))).isEmpty();
+    }
+
+    @Test
+    void patternSubscription_matchesAlongsideExactOnes() {
+        registry.registerSubscription(subscribe("s1", "sub-0", "/topic/conversation.*"));
+        registry.registerSubscription(subscribe("s2", "sub-0", "/topic/conversation.a"));
+
+        assertThat(registry.findSubscriptions(publish("/topic/conversation.a")))
+                .containsExactlyInAnyOrderEntriesOf(Map.of("s1", List.of("sub-0"), "s2", List.of("sub-0")));
+        registry.unregisterAllSubscriptions("s1");
+        assertThat(registry.findSubscriptions(publish("/topic/conversation.b"))).isEmpty();
+    }
+
+    // Subscription-IDs eindeutig pro Session wie bei STOMP-Clients (bei doppelten IDs ist die Referenz inkonsistent)
+    @Test
+    void randomOperations_matchDefaultSubscriptionRegistry() {
+        SubscriptionRegistry reference = new DefaultSubscriptionRegistry();
+        Set<String> active = new HashSet<>();
+        var random = new Random(42);
+        for (int i = 0; i < 5000; i++) {
+            var session = "s" + random.nextInt(50);
+            int conversation = random.nextInt(20);
+            var subscription = "sub-" + conversation;
+            switch (random.nextInt(10)) {
+                case 0 -> {
+                    registry.unregisterAllSubscriptions(session);
+                    reference.unregisterAllSubscriptions(session);
+                    active.removeIf(key -> key.startsWith(session + "/"));
+                }
+                case 1, 2 -> {
+                    registry.unregisterSubscription(unsubscribe(session, subscription));
+                    reference.unregisterSubscription(unsubscribe(session, subscription));
+                    active.remove(session + "/" + subscription);
+                }
+                default -> {
+                    if (!active.add(session + "/" + subscription)) continue;
+                    var msg = subscribe(session, subscription, "/topic/conversation." + conversation);
+                    registry.registerSubscription(msg);
+                    reference.registerSubscription(msg);
+                }
+            }
+            var destination = publish("/topic/conversation." + random.nextInt(20));
+            assertThat(registry.findSubscriptions(destination))
+                    .as("step %d", i)
+                    .containsExactlyInAnyOrderEntriesOf(reference.findSubscriptions(destination));
+        }
+    }
+}
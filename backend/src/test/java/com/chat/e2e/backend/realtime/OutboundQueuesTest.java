@@ -0,0 +1,179 @@
+package com.chat.e2e.backend.realtime;
+
+import com.chat.e2e.backend.realtime.OutboundProperties.SlowConsumerPolicy;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.*;
+
+class OutboundQueuesTest {
+
+    private final MeterRegistry meters = new SimpleMeterRegistry();
+    private final CountDownLatch release = new CountDownLatch(1);
+    private OutboundQueues queues;
+
+    @AfterEach
+    void stop() {
+        release.countDown();
+        if (queues != null) queues.shutdown();
+    }
+
+    private OutboundQueues queues(SlowConsumerPolicy policy, int limitBytes, Duration sendTimeLimit) {
+        queues = new OutboundQueues(new OutboundProperties(DataSize.ofBytes(limitBytes), sendTimeLimit, policy, 2, 1), meters);
+        return queues;
+    }
+
+    /** Session, deren erster Schreibvorgang bis release hängt (Leser liest nicht); alle Frames landen in sent. */
+    private WebSocketSession stalled(List<String> sent, CountDownLatch inFlight) throws Exception {
+        var session = mock(WebSocketSession.class);
+        when(session.getId()).thenReturn(UUID.randomUUID().toString());
+        doAnswer(inv -> {
+            sent.add(((TextMessage) inv.getArgument(0)).getPayload());
+            inFlight.countDown();
+            release.await();
+            return null;
+        }).when(session).sendMessage(any());
+        return session;
+    }
+
+    static TextMessage stomp(String destination, String coalesceKey, String body) {
+        var headers = "MESSAGE\ndestination:" + destination + "\n"
+                + (coalesceKey == null ? "" : OutboundQueues.COALESCE_HEADER + ":" + coalesceKey + "\n");
+        return new TextMessage(headers + "\n" + body + "\0");
+    }
+
+    static String body(String frame) {
+        return frame.substring(frame.indexOf("\n\n") + 2, frame.length() - 1);
+    }
+
+    private double counter(String name) {
+        return meters.get(name).counter().count();
+    }
+
+    @Test
+    void coalesce_newerFrameReplacesWaitingOneWithSameKey() throws Exception {
+        List<String> sent = new CopyOnWriteArrayList<>();
+        var inFlight = new CountDownLatch(1);
+        var raw = stalled(sent, inFlight);
+        var session = queues(SlowConsumerPolicy.COALESCE, 1 << 20, Duration.ofSeconds(10)).wrap(raw);
+        var topic = "/topic/conversation." + UUID.randomUUID();
+
+        session.sendMessage(stomp(topic, null, "first"));
+        assertThat(inFlight.await(5, TimeUnit.SECONDS)).isTrue();
+        session.sendMessage(stomp(topic, "read.a", "a1"));
+        session.sendMessage(stomp(topic, "read.b", "b1"));
+        session.sendMessage(stomp(topic, "read.a", "a2"));
+        release.countDown();
+
+        verify(raw, timeout(5000).times(3)).sendMessage(any());
+        assertThat(sent).extracting(OutboundQueuesTest::body).containsExactly("first", "b1", "a2");
+        assertThat(counter("chat.ws.outbound.coalesced")).isEqualTo(1);
+    }
+
+    @Test
+    void drop_shedsOldestTopicFramesButKeepsDeliveries() throws Exception {
+        List<String> sent = new CopyOnWriteArrayList<>();
+        var inFlight = new CountDownLatch(1);
+        var raw = stalled(sent, inFlight);
+        var frameSize = stomp("/topic/conversation.x", null, "0").getPayloadLength();
+        var delivery = stomp("/user/queue/deliveries.x", null, "delivery");
+        // Platz für den Frame im Versand, die Delivery und drei Topic-Frames
+        var queues = queues(SlowConsumerPolicy.DROP, 4 * frameSize + delivery.getPayloadLength(), Duration.ofSeconds(10));
+        var session = queues.wrap(raw);
+
+        session.sendMessage(stomp("/topic/conversation.x", null, "0"));
+        assertThat(inFlight.await(5, TimeUnit.SECONDS)).isTrue();
+        session.sendMessage(delivery);
+        for (int i = 1; i <= 9; i++) session.sendMessage(stomp("/topic/conversation.x", null, String.valueOf(i)));
+
+        assertThat(meters.get("chat.ws.outbound.queue.bytes.max").gauge().value())
+                .isLessThanOrEqualTo(4 * frameSize + delivery.getPayloadLength());
+        assertThat(counter("chat.ws.outbound.dropped")).isEqualTo(6);
+        release.countDown();
+
+        verify(raw, timeout(5000).times(5)).sendMessage(any());
+        assertThat(sent).extracting(OutboundQueuesTest::body).containsExactly("0", "delivery", "7", "8", "9");
+        verify(raw, never()).close(any());
+    }
+
+    @Test
+    void overflowWithoutDroppableFrames_disconnects() throws Exception {
+        List<String> sent = new CopyOnWriteArrayList<>();
+        var inFlight = new CountDownLatch(1);
+        var raw = stalled(sent, inFlight);
+        var session = queues(SlowConsumerPolicy.COALESCE, 200, Duration.ofSeconds(10)).wrap(raw);
+
+        session.sendMessage(stomp("/user/queue/inbox.x", null, "0"));
+        assertThat(inFlight.await(5, TimeUnit.SECONDS)).isTrue();
+        for (int i = 1; i <= 5; i++) session.sendMessage(stomp("/user/queue/inbox.x", null, "frame " + i));
+
+        verify(raw).close(CloseStatus.SESSION_NOT_RELIABLE);
+        assertThat(meters.get("chat.ws.outbound.disconnects").tag("reason", "buffer").counter().count()).isEqualTo(1);
+        release.countDown();
+        session.sendMessage(stomp("/user/queue/inbox.x", null, "late")); // nach dem Trennen ignoriert
+        verify(raw, timeout(5000).times(1)).sendMessage(any());
+        assertThat(sent).extracting(OutboundQueuesTest::body).containsExactly("0");
+    }
+
+    @Test
+    void hangingSend_isDisconnectedAfterSendTimeLimit() throws Exception {
+        var inFlight = new CountDownLatch(1);
+        var raw = stalled(new CopyOnWriteArrayList<>(), inFlight);
+        var queues = queues(SlowConsumerPolicy.DROP, 1 << 20, Duration.ofMillis(50));
+        var session = queues.wrap(raw);
+
+        session.sendMessage(stomp("/topic/conversation.x", null, "0"));
+        assertThat(inFlight.await(5, TimeUnit.SECONDS)).isTrue();
+        queues.checkSendTime();
+        verify(raw, never()).close(any()); // noch innerhalb des Limits
+
+        TimeUnit.MILLISECONDS.sleep(100);
+        queues.checkSendTime();
+        verify(raw).close(CloseStatus.SESSION_NOT_RELIABLE);
+        assertThat(meters.get("chat.ws.outbound.disconnects").tag("reason", "time").counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    void closedSession_isReleased() throws Exception {
+        var raw = mock(WebSocketSession.class);
+        when(raw.getId()).thenReturn("s1");
+        var queues = queues(SlowConsumerPolicy.COALESCE, 1 << 20, Duration.ofSeconds(10));
+        queues.wrap(raw);
+        assertThat(meters.get("chat.ws.outbound.sessions").gauge().value()).isEqualTo(1);
+
+        queues.release("s1");
+        assertThat(meters.get("chat.ws.outbound.sessions").gauge().value()).isZero();
+    }
+
+    @Test
+    void nonMessageFrames_passInOrder() throws Exception {
+        List<WebSocketMessage<?>> sent = new CopyOnWriteArrayList<>();
+        var raw = mock(WebSocketSession.class);
+        when(raw.getId()).thenReturn("s1");
+        doAnswer(inv -> sent.add(inv.getArgument(0))).when(raw).sendMessage(any());
+        var session = queues(SlowConsumerPolicy.DROP, 1 << 20, Duration.ofSeconds(10)).wrap(raw);
+
+        var connected = new TextMessage("CONNECTED\nversion:1.2\n\n\0");
+        var heartbeat = new TextMessage("\n");
+        session.sendMessage(connected);
+        session.sendMessage(heartbeat);
+
+        verify(raw, timeout(5000).times(2)).sendMessage(any());
+        assertThat(sent).containsExactly(connected, heartbeat);
+    }
+}
@@ -0,0 +1,141 @@
+package com.chat.e2e.backend.realtime;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class SignedJwtVerifierTest {
+
+    static final UUID USER = UUID.randomUUID();
+    static final UUID DEVICE = UUID.randomUUID();
+    static final byte[] SECRET = "0123456789abcdef0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    final KeyPair rsa = generate("RSA", 2048);
+    final KeyPair ec = generate("EC", 256);
+    final SimpleMeterRegistry meters = new SimpleMeterRegistry();
+
+    final SignedJwtVerifier verifier = new SignedJwtVerifier(new JwtProperties(Map.of(
+            "rsa", pem(rsa),
+            "ec", pem(ec),
+            "hmac", Base64.getEncoder().encodeToString(SECRET)), "https://id.example", Duration.ofSeconds(30), 100), meters);
+
+    @Test
+    void acceptsRsaEcAndHmacSignatures() {
+        for (var token : new String[]{
+                sign("RS256", "rsa", payload(3600), "SHA256withRSA", rsa.getPrivate()),
+                sign("ES256", "ec", payload(3600), "SHA256withECDSAinP1363Format", ec.getPrivate()),
+                hmac("HS256", "hmac", payload(3600), SECRET)}) {
+            var claims = verifier.verify(token);
+            assertThat(claims.userId()).isEqualTo(USER);
+            assertThat(claims.deviceId()).isEqualTo(DEVICE);
+        }
+    }
+
+    @Test
+    void repeatedConnect_isServedFromCache() {
+        var token = sign("RS256", "rsa", payload(3600), "SHA256withRSA", rsa.getPrivate());
+        verifier.verify(token);
+        verifier.verify(token);
+        verifier.verify(token);
+
+        assertThat(meters.get("cache.gets").tag("cache", "jwt").tag("result", "hit").functionCounter().count()).isEqualTo(2);
+        assertThat(meters.get("cache.gets").tag("cache", "jwt").tag("result", "miss").functionCounter().count()).isEqualTo(1);
+    }
+
+    @Test
+    void rejectsTamperedExpiredAndForeignTokens() {
+        var valid = sign("RS256", "rsa", payload(3600), "SHA256withRSA", rsa.getPrivate());
+        var parts = valid.split("\\.");
+        var otherUser = payload(3600).replace(USER.toString(), UUID.randomUUID().toString());
+        var tampered = parts[0] + "." + b64(otherUser) + "." + parts[2];
+
+        var expired = sign("RS256", "rsa", payload(-120), "SHA256withRSA", rsa.getPrivate());
+        var foreignIssuer = sign("RS256", "rsa", payload(3600).replace("id.example", "evil.example"),
+                "SHA256withRSA", rsa.getPrivate());
+        var unsigned = b64("{\"alg\":\"none\"}") + "." + b64(payload(3600)) + ".";
+        var unknownKid = sign("RS256", "gone", payload(3600), "SHA256withRSA", rsa.getPrivate());
+        // Algorithmus-Verwechslung: Public Key als HMAC-Secret
+        var confused = hmac("HS256", "rsa", payload(3600), rsa.getPublic().getEncoded());
+
+        for (var token : new String[]{tampered, expired, foreignIssuer, unsigned, unknownKid, confused, "garbage"}) {
+            assertThatThrownBy(() -> verifier.verify(token)).isInstanceOf(IllegalArgumentException.class)
+                    .hasMessage("Invalid token");
+        }
+        assertThat(meters.get("chat.auth.jwt.rejected").counter().count()).isEqualTo(7);
+    }
+
+    @Test
+    void parserSkipsUnknownClaimsAndRejectsWrongTypes() throws Exception {
+        var json = "{\"aud\":[\"a\",\"b\"],\"ctx\":{\"sub\":\"nested\"},\"sub\":\"u\",\"did\":\"d\",\"exp\":1.7E9}";
+        var payload = JwtClaimsParser.payload(json.getBytes(StandardCharsets.UTF_8));
+        assertThat(payload.sub()).isEqualTo("u");
+        assertThat(payload.exp()).isEqualTo(1_700_000_000L);
+
+        assertThatThrownBy(() -> JwtClaimsParser.payload("{\"exp\":\"soon\"}".getBytes(StandardCharsets.UTF_8)))
+                .hasMessageContaining("NumericDate");
+    }
+
+    private static String payload(long expiresIn) {
+        long now = System.currentTimeMillis() / 1000;
+        return "{\"iss\":\"https://id.example\",\"sub\":\"" + USER + "\",\"did\":\"" + DEVICE
+                + "\",\"iat\":" + now + ",\"exp\":" + (now + expiresIn) + "}";
+    }
+
+    private static String sign(String alg, String kid, String payload, String jcaName, PrivateKey key) {
+        try {
+            var input = b64("{\"alg\":\"" + alg + "\",\"kid\":\"" + kid + "\",\"typ\":\"JWT\"}") + "." + b64(payload);
+            var signer = Signature.getInstance(jcaName);
+            signer.initSign(key);
+            signer.update(input.getBytes(StandardCharsets.US_ASCII));
+            return input + "." + Base64.getUrlEncoder().withoutPadding().encodeToString(signer.sign());
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String hmac(String alg, String kid, String payload, byte[] secret) {
+        try {
+            var input = b64("{\"alg\":\"" + alg + "\",\"kid\":\"" + kid + "\"}") + "." + b64(payload);
+            var mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(secret, "HmacSHA256"));
+            return input + "." + Base64.getUrlEncoder().withoutPadding()
+                    .encodeToString(mac.doFinal(input.getBytes(StandardCharsets.US_ASCII)));
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String b64(String json) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String pem(KeyPair pair) {
+        return "-----BEGIN PUBLIC KEY-----\n"
+                + Base64.getMimeEncoder().encodeToString(pair.getPublic().getEncoded())
+                + "\n-----END PUBLIC KEY-----";
+    }
+
+    private static KeyPair generate(String type, int size) {
+        try {
+            var generator = KeyPairGenerator.getInstance(type);
+            generator.initialize(size);
+            return generator.generateKeyPair();
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
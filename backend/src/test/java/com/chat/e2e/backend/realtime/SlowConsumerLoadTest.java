@@ -0,0 +1,197 @@
+package com.chat.e2e.backend.realtime;
+
+import com.chat.e2e.backend.realtime.OutboundProperties.SlowConsumerPolicy;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.websocket.RemoteEndpoint;
+import jakarta.websocket.SendHandler;
+import jakarta.websocket.SendResult;
+import jakarta.websocket.Session;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.adapter.NativeWebSocketSession;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.*;
+import java.util.function.IntPredicate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.*;
+
+/**
+ * Last mit einem Leser, der nicht mehr liest (Sendepuffer des Sockets voll), neben einem schnellen Leser:
+ * Speicher pro Session bleibt begrenzt, der schnelle Leser bekommt alles, der langsame je nach Policy einen Teil
+ * oder wird getrennt. Ein einziger Writer-Thread: hielte der hängende Socket ihn fest, stünde der schnelle Leser.
+ * Transport ist ein begrenzter Fake-Socket statt Tomcat, damit nichts vom Timing der TCP-Puffer abhängt.
+ */
+class SlowConsumerLoadTest {
+
+    private static final int FRAMES = 2500;
+    private static final String PAD = "x".repeat(4000);
+    private static final long LIMIT = 64 * 1024;
+    private static final int SOCKET_BUFFER = 16 * 1024;   // 4 Frames, dann wartet der Schreibvorgang auf den Leser
+
+    private final MeterRegistry meters = new SimpleMeterRegistry();
+    private OutboundQueues queues;
+
+    @AfterEach
+    void stop() {
+        if (queues != null) queues.shutdown();
+    }
+
+    private void start(SlowConsumerPolicy policy) {
+        queues = new OutboundQueues(new OutboundProperties(DataSize.ofBytes(LIMIT), Duration.ofSeconds(30), policy, 1, 1),
+                meters);
+    }
+
+    // im Takt des schnellen Lesers, der langsame liest gar nicht
+    private void flood(WebSocketSession slow, WebSocketSession fast, BoundedSocket fastSocket) throws Exception {
+        for (int n = 0; n < FRAMES; n++) {
+            slow.sendMessage(OutboundQueuesTest.stomp("/topic/conversation.slow", null, n + "|" + PAD));
+            fast.sendMessage(OutboundQueuesTest.stomp("/topic/conversation.fast", null, n + "|" + PAD));
+            assertThat(meters.get("chat.ws.outbound.queue.bytes.max").gauge().value()).isLessThanOrEqualTo(LIMIT);
+            int sent = n + 1;
+            fastSocket.await(received -> received >= sent);
+        }
+    }
+
+    private double disconnects() {
+        return meters.get("chat.ws.outbound.disconnects").tag("reason", "buffer").counter().count();
+    }
+
+    @Test
+    void drop_boundsSlowReaderAndKeepsFastReaderFlowing() throws Exception {
+        start(SlowConsumerPolicy.DROP);
+        var slowSocket = new BoundedSocket(false);
+        var fastSocket = new BoundedSocket(true);
+        var slow = queues.wrap(slowSocket.session);
+
+        flood(slow, queues.wrap(fastSocket.session), fastSocket);
+
+        assertThat(fastSocket.received()).as("schneller Leser bekommt alles, in Reihenfolge").hasSize(FRAMES).isSorted();
+        assertThat(slowSocket.received()).isEmpty();
+        assertThat(meters.get("chat.ws.outbound.dropped").counter().count()).isPositive();
+        assertThat(disconnects()).isZero();
+
+        slowSocket.read();
+        slowSocket.await(received -> slowSocket.received().contains(FRAMES - 1));
+        assertThat(slowSocket.received()).as("Frames im Socket-Puffer und die neuesten kommen an, dazwischen verworfen")
+                .contains(0, FRAMES - 1).hasSizeLessThan(FRAMES).isSorted();
+        assertThat(slowSocket.closed).isFalse();
+    }
+
+    @Test
+    void disconnect_closesSlowReaderOnly() throws Exception {
+        start(SlowConsumerPolicy.DISCONNECT);
+        var slowSocket = new BoundedSocket(false);
+        var fastSocket = new BoundedSocket(true);
+
+        flood(queues.wrap(slowSocket.session), queues.wrap(fastSocket.session), fastSocket);
+
+        assertThat(fastSocket.received()).hasSize(FRAMES).isSorted();
+        assertThat(fastSocket.closed).isFalse();
+        assertThat(slowSocket.closed).isTrue();
+        assertThat(disconnects()).isEqualTo(1);
+
+        slowSocket.read();
+        assertThat(slowSocket.received()).as("nur was vor dem Trennen im Socket-Puffer lag").hasSizeLessThan(FRAMES);
+    }
+
+    /**
+     * Socket mit begrenztem Sendepuffer über RemoteEndpoint.Async: sendText kehrt sofort zurück, abgeschlossen
+     * wird, sobald der Frame in den Puffer passt. Ein lesender Socket leert den Puffer sofort, sonst erst ab read().
+     */
+    private static final class BoundedSocket {
+
+        final NativeWebSocketSession session = mock(NativeWebSocketSession.class);
+        volatile boolean closed;
+        private boolean reading;                                       // guarded by this
+        private int buffered;                                          // guarded by this
+        private final Deque<String> buffer = new ArrayDeque<>();       // guarded by this
+        private final Deque<Pending> pending = new ArrayDeque<>();     // guarded by this
+        private final List<Integer> received = new ArrayList<>();      // guarded by this
+
+        private record Pending(String frame, SendHandler handler) {}
+
+        BoundedSocket(boolean reading) throws IOException {
+            this.reading = reading;
+            var async = mock(RemoteEndpoint.Async.class);
+            doAnswer(inv -> {
+                send(inv.getArgument(0), inv.getArgument(1));
+                return null;
+            }).when(async).sendText(anyString(), any(SendHandler.class));
+            var endpoint = mock(Session.class);
+            when(endpoint.getAsyncRemote()).thenReturn(async);
+            when(session.getId()).thenReturn(UUID.randomUUID().toString());
+            when(session.getNativeSession()).thenReturn(endpoint);
+            doAnswer(inv -> {
+                close();
+                return null;
+            }).when(session).close(any());
+        }
+
+        synchronized List<Integer> received() {
+            return List.copyOf(received);
+        }
+
+        void read() {
+            synchronized (this) {
+                reading = true;
+            }
+            pump();
+        }
+
+        synchronized void await(IntPredicate condition) throws InterruptedException {
+            long deadline = System.nanoTime() + Duration.ofSeconds(10).toNanos();
+            while (!condition.test(received.size())) {
+                long left = deadline - System.nanoTime();
+                if (left <= 0) throw new AssertionError("nur " + received.size() + " Frames gelesen");
+                wait(left / 1_000_000 + 1);
+            }
+        }
+
+        private void send(String frame, SendHandler handler) {
+            synchronized (this) {
+                pending.add(new Pending(frame, handler));
+            }
+            pump();
+        }
+
+        // Puffer lesen, wartende Frames nachschieben; Abschlüsse außerhalb der Sperre wie im Container
+        private void pump() {
+            List<SendHandler> done = new ArrayList<>();
+            synchronized (this) {
+                do {
+                    while (!closed && !pending.isEmpty()
+                            && buffered + pending.peek().frame().length() <= SOCKET_BUFFER) {
+                        var p = pending.poll();
+                        buffer.add(p.frame());
+                        buffered += p.frame().length();
+                        done.add(p.handler());
+                    }
+                    if (!reading) break;
+                    for (String frame; (frame = buffer.poll()) != null; ) {
+                        var body = OutboundQueuesTest.body(frame);
+                        received.add(Integer.parseInt(body.substring(0, body.indexOf('|'))));
+                    }
+                    buffered = 0;
+                } while (!closed && !pending.isEmpty());
+                notifyAll();
+            }
+            done.forEach(h -> h.onResult(new SendResult()));
+        }
+
+        private void close() {
+            List<Pending> failed;
+            synchronized (this) {
+                closed = true;
+                failed = List.copyOf(pending);
+                pending.clear();
+            }
+            failed.forEach(p -> p.handler().onResult(new SendResult(new IOException("closed"))));
+        }
+    }
+}
@@ -3,6 +3,7 @@ package com.chat.e2e.backend.user;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.ArgumentCaptor;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 
 import java.util.Optional;
@@ -14,13 +15,15 @@ class AppUserServiceTest {
 
     private AppUserRepository repo;
     private BCryptPasswordEncoder encoder;
+    private ApplicationEventPublisher events;
     private AppUserService service;
 
     @BeforeEach
     void setup() {
         repo = mock(AppUserRepository.class);
         encoder = new BCryptPasswordEncoder();
-        service = new AppUserService(repo, encoder);
+        events = mock(ApplicationEventPublisher.class);
+        service = new AppUserService(repo, encoder, events);
 
         when(repo.save(any(AppUser.class))).thenAnswer(inv -> inv.getArgument(0));
     }
@@ -43,6 +46,7 @@ class AppUserServiceTest {
         assertThat(user.getPasswordHash()).isNotEqualTo("secret123");
         assertThat(encoder.matches("secret123", user.getPasswordHash())).isTrue();
         assertThat(savedUser.getId()).isNull(); // id wird von DB gesetzt
+        verify(events).publishEvent(new UserRegisteredEvent(null, "alice"));
     }
 
     @Test
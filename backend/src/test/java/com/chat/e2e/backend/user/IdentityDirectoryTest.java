@@ -0,0 +1,97 @@
+package com.chat.e2e.backend.user;
+
+import com.chat.e2e.backend.cluster.LocalClusterBus;
+import com.chat.e2e.backend.device.DeviceRevokedEvent;
+import com.chat.e2e.backend.device.UserDevice;
+import com.chat.e2e.backend.device.UserDeviceRepository;
+import com.chat.e2e.backend.device.UserDevicesChangedEvent;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.*;
+
+class IdentityDirectoryTest {
+
+    private AppUserRepository userRepo;
+    private UserDeviceRepository deviceRepo;
+    private SimpleMeterRegistry meters;
+    private LocalClusterBus busA;
+    private LocalClusterBus busB;
+    private IdentityDirectory nodeA;
+    private IdentityDirectory nodeB;
+
+    private final AppUser alice = AppUser.builder().id(UUID.randomUUID()).handle("alice").displayName("Alice").build();
+    private final UserDevice a1 = UserDevice.builder().id(UUID.randomUUID()).user(alice).platform("ios").build();
+
+    @BeforeEach
+    void setup() {
+        userRepo = mock(AppUserRepository.class);
+        deviceRepo = mock(UserDeviceRepository.class);
+        meters = new SimpleMeterRegistry();
+        busA = new LocalClusterBus();
+        busB = new LocalClusterBus();
+        // zwei Instanzen über einen gemeinsamen Bus
+        nodeA = new IdentityDirectory(userRepo, deviceRepo, new IdentityProperties(100, Duration.ofMinutes(10)), busA, meters);
+        nodeB = new IdentityDirectory(userRepo, deviceRepo, new IdentityProperties(100, Duration.ofMinutes(10)), busB,
+                new SimpleMeterRegistry());
+
+        when(userRepo.findByHandle("alice")).thenReturn(Optional.of(alice));
+        when(deviceRepo.findById(a1.getId())).thenReturn(Optional.of(a1));
+    }
+
+    @AfterEach
+    void tearDown() {
+        busA.close();
+        busB.close();
+    }
+
+    @Test
+    void lookups_areCached_missesAreNot() {
+        var first = nodeA.userByHandle("alice").orElseThrow();
+        assertThat(nodeA.userByHandle("alice")).contains(first);
+        assertThat(first.id()).isEqualTo(alice.getId());
+        verify(userRepo, times(1)).findByHandle("alice");
+
+        assertThat(nodeA.userByHandle("nobody")).isEmpty();
+        assertThat(nodeA.userByHandle("nobody")).isEmpty();
+        verify(userRepo, times(2)).findByHandle("nobody");
+
+        assertThat(nodeA.device(a1.getId())).get().extracting(IdentityDirectory.DeviceRef::userId).isEqualTo(alice.getId());
+        assertThat(meters.get("cache.gets").tag("cache", "identity.user.handle").tag("result", "hit")
+                .functionCounter().count()).isEqualTo(1.0);
+    }
+
+    @Test
+    void revoke_invalidatesLocally_andOnOtherNodes() {
+        nodeA.device(a1.getId());
+        nodeB.device(a1.getId());
+        verify(deviceRepo, times(2)).findById(a1.getId());
+
+        nodeA.onDeviceRevoked(new DeviceRevokedEvent(a1.getId()));
+        nodeA.device(a1.getId());
+        nodeB.device(a1.getId());
+
+        verify(deviceRepo, times(4)).findById(a1.getId());
+    }
+
+    @Test
+    void enrollAndRegister_invalidateOnOtherNodes() {
+        nodeB.device(a1.getId());
+        nodeB.userByHandle("alice");
+
+        nodeA.onDevicesChanged(new UserDevicesChangedEvent(alice.getId()));
+        nodeA.onUserRegistered(new UserRegisteredEvent(alice.getId(), "alice"));
+        nodeB.device(a1.getId());
+        nodeB.userByHandle("alice");
+
+        verify(deviceRepo, times(2)).findById(a1.getId());
+        verify(userRepo, times(2)).findByHandle("alice");
+    }
+}